@@ -19,11 +19,13 @@ import java.util.List;
 import java.util.Map;
 
 /**
- * Interface representing a destination to record metrics to.
+ * Interface representing a destination to record metrics to. Sinks which
+ * buffer samples or hold resources release them when closed; the default
+ * implementation of <code>close()</code> does nothing.
  *
  * @author Ville Koskela (vkoskela at groupon dot com)
  */
-public interface Sink {
+public interface Sink extends AutoCloseable {
 
     /**
      * Invoked by <code>Metrics</code> to record data to this <code>Sink</code>.
@@ -38,4 +40,14 @@ public interface Sink {
             Map<String, List<Quantity>> timerSamples,
             Map<String, List<Quantity>> counterSamples,
             Map<String, List<Quantity>> gaugeSamples);
+
+    /**
+     * Write any buffered data and release the resources held by this
+     * <code>Sink</code>. Data recorded after the <code>Sink</code> is closed
+     * may be discarded.
+     */
+    @Override
+    default void close() {
+        // Nothing to release by default
+    }
 }
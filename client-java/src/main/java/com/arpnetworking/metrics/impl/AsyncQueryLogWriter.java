@@ -0,0 +1,303 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands query log lines from recording threads to a dedicated writer thread
+ * through a <code>BoundedRingBuffer</code>. The writer thread drains the
+ * buffer in batches into a <code>RollingQueryLogWriter</code> and flushes
+ * once per batch, so recording threads never wait on the disk unless the
+ * overflow policy is <code>BLOCK</code>.
+ *
+ * When the buffer is full the line is handled according to the overflow
+ * policy. The number of lines enqueued and dropped and the latency of each
+ * batch write are tracked; dropped lines are reported through the logger at
+ * most once per reporting interval.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+/* package private */ final class AsyncQueryLogWriter implements Closeable {
+
+    /**
+     * Copy a line and hand it off to the writer thread.
+     *
+     * @param data The buffer containing the line.
+     * @param offset The offset of the line in the buffer.
+     * @param length The length of the line.
+     * @throws IOException If the writer is closed.
+     */
+    public void write(final byte[] data, final int offset, final int length) throws IOException {
+        if (!_isRunning) {
+            throw new IOException("Writer is closed");
+        }
+        final byte[] line = Arrays.copyOfRange(data, offset, offset + length);
+        switch (_overflowPolicy) {
+            case BLOCK:
+                while (!_buffer.offer(line)) {
+                    if (!_isRunning) {
+                        throw new IOException("Writer is closed");
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                }
+                break;
+            case DROP_OLDEST:
+                while (!_buffer.offer(line)) {
+                    if (_buffer.poll() != null) {
+                        _dropped.increment();
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+            default:
+                if (!_buffer.offer(line)) {
+                    _dropped.increment();
+                    return;
+                }
+                break;
+        }
+        _enqueued.increment();
+        if (_isIdle) {
+            LockSupport.unpark(_thread);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Waits for the writer thread to drain the buffer before closing the
+     * underlying writer.
+     */
+    @Override
+    public void close() throws IOException {
+        _isRunning = false;
+        LockSupport.unpark(_thread);
+        try {
+            _thread.join(TimeUnit.SECONDS.toMillis(WRITER_TERMINATION_TIMEOUT_IN_SECONDS));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        _writer.close();
+    }
+
+    /**
+     * Number of lines handed off to the writer thread.
+     *
+     * @return Number of lines handed off to the writer thread.
+     */
+    public long getEnqueuedCount() {
+        return _enqueued.sum();
+    }
+
+    /**
+     * Number of lines dropped because the buffer was full.
+     *
+     * @return Number of lines dropped because the buffer was full.
+     */
+    public long getDroppedCount() {
+        return _dropped.sum();
+    }
+
+    /**
+     * Number of lines written by the writer thread.
+     *
+     * @return Number of lines written by the writer thread.
+     */
+    public long getWrittenCount() {
+        return _written.get();
+    }
+
+    /**
+     * Number of batches written by the writer thread.
+     *
+     * @return Number of batches written by the writer thread.
+     */
+    public long getBatchCount() {
+        return _batches.get();
+    }
+
+    /**
+     * Time taken to write and flush the most recent batch in nanoseconds.
+     *
+     * @return Time taken to write and flush the most recent batch in nanoseconds.
+     */
+    public long getLastFlushLatencyNanos() {
+        return _lastFlushLatencyNanos;
+    }
+
+    /**
+     * Maximum time taken to write and flush a batch in nanoseconds.
+     *
+     * @return Maximum time taken to write and flush a batch in nanoseconds.
+     */
+    public long getMaxFlushLatencyNanos() {
+        return _maxFlushLatencyNanos;
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ File getFile() {
+        return _writer.getFile();
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ BoundedRingBuffer<byte[]> getBuffer() {
+        return _buffer;
+    }
+
+    private void run() {
+        while (true) {
+            final boolean isRunning = _isRunning;
+            final int written = writeBatch();
+            if (written == 0) {
+                if (!isRunning) {
+                    // The buffer was drained after the writer was closed
+                    break;
+                }
+                report(false);
+                // Producers wake the writer thread once it is idle; the
+                // buffer is checked again after publishing the idle state so
+                // a line offered concurrently is not missed
+                _isIdle = true;
+                if (_isRunning && _buffer.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                _isIdle = false;
+            }
+        }
+        report(true);
+    }
+
+    private int writeBatch() {
+        final long start = System.nanoTime();
+        int written = 0;
+        try {
+            byte[] line = _buffer.poll();
+            while (line != null) {
+                _writer.write(line, 0, line.length);
+                ++written;
+                line = written < _batchSize ? _buffer.poll() : null;
+            }
+            if (written > 0 && _immediateFlush) {
+                _writer.flush();
+            }
+        } catch (final IOException e) {
+            _logger.warn("Exception writing metrics", e);
+        }
+        if (written > 0) {
+            final long latency = System.nanoTime() - start;
+            _written.addAndGet(written);
+            _batches.incrementAndGet();
+            _lastFlushLatencyNanos = latency;
+            _maxFlushLatencyNanos = Math.max(_maxFlushLatencyNanos, latency);
+        }
+        return written;
+    }
+
+    private void report(final boolean force) {
+        final long now = System.nanoTime();
+        if (!force && now - _lastReportNanos < REPORT_INTERVAL_NANOS) {
+            return;
+        }
+        _lastReportNanos = now;
+        final long dropped = _dropped.sum();
+        if (dropped != _lastReportedDropped) {
+            _logger.warn(String.format(
+                    "Query log entries dropped; dropped=%d, enqueued=%d, written=%d, maxFlushLatencyMillis=%d",
+                    dropped - _lastReportedDropped,
+                    _enqueued.sum(),
+                    _written.get(),
+                    TimeUnit.NANOSECONDS.toMillis(_maxFlushLatencyNanos)));
+            _lastReportedDropped = dropped;
+        }
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param writer The <code>RollingQueryLogWriter</code> to write to.
+     * @param capacity The capacity of the buffer.
+     * @param overflowPolicy The policy when the buffer is full.
+     * @param immediateFlush Whether to flush after every batch.
+     */
+    /* package private */ AsyncQueryLogWriter(
+            final RollingQueryLogWriter writer,
+            final int capacity,
+            final TsdQueryLogSink.OverflowPolicy overflowPolicy,
+            final boolean immediateFlush) {
+        this(writer, capacity, overflowPolicy, immediateFlush, LOGGER);
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ AsyncQueryLogWriter(
+            final RollingQueryLogWriter writer,
+            final int capacity,
+            final TsdQueryLogSink.OverflowPolicy overflowPolicy,
+            final boolean immediateFlush,
+            final Logger logger) {
+        _writer = writer;
+        _buffer = new BoundedRingBuffer<>(capacity);
+        _batchSize = Math.min(_buffer.getCapacity(), MAXIMUM_BATCH_SIZE);
+        _overflowPolicy = overflowPolicy;
+        _immediateFlush = immediateFlush;
+        _logger = logger;
+        _lastReportNanos = System.nanoTime();
+        _thread = new Thread(this::run, "query-log-writer");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    private final RollingQueryLogWriter _writer;
+    private final BoundedRingBuffer<byte[]> _buffer;
+    private final int _batchSize;
+    private final TsdQueryLogSink.OverflowPolicy _overflowPolicy;
+    private final boolean _immediateFlush;
+    private final Logger _logger;
+    private final Thread _thread;
+    private final LongAdder _enqueued = new LongAdder();
+    private final LongAdder _dropped = new LongAdder();
+
+    private final AtomicLong _written = new AtomicLong(0);
+    private final AtomicLong _batches = new AtomicLong(0);
+
+    private volatile boolean _isRunning = true;
+    private volatile boolean _isIdle = false;
+    // NOTE: These are only written by the writer thread
+    private volatile long _lastFlushLatencyNanos = 0;
+    private volatile long _maxFlushLatencyNanos = 0;
+    private long _lastReportNanos;
+    private long _lastReportedDropped = 0;
+
+    private static final int MAXIMUM_BATCH_SIZE = 256;
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    // NOTE: The idle writer thread wakes up once per interval to report drops
+    private static final long IDLE_PARK_NANOS = REPORT_INTERVAL_NANOS;
+    private static final long WRITER_TERMINATION_TIMEOUT_IN_SECONDS = 30;
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncQueryLogWriter.class);
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue backed by a ring of slots. Each slot carries a
+ * sequence number which tells producers and consumers whether the slot is
+ * free to write or ready to read for their current lap around the ring; the
+ * head and tail counters are only ever advanced by compare and set.
+ *
+ * The queue is intended for many producers and a single consumer; however,
+ * <code>poll</code> is also safe to call from producers (e.g. to discard the
+ * oldest element when the queue is full).
+ *
+ * The capacity is rounded up to the next power of two and is at least two.
+ *
+ * This class is thread safe.
+ *
+ * @param <T> The type of element.
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+/* package private */ final class BoundedRingBuffer<T> {
+
+    /**
+     * Add an element to the tail of the queue if there is space.
+     *
+     * @param element The element to add.
+     * @return True if and only if the element was added.
+     */
+    public boolean offer(final T element) {
+        if (element == null) {
+            throw new NullPointerException("Element cannot be null");
+        }
+        long position = _tail.get();
+        while (true) {
+            final int index = (int) (position & _mask);
+            final long difference = _sequences.get(index) - position;
+            if (difference == 0) {
+                if (_tail.compareAndSet(position, position + 1)) {
+                    _elements.lazySet(index, element);
+                    // Publishes the element to consumers
+                    _sequences.set(index, position + 1);
+                    return true;
+                }
+                position = _tail.get();
+            } else if (difference < 0) {
+                // The slot has not been consumed since the last lap
+                return false;
+            } else {
+                position = _tail.get();
+            }
+        }
+    }
+
+    /**
+     * Remove the element at the head of the queue.
+     *
+     * @return The element at the head of the queue or <code>null</code> if
+     * the queue is empty.
+     */
+    public T poll() {
+        long position = _head.get();
+        while (true) {
+            final int index = (int) (position & _mask);
+            final long difference = _sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (_head.compareAndSet(position, position + 1)) {
+                    final T element = _elements.get(index);
+                    _elements.lazySet(index, null);
+                    // Releases the slot to producers on the next lap
+                    _sequences.set(index, position + _mask + 1);
+                    return element;
+                }
+                position = _head.get();
+            } else if (difference < 0) {
+                // The slot has not been published since the last lap
+                return null;
+            } else {
+                position = _head.get();
+            }
+        }
+    }
+
+    /**
+     * Approximate number of elements in the queue. The value is exact only
+     * when there are no concurrent producers or consumers.
+     *
+     * @return Approximate number of elements in the queue.
+     */
+    public int size() {
+        final long size = _tail.get() - _head.get();
+        return (int) Math.max(0, Math.min(size, getCapacity()));
+    }
+
+    /**
+     * Whether the queue is empty. The value is exact only when there are no
+     * concurrent producers or consumers.
+     *
+     * @return True if and only if the queue is empty.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * The number of elements the queue can hold.
+     *
+     * @return The number of elements the queue can hold.
+     */
+    public int getCapacity() {
+        return (int) (_mask + 1);
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param capacity The minimum number of elements the queue can hold.
+     */
+    /* package private */ BoundedRingBuffer(final int capacity) {
+        if (capacity < 1 || capacity > MAXIMUM_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be between 1 and " + MAXIMUM_CAPACITY);
+        }
+        final int size = capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        _mask = size - 1;
+        _elements = new AtomicReferenceArray<>(size);
+        _sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            _sequences.set(i, i);
+        }
+    }
+
+    private final long _mask;
+    private final AtomicReferenceArray<T> _elements;
+    private final AtomicLongArray _sequences;
+    private final AtomicLong _head = new AtomicLong(0);
+    private final AtomicLong _tail = new AtomicLong(0);
+
+    private static final int MAXIMUM_CAPACITY = 1 << 30;
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends query log lines to a file which is rolled over hourly. The rolled
+ * over file is compressed in the background to a file named with the hour it
+ * covers in the same format as the logback <code>TimeBasedRollingPolicy</code>
+ * used by <code>TsdQueryLogSink</code>:
+ *
+ * [name].YYYY-MM-DD-HH[extension].gz
+ *
+ * Only the most recent <code>maxHistory</code> compressed files are retained.
+ * A <code>maxHistory</code> of zero retains all files.
+ *
+ * An existing file is appended to unless appending is disabled, in which case
+ * a non-empty existing file is rolled over before the first write. Formats
+ * whose records may be left incomplete by a crash disable appending so that
+ * a new writer never continues a partial record.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+/* package private */ final class RollingQueryLogWriter implements Closeable {
+
+    /**
+     * Append data to the file rolling it over first if the hour has elapsed.
+     *
+     * @param data The buffer containing the data.
+     * @param offset The offset of the data in the buffer.
+     * @param length The length of the data.
+     * @throws IOException If writing to the file fails.
+     */
+    public synchronized void write(final byte[] data, final int offset, final int length) throws IOException {
+        write((outputStream, isNewFile) -> outputStream.write(data, offset, length));
+    }
+
+    /**
+     * Append the data written by the <code>Encoder</code> to the file rolling
+     * it over first if the hour has elapsed. The encoder is invoked while
+     * holding the lock of this writer, so it may depend on whether the data
+     * is the first written to the file since it was opened.
+     *
+     * @param encoder The <code>Encoder</code> writing the data.
+     * @throws IOException If writing to the file fails.
+     */
+    public synchronized void write(final Encoder encoder) throws IOException {
+        if (_isClosed) {
+            throw new IOException("Writer is closed");
+        }
+        final Instant now = _clock.instant();
+        if (!now.isBefore(_nextRollover)) {
+            rollover(now);
+        }
+        final boolean isNewFile = _outputStream == null;
+        if (isNewFile) {
+            _outputStream = open();
+        }
+        encoder.encode(_outputStream, isNewFile);
+        if (_immediateFlush) {
+            _outputStream.flush();
+        }
+    }
+
+    /**
+     * Flush any buffered data to the file.
+     *
+     * @throws IOException If writing to the file fails.
+     */
+    public synchronized void flush() throws IOException {
+        if (_outputStream != null) {
+            _outputStream.flush();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Waits for any pending compression to complete.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            _isClosed = true;
+            if (_outputStream != null) {
+                _outputStream.close();
+                _outputStream = null;
+            }
+        }
+        _archiver.shutdown();
+        try {
+            _archiver.awaitTermination(ARCHIVER_TERMINATION_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ File getFile() {
+        return _file;
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ File getArchiveFile(final Instant periodStart) {
+        return new File(_fileNameWithoutExtension + "." + formatPeriod(periodStart) + _extension + GZIP_EXTENSION);
+    }
+
+    private void rollover(final Instant now) throws IOException {
+        if (_outputStream != null) {
+            _outputStream.close();
+            _outputStream = null;
+        }
+        final Instant periodStart = _periodStart;
+        _periodStart = truncateToPeriod(now);
+        _nextRollover = nextPeriod(_periodStart);
+
+        if (_file.exists()) {
+            // Move the file aside so writing can resume immediately
+            final File temporaryFile = new File(_file.getPath() + "." + System.nanoTime() + ".tmp");
+            Files.move(_file.toPath(), temporaryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            _archiver.execute(() -> archive(temporaryFile, getArchiveFile(periodStart)));
+        }
+        if (_maxHistory > 0) {
+            final Instant currentPeriodStart = _periodStart;
+            _archiver.execute(() -> removeExpiredArchives(currentPeriodStart));
+        }
+    }
+
+    private OutputStream open() throws IOException {
+        final File parent = _file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Unable to create directory: " + parent);
+        }
+        return new BufferedOutputStream(new FileOutputStream(_file, true), BUFFER_SIZE);
+    }
+
+    private void archive(final File source, final File destination) {
+        try {
+            try (final InputStream inputStream = Files.newInputStream(source.toPath());
+                 final OutputStream outputStream = new GZIPOutputStream(new FileOutputStream(destination, true))) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int length = inputStream.read(buffer);
+                while (length >= 0) {
+                    outputStream.write(buffer, 0, length);
+                    length = inputStream.read(buffer);
+                }
+            }
+            Files.delete(source.toPath());
+        } catch (final IOException e) {
+            _logger.warn(String.format("Unable to compress query log; source=%s, destination=%s", source, destination), e);
+        }
+    }
+
+    private void removeExpiredArchives(final Instant periodStart) {
+        final Instant oldest = periodStart.minus(_maxHistory, ChronoUnit.HOURS);
+        final File directory = _file.getAbsoluteFile().getParentFile();
+        final String prefix = new File(_fileNameWithoutExtension).getName() + ".";
+        final String suffix = _extension + GZIP_EXTENSION;
+        final File[] files = directory == null ? null : directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            final String name = file.getName();
+            if (name.length() <= prefix.length() + suffix.length() || !name.startsWith(prefix) || !name.endsWith(suffix)) {
+                continue;
+            }
+            try {
+                final Instant archivePeriod = ZonedDateTime.parse(
+                        name.substring(prefix.length(), name.length() - suffix.length()),
+                        PERIOD_FORMATTER.withZone(_clock.getZone())).toInstant();
+                if (archivePeriod.isBefore(oldest) && !file.delete()) {
+                    _logger.warn(String.format("Unable to remove expired query log; file=%s", file));
+                }
+            } catch (final DateTimeParseException e) {
+                // Not an archive of this query log
+                continue;
+            }
+        }
+    }
+
+    private Instant truncateToPeriod(final Instant instant) {
+        return ZonedDateTime.ofInstant(instant, _clock.getZone()).truncatedTo(ChronoUnit.HOURS).toInstant();
+    }
+
+    private Instant nextPeriod(final Instant periodStart) {
+        return ZonedDateTime.ofInstant(periodStart, _clock.getZone()).plusHours(1).toInstant();
+    }
+
+    private String formatPeriod(final Instant periodStart) {
+        return PERIOD_FORMATTER.withZone(_clock.getZone()).format(periodStart);
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param fileNameWithoutExtension The path and name of the file without extension.
+     * @param extension The file extension.
+     * @param maxHistory The number of compressed files to retain.
+     * @param immediateFlush Whether to flush after every write.
+     */
+    /* package private */ RollingQueryLogWriter(
+            final String fileNameWithoutExtension,
+            final String extension,
+            final int maxHistory,
+            final boolean immediateFlush) {
+        this(fileNameWithoutExtension, extension, maxHistory, immediateFlush, true);
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param fileNameWithoutExtension The path and name of the file without extension.
+     * @param extension The file extension.
+     * @param maxHistory The number of compressed files to retain.
+     * @param immediateFlush Whether to flush after every write.
+     * @param appendExisting Whether to append to an existing file.
+     */
+    /* package private */ RollingQueryLogWriter(
+            final String fileNameWithoutExtension,
+            final String extension,
+            final int maxHistory,
+            final boolean immediateFlush,
+            final boolean appendExisting) {
+        this(
+                fileNameWithoutExtension,
+                extension,
+                maxHistory,
+                immediateFlush,
+                appendExisting,
+                Clock.systemDefaultZone(),
+                LOGGER);
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ RollingQueryLogWriter(
+            final String fileNameWithoutExtension,
+            final String extension,
+            final int maxHistory,
+            final boolean immediateFlush,
+            final Clock clock,
+            final Logger logger) {
+        this(fileNameWithoutExtension, extension, maxHistory, immediateFlush, true, clock, logger);
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ RollingQueryLogWriter(
+            final String fileNameWithoutExtension,
+            final String extension,
+            final int maxHistory,
+            final boolean immediateFlush,
+            final boolean appendExisting,
+            final Clock clock,
+            final Logger logger) {
+        _fileNameWithoutExtension = fileNameWithoutExtension;
+        _extension = extension;
+        _file = new File(fileNameWithoutExtension + extension);
+        _maxHistory = maxHistory;
+        _immediateFlush = immediateFlush;
+        _clock = clock;
+        _logger = logger;
+        _archiver = Executors.newSingleThreadExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "query-log-archiver");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // An existing file is rolled over into the hour it was last written
+        final Instant lastModified = _file.exists() ? Instant.ofEpochMilli(_file.lastModified()) : _clock.instant();
+        _periodStart = truncateToPeriod(lastModified);
+        if (!appendExisting && _file.length() > 0) {
+            // Roll the existing file over on the first write instead of appending to it
+            _nextRollover = Instant.MIN;
+        } else {
+            _nextRollover = nextPeriod(_periodStart);
+        }
+        if (_maxHistory > 0) {
+            final Instant currentPeriodStart = truncateToPeriod(_clock.instant());
+            _archiver.execute(() -> removeExpiredArchives(currentPeriodStart));
+        }
+    }
+
+    private final String _fileNameWithoutExtension;
+    private final String _extension;
+    private final File _file;
+    private final int _maxHistory;
+    private final boolean _immediateFlush;
+    private final Clock _clock;
+    private final Logger _logger;
+    private final ExecutorService _archiver;
+
+    private OutputStream _outputStream;
+    private Instant _periodStart;
+    private Instant _nextRollover;
+    private boolean _isClosed = false;
+
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final DateTimeFormatter PERIOD_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd-HH");
+    private static final int BUFFER_SIZE = 8192;
+    private static final long ARCHIVER_TERMINATION_TIMEOUT_IN_SECONDS = 30;
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollingQueryLogWriter.class);
+
+    /**
+     * Writes data to the file on behalf of <code>write(Encoder)</code>.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    /* package private */ interface Encoder {
+
+        /**
+         * Write the data to the stream.
+         *
+         * @param outputStream The stream to write to.
+         * @param isNewFile Whether the file was opened for this write.
+         * @throws IOException If writing to the stream fails.
+         */
+        void encode(OutputStream outputStream, boolean isNewFile) throws IOException;
+    }
+}
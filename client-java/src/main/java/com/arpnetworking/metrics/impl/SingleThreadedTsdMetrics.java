@@ -0,0 +1,667 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import com.arpnetworking.metrics.Counter;
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.Quantity;
+import com.arpnetworking.metrics.Sink;
+import com.arpnetworking.metrics.Timer;
+import com.arpnetworking.metrics.Unit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Implementation of <code>Metrics</code> for use by a single thread. It has
+ * the same semantics as <code>TsdMetrics</code> but avoids most of its per
+ * sample allocation:
+ *
+ * <ul>
+ *     <li>The samples of each metric are stored in primitive arrays and only
+ *     boxed if and when a <code>Sink</code> reads them.</li>
+ *     <li>Metrics are stored in open addressed tables keyed by name. Names are
+ *     compared by identity before equality so the common case of constant
+ *     (and therefore interned) names is matched without comparing
+ *     characters.</li>
+ *     <li>Timers started and stopped by name are tracked in the sample arrays
+ *     instead of as objects.</li>
+ *     <li>The maps passed to each <code>Sink</code> are read-only views of the
+ *     tables rather than copies.</li>
+ * </ul>
+ *
+ * Since the views are shared by all sinks and remain valid after
+ * <code>close</code>, <code>Counter</code> and <code>Timer</code> instances
+ * returned by this class cannot modify samples once the instance is closed;
+ * unlike <code>TsdCounter</code> the counter value is left unchanged.
+ *
+ * As with <code>TsdMetrics</code> improper use results in a warning being
+ * logged instead of an exception. Instances are created by
+ * <code>TsdMetricsFactory</code> when it is configured to be single threaded.
+ *
+ * This class is <b>NOT</b> thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+/* package private */ final class SingleThreadedTsdMetrics implements Metrics {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Counter createCounter(final String name) {
+        if (!assertIsOpen()) {
+            // To prevent the calling code from throwing a NPE we just return a
+            // counter object; note that the call to assertIsOpen has already
+            // logged a warning about incorrect use of the class.
+            return TsdCounter.newInstance(name, new AtomicBoolean(false));
+        }
+        final Samples samples = _counterSamples.getOrCreate(name);
+        return new SampleCounter(this, samples, samples.add(TYPE_LONG, 0L, null));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void incrementCounter(final String name) {
+        incrementCounter(name, 1L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void incrementCounter(final String name, final long value) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        final Samples samples = _counterSamples.getOrCreate(name);
+        if (samples._current < 0) {
+            samples._current = samples.add(TYPE_LONG, 0L, null);
+        }
+        samples._values[samples._current] += value;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void decrementCounter(final String name) {
+        incrementCounter(name, -1L);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void decrementCounter(final String name, final long value) {
+        incrementCounter(name, -1L * value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void resetCounter(final String name) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        final Samples samples = _counterSamples.getOrCreate(name);
+        samples._current = samples.add(TYPE_LONG, 0L, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Timer createTimer(final String name) {
+        if (!assertIsOpen()) {
+            // To prevent the calling code from throwing a NPE we just return a
+            // timer object; note that the call to assertIsOpen has already
+            // logged a warning about incorrect use of the class.
+            return TsdTimer.newInstance(name, new AtomicBoolean(false));
+        }
+        final Samples samples = _timerSamples.getOrCreate(name);
+        return new SampleTimer(this, samples, samples.add(TYPE_RUNNING_TIMER, System.nanoTime(), Unit.NANOSECOND));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void startTimer(final String name) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        final Samples samples = _timerSamples.getOrCreate(name);
+        if (samples._current >= 0) {
+            // This is in place of an exception; see class Javadoc
+            _logger.warn(String.format("Cannot start timer because timer already started; timerName=%s", name));
+            return;
+        }
+        samples._current = samples.add(TYPE_RUNNING_TIMER, System.nanoTime(), Unit.NANOSECOND);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void stopTimer(final String name) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        final Samples samples = _timerSamples.get(name);
+        if (samples == null || samples._current < 0) {
+            // This is in place of an exception; see class Javadoc
+            _logger.warn(String.format("Cannot stop timer because timer was not started; timerName=%s", name));
+            return;
+        }
+        samples.stopTimer(samples._current, System.nanoTime());
+        samples._current = -1;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimer(final String name, final long duration, final TimeUnit unit) {
+        setTimer(name, duration, Unit.fromTimeUnit(unit));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setTimer(final String name, final long duration, final Unit unit) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        _timerSamples.getOrCreate(name).add(TYPE_LONG, duration, unit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setGauge(final String name, final double value) {
+        setGauge(name, value, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setGauge(final String name, final double value, final Unit unit) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        _gaugeSamples.getOrCreate(name).add(TYPE_DOUBLE, Double.doubleToRawLongBits(value), unit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setGauge(final String name, final long value) {
+        setGauge(name, value, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setGauge(final String name, final long value, final Unit unit) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        _gaugeSamples.getOrCreate(name).add(TYPE_LONG, value, unit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void annotate(final String key, final String value) {
+        if (!assertIsOpen()) {
+            return;
+        }
+        _annotations.put(key, value);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isOpen() {
+        return _isOpen;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        if (!assertIsOpen()) {
+            return;
+        }
+        _isOpen = false;
+        _finalTimestamp = _clock.instant();
+        _annotations.put(TsdMetrics.INITIAL_TIMESTAMP_KEY, TsdMetrics.DATE_TIME_FORMATTER.format(_initialTimestamp));
+        _annotations.put(TsdMetrics.FINAL_TIMESTAMP_KEY, TsdMetrics.DATE_TIME_FORMATTER.format(_finalTimestamp));
+
+        // Timers which were never stopped are not recorded
+        for (int i = 0; i < _timerSamples._size; ++i) {
+            _timerSamples._ordered[i].removeRunningTimers();
+        }
+
+        final Map<String, String> annotations = Collections.unmodifiableMap(_annotations);
+        for (final Sink sink : _sinks) {
+            sink.record(
+                    annotations,
+                    _timerSamples,
+                    _counterSamples,
+                    _gaugeSamples);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Nullable
+    public Instant getOpenTime() {
+        return _initialTimestamp;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    @Nullable
+    public Instant getCloseTime() {
+        return _finalTimestamp;
+    }
+
+    private boolean assertIsOpen() {
+        if (!_isOpen) {
+            // This is in place of an exception; see class Javadoc
+            _logger.warn("Metrics object was closed during an operation; you may have a race condition");
+        }
+        return _isOpen;
+    }
+
+    /**
+     * Package private constructor. Instances of this class should be
+     * constructed with an appropriate implementation of
+     * <code>MetricsFactory</code>.
+     */
+    /* package private */ SingleThreadedTsdMetrics(final List<Sink> sinks) {
+        this(sinks, Clock.systemUTC(), LOGGER);
+    }
+
+    /**
+     * Package private constructor. This constructor is for testing only.
+     */
+    /* package private */ SingleThreadedTsdMetrics(final List<Sink> sinks, final Clock clock, final Logger logger) {
+        _sinks = sinks;
+        _logger = logger;
+        _clock = clock;
+        _initialTimestamp = _clock.instant();
+    }
+
+    private final List<Sink> _sinks;
+    private final Logger _logger;
+    private final Clock _clock;
+    private final Instant _initialTimestamp;
+    private Instant _finalTimestamp = null;
+    private boolean _isOpen = true;
+    private final SampleMap _counterSamples = new SampleMap(this);
+    private final SampleMap _timerSamples = new SampleMap(this);
+    private final SampleMap _gaugeSamples = new SampleMap(this);
+    // CHECKSTYLE.OFF: IllegalInstantiation - No Guava
+    private final Map<String, String> _annotations = new HashMap<>();
+    // CHECKSTYLE.ON: IllegalInstantiation
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SingleThreadedTsdMetrics.class);
+    private static final byte TYPE_LONG = 0;
+    private static final byte TYPE_DOUBLE = 1;
+    private static final byte TYPE_RUNNING_TIMER = 2;
+    private static final int INITIAL_SAMPLES_CAPACITY = 4;
+    private static final int INITIAL_TABLE_CAPACITY = 8;
+
+    /**
+     * Read-only map of metric name to <code>Samples</code>. Lookups are made
+     * in an open addressed table with linear probing while iteration follows
+     * the order in which metrics were first recorded.
+     */
+    private static final class SampleMap extends AbstractMap<String, List<Quantity>> {
+
+        @Override
+        public Samples get(final Object key) {
+            if (!(key instanceof String)) {
+                return null;
+            }
+            final String name = (String) key;
+            int index = hash(name) & _mask;
+            String candidate = _names[index];
+            while (candidate != null) {
+                if (candidate == name || candidate.equals(name)) {
+                    return _samples[index];
+                }
+                index = (index + 1) & _mask;
+                candidate = _names[index];
+            }
+            return null;
+        }
+
+        @Override
+        public boolean containsKey(final Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public int size() {
+            return _size;
+        }
+
+        @Override
+        public Set<Map.Entry<String, List<Quantity>>> entrySet() {
+            return _entrySet;
+        }
+
+        public Samples getOrCreate(final String name) {
+            int index = hash(name) & _mask;
+            String candidate = _names[index];
+            while (candidate != null) {
+                if (candidate == name || candidate.equals(name)) {
+                    return _samples[index];
+                }
+                index = (index + 1) & _mask;
+                candidate = _names[index];
+            }
+            final Samples samples = new Samples(_metrics, name);
+            _names[index] = name;
+            _samples[index] = samples;
+            if (_size == _ordered.length) {
+                _ordered = Arrays.copyOf(_ordered, _size * 2);
+            }
+            _ordered[_size++] = samples;
+            if (_size * 2 > _names.length) {
+                resize();
+            }
+            return samples;
+        }
+
+        private void resize() {
+            final int capacity = _names.length * 2;
+            _names = new String[capacity];
+            _samples = new Samples[capacity];
+            _mask = capacity - 1;
+            for (int i = 0; i < _size; ++i) {
+                final Samples samples = _ordered[i];
+                int index = hash(samples._name) & _mask;
+                while (_names[index] != null) {
+                    index = (index + 1) & _mask;
+                }
+                _names[index] = samples._name;
+                _samples[index] = samples;
+            }
+        }
+
+        private static int hash(final String name) {
+            final int hashCode = name.hashCode();
+            return hashCode ^ (hashCode >>> 16);
+        }
+
+        private SampleMap(final SingleThreadedTsdMetrics metrics) {
+            _metrics = metrics;
+        }
+
+        private final SingleThreadedTsdMetrics _metrics;
+        private final Set<Map.Entry<String, List<Quantity>>> _entrySet = new EntrySet();
+        private String[] _names = new String[INITIAL_TABLE_CAPACITY];
+        private Samples[] _samples = new Samples[INITIAL_TABLE_CAPACITY];
+        private Samples[] _ordered = new Samples[INITIAL_TABLE_CAPACITY];
+        private int _mask = INITIAL_TABLE_CAPACITY - 1;
+        private int _size = 0;
+
+        private final class EntrySet extends AbstractSet<Map.Entry<String, List<Quantity>>> {
+
+            @Override
+            public Iterator<Map.Entry<String, List<Quantity>>> iterator() {
+                return new Iterator<Map.Entry<String, List<Quantity>>>() {
+
+                    @Override
+                    public boolean hasNext() {
+                        return _index < _size;
+                    }
+
+                    @Override
+                    public Map.Entry<String, List<Quantity>> next() {
+                        if (_index >= _size) {
+                            throw new NoSuchElementException();
+                        }
+                        final Samples samples = _ordered[_index++];
+                        return new AbstractMap.SimpleImmutableEntry<String, List<Quantity>>(samples._name, samples);
+                    }
+
+                    private int _index = 0;
+                };
+            }
+
+            @Override
+            public int size() {
+                return _size;
+            }
+        }
+    }
+
+    /**
+     * Read-only list of the samples of one metric. Values are stored as raw
+     * <code>long</code> bits alongside their type and unit and are only boxed
+     * into a <code>Quantity</code> when read.
+     */
+    private static final class Samples extends AbstractList<Quantity> implements RandomAccess {
+
+        @Override
+        public Quantity get(final int index) {
+            if (index < 0 || index >= _size) {
+                throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, _size));
+            }
+            final Number value;
+            if (_types[index] == TYPE_DOUBLE) {
+                value = Double.valueOf(Double.longBitsToDouble(_values[index]));
+            } else {
+                value = Long.valueOf(_values[index]);
+            }
+            return TsdQuantity.newInstance(value, _units[index]);
+        }
+
+        @Override
+        public int size() {
+            return _size;
+        }
+
+        public int add(final byte type, final long value, @Nullable final Unit unit) {
+            if (_size == _values.length) {
+                final int capacity = _size * 2;
+                _types = Arrays.copyOf(_types, capacity);
+                _values = Arrays.copyOf(_values, capacity);
+                _units = Arrays.copyOf(_units, capacity);
+            }
+            _types[_size] = type;
+            _values[_size] = value;
+            _units[_size] = unit;
+            return _size++;
+        }
+
+        public void stopTimer(final int index, final long stopTime) {
+            _values[index] = stopTime - _values[index];
+            _types[index] = TYPE_LONG;
+        }
+
+        public void removeRunningTimers() {
+            int size = 0;
+            for (int i = 0; i < _size; ++i) {
+                if (_types[i] == TYPE_RUNNING_TIMER) {
+                    _metrics._logger.warn(String.format("Sample rejected; name=%s, reason=timer not stopped", _name));
+                    continue;
+                }
+                _types[size] = _types[i];
+                _values[size] = _values[i];
+                _units[size] = _units[i];
+                ++size;
+            }
+            Arrays.fill(_units, size, _size, null);
+            _size = size;
+            _current = -1;
+        }
+
+        private Samples(final SingleThreadedTsdMetrics metrics, final String name) {
+            _metrics = metrics;
+            _name = name;
+        }
+
+        private final SingleThreadedTsdMetrics _metrics;
+        private final String _name;
+        private byte[] _types = new byte[INITIAL_SAMPLES_CAPACITY];
+        private long[] _values = new long[INITIAL_SAMPLES_CAPACITY];
+        private Unit[] _units = new Unit[INITIAL_SAMPLES_CAPACITY];
+        private int _size = 0;
+        // The counter sample for incrementCounter or running timer for stopTimer
+        private int _current = -1;
+    }
+
+    /**
+     * Implementation of <code>Counter</code> which updates a sample in place.
+     */
+    private static final class SampleCounter implements Counter {
+
+        @Override
+        public void increment() {
+            increment(1L);
+        }
+
+        @Override
+        public void decrement() {
+            increment(-1L);
+        }
+
+        @Override
+        public void increment(final long value) {
+            if (!_metrics._isOpen) {
+                // This is in place of an exception; see class Javadoc
+                _metrics._logger.warn(String.format("Counter manipulated after metrics instance closed; counter=%s", this));
+                return;
+            }
+            _samples._values[_index] += value;
+        }
+
+        @Override
+        public void decrement(final long value) {
+            increment(-1L * value);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "SampleCounter{id=%s, Name=%s, Index=%d}",
+                    Integer.toHexString(System.identityHashCode(this)),
+                    _samples._name,
+                    _index);
+        }
+
+        private SampleCounter(final SingleThreadedTsdMetrics metrics, final Samples samples, final int index) {
+            _metrics = metrics;
+            _samples = samples;
+            _index = index;
+        }
+
+        private final SingleThreadedTsdMetrics _metrics;
+        private final Samples _samples;
+        private final int _index;
+    }
+
+    /**
+     * Implementation of <code>Timer</code> which records its elapsed time in
+     * place of its start time when stopped.
+     */
+    private static final class SampleTimer implements Timer {
+
+        @Override
+        public void stop() {
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (_isStopped) {
+                _metrics._logger.warn(String.format("Timer closed/stopped multiple times; timer=%s", this));
+            } else if (!_metrics._isOpen) {
+                _isStopped = true;
+                _metrics._logger.warn(String.format("Timer manipulated after metrics instance closed; timer=%s", this));
+            } else {
+                _isStopped = true;
+                _samples.stopTimer(_index, System.nanoTime());
+            }
+        }
+
+        @Override
+        public boolean isStopped() {
+            return _isStopped;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "SampleTimer{id=%s, Name=%s, Index=%d, IsStopped=%s}",
+                    Integer.toHexString(System.identityHashCode(this)),
+                    _samples._name,
+                    _index,
+                    _isStopped);
+        }
+
+        private SampleTimer(final SingleThreadedTsdMetrics metrics, final Samples samples, final int index) {
+            _metrics = metrics;
+            _samples = samples;
+            _index = index;
+        }
+
+        private final SingleThreadedTsdMetrics _metrics;
+        private final Samples _samples;
+        private final int _index;
+        private boolean _isStopped = false;
+    }
+}
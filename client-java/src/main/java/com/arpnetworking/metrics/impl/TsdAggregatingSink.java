@@ -0,0 +1,723 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import com.arpnetworking.logback.HostConverter;
+import com.arpnetworking.logback.ProcessConverter;
+import com.arpnetworking.metrics.Quantity;
+import com.arpnetworking.metrics.Sink;
+import com.arpnetworking.metrics.Unit;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Implementation of <code>Sink</code> which aggregates samples in process and
+ * writes one query log entry per period instead of one entry per
+ * <code>Metrics</code> instance. The query log is written to the same files
+ * with the same hourly compressed rotation as <code>TsdQueryLogSink</code>.
+ *
+ * Samples are recorded into a histogram per metric and unit. Each sample is
+ * rounded to the configured number of significant bits, so the relative
+ * error of any sample is at most 2^-(precision + 1); integers smaller than
+ * 2^(precision + 1) are recorded exactly. Records are grouped by period and
+ * by their annotations other than the timestamps, so the annotations should
+ * not include request specific values. Each group is written as a version 2f
+ * entry whose samples carry the number of times they were recorded and whose
+ * timestamps are those of the first and last record in the period.
+ *
+ * Completed periods are written by a background thread shortly after each
+ * period ends and any remaining samples are written when the sink is closed.
+ * The sink should be closed when the application shuts down; alternatively,
+ * it may be configured to close itself from a shutdown hook. Recording only
+ * updates the histograms and never waits on the disk. Concurrent records
+ * contend only when they record the same metric with the same annotations
+ * and the histograms store their counts in primitive arrays.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class TsdAggregatingSink implements Sink {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void record(
+            final Map<String, String> annotations,
+            final Map<String, List<Quantity>> timerSamples,
+            final Map<String, List<Quantity>> counterSamples,
+            final Map<String, List<Quantity>> gaugeSamples) {
+
+        final Map<String, String> dimensions = new LinkedHashMap<>(annotations);
+        dimensions.remove(TsdMetrics.INITIAL_TIMESTAMP_KEY);
+        dimensions.remove(TsdMetrics.FINAL_TIMESTAMP_KEY);
+
+        final long now = _clock.millis();
+        final long periodStart = now - Math.floorMod(now, _periodMillis);
+        final RollupKey key = new RollupKey(periodStart, dimensions);
+        // NOTE: A rollup is closed before it is written; the samples are then
+        // recorded into a new rollup which is written with the next flush
+        while (true) {
+            final Rollup rollup = _rollups.computeIfAbsent(key, Rollup::new);
+            if (rollup.record(now, timerSamples, counterSamples, gaugeSamples, _precision)) {
+                return;
+            }
+            _rollups.remove(key, rollup);
+        }
+    }
+
+    /**
+     * Write the aggregated samples of all periods and close the query log.
+     */
+    @Override
+    public void close() {
+        if (!_open.compareAndSet(true, false)) {
+            return;
+        }
+        _executor.shutdown();
+        try {
+            _executor.awaitTermination(EXECUTOR_TERMINATION_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        write(removeRollups(true));
+        try {
+            _writer.close();
+        } catch (final IOException e) {
+            _logger.warn("Exception closing query log", e);
+        }
+    }
+
+    /**
+     * Write the aggregated samples of all periods which have ended.
+     */
+    /* package private */ void flush() {
+        write(removeRollups(false));
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ File getFile() {
+        return _writer.getFile();
+    }
+
+    /**
+     * Round a value to the specified number of significant bits. The
+     * significand is rounded to nearest by adding half of the least
+     * significant retained bit before truncating; a carry into the exponent
+     * yields the next power of two.
+     *
+     * @param value The value to round.
+     * @param precision The number of significant bits to retain excluding the implicit leading bit.
+     * @return The rounded value.
+     */
+    /* package private */ static double round(final double value, final int precision) {
+        if (precision >= SIGNIFICAND_BITS || Double.isNaN(value) || Double.isInfinite(value)) {
+            return value;
+        }
+        final int shift = SIGNIFICAND_BITS - precision;
+        final long bits = Double.doubleToRawLongBits(value);
+        return Double.longBitsToDouble((bits + (1L << (shift - 1))) & (-1L << shift));
+    }
+
+    private List<Rollup> removeRollups(final boolean all) {
+        final long currentPeriodStart;
+        if (all) {
+            currentPeriodStart = Long.MAX_VALUE;
+        } else {
+            final long now = _clock.millis();
+            currentPeriodStart = now - Math.floorMod(now, _periodMillis);
+        }
+        final List<Rollup> rollups = new ArrayList<>();
+        for (final Rollup rollup : _rollups.values()) {
+            if (rollup._key._periodStart < currentPeriodStart) {
+                rollup.close();
+                // NOTE: A record may already have replaced the closed rollup
+                _rollups.remove(rollup._key, rollup);
+                rollups.add(rollup);
+            }
+        }
+        rollups.sort(ROLLUP_COMPARATOR);
+        return rollups;
+    }
+
+    private void write(final List<Rollup> rollups) {
+        if (rollups.isEmpty()) {
+            return;
+        }
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        for (final Rollup rollup : rollups) {
+            buffer.reset();
+            try (final JsonGenerator jsonGenerator = JSON_FACTORY.createGenerator(buffer, JsonEncoding.UTF8)) {
+                writeLine(rollup, jsonGenerator);
+            } catch (final IOException e) {
+                // This is in place of an exception; see class Javadoc
+                _logger.warn("Exception serializing metrics", e);
+                continue;
+            }
+            buffer.write('\n');
+            try {
+                _writer.write(buffer.toByteArray(), 0, buffer.size());
+            } catch (final IOException e) {
+                _logger.warn("Exception writing metrics", e);
+            }
+        }
+        try {
+            _writer.flush();
+        } catch (final IOException e) {
+            _logger.warn("Exception writing metrics", e);
+        }
+    }
+
+    private void writeLine(final Rollup rollup, final JsonGenerator jsonGenerator) throws IOException {
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeStringField("time", TIMESTAMP_FORMATTER.format(_clock.instant()));
+        jsonGenerator.writeStringField("name", "aint.metrics");
+        jsonGenerator.writeStringField("level", "info");
+        jsonGenerator.writeObjectFieldStart("data");
+        jsonGenerator.writeStringField("version", "2f");
+        jsonGenerator.writeObjectFieldStart("annotations");
+        for (final Map.Entry<String, String> annotation : rollup._key._dimensions.entrySet()) {
+            jsonGenerator.writeStringField(annotation.getKey(), annotation.getValue());
+        }
+        jsonGenerator.writeStringField(
+                TsdMetrics.INITIAL_TIMESTAMP_KEY,
+                TsdMetrics.DATE_TIME_FORMATTER.format(Instant.ofEpochMilli(rollup._initialTimestamp.get())));
+        jsonGenerator.writeStringField(
+                TsdMetrics.FINAL_TIMESTAMP_KEY,
+                TsdMetrics.DATE_TIME_FORMATTER.format(Instant.ofEpochMilli(rollup._finalTimestamp.get())));
+        jsonGenerator.writeEndObject();
+        writeHistograms("counters", rollup._counters, jsonGenerator);
+        writeHistograms("gauges", rollup._gauges, jsonGenerator);
+        writeHistograms("timers", rollup._timers, jsonGenerator);
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeObjectFieldStart("context");
+        jsonGenerator.writeStringField("host", _host);
+        jsonGenerator.writeStringField("processId", _processId);
+        jsonGenerator.writeStringField("threadId", Thread.currentThread().getName());
+        jsonGenerator.writeEndObject();
+        jsonGenerator.writeStringField("id", UUID.randomUUID().toString());
+        jsonGenerator.writeStringField("version", "0");
+        jsonGenerator.writeEndObject();
+    }
+
+    private static void writeHistograms(
+            final String fieldName,
+            final Map<String, Histograms> histograms,
+            final JsonGenerator jsonGenerator)
+            throws IOException {
+
+        if (histograms.isEmpty()) {
+            return;
+        }
+        jsonGenerator.writeObjectFieldStart(fieldName);
+        for (final Map.Entry<String, Histograms> entry : new TreeMap<>(histograms).entrySet()) {
+            jsonGenerator.writeObjectFieldStart(entry.getKey());
+            jsonGenerator.writeArrayFieldStart("values");
+            final Buckets[] byUnit = entry.getValue()._byUnit;
+            for (int i = 0; i < byUnit.length; ++i) {
+                if (byUnit[i] == null) {
+                    continue;
+                }
+                final Unit unit = i == 0 ? null : UNITS[i - 1];
+                for (final double value : byUnit[i].getSortedValues()) {
+                    jsonGenerator.writeStartObject();
+                    jsonGenerator.writeFieldName("value");
+                    writeValue(value, jsonGenerator);
+                    jsonGenerator.writeNumberField("count", byUnit[i].getCount(value));
+                    if (unit != null) {
+                        jsonGenerator.writeStringField("unit", unit.getSerializedName());
+                    }
+                    jsonGenerator.writeEndObject();
+                }
+            }
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndObject();
+    }
+
+    private static void writeValue(final double value, final JsonGenerator jsonGenerator) throws IOException {
+        // Integral values are written without a fraction to keep entries compact
+        if (value == Math.rint(value) && Math.abs(value) < MAXIMUM_EXACT_INTEGER) {
+            jsonGenerator.writeNumber((long) value);
+        } else {
+            jsonGenerator.writeNumber(value);
+        }
+    }
+
+    private void schedule() {
+        final long now = _clock.millis();
+        final long delay = _periodMillis - Math.floorMod(now, _periodMillis) + FLUSH_DELAY_MILLIS;
+        _executor.scheduleAtFixedRate(this::flush, delay, _periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Protected constructor.
+     *
+     * @param builder Instance of <code>Builder</code>.
+     */
+    protected TsdAggregatingSink(final Builder builder) {
+        this(builder, Clock.systemUTC(), LOGGER);
+        schedule();
+        if (builder._closeOnShutdown.booleanValue()) {
+            Runtime.getRuntime().addShutdownHook(new Thread(this::close, "aggregating-sink-shutdown"));
+        }
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ TsdAggregatingSink(final Builder builder, final Clock clock, final Logger logger) {
+        final String path = builder._path;
+        final StringBuilder fileNameBuilder = new StringBuilder(path);
+        if (!path.isEmpty() && !path.endsWith(File.separator)) {
+            fileNameBuilder.append(File.separator);
+        }
+        fileNameBuilder.append(builder._name);
+
+        _periodMillis = builder._period.toMillis();
+        _precision = builder._precision.intValue();
+        _clock = clock;
+        _logger = logger;
+        _writer = new RollingQueryLogWriter(
+                fileNameBuilder.toString(),
+                builder._extension,
+                builder._maxHistory.intValue(),
+                false);
+        _host = new HostConverter().convert(null);
+        _processId = new ProcessConverter().convert(null);
+        _executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "aggregating-sink-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private final long _periodMillis;
+    private final int _precision;
+    private final Clock _clock;
+    private final Logger _logger;
+    private final RollingQueryLogWriter _writer;
+    private final String _host;
+    private final String _processId;
+    private final ScheduledExecutorService _executor;
+    private final AtomicBoolean _open = new AtomicBoolean(true);
+    private final ConcurrentMap<RollupKey, Rollup> _rollups = new ConcurrentHashMap<>();
+
+    private static final int SIGNIFICAND_BITS = 52;
+    private static final double MAXIMUM_EXACT_INTEGER = 1L << 53;
+    private static final long FLUSH_DELAY_MILLIS = 100;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final long EXECUTOR_TERMINATION_TIMEOUT_IN_SECONDS = 30;
+    private static final Unit[] UNITS = Unit.values();
+    private static final Comparator<Rollup> ROLLUP_COMPARATOR =
+            (first, second) -> Long.compare(first._key._periodStart, second._key._periodStart);
+    private static final Function<String, Histograms> CREATE_HISTOGRAMS = name -> new Histograms();
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZZZZZ").withZone(ZoneOffset.UTC);
+    private static final Logger LOGGER = LoggerFactory.getLogger(TsdAggregatingSink.class);
+
+    /**
+     * The histograms of the records in one period with the same annotations.
+     * Records share the read lock and contend only on the histograms of the
+     * same metric. The sink takes the write lock to close the rollup before
+     * writing it; records into a closed rollup are rejected and retried
+     * against a new rollup.
+     */
+    private static final class Rollup {
+
+        public boolean record(
+                final long now,
+                final Map<String, List<Quantity>> timerSamples,
+                final Map<String, List<Quantity>> counterSamples,
+                final Map<String, List<Quantity>> gaugeSamples,
+                final int precision) {
+            final Lock lock = _lock.readLock();
+            lock.lock();
+            try {
+                if (_closed) {
+                    return false;
+                }
+                _initialTimestamp.accumulateAndGet(now, Math::min);
+                _finalTimestamp.accumulateAndGet(now, Math::max);
+                recordSamples(timerSamples, _timers, precision);
+                recordSamples(counterSamples, _counters, precision);
+                recordSamples(gaugeSamples, _gauges, precision);
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        public void close() {
+            final Lock lock = _lock.writeLock();
+            lock.lock();
+            try {
+                _closed = true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private static void recordSamples(
+                final Map<String, List<Quantity>> samples,
+                final ConcurrentMap<String, Histograms> histograms,
+                final int precision) {
+            for (final Map.Entry<String, List<Quantity>> entry : samples.entrySet()) {
+                final Histograms metricHistograms = histograms.computeIfAbsent(entry.getKey(), CREATE_HISTOGRAMS);
+                synchronized (metricHistograms) {
+                    for (final Quantity quantity : entry.getValue()) {
+                        final Number value = quantity.getValue();
+                        if (value != null) {
+                            metricHistograms.record(round(value.doubleValue(), precision), quantity.getUnit());
+                        }
+                    }
+                }
+            }
+        }
+
+        private Rollup(final RollupKey key) {
+            _key = key;
+        }
+
+        private final RollupKey _key;
+        private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+        private boolean _closed = false;
+        private final AtomicLong _initialTimestamp = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong _finalTimestamp = new AtomicLong(Long.MIN_VALUE);
+        private final ConcurrentMap<String, Histograms> _timers = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Histograms> _counters = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, Histograms> _gauges = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * The start of a period and the annotations other than the timestamps
+     * which identify a rollup.
+     */
+    private static final class RollupKey {
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof RollupKey)) {
+                return false;
+            }
+            final RollupKey otherKey = (RollupKey) other;
+            return _periodStart == otherKey._periodStart && _dimensions.equals(otherKey._dimensions);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(_periodStart) + _dimensions.hashCode();
+        }
+
+        private RollupKey(final long periodStart, final Map<String, String> dimensions) {
+            _periodStart = periodStart;
+            _dimensions = dimensions;
+        }
+
+        private final long _periodStart;
+        private final Map<String, String> _dimensions;
+    }
+
+    /**
+     * The sample counts of one metric by unit and rounded value. Samples
+     * without a unit are stored at index zero. Access is guarded by the
+     * instance monitor.
+     */
+    private static final class Histograms {
+
+        public void record(final double value, final Unit unit) {
+            final int index = unit == null ? 0 : unit.ordinal() + 1;
+            Buckets buckets = _byUnit[index];
+            if (buckets == null) {
+                buckets = new Buckets();
+                _byUnit[index] = buckets;
+            }
+            buckets.increment(value);
+        }
+
+        private final Buckets[] _byUnit = new Buckets[UNITS.length + 1];
+    }
+
+    /**
+     * The sample counts of one metric and unit by rounded value. Values are
+     * keyed by their bits in an open addressing table with linear probing;
+     * a count of zero marks an empty slot.
+     */
+    private static final class Buckets {
+
+        public void increment(final double value) {
+            final long key = Double.doubleToLongBits(value);
+            int index = indexOf(key);
+            while (_counts[index] != 0) {
+                if (_keys[index] == key) {
+                    ++_counts[index];
+                    return;
+                }
+                index = (index + 1) & (_keys.length - 1);
+            }
+            _keys[index] = key;
+            _counts[index] = 1;
+            if (++_size * 2 > _keys.length) {
+                resize();
+            }
+        }
+
+        public long getCount(final double value) {
+            final long key = Double.doubleToLongBits(value);
+            int index = indexOf(key);
+            while (_counts[index] != 0) {
+                if (_keys[index] == key) {
+                    return _counts[index];
+                }
+                index = (index + 1) & (_keys.length - 1);
+            }
+            return 0;
+        }
+
+        public double[] getSortedValues() {
+            final double[] values = new double[_size];
+            int size = 0;
+            for (int i = 0; i < _keys.length; ++i) {
+                if (_counts[i] != 0) {
+                    values[size++] = Double.longBitsToDouble(_keys[i]);
+                }
+            }
+            Arrays.sort(values);
+            return values;
+        }
+
+        private int indexOf(final long key) {
+            final long hash = key * HASH_MULTIPLIER;
+            return (int) (hash ^ (hash >>> 32)) & (_keys.length - 1);
+        }
+
+        private void resize() {
+            final long[] keys = _keys;
+            final long[] counts = _counts;
+            _keys = new long[keys.length * 2];
+            _counts = new long[counts.length * 2];
+            for (int i = 0; i < keys.length; ++i) {
+                if (counts[i] != 0) {
+                    int index = indexOf(keys[i]);
+                    while (_counts[index] != 0) {
+                        index = (index + 1) & (_keys.length - 1);
+                    }
+                    _keys[index] = keys[i];
+                    _counts[index] = counts[i];
+                }
+            }
+        }
+
+        private long[] _keys = new long[INITIAL_CAPACITY];
+        private long[] _counts = new long[INITIAL_CAPACITY];
+        private int _size = 0;
+
+        private static final int INITIAL_CAPACITY = 8;
+        private static final long HASH_MULTIPLIER = 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Builder for <code>TsdAggregatingSink</code>.
+     *
+     * This class is thread safe.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    public static class Builder {
+
+        /**
+         * Create an instance of <code>Sink</code>.
+         *
+         * @return Instance of <code>Sink</code>.
+         */
+        public Sink build() {
+            validate();
+            return new TsdAggregatingSink(this);
+        }
+
+        /**
+         * Set the path. Optional; default is empty string which defaults to a
+         * the current working directory of the application.
+         *
+         * @param value The value for path.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setPath(final String value) {
+            _path = value;
+            return this;
+        }
+
+        /**
+         * Set the file name without extension. Optional; default is "query".
+         * The file name without extension cannot be empty.
+         *
+         * @param value The value for name.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setName(final String value) {
+            _name = value;
+            return this;
+        }
+
+        /**
+         * Set the file extension. Optional; default is ".log".
+         *
+         * @param value The value for extension.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setExtension(final String value) {
+            _extension = value;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of historical (e.g. number of rotated files
+         * to retain). Files are rotated hourly, so this is equivalent to the
+         * number of hours of logs to retain. Optional; default is 24.
+         *
+         * @param value Maximum number of historical (e.g. rotated) files to retain.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setMaxHistory(final Integer value) {
+            _maxHistory = value;
+            return this;
+        }
+
+        /**
+         * Set the aggregation period. Periods are aligned to the epoch and
+         * should match or evenly divide the periods of the aggregator.
+         * Optional; default is one minute.
+         *
+         * @param value The aggregation period.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setPeriod(final Duration value) {
+            _period = value;
+            return this;
+        }
+
+        /**
+         * Set the number of significant bits retained for each sample. The
+         * relative error of each sample is at most 2^-(precision + 1) and
+         * must be between 1 and 52 inclusive. Optional; default is 7 for a
+         * relative error of at most 0.4%.
+         *
+         * @param value The number of significant bits.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setPrecision(final Integer value) {
+            _precision = value;
+            return this;
+        }
+
+        /**
+         * Set whether to close the sink from a JVM shutdown hook. The
+         * application should otherwise close the sink when it shuts down to
+         * write the samples of the current period. Optional; default is false.
+         *
+         * @param value Whether to close the sink from a shutdown hook.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setCloseOnShutdown(final Boolean value) {
+            _closeOnShutdown = value;
+            return this;
+        }
+
+        private void validate() {
+            if (_path == null) {
+                throw new IllegalArgumentException("Path cannot be null");
+            }
+            if (_name == null || _name.isEmpty()) {
+                throw new IllegalArgumentException("Name cannot be null or empty");
+            }
+            if (_extension == null) {
+                throw new IllegalArgumentException("Extension cannot be null");
+            }
+            if (_maxHistory == null) {
+                throw new IllegalArgumentException("MaxHistory cannot be null");
+            }
+            if (_maxHistory.intValue() < 0) {
+                throw new IllegalArgumentException("MaxHistory cannot be negative");
+            }
+            if (_period == null) {
+                throw new IllegalArgumentException("Period cannot be null");
+            }
+            if (_period.toMillis() < 1) {
+                throw new IllegalArgumentException("Period must be at least one millisecond");
+            }
+            if (_precision == null) {
+                throw new IllegalArgumentException("Precision cannot be null");
+            }
+            if (_precision.intValue() < 1 || _precision.intValue() > SIGNIFICAND_BITS) {
+                throw new IllegalArgumentException("Precision must be between 1 and 52");
+            }
+            if (_closeOnShutdown == null) {
+                throw new IllegalArgumentException("CloseOnShutdown cannot be null");
+            }
+        }
+
+        private String _path = DEFAULT_PATH;
+        private String _name = DEFAULT_NAME;
+        private String _extension = DEFAULT_EXTENSION;
+        private Integer _maxHistory = DEFAULT_MAX_HISTORY;
+        private Duration _period = DEFAULT_PERIOD;
+        private Integer _precision = DEFAULT_PRECISION;
+        private Boolean _closeOnShutdown = DEFAULT_CLOSE_ON_SHUTDOWN;
+
+        private static final String DEFAULT_PATH = "";
+        private static final String DEFAULT_NAME = "query";
+        private static final String DEFAULT_EXTENSION = ".log";
+        private static final Integer DEFAULT_MAX_HISTORY = 24;
+        private static final Duration DEFAULT_PERIOD = Duration.ofMinutes(1);
+        private static final Integer DEFAULT_PRECISION = 7;
+        private static final Boolean DEFAULT_CLOSE_ON_SHUTDOWN = Boolean.FALSE;
+    }
+}
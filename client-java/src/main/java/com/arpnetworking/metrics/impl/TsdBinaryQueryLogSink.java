@@ -0,0 +1,441 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import com.arpnetworking.metrics.Quantity;
+import com.arpnetworking.metrics.Sink;
+import com.arpnetworking.metrics.Unit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Implementation of <code>Sink</code> for the binary query log. Each entry is
+ * written as a length prefixed frame with packed samples instead of as a
+ * line of json; metric names and annotation keys are written once per file
+ * and then referred to by their position in the file's dictionary. The
+ * format is documented in doc/QUERY_LOG_FORMAT.md and is read by the
+ * <code>BinaryQueryLogParser</code> of TSD Aggregator from a source with
+ * length prefixed framing. The files are rotated hourly and compressed in
+ * the same way as those of <code>TsdQueryLogSink</code>.
+ *
+ * Each frame starts with a sync marker and carries a checksum of its payload
+ * so that the reader can skip a frame left incomplete by a crash. An existing
+ * file is never appended to; it is rolled over when the sink first writes.
+ *
+ * Since the dictionary depends on the order of the entries in the file, each
+ * entry is encoded and written by the recording thread while holding the
+ * lock of the underlying writer.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class TsdBinaryQueryLogSink implements Sink {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void record(
+            final Map<String, String> annotations,
+            final Map<String, List<Quantity>> timerSamples,
+            final Map<String, List<Quantity>> counterSamples,
+            final Map<String, List<Quantity>> gaugeSamples) {
+
+        final Instant initialTimestamp = parseTimestamp(annotations.get(TsdMetrics.INITIAL_TIMESTAMP_KEY));
+        final Instant finalTimestamp = parseTimestamp(annotations.get(TsdMetrics.FINAL_TIMESTAMP_KEY));
+        if (initialTimestamp == null || finalTimestamp == null) {
+            _logger.warn(String.format("Discarding entry without valid timestamps; annotations=%s", annotations));
+            return;
+        }
+        try {
+            _writer.write((outputStream, isNewFile) -> encode(
+                    outputStream,
+                    isNewFile,
+                    () -> writeBody(
+                            initialTimestamp,
+                            finalTimestamp,
+                            annotations,
+                            timerSamples,
+                            counterSamples,
+                            gaugeSamples)));
+        } catch (final IOException e) {
+            // This is in place of an exception; see class Javadoc
+            _logger.warn("Exception serializing and writing metrics", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        try {
+            _writer.close();
+        } catch (final IOException e) {
+            _logger.warn("Exception closing query log", e);
+        }
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ File getFile() {
+        return _writer.getFile();
+    }
+
+    private void encode(
+            final OutputStream outputStream,
+            final boolean isNewFile,
+            final Runnable bodyWriter)
+            throws IOException {
+
+        // NOTE: This is only invoked while holding the writer's lock
+        if (isNewFile) {
+            _dictionary.clear();
+        }
+        final int offset = _dictionary.size();
+        _definitions.clear();
+        boolean isEncoded = false;
+        try {
+            _body.reset();
+            bodyWriter.run();
+
+            _header.reset();
+            _header.write(VERSION);
+            _header.writeVarint(offset);
+            _header.writeVarint(_definitions.size());
+            for (final String definition : _definitions) {
+                _header.writeString(definition);
+            }
+            isEncoded = true;
+        } finally {
+            if (!isEncoded) {
+                // Definitions are only retained if the frame is written
+                for (final String definition : _definitions) {
+                    _dictionary.remove(definition);
+                }
+            }
+        }
+
+        _checksum.reset();
+        _header.updateChecksum(_checksum);
+        _body.updateChecksum(_checksum);
+
+        _frame.reset();
+        _frame.write(SYNC_MARKER, 0, SYNC_MARKER.length);
+        _frame.writeVarint(_header.size() + _body.size());
+        _frame.writeInt((int) _checksum.getValue());
+        _frame.writeTo(outputStream);
+        _header.writeTo(outputStream);
+        _body.writeTo(outputStream);
+    }
+
+    private void writeBody(
+            final Instant initialTimestamp,
+            final Instant finalTimestamp,
+            final Map<String, String> annotations,
+            final Map<String, List<Quantity>> timerSamples,
+            final Map<String, List<Quantity>> counterSamples,
+            final Map<String, List<Quantity>> gaugeSamples) {
+        _body.writeVarint(initialTimestamp.toEpochMilli());
+        _body.writeVarint(finalTimestamp.toEpochMilli());
+        _body.writeVarint(annotations.size() - 2);
+        for (final Map.Entry<String, String> annotation : annotations.entrySet()) {
+            final String key = annotation.getKey();
+            if (!TsdMetrics.INITIAL_TIMESTAMP_KEY.equals(key) && !TsdMetrics.FINAL_TIMESTAMP_KEY.equals(key)) {
+                _body.writeVarint(lookup(key));
+                _body.writeString(annotation.getValue());
+            }
+        }
+        writeSamples(timerSamples);
+        writeSamples(counterSamples);
+        writeSamples(gaugeSamples);
+    }
+
+    private void writeSamples(final Map<String, List<Quantity>> samples) {
+        _body.writeVarint(samples.size());
+        for (final Map.Entry<String, List<Quantity>> entry : samples.entrySet()) {
+            _body.writeVarint(lookup(entry.getKey()));
+            _body.writeVarint(entry.getValue().size());
+            for (final Quantity quantity : entry.getValue()) {
+                _body.write(encodeUnit(quantity.getUnit()));
+                _body.writeDouble(quantity.getValue().doubleValue());
+            }
+        }
+    }
+
+    private int lookup(final String name) {
+        final Integer id = _dictionary.get(name);
+        if (id != null) {
+            return id.intValue();
+        }
+        final int newId = _dictionary.size();
+        _dictionary.put(name, Integer.valueOf(newId));
+        _definitions.add(name);
+        return newId;
+    }
+
+    private static Instant parseTimestamp(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.from(TsdMetrics.DATE_TIME_FORMATTER.parse(value));
+        } catch (final DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static int encodeUnit(final Unit unit) {
+        // NOTE: The codes are part of the format and must never change
+        if (unit == null) {
+            return 0;
+        }
+        switch (unit) {
+            case NANOSECOND:
+                return 1;
+            case MICROSECOND:
+                return 2;
+            case MILLISECOND:
+                return 3;
+            case SECOND:
+                return 4;
+            case MINUTE:
+                return 5;
+            case HOUR:
+                return 6;
+            case DAY:
+                return 7;
+            case WEEK:
+                return 8;
+            case BYTE:
+                return 9;
+            case KILOBYTE:
+                return 10;
+            case MEGABYTE:
+                return 11;
+            case GIGABYTE:
+                return 12;
+            default:
+                throw new IllegalArgumentException("Unsupported unit: " + unit);
+        }
+    }
+
+    /**
+     * Protected constructor.
+     *
+     * @param builder Instance of <code>Builder</code>.
+     */
+    protected TsdBinaryQueryLogSink(final Builder builder) {
+        this(builder, LOGGER);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "binary-query-log-shutdown"));
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ TsdBinaryQueryLogSink(final Builder builder, final Logger logger) {
+        final String path = builder._path;
+        final StringBuilder fileNameBuilder = new StringBuilder(path);
+        if (!path.isEmpty() && !path.endsWith(File.separator)) {
+            fileNameBuilder.append(File.separator);
+        }
+        fileNameBuilder.append(builder._name);
+
+        _logger = logger;
+        _writer = new RollingQueryLogWriter(
+                fileNameBuilder.toString(),
+                builder._extension,
+                builder._maxHistory.intValue(),
+                builder._immediateFlush.booleanValue(),
+                false);
+    }
+
+    private final Logger _logger;
+    private final RollingQueryLogWriter _writer;
+    // CHECKSTYLE.OFF: IllegalInstantiation - No Guava dependency here.
+    private final Map<String, Integer> _dictionary = new HashMap<>();
+    // CHECKSTYLE.ON: IllegalInstantiation
+    private final List<String> _definitions = new ArrayList<>();
+    private final FrameBuffer _frame = new FrameBuffer();
+    private final FrameBuffer _header = new FrameBuffer();
+    private final FrameBuffer _body = new FrameBuffer();
+    private final CRC32 _checksum = new CRC32();
+
+    private static final int VERSION = 1;
+    private static final byte[] SYNC_MARKER = new byte[] {(byte) 0xb5, (byte) 0x1f};
+    private static final Logger LOGGER = LoggerFactory.getLogger(TsdBinaryQueryLogSink.class);
+
+    private static final class FrameBuffer extends ByteArrayOutputStream {
+
+        public void writeVarint(final long value) {
+            long remaining = value;
+            while ((remaining & ~0x7fL) != 0) {
+                write((int) ((remaining & 0x7f) | 0x80));
+                remaining >>>= 7;
+            }
+            write((int) remaining);
+        }
+
+        public void writeInt(final int value) {
+            for (int shift = Integer.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                write(value >>> shift);
+            }
+        }
+
+        public void writeDouble(final double value) {
+            final long bits = Double.doubleToLongBits(value);
+            for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+                write((int) (bits >>> shift));
+            }
+        }
+
+        public void writeString(final String value) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            write(bytes, 0, bytes.length);
+        }
+
+        public void updateChecksum(final CRC32 checksum) {
+            checksum.update(buf, 0, count);
+        }
+
+        private FrameBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+        }
+
+        private static final int INITIAL_BUFFER_SIZE = 1024;
+    }
+
+    /**
+     * Builder for <code>TsdBinaryQueryLogSink</code>.
+     *
+     * This class is thread safe.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    public static class Builder {
+
+        /**
+         * Create an instance of <code>Sink</code>.
+         *
+         * @return Instance of <code>Sink</code>.
+         */
+        public Sink build() {
+            if (_path == null) {
+                throw new IllegalArgumentException("Path cannot be null");
+            }
+            if (_name == null || _name.isEmpty()) {
+                throw new IllegalArgumentException("Name cannot be null or empty");
+            }
+            if (_extension == null) {
+                throw new IllegalArgumentException("Extension cannot be null");
+            }
+            if (_immediateFlush == null) {
+                throw new IllegalArgumentException("ImmediateFlush cannot be null");
+            }
+            if (_maxHistory == null) {
+                throw new IllegalArgumentException("MaxHistory cannot be null");
+            }
+            if (_maxHistory.intValue() < 0) {
+                throw new IllegalArgumentException("MaxHistory cannot be negative");
+            }
+            return new TsdBinaryQueryLogSink(this);
+        }
+
+        /**
+         * Set the path. Optional; default is empty string which defaults to a
+         * the current working directory of the application.
+         *
+         * @param value The value for path.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setPath(final String value) {
+            _path = value;
+            return this;
+        }
+
+        /**
+         * Set the file name without extension. Optional; default is "query".
+         * The file name without extension cannot be empty.
+         *
+         * @param value The value for name.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setName(final String value) {
+            _name = value;
+            return this;
+        }
+
+        /**
+         * Set the file extension. Optional; default is ".bin".
+         *
+         * @param value The value for extension.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setExtension(final String value) {
+            _extension = value;
+            return this;
+        }
+
+        /**
+         * Set whether entries are flushed immediately. Optional; default is
+         * true.
+         *
+         * @param value Whether to flush immediately.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setImmediateFlush(final Boolean value) {
+            _immediateFlush = value;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of historical (e.g. number of rotated files
+         * to retain). Files are rotated hourly, so this is equivalent to the
+         * number of hours of logs to retain. Optional; default is 24.
+         *
+         * @param value Maximum number of historical (e.g. rotated) files to retain.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setMaxHistory(final Integer value) {
+            _maxHistory = value;
+            return this;
+        }
+
+        private String _path = DEFAULT_PATH;
+        private String _name = DEFAULT_NAME;
+        private String _extension = DEFAULT_EXTENSION;
+        private Boolean _immediateFlush = DEFAULT_IMMEDIATE_FLUSH;
+        private Integer _maxHistory = DEFAULT_MAX_HISTORY;
+
+        private static final String DEFAULT_PATH = "";
+        private static final String DEFAULT_NAME = "query";
+        private static final String DEFAULT_EXTENSION = ".bin";
+        private static final Boolean DEFAULT_IMMEDIATE_FLUSH = true;
+        private static final Integer DEFAULT_MAX_HISTORY = 24;
+    }
+}
@@ -422,14 +422,14 @@ public class TsdMetrics implements Metrics {
     private final ConcurrentMap<String, ConcurrentLinkedDeque<Quantity>> _gaugeSamples = new ConcurrentHashMap<>();
     private final ConcurrentMap<String, String> _annotations = new ConcurrentHashMap<>();
 
-    private static final DateTimeFormatter DATE_TIME_FORMATTER =
+    /* package private */ static final DateTimeFormatter DATE_TIME_FORMATTER =
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZZZZZ").withZone(ZoneId.of("UTC"));
     private static final Predicate<Quantity> PREDICATE_ALL_QUANTITIES = new AllQuantitiesPredicate();
     private static final Predicate<Quantity> PREDICATE_STOPPED_TIMERS = new StoppedTimersPredicate();
     private static final Logger LOGGER = LoggerFactory.getLogger(TsdMetrics.class);
     private static final float DEFAULT_LOAD_FACTOR = 0.75f;
-    private static final String FINAL_TIMESTAMP_KEY = "finalTimestamp";
-    private static final String INITIAL_TIMESTAMP_KEY = "initTimestamp";
+    /* package private */ static final String FINAL_TIMESTAMP_KEY = "finalTimestamp";
+    /* package private */ static final String INITIAL_TIMESTAMP_KEY = "initTimestamp";
 
     private interface Predicate<T> {
 
@@ -72,6 +72,31 @@ import java.util.List;
  *
  * query-log.YYYY-MM-DD-HH.log
  *
+ * If each <code>Metrics</code> instance is only ever used by the thread that
+ * created it, for example within the handling of a single request, the
+ * factory can be configured to create a cheaper implementation which is not
+ * thread safe:
+ *
+ * {@code
+ * final MetricsFactory metricsFactory = new MetricsFactory.Builder()
+ *     .setSinks(Collections.singletonList(
+ *         new TsdQueryLogSink.Builder().build()));
+ *     .setSingleThreaded(true)
+ *     .build();
+ * }
+ *
+ * For high throughput applications the samples can instead be aggregated in
+ * process and written to the query log once per period:
+ *
+ * {@code
+ * final MetricsFactory metricsFactory = new MetricsFactory.Builder()
+ *     .setSinks(Collections.singletonList(
+ *         new TsdAggregatingSink.Builder()
+ *             .setPath("/usr/local/var/my-app/logs")
+ *             .build()));
+ *     .build();
+ * }
+ *
  * This class is thread safe.
  *
  * @author Ville Koskela (vkoskela at groupon dot com)
@@ -83,6 +108,9 @@ public class TsdMetricsFactory implements MetricsFactory {
      */
     @Override
     public Metrics create() {
+        if (_singleThreaded) {
+            return new SingleThreadedTsdMetrics(_sinks);
+        }
         return new TsdMetrics(_sinks);
     }
 
@@ -93,9 +121,11 @@ public class TsdMetricsFactory implements MetricsFactory {
      */
     protected TsdMetricsFactory(final Builder builder) {
         _sinks = Collections.unmodifiableList(new ArrayList<Sink>(builder._sinks));
+        _singleThreaded = builder._singleThreaded.booleanValue();
     }
 
     private final List<Sink> _sinks;
+    private final boolean _singleThreaded;
 
     /**
      * Builder for <code>TsdMetricsFactory</code>.
@@ -112,6 +142,9 @@ public class TsdMetricsFactory implements MetricsFactory {
          * @return Instance of <code>MetricsFactory</code>.
          */
         public MetricsFactory build() {
+            if (_singleThreaded == null) {
+                throw new IllegalArgumentException("SingleThreaded cannot be null");
+            }
             if (_sinks == null) {
                 if (_path == null) {
                     throw new IllegalArgumentException("Path cannot be null");
@@ -202,7 +235,23 @@ public class TsdMetricsFactory implements MetricsFactory {
             return this;
         }
 
+        /**
+         * Set whether each <code>Metrics</code> instance created is only used
+         * by a single thread. Single threaded instances store samples in
+         * primitive arrays and pass read-only views of them to the sinks
+         * instead of copies; however, they are not thread safe. Optional;
+         * default is false.
+         *
+         * @param value Whether instances are used by a single thread.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setSingleThreaded(final Boolean value) {
+            _singleThreaded = value;
+            return this;
+        }
+
         private List<Sink> _sinks;
+        private Boolean _singleThreaded = DEFAULT_SINGLE_THREADED;
 
         private String _path = DEFAULT_PATH;
         private String _name = DEFAULT_NAME;
@@ -213,5 +262,6 @@ public class TsdMetricsFactory implements MetricsFactory {
         private static final String DEFAULT_NAME = "query";
         private static final String DEFAULT_EXTENSION = ".log";
         private static final Boolean DEFAULT_IMMEDIATE_FLUSH = Boolean.TRUE;
+        private static final Boolean DEFAULT_SINGLE_THREADED = Boolean.FALSE;
     }
 }
@@ -26,12 +26,15 @@ import ch.qos.logback.core.encoder.Encoder;
 import ch.qos.logback.core.rolling.RollingFileAppender;
 import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 
+import com.arpnetworking.logback.HostConverter;
+import com.arpnetworking.logback.ProcessConverter;
 import com.arpnetworking.logback.StenoEncoder;
 import com.arpnetworking.logback.StenoMarker;
 import com.arpnetworking.metrics.Quantity;
 import com.arpnetworking.metrics.Sink;
 import com.arpnetworking.metrics.Unit;
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.JsonSerializer;
@@ -42,18 +45,41 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.module.afterburner.AfterburnerModule;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 /**
  * Implementation of <code>Sink</code> for the query log. For an example of its
  * use please refer to the documentation for <code>TsdMetricsFactory</code>.
  *
+ * By default each entry is converted to a tree, serialized field by field and
+ * written as a Steno message through logback. In direct mode each entry is
+ * instead written as the same Steno formatted line with a single streaming
+ * <code>JsonGenerator</code> pass into a reusable per-thread buffer and
+ * appended to the query log by <code>RollingQueryLogWriter</code> without
+ * involving logback. The files and their hourly compressed rotation are the
+ * same in both modes.
+ *
+ * In direct mode recording threads hand each line to a dedicated writer
+ * thread through a bounded lock-free ring buffer instead of the logback
+ * <code>AsyncAppender</code> queue. When the buffer is full the line is
+ * handled according to the configured <code>OverflowPolicy</code>; by default
+ * it is dropped so that a slow disk never adds latency to recording threads.
+ * The number of entries enqueued, dropped and written and the flush latency
+ * of the writer thread are available from <code>getWriterStatistics</code>.
+ *
  * @author Ville Koskela (vkoskela at groupon dot com)
  */
 public class TsdQueryLogSink implements Sink {
@@ -68,6 +94,10 @@ public class TsdQueryLogSink implements Sink {
             final Map<String, List<Quantity>> counterSamples,
             final Map<String, List<Quantity>> gaugeSamples) {
 
+        if (_writer != null) {
+            recordDirect(annotations, timerSamples, counterSamples, gaugeSamples);
+            return;
+        }
         try {
             //final String jsonString = _objectMapper.writeValueAsString(
             final JsonNode jsonNode = _objectMapper.valueToTree(
@@ -103,11 +133,141 @@ public class TsdQueryLogSink implements Sink {
         }
     }
 
+    /**
+     * Statistics of the writer thread in direct mode. Each call returns a new
+     * snapshot of the counters.
+     *
+     * @return Snapshot of the writer statistics or <code>null</code> if the
+     * sink is not in direct mode.
+     */
+    public WriterStatistics getWriterStatistics() {
+        if (_writer == null) {
+            return null;
+        }
+        return new WriterStatistics(
+                _writer.getEnqueuedCount(),
+                _writer.getDroppedCount(),
+                _writer.getWrittenCount(),
+                _writer.getBatchCount(),
+                _writer.getLastFlushLatencyNanos(),
+                _writer.getMaxFlushLatencyNanos());
+    }
+
     // NOTE: Package private for testing.
     Logger getQueryLogger() {
         return _queryLogger;
     }
 
+    // NOTE: Package private for testing.
+    AsyncQueryLogWriter getWriter() {
+        return _writer;
+    }
+
+    private void recordDirect(
+            final Map<String, String> annotations,
+            final Map<String, List<Quantity>> timerSamples,
+            final Map<String, List<Quantity>> counterSamples,
+            final Map<String, List<Quantity>> gaugeSamples) {
+
+        final LineBuffer buffer = _lineBuffer.get();
+        try {
+            buffer.reset();
+            final JsonGenerator jsonGenerator = buffer.getGenerator();
+            jsonGenerator.writeStartObject();
+            jsonGenerator.writeStringField("time", TIMESTAMP_FORMATTER.format(Instant.now()));
+            jsonGenerator.writeStringField("name", "aint.metrics");
+            jsonGenerator.writeStringField("level", "info");
+            jsonGenerator.writeFieldName("data");
+            writeEntry(annotations, timerSamples, counterSamples, gaugeSamples, jsonGenerator);
+            jsonGenerator.writeObjectFieldStart("context");
+            jsonGenerator.writeStringField("host", _host);
+            jsonGenerator.writeStringField("processId", _processId);
+            jsonGenerator.writeStringField("threadId", Thread.currentThread().getName());
+            jsonGenerator.writeEndObject();
+            jsonGenerator.writeStringField("id", UUID.randomUUID().toString());
+            jsonGenerator.writeStringField("version", "0");
+            jsonGenerator.writeEndObject();
+            jsonGenerator.flush();
+            buffer.write('\n');
+
+            _writer.write(buffer.getBuffer(), 0, buffer.size());
+        } catch (final IOException e) {
+            // The generator state is unknown after a failure
+            _lineBuffer.remove();
+            // This is in place of an exception; see class Javadoc
+            _logger.warn("Exception serializing and writing metrics", e);
+        }
+    }
+
+    private static void writeEntry(
+            final Map<String, String> annotations,
+            final Map<String, List<Quantity>> timerSamples,
+            final Map<String, List<Quantity>> counterSamples,
+            final Map<String, List<Quantity>> gaugeSamples,
+            final JsonGenerator jsonGenerator)
+            throws IOException {
+
+        // NOTE: This must match the output of EntrySerializer
+        jsonGenerator.writeStartObject();
+        jsonGenerator.writeStringField("version", "2e");
+        jsonGenerator.writeObjectFieldStart("annotations");
+        for (final Map.Entry<String, String> annotation : annotations.entrySet()) {
+            jsonGenerator.writeStringField(annotation.getKey(), annotation.getValue());
+        }
+        jsonGenerator.writeEndObject();
+        writeSamples("counters", counterSamples, jsonGenerator);
+        writeSamples("gauges", gaugeSamples, jsonGenerator);
+        writeSamples("timers", timerSamples, jsonGenerator);
+        jsonGenerator.writeEndObject();
+    }
+
+    private static void writeSamples(
+            final String fieldName,
+            final Map<String, List<Quantity>> samples,
+            final JsonGenerator jsonGenerator)
+            throws IOException {
+
+        if (samples.isEmpty()) {
+            return;
+        }
+        jsonGenerator.writeObjectFieldStart(fieldName);
+        for (final Map.Entry<String, List<Quantity>> entry : samples.entrySet()) {
+            jsonGenerator.writeObjectFieldStart(entry.getKey());
+            jsonGenerator.writeArrayFieldStart("values");
+            for (final Quantity quantity : entry.getValue()) {
+                jsonGenerator.writeStartObject();
+                jsonGenerator.writeFieldName("value");
+                writeValue(quantity.getValue(), jsonGenerator);
+                final Unit unit = quantity.getUnit();
+                if (unit != null) {
+                    jsonGenerator.writeStringField("unit", unit.getSerializedName());
+                }
+                jsonGenerator.writeEndObject();
+            }
+            jsonGenerator.writeEndArray();
+            jsonGenerator.writeEndObject();
+        }
+        jsonGenerator.writeEndObject();
+    }
+
+    private static void writeValue(final Number value, final JsonGenerator jsonGenerator) throws IOException {
+        // Numbers are written as they would be after conversion to a tree
+        if (value == null) {
+            jsonGenerator.writeNull();
+        } else if (value instanceof Double || value instanceof Float) {
+            jsonGenerator.writeNumber(value.doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            jsonGenerator.writeNumber(value.longValue());
+        } else if (value instanceof BigDecimal) {
+            final BigDecimal decimal = (BigDecimal) value;
+            jsonGenerator.writeNumber(decimal.signum() == 0 ? BigDecimal.ZERO : decimal.stripTrailingZeros());
+        } else if (value instanceof BigInteger) {
+            jsonGenerator.writeNumber((BigInteger) value);
+        } else {
+            jsonGenerator.writeObject(value);
+        }
+    }
+
     private TimeBasedRollingPolicy<ILoggingEvent> createRollingPolicy(
             final String extension,
             final String fileNameWithoutExtension,
@@ -141,12 +301,12 @@ public class TsdQueryLogSink implements Sink {
         return rollingAppender;
     }
 
-    private Appender<ILoggingEvent> createAsyncAppender(final Appender<ILoggingEvent> appender) {
+    private Appender<ILoggingEvent> createAsyncAppender(final Appender<ILoggingEvent> appender, final int queueSize) {
         final AsyncAppender asyncAppender = new AsyncAppender();
         asyncAppender.setContext(_loggerContext);
         asyncAppender.setDiscardingThreshold(0);
         asyncAppender.setName("query-log-async");
-        asyncAppender.setQueueSize(500);
+        asyncAppender.setQueueSize(queueSize);
         asyncAppender.addAppender(appender);
         return asyncAppender;
     }
@@ -162,12 +322,11 @@ public class TsdQueryLogSink implements Sink {
 
     // NOTE: Package private for testing
     /* package private */TsdQueryLogSink(final Builder builder, final ObjectMapper objectMapper, final org.slf4j.Logger logger) {
-        _loggerContext = new LoggerContext();
-
         final String path = builder._path;
         final String extension = builder._extension;
         final boolean immediateFlush = builder._immediateFlush.booleanValue();
         final int maxHistory = builder._maxHistory.intValue();
+        final int queueCapacity = builder._queueCapacity.intValue();
 
         final StringBuilder fileNameBuilder = new StringBuilder(path);
         if (!path.isEmpty() && !path.endsWith(File.separator)) {
@@ -178,13 +337,45 @@ public class TsdQueryLogSink implements Sink {
         fileNameBuilder.append(extension);
         final String fileName = fileNameBuilder.toString();
 
+        _objectMapper = objectMapper;
+        _logger = logger;
+
+        if (builder._direct.booleanValue()) {
+            _writer = new AsyncQueryLogWriter(
+                    new RollingQueryLogWriter(fileNameWithoutExtension, extension, maxHistory, false),
+                    queueCapacity,
+                    builder._overflowPolicy,
+                    immediateFlush);
+            _host = new HostConverter().convert(null);
+            _processId = new ProcessConverter().convert(null);
+            _loggerContext = null;
+            _queryLogger = null;
+            Runtime.getRuntime().addShutdownHook(new ShutdownHookThread(_writer));
+        } else {
+            _writer = null;
+            _host = null;
+            _processId = null;
+            _loggerContext = new LoggerContext();
+            startLoggerContext(fileName, fileNameWithoutExtension, extension, maxHistory, immediateFlush, queueCapacity);
+            Runtime.getRuntime().addShutdownHook(new ShutdownHookThread(_loggerContext));
+            _queryLogger = _loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
+        }
+    }
+
+    private void startLoggerContext(
+            final String fileName,
+            final String fileNameWithoutExtension,
+            final String extension,
+            final int maxHistory,
+            final boolean immediateFlush,
+            final int queueSize) {
         final TimeBasedRollingPolicy<ILoggingEvent> rollingPolicy = createRollingPolicy(
                 extension,
                 fileNameWithoutExtension,
                 maxHistory);
         final Encoder<ILoggingEvent> encoder = createEncoder(immediateFlush);
         final FileAppender<ILoggingEvent> rollingAppender = createRollingAppender(fileName, rollingPolicy, encoder);
-        final Appender<ILoggingEvent> asyncAppender = createAsyncAppender(rollingAppender);
+        final Appender<ILoggingEvent> asyncAppender = createAsyncAppender(rollingAppender, queueSize);
 
         rollingPolicy.setParent(rollingAppender);
         rollingPolicy.start();
@@ -195,21 +386,26 @@ public class TsdQueryLogSink implements Sink {
         final Logger rootLogger = _loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
         rootLogger.setLevel(Level.INFO);
         rootLogger.addAppender(asyncAppender);
-
-        Runtime.getRuntime().addShutdownHook(new ShutdownHookThread(_loggerContext));
-
-        _queryLogger = _loggerContext.getLogger(Logger.ROOT_LOGGER_NAME);
-        _objectMapper = objectMapper;
-        _logger = logger;
     }
 
     private final LoggerContext _loggerContext;
     private final Logger _queryLogger;
     private final ObjectMapper _objectMapper;
     private final org.slf4j.Logger _logger;
+    private final AsyncQueryLogWriter _writer;
+    private final String _host;
+    private final String _processId;
+    private final ThreadLocal<LineBuffer> _lineBuffer = new ThreadLocal<LineBuffer>() {
+        @Override
+        protected LineBuffer initialValue() {
+            return new LineBuffer();
+        }
+    };
 
     private static final String DATE_EXTENSION = ".%d{yyyy-MM-dd-HH}";
     private static final String GZIP_EXTENSION = ".gz";
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZZZZZ").withZone(ZoneOffset.UTC);
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
     private static final org.slf4j.Logger LOGGER = LoggerFactory.getLogger(TsdQueryLogSink.class);
 
@@ -327,19 +523,184 @@ public class TsdQueryLogSink implements Sink {
         }
     }
 
+    private static final class LineBuffer extends ByteArrayOutputStream {
+
+        public JsonGenerator getGenerator() {
+            return _generator;
+        }
+
+        public byte[] getBuffer() {
+            return buf;
+        }
+
+        private LineBuffer() {
+            super(INITIAL_BUFFER_SIZE);
+            try {
+                _generator = OBJECT_MAPPER.getFactory().createGenerator(this, JsonEncoding.UTF8);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            }
+            // Each line is a separate root value
+            _generator.setRootValueSeparator(null);
+        }
+
+        private final JsonGenerator _generator;
+
+        private static final int INITIAL_BUFFER_SIZE = 1024;
+    }
+
     // NOTE: Package private for testing
     /* package private */static final class ShutdownHookThread extends Thread {
 
         public ShutdownHookThread(final LoggerContext context) {
             _context = context;
+            _writer = null;
+        }
+
+        public ShutdownHookThread(final AsyncQueryLogWriter writer) {
+            _context = null;
+            _writer = writer;
         }
 
         @Override
         public void run() {
-            _context.stop();
+            if (_context != null) {
+                _context.stop();
+            }
+            if (_writer != null) {
+                try {
+                    _writer.close();
+                } catch (final IOException e) {
+                    LOGGER.warn("Exception closing query log", e);
+                }
+            }
         }
 
         private final LoggerContext _context;
+        private final AsyncQueryLogWriter _writer;
+    }
+
+    /**
+     * Snapshot of the counters of the writer thread in direct mode.
+     *
+     * This class is thread safe.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    public static final class WriterStatistics {
+
+        /**
+         * Number of entries handed off to the writer thread.
+         *
+         * @return Number of entries handed off to the writer thread.
+         */
+        public long getEnqueuedCount() {
+            return _enqueuedCount;
+        }
+
+        /**
+         * Number of entries dropped because the queue was full.
+         *
+         * @return Number of entries dropped because the queue was full.
+         */
+        public long getDroppedCount() {
+            return _droppedCount;
+        }
+
+        /**
+         * Number of entries written by the writer thread.
+         *
+         * @return Number of entries written by the writer thread.
+         */
+        public long getWrittenCount() {
+            return _writtenCount;
+        }
+
+        /**
+         * Number of batches written by the writer thread.
+         *
+         * @return Number of batches written by the writer thread.
+         */
+        public long getBatchCount() {
+            return _batchCount;
+        }
+
+        /**
+         * Time taken to write and flush the most recent batch in nanoseconds.
+         *
+         * @return Time taken to write and flush the most recent batch in nanoseconds.
+         */
+        public long getLastFlushLatencyNanos() {
+            return _lastFlushLatencyNanos;
+        }
+
+        /**
+         * Maximum time taken to write and flush a batch in nanoseconds.
+         *
+         * @return Maximum time taken to write and flush a batch in nanoseconds.
+         */
+        public long getMaxFlushLatencyNanos() {
+            return _maxFlushLatencyNanos;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return String.format(
+                    "WriterStatistics{EnqueuedCount=%d, DroppedCount=%d, WrittenCount=%d, BatchCount=%d, "
+                            + "LastFlushLatencyNanos=%d, MaxFlushLatencyNanos=%d}",
+                    _enqueuedCount,
+                    _droppedCount,
+                    _writtenCount,
+                    _batchCount,
+                    _lastFlushLatencyNanos,
+                    _maxFlushLatencyNanos);
+        }
+
+        /* package private */ WriterStatistics(
+                final long enqueuedCount,
+                final long droppedCount,
+                final long writtenCount,
+                final long batchCount,
+                final long lastFlushLatencyNanos,
+                final long maxFlushLatencyNanos) {
+            _enqueuedCount = enqueuedCount;
+            _droppedCount = droppedCount;
+            _writtenCount = writtenCount;
+            _batchCount = batchCount;
+            _lastFlushLatencyNanos = lastFlushLatencyNanos;
+            _maxFlushLatencyNanos = maxFlushLatencyNanos;
+        }
+
+        private final long _enqueuedCount;
+        private final long _droppedCount;
+        private final long _writtenCount;
+        private final long _batchCount;
+        private final long _lastFlushLatencyNanos;
+        private final long _maxFlushLatencyNanos;
+    }
+
+    /**
+     * Policy for entries recorded in direct mode while the queue to the
+     * writer thread is full.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for space in the queue.
+         */
+        BLOCK,
+        /**
+         * Discard the entry being recorded.
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest entry in the queue to make space.
+         */
+        DROP_OLDEST
     }
 
     /**
@@ -375,6 +736,18 @@ public class TsdQueryLogSink implements Sink {
             if (_maxHistory.intValue() < 0) {
                 throw new IllegalArgumentException("MaxHistory cannot be negative");
             }
+            if (_direct == null) {
+                throw new IllegalArgumentException("Direct cannot be null");
+            }
+            if (_queueCapacity == null) {
+                throw new IllegalArgumentException("QueueCapacity cannot be null");
+            }
+            if (_queueCapacity.intValue() < 1) {
+                throw new IllegalArgumentException("QueueCapacity must be positive");
+            }
+            if (_overflowPolicy == null) {
+                throw new IllegalArgumentException("OverflowPolicy cannot be null");
+            }
             return new TsdQueryLogSink(this);
         }
 
@@ -438,16 +811,62 @@ public class TsdQueryLogSink implements Sink {
             return this;
         }
 
+        /**
+         * Set whether entries are serialized and written directly to the
+         * query log instead of through logback. The output is the same in
+         * both modes. Optional; default is false.
+         *
+         * @param value Whether to write entries directly.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setDirect(final Boolean value) {
+            _direct = value;
+            return this;
+        }
+
+        /**
+         * Set the number of entries which may be waiting to be written.
+         * Optional; default is 500. In direct mode the capacity is rounded
+         * up to the next power of two.
+         *
+         * @param value The capacity of the queue.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setQueueCapacity(final Integer value) {
+            _queueCapacity = value;
+            return this;
+        }
+
+        /**
+         * Set the policy for entries recorded while the queue is full. This
+         * only applies in direct mode; through logback recording always
+         * blocks until there is space. Optional; default is
+         * <code>DROP_NEWEST</code>.
+         *
+         * @param value The <code>OverflowPolicy</code>.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setOverflowPolicy(final OverflowPolicy value) {
+            _overflowPolicy = value;
+            return this;
+        }
+
         private String _path = DEFAULT_PATH;
         private String _name = DEFAULT_NAME;
         private String _extension = DEFAULT_EXTENSION;
         private Boolean _immediateFlush = DEFAULT_IMMEDIATE_FLUSH;
         private Integer _maxHistory = DEFAULT_MAX_HISTORY;
+        private Boolean _direct = DEFAULT_DIRECT;
+        private Integer _queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private OverflowPolicy _overflowPolicy = DEFAULT_OVERFLOW_POLICY;
 
         private static final String DEFAULT_PATH = "";
         private static final String DEFAULT_NAME = "query";
         private static final String DEFAULT_EXTENSION = ".log";
         private static final Boolean DEFAULT_IMMEDIATE_FLUSH = true;
         private static final Integer DEFAULT_MAX_HISTORY = 24;
+        private static final Boolean DEFAULT_DIRECT = false;
+        private static final Integer DEFAULT_QUEUE_CAPACITY = 500;
+        private static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_NEWEST;
     }
 }
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for <code>AsyncQueryLogWriter</code>. The writer thread is stalled by
+ * holding the monitor of the underlying <code>RollingQueryLogWriter</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class AsyncQueryLogWriterTest {
+
+    @Test
+    public void testWrite() throws IOException {
+        final File file = createFile("testWrite");
+        final AsyncQueryLogWriter writer = createWriter(file, 4, TsdQueryLogSink.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 100; ++i) {
+            write(writer, "line " + i + "\n");
+        }
+        writer.close();
+
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; ++i) {
+            expected.append("line ").append(i).append("\n");
+        }
+        Assert.assertEquals(expected.toString(), read(file));
+        Assert.assertEquals(100, writer.getEnqueuedCount());
+        Assert.assertEquals(0, writer.getDroppedCount());
+        Assert.assertEquals(100, writer.getWrittenCount());
+        Assert.assertTrue(writer.getBatchCount() > 0);
+        Assert.assertTrue(writer.getMaxFlushLatencyNanos() >= writer.getLastFlushLatencyNanos());
+    }
+
+    @Test
+    public void testWriteWakesIdleWriter() throws IOException, InterruptedException {
+        final File file = createFile("testWriteWakesIdleWriter");
+        final AsyncQueryLogWriter writer = createWriter(file, 4, TsdQueryLogSink.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 3; ++i) {
+            // Let the writer thread become idle before each line
+            Thread.sleep(100);
+            write(writer, "line " + i + "\n");
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (writer.getWrittenCount() <= i && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            Assert.assertEquals(i + 1, writer.getWrittenCount());
+        }
+        writer.close();
+
+        Assert.assertEquals("line 0\nline 1\nline 2\n", read(file));
+    }
+
+    @Test
+    public void testDropNewest() throws IOException, InterruptedException {
+        final File file = createFile("testDropNewest");
+        final Logger logger = Mockito.mock(Logger.class);
+        final RollingQueryLogWriter rollingWriter = createRollingWriter(file);
+        final AsyncQueryLogWriter writer = createWriter(rollingWriter, TsdQueryLogSink.OverflowPolicy.DROP_NEWEST, logger);
+        synchronized (rollingWriter) {
+            fill(writer);
+            write(writer, "f\n");
+        }
+        writer.close();
+
+        Assert.assertEquals("a\nb\nc\nd\ne\n", read(file));
+        Assert.assertEquals(5, writer.getEnqueuedCount());
+        Assert.assertEquals(1, writer.getDroppedCount());
+        Assert.assertEquals(5, writer.getWrittenCount());
+        Mockito.verify(logger).warn(Mockito.argThat(Matchers.containsString("dropped=1")));
+    }
+
+    @Test
+    public void testDropOldest() throws IOException, InterruptedException {
+        final File file = createFile("testDropOldest");
+        final RollingQueryLogWriter rollingWriter = createRollingWriter(file);
+        final AsyncQueryLogWriter writer = createWriter(
+                rollingWriter,
+                TsdQueryLogSink.OverflowPolicy.DROP_OLDEST,
+                Mockito.mock(Logger.class));
+        synchronized (rollingWriter) {
+            fill(writer);
+            write(writer, "f\n");
+        }
+        writer.close();
+
+        Assert.assertEquals("a\nc\nd\ne\nf\n", read(file));
+        Assert.assertEquals(6, writer.getEnqueuedCount());
+        Assert.assertEquals(1, writer.getDroppedCount());
+    }
+
+    @Test
+    public void testBlock() throws IOException, InterruptedException {
+        final File file = createFile("testBlock");
+        final RollingQueryLogWriter rollingWriter = createRollingWriter(file);
+        final AsyncQueryLogWriter writer = createWriter(
+                rollingWriter,
+                TsdQueryLogSink.OverflowPolicy.BLOCK,
+                Mockito.mock(Logger.class));
+        final CountDownLatch writtenLatch = new CountDownLatch(1);
+        final Thread producer = new Thread(() -> {
+            try {
+                write(writer, "f\n");
+                writtenLatch.countDown();
+            } catch (final IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        synchronized (rollingWriter) {
+            fill(writer);
+            producer.start();
+            Assert.assertFalse(writtenLatch.await(200, TimeUnit.MILLISECONDS));
+        }
+        Assert.assertTrue(writtenLatch.await(5, TimeUnit.SECONDS));
+        producer.join();
+        writer.close();
+
+        Assert.assertEquals("a\nb\nc\nd\ne\nf\n", read(file));
+        Assert.assertEquals(6, writer.getEnqueuedCount());
+        Assert.assertEquals(0, writer.getDroppedCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException {
+        final AsyncQueryLogWriter writer = createWriter(
+                createFile("testWriteAfterClose"),
+                4,
+                TsdQueryLogSink.OverflowPolicy.DROP_NEWEST);
+        writer.close();
+        write(writer, "foo\n");
+    }
+
+    @Test
+    public void testWriteFailure() throws IOException {
+        final Logger logger = Mockito.mock(Logger.class);
+        final RollingQueryLogWriter rollingWriter = createRollingWriter(createFile("testWriteFailure"));
+        final AsyncQueryLogWriter writer = createWriter(rollingWriter, TsdQueryLogSink.OverflowPolicy.DROP_NEWEST, logger);
+        rollingWriter.close();
+        write(writer, "foo\n");
+        writer.close();
+
+        Mockito.verify(logger).warn(
+                Mockito.argThat(Matchers.any(String.class)),
+                Mockito.argThat(Matchers.any(Throwable.class)));
+    }
+
+    private static void fill(final AsyncQueryLogWriter writer) throws IOException, InterruptedException {
+        // The writer thread takes the first line and then stalls writing it
+        write(writer, "a\n");
+        while (!writer.getBuffer().isEmpty()) {
+            Thread.sleep(1);
+        }
+        // The remaining lines fill the buffer
+        write(writer, "b\n");
+        write(writer, "c\n");
+        write(writer, "d\n");
+        write(writer, "e\n");
+        Assert.assertEquals(4, writer.getBuffer().size());
+    }
+
+    private static File createFile(final String name) throws IOException {
+        final File file = new File(DIRECTORY, name + ".log");
+        Files.createDirectories(DIRECTORY.toPath());
+        Files.deleteIfExists(file.toPath());
+        return file;
+    }
+
+    private static RollingQueryLogWriter createRollingWriter(final File file) {
+        final String path = file.getPath();
+        return new RollingQueryLogWriter(
+                path.substring(0, path.length() - ".log".length()),
+                ".log",
+                0,
+                false,
+                Clock.fixed(Instant.parse("2015-03-24T12:00:00Z"), ZoneOffset.UTC),
+                Mockito.mock(Logger.class));
+    }
+
+    private static AsyncQueryLogWriter createWriter(
+            final File file,
+            final int capacity,
+            final TsdQueryLogSink.OverflowPolicy overflowPolicy) {
+        return new AsyncQueryLogWriter(
+                createRollingWriter(file),
+                capacity,
+                overflowPolicy,
+                true,
+                Mockito.mock(Logger.class));
+    }
+
+    private static AsyncQueryLogWriter createWriter(
+            final RollingQueryLogWriter rollingWriter,
+            final TsdQueryLogSink.OverflowPolicy overflowPolicy,
+            final Logger logger) {
+        return new AsyncQueryLogWriter(rollingWriter, 4, overflowPolicy, true, logger);
+    }
+
+    private static void write(final AsyncQueryLogWriter writer, final String line) throws IOException {
+        final byte[] data = line.getBytes(StandardCharsets.UTF_8);
+        writer.write(data, 0, data.length);
+    }
+
+    private static String read(final File file) throws IOException {
+        // CHECKSTYLE.OFF: IllegalInstantiation - No Guava
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        // CHECKSTYLE.ON: IllegalInstantiation
+    }
+
+    private static final File DIRECTORY = new File("./target/AsyncQueryLogWriterTest");
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests for <code>BoundedRingBuffer</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class BoundedRingBufferTest {
+
+    @Test
+    public void testCapacity() {
+        Assert.assertEquals(2, new BoundedRingBuffer<Integer>(1).getCapacity());
+        Assert.assertEquals(2, new BoundedRingBuffer<Integer>(2).getCapacity());
+        Assert.assertEquals(4, new BoundedRingBuffer<Integer>(3).getCapacity());
+        Assert.assertEquals(512, new BoundedRingBuffer<Integer>(500).getCapacity());
+        Assert.assertEquals(512, new BoundedRingBuffer<Integer>(512).getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacity() {
+        new BoundedRingBuffer<Integer>(0);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testOfferNull() {
+        new BoundedRingBuffer<Integer>(4).offer(null);
+    }
+
+    @Test
+    public void testOfferPoll() {
+        final BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(4);
+        Assert.assertTrue(buffer.isEmpty());
+        Assert.assertNull(buffer.poll());
+
+        // Wrap around the ring several times
+        for (int lap = 0; lap < 3; ++lap) {
+            for (int i = 0; i < 4; ++i) {
+                Assert.assertTrue(buffer.offer(i));
+            }
+            Assert.assertEquals(4, buffer.size());
+            Assert.assertFalse(buffer.offer(4));
+            for (int i = 0; i < 4; ++i) {
+                Assert.assertEquals(Integer.valueOf(i), buffer.poll());
+            }
+            Assert.assertTrue(buffer.isEmpty());
+            Assert.assertNull(buffer.poll());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(64);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; ++p) {
+            final int producer = p;
+            final Thread thread = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < ELEMENTS_PER_PRODUCER; ++i) {
+                    final Integer element = producer * ELEMENTS_PER_PRODUCER + i;
+                    while (!buffer.offer(element)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            thread.start();
+            producers.add(thread);
+        }
+        startLatch.countDown();
+
+        // Elements from each producer must arrive exactly once and in order
+        final int[] next = new int[PRODUCERS];
+        int received = 0;
+        while (received < PRODUCERS * ELEMENTS_PER_PRODUCER) {
+            final Integer element = buffer.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+            final int producer = element / ELEMENTS_PER_PRODUCER;
+            Assert.assertEquals(next[producer], element % ELEMENTS_PER_PRODUCER);
+            ++next[producer];
+            ++received;
+        }
+        for (final Thread thread : producers) {
+            thread.join();
+        }
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    private static final int PRODUCERS = 4;
+    private static final int ELEMENTS_PER_PRODUCER = 25000;
+}
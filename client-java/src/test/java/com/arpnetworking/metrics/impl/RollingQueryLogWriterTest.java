@@ -0,0 +1,210 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import com.arpnetworking.metrics.test.MutableClock;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for <code>RollingQueryLogWriter</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class RollingQueryLogWriterTest {
+
+    @Test
+    public void testWrite() throws IOException {
+        final File directory = createDirectory("testWrite");
+        final MutableClock clock = new MutableClock(START);
+        final RollingQueryLogWriter writer = createWriter(directory, clock, 24);
+        write(writer, "foo\n");
+        write(writer, "bar\n");
+        writer.close();
+
+        Assert.assertEquals("foo\nbar\n", read(new File(directory, "query.log")));
+    }
+
+    @Test
+    public void testRollover() throws IOException {
+        final File directory = createDirectory("testRollover");
+        final MutableClock clock = new MutableClock(START.plus(30, ChronoUnit.MINUTES));
+        final RollingQueryLogWriter writer = createWriter(directory, clock, 24);
+        write(writer, "foo\n");
+        clock.setInstant(START.plus(59, ChronoUnit.MINUTES));
+        write(writer, "bar\n");
+        clock.setInstant(START.plus(61, ChronoUnit.MINUTES));
+        write(writer, "baz\n");
+        writer.close();
+
+        Assert.assertEquals(new File(directory, "query.2015-03-24-12.log.gz"), writer.getArchiveFile(START));
+        Assert.assertEquals("foo\nbar\n", readGzip(writer.getArchiveFile(START)));
+        Assert.assertEquals("baz\n", read(new File(directory, "query.log")));
+    }
+
+    @Test
+    public void testRolloverExistingFile() throws IOException {
+        final File directory = createDirectory("testRolloverExistingFile");
+        final File file = new File(directory, "query.log");
+        Files.write(file.toPath(), "foo\n".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(file.setLastModified(START.plus(10, ChronoUnit.MINUTES).toEpochMilli()));
+
+        final MutableClock clock = new MutableClock(START.plus(3, ChronoUnit.HOURS));
+        final RollingQueryLogWriter writer = createWriter(directory, clock, 24);
+        write(writer, "bar\n");
+        writer.close();
+
+        Assert.assertEquals("foo\n", readGzip(writer.getArchiveFile(START)));
+        Assert.assertEquals("bar\n", read(file));
+    }
+
+    @Test
+    public void testRolloverExistingFileWithoutAppend() throws IOException {
+        final File directory = createDirectory("testRolloverExistingFileWithoutAppend");
+        final File file = new File(directory, "query.log");
+        Files.write(file.toPath(), "fo".getBytes(StandardCharsets.UTF_8));
+        Assert.assertTrue(file.setLastModified(START.plus(10, ChronoUnit.MINUTES).toEpochMilli()));
+
+        // The existing file is rolled over even though its hour has not elapsed
+        final MutableClock clock = new MutableClock(START.plus(20, ChronoUnit.MINUTES));
+        final RollingQueryLogWriter writer = new RollingQueryLogWriter(
+                new File(directory, "query").getPath(),
+                ".log",
+                24,
+                true,
+                false,
+                clock,
+                Mockito.mock(Logger.class));
+        write(writer, "bar\n");
+        clock.setInstant(START.plus(30, ChronoUnit.MINUTES));
+        write(writer, "baz\n");
+        writer.close();
+
+        Assert.assertEquals("fo", readGzip(writer.getArchiveFile(START)));
+        Assert.assertEquals("bar\nbaz\n", read(file));
+    }
+
+    @Test
+    public void testMaxHistory() throws IOException {
+        final File directory = createDirectory("testMaxHistory");
+        final MutableClock clock = new MutableClock(START);
+        final RollingQueryLogWriter writer = createWriter(directory, clock, 2);
+        for (int i = 0; i < 5; ++i) {
+            clock.setInstant(START.plus(i, ChronoUnit.HOURS));
+            write(writer, "line " + i + "\n");
+        }
+        writer.close();
+
+        Assert.assertFalse(writer.getArchiveFile(START).exists());
+        Assert.assertFalse(writer.getArchiveFile(START.plus(1, ChronoUnit.HOURS)).exists());
+        Assert.assertEquals("line 2\n", readGzip(writer.getArchiveFile(START.plus(2, ChronoUnit.HOURS))));
+        Assert.assertEquals("line 3\n", readGzip(writer.getArchiveFile(START.plus(3, ChronoUnit.HOURS))));
+        Assert.assertEquals("line 4\n", read(new File(directory, "query.log")));
+    }
+
+    @Test
+    public void testWriteEncoder() throws IOException {
+        final File directory = createDirectory("testWriteEncoder");
+        final MutableClock clock = new MutableClock(START);
+        final RollingQueryLogWriter writer = createWriter(directory, clock, 24);
+        final StringBuilder newFiles = new StringBuilder();
+        final RollingQueryLogWriter.Encoder encoder = (outputStream, isNewFile) -> {
+            newFiles.append(isNewFile ? 'Y' : 'N');
+            outputStream.write('x');
+        };
+        writer.write(encoder);
+        writer.write(encoder);
+        clock.setInstant(START.plus(1, ChronoUnit.HOURS));
+        writer.write(encoder);
+        writer.close();
+
+        Assert.assertEquals("YNY", newFiles.toString());
+        Assert.assertEquals("xx", readGzip(writer.getArchiveFile(START)));
+        Assert.assertEquals("x", read(new File(directory, "query.log")));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException {
+        final File directory = createDirectory("testWriteAfterClose");
+        final RollingQueryLogWriter writer = createWriter(directory, new MutableClock(START), 24);
+        writer.close();
+        write(writer, "foo\n");
+    }
+
+    private static File createDirectory(final String name) throws IOException {
+        final File directory = new File(DIRECTORY, name);
+        Files.createDirectories(directory.toPath());
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        return directory;
+    }
+
+    private static RollingQueryLogWriter createWriter(final File directory, final Clock clock, final int maxHistory) {
+        return new RollingQueryLogWriter(
+                new File(directory, "query").getPath(),
+                ".log",
+                maxHistory,
+                true,
+                clock,
+                Mockito.mock(Logger.class));
+    }
+
+    private static void write(final RollingQueryLogWriter writer, final String line) throws IOException {
+        final byte[] data = line.getBytes(StandardCharsets.UTF_8);
+        writer.write(data, 0, data.length);
+    }
+
+    private static String read(final File file) throws IOException {
+        // CHECKSTYLE.OFF: IllegalInstantiation - No Guava
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        // CHECKSTYLE.ON: IllegalInstantiation
+    }
+
+    private static String readGzip(final File file) throws IOException {
+        try (final InputStream inputStream = new GZIPInputStream(Files.newInputStream(file.toPath()))) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int length = inputStream.read(buffer);
+            while (length >= 0) {
+                outputStream.write(buffer, 0, length);
+                length = inputStream.read(buffer);
+            }
+            // CHECKSTYLE.OFF: IllegalInstantiation - No Guava
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+            // CHECKSTYLE.ON: IllegalInstantiation
+        }
+    }
+
+    private static final File DIRECTORY = new File("./target/RollingQueryLogWriterTest");
+    private static final Instant START = Instant.parse("2015-03-24T12:00:00Z");
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import com.arpnetworking.metrics.Counter;
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.Quantity;
+import com.arpnetworking.metrics.Sink;
+import com.arpnetworking.metrics.Unit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for <code>SingleThreadedTsdMetrics</code>. All the tests for
+ * <code>TsdMetrics</code> are run against this implementation as well.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class SingleThreadedTsdMetricsTest extends TsdMetricsTest {
+
+    @Test
+    public void testSinksShareViews() {
+        final Sink sink1 = Mockito.mock(Sink.class, "SingleThreadedTsdMetricsTest.testSinksShareViews.sink1");
+        final Sink sink2 = Mockito.mock(Sink.class, "SingleThreadedTsdMetricsTest.testSinksShareViews.sink2");
+        final Metrics metrics = createMetrics(Arrays.asList(sink1, sink2), Clock.systemUTC(), createLogger());
+        metrics.setGauge("gauge", 1L);
+        metrics.close();
+
+        final Map<String, List<Quantity>> gauges1 = captureGauges(sink1);
+        final Map<String, List<Quantity>> gauges2 = captureGauges(sink2);
+        Assert.assertSame(gauges1, gauges2);
+        Assert.assertSame(gauges1.get("gauge"), gauges2.get("gauge"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testViewIsReadOnly() {
+        final Sink sink = Mockito.mock(Sink.class);
+        final Metrics metrics = createMetrics(Collections.singletonList(sink), Clock.systemUTC(), createLogger());
+        metrics.setGauge("gauge", 1L);
+        metrics.close();
+
+        captureGauges(sink).get("gauge").add(TsdQuantity.newInstance(2L, null));
+    }
+
+    @Test
+    public void testManyMetricsAndSamples() {
+        final Sink sink = Mockito.mock(Sink.class);
+        final Metrics metrics = createMetrics(Collections.singletonList(sink), Clock.systemUTC(), createLogger());
+        for (int i = 0; i < 100; ++i) {
+            for (int j = 0; j <= i % 10; ++j) {
+                // CHECKSTYLE.OFF: IllegalInstantiation - Names must not be interned
+                final String name = new String("gauge-" + i);
+                // CHECKSTYLE.ON: IllegalInstantiation
+                if (j % 2 == 0) {
+                    metrics.setGauge(name, (long) j, Unit.BYTE);
+                } else {
+                    metrics.setGauge(name, j + 0.5);
+                }
+            }
+        }
+        metrics.close();
+
+        final Map<String, List<Quantity>> gauges = captureGauges(sink);
+        Assert.assertEquals(100, gauges.size());
+        int index = 0;
+        for (final Map.Entry<String, List<Quantity>> entry : gauges.entrySet()) {
+            // Iteration follows the order metrics were first recorded
+            Assert.assertEquals("gauge-" + index, entry.getKey());
+            final List<Quantity> samples = entry.getValue();
+            Assert.assertEquals(index % 10 + 1, samples.size());
+            for (int j = 0; j < samples.size(); ++j) {
+                if (j % 2 == 0) {
+                    Assert.assertEquals(Long.valueOf(j), samples.get(j).getValue());
+                    Assert.assertEquals(Unit.BYTE, samples.get(j).getUnit());
+                } else {
+                    Assert.assertEquals(Double.valueOf(j + 0.5), samples.get(j).getValue());
+                    Assert.assertNull(samples.get(j).getUnit());
+                }
+            }
+            Assert.assertSame(samples, gauges.get("gauge-" + index));
+            ++index;
+        }
+        Assert.assertNull(gauges.get("gauge-100"));
+        Assert.assertFalse(gauges.containsKey("gauge-100"));
+    }
+
+    @Test
+    public void testResetCounter() {
+        final Sink sink = Mockito.mock(Sink.class);
+        final Metrics metrics = createMetrics(Collections.singletonList(sink), Clock.systemUTC(), createLogger());
+        metrics.incrementCounter("counter", 2L);
+        metrics.resetCounter("counter");
+        metrics.decrementCounter("counter");
+        final Counter counter = metrics.createCounter("counter");
+        counter.increment(5L);
+        metrics.incrementCounter("counter");
+        metrics.close();
+
+        final List<Quantity> samples = captureCounters(sink).get("counter");
+        Assert.assertEquals(3, samples.size());
+        Assert.assertEquals(Long.valueOf(2L), samples.get(0).getValue());
+        Assert.assertEquals(Long.valueOf(0L), samples.get(1).getValue());
+        Assert.assertEquals(Long.valueOf(5L), samples.get(2).getValue());
+    }
+
+    @Test
+    public void testCounterAfterClose() {
+        final org.slf4j.Logger logger = createLogger();
+        final Sink sink = Mockito.mock(Sink.class);
+        final Metrics metrics = createMetrics(Collections.singletonList(sink), Clock.systemUTC(), logger);
+        final Counter counter = metrics.createCounter("counter");
+        counter.increment();
+        metrics.close();
+        counter.increment();
+
+        Mockito.verify(logger).warn(Mockito.anyString());
+        Assert.assertEquals(Long.valueOf(1L), captureCounters(sink).get("counter").get(0).getValue());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Metrics createMetrics(final List<Sink> sinks, final Clock clock, final org.slf4j.Logger logger) {
+        return new SingleThreadedTsdMetrics(sinks, clock, logger);
+    }
+
+    private static org.slf4j.Logger createLogger() {
+        return Mockito.mock(org.slf4j.Logger.class);
+    }
+
+    private static Map<String, List<Quantity>> captureCounters(final Sink sink) {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        final ArgumentCaptor<Map<String, List<Quantity>>> captor = ArgumentCaptor.forClass((Class) Map.class);
+        Mockito.verify(sink).record(
+                Mockito.anyMapOf(String.class, String.class),
+                Mockito.<Map<String, List<Quantity>>>any(),
+                captor.capture(),
+                Mockito.<Map<String, List<Quantity>>>any());
+        return captor.getValue();
+    }
+
+    private static Map<String, List<Quantity>> captureGauges(final Sink sink) {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        final ArgumentCaptor<Map<String, List<Quantity>>> captor = ArgumentCaptor.forClass((Class) Map.class);
+        Mockito.verify(sink).record(
+                Mockito.anyMapOf(String.class, String.class),
+                Mockito.<Map<String, List<Quantity>>>any(),
+                Mockito.<Map<String, List<Quantity>>>any(),
+                captor.capture());
+        return captor.getValue();
+    }
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import com.arpnetworking.metrics.Quantity;
+import com.arpnetworking.metrics.Unit;
+import com.arpnetworking.metrics.test.MutableClock;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for <code>TsdAggregatingSink</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class TsdAggregatingSinkTest {
+
+    @Test
+    public void testRound() {
+        Assert.assertEquals(0.0, TsdAggregatingSink.round(0.0, 7), 0.0);
+        Assert.assertEquals(1.0, TsdAggregatingSink.round(1.0, 7), 0.0);
+        Assert.assertEquals(255.0, TsdAggregatingSink.round(255.0, 7), 0.0);
+        Assert.assertEquals(258.0, TsdAggregatingSink.round(257.0, 7), 0.0);
+        Assert.assertEquals(-258.0, TsdAggregatingSink.round(-257.0, 7), 0.0);
+        Assert.assertEquals(256.0, TsdAggregatingSink.round(255.0, 1), 0.0);
+        Assert.assertEquals(0.1, TsdAggregatingSink.round(0.1, 52), 0.0);
+        Assert.assertTrue(Double.isNaN(TsdAggregatingSink.round(Double.NaN, 7)));
+        Assert.assertEquals(Double.POSITIVE_INFINITY, TsdAggregatingSink.round(Double.POSITIVE_INFINITY, 7), 0.0);
+    }
+
+    @Test
+    public void testRoundRelativeError() {
+        final Random random = new Random(1);
+        for (int precision = 1; precision < 52; ++precision) {
+            final double maximumError = Math.pow(2, -(precision + 1));
+            for (int i = 0; i < 1000; ++i) {
+                final double value = Math.exp(random.nextDouble() * 40.0 - 20.0);
+                final double rounded = TsdAggregatingSink.round(value, precision);
+                Assert.assertTrue(Math.abs(rounded - value) / value <= maximumError);
+            }
+        }
+    }
+
+    @Test
+    public void testAggregation() throws IOException {
+        final MutableClock clock = new MutableClock(START.plusSeconds(5));
+        final TsdAggregatingSink sink = createSink("testAggregation", clock);
+        for (int i = 0; i < 10; ++i) {
+            final Map<String, List<Quantity>> timers = new LinkedHashMap<>();
+            timers.put("timer", Arrays.asList(
+                    TsdQuantity.newInstance(i % 2 == 0 ? 100L : 257L, Unit.MILLISECOND),
+                    TsdQuantity.newInstance(1L, Unit.SECOND)));
+            sink.record(
+                    createAnnotations("host1"),
+                    timers,
+                    Collections.singletonMap("counter", Collections.singletonList(TsdQuantity.newInstance(1L, null))),
+                    Collections.singletonMap("gauge", Collections.singletonList(TsdQuantity.newInstance(i + 0.5, null))));
+            clock.setInstant(clock.instant().plusSeconds(1));
+        }
+        clock.setInstant(START.plusSeconds(61));
+        sink.close();
+
+        final List<JsonNode> lines = readLines(sink.getFile());
+        Assert.assertEquals(1, lines.size());
+        final JsonNode line = lines.get(0);
+        Assert.assertEquals("aint.metrics", line.get("name").asText());
+        final JsonNode data = line.get("data");
+        Assert.assertEquals("2f", data.get("version").asText());
+        Assert.assertEquals("host1", data.get("annotations").get("host").asText());
+        Assert.assertEquals("2015-03-24T12:00:05.000Z", data.get("annotations").get("initTimestamp").asText());
+        Assert.assertEquals("2015-03-24T12:00:14.000Z", data.get("annotations").get("finalTimestamp").asText());
+
+        final JsonNode timerValues = data.get("timers").get("timer").get("values");
+        Assert.assertEquals(3, timerValues.size());
+        assertBucket(timerValues.get(0), "100", 5, "millisecond");
+        assertBucket(timerValues.get(1), "258", 5, "millisecond");
+        assertBucket(timerValues.get(2), "1", 10, "second");
+
+        final JsonNode counterValues = data.get("counters").get("counter").get("values");
+        Assert.assertEquals(1, counterValues.size());
+        assertBucket(counterValues.get(0), "1", 10, null);
+
+        final JsonNode gaugeValues = data.get("gauges").get("gauge").get("values");
+        Assert.assertEquals(10, gaugeValues.size());
+        assertBucket(gaugeValues.get(0), "0.5", 1, null);
+        assertBucket(gaugeValues.get(9), "9.5", 1, null);
+    }
+
+    @Test
+    public void testGroupedByPeriodAndAnnotations() throws IOException {
+        final MutableClock clock = new MutableClock(START);
+        final TsdAggregatingSink sink = createSink("testGroupedByPeriodAndAnnotations", clock);
+        record(sink, "host1", 1L);
+        record(sink, "host2", 2L);
+        clock.setInstant(START.plusSeconds(60));
+        record(sink, "host1", 3L);
+
+        // Only the completed period is written
+        sink.flush();
+        final List<JsonNode> lines = readLines(sink.getFile());
+        Assert.assertEquals(2, lines.size());
+        final Map<String, JsonNode> byHost = new LinkedHashMap<>();
+        for (final JsonNode line : lines) {
+            byHost.put(line.get("data").get("annotations").get("host").asText(), line.get("data"));
+        }
+        assertBucket(byHost.get("host1").get("counters").get("counter").get("values").get(0), "1", 1, null);
+        assertBucket(byHost.get("host2").get("counters").get("counter").get("values").get(0), "2", 1, null);
+
+        // The remaining period is written on close
+        sink.close();
+        final List<JsonNode> allLines = readLines(sink.getFile());
+        Assert.assertEquals(3, allLines.size());
+        final JsonNode data = allLines.get(2).get("data");
+        Assert.assertEquals("2015-03-24T12:01:00.000Z", data.get("annotations").get("initTimestamp").asText());
+        assertBucket(data.get("counters").get("counter").get("values").get(0), "3", 1, null);
+    }
+
+    @Test
+    public void testConcurrentRecords() throws IOException, InterruptedException {
+        final MutableClock clock = new MutableClock(START);
+        final TsdAggregatingSink sink = createSink("testConcurrentRecords", clock);
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            final String host = "host" + (i % 2);
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 10000; ++j) {
+                    record(sink, host, j % 1000);
+                }
+            }));
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        // Periods which end while records are in progress are still written in full
+        clock.setInstant(START.plusSeconds(60));
+        sink.flush();
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        clock.setInstant(START.plusSeconds(120));
+        sink.close();
+
+        final Map<String, Long> countsByHost = new LinkedHashMap<>();
+        for (final JsonNode line : readLines(sink.getFile())) {
+            final String host = line.get("data").get("annotations").get("host").asText();
+            final JsonNode values = line.get("data").get("counters").get("counter").get("values");
+            long count = 0;
+            for (final JsonNode value : values) {
+                count += value.get("count").asLong();
+            }
+            countsByHost.put(host, countsByHost.getOrDefault(host, 0L) + count);
+        }
+        Assert.assertEquals(Long.valueOf(20000), countsByHost.get("host0"));
+        Assert.assertEquals(Long.valueOf(20000), countsByHost.get("host1"));
+    }
+
+    @Test
+    public void testManyDistinctValues() throws IOException {
+        final TsdAggregatingSink sink = createSink("testManyDistinctValues", new MutableClock(START));
+        for (int i = 0; i < 100; ++i) {
+            record(sink, "host1", i);
+            record(sink, "host1", 99 - i);
+        }
+        sink.close();
+
+        final List<JsonNode> lines = readLines(sink.getFile());
+        Assert.assertEquals(1, lines.size());
+        final JsonNode values = lines.get(0).get("data").get("counters").get("counter").get("values");
+        Assert.assertEquals(100, values.size());
+        for (int i = 0; i < 100; ++i) {
+            assertBucket(values.get(i), String.valueOf(i), 2, null);
+        }
+    }
+
+    @Test
+    public void testCloseTwice() throws IOException {
+        final TsdAggregatingSink sink = createSink("testCloseTwice", new MutableClock(START));
+        record(sink, "host1", 1L);
+        sink.close();
+        sink.close();
+        Assert.assertEquals(1, readLines(sink.getFile()).size());
+    }
+
+    @Test
+    public void testEmptyFlush() throws IOException {
+        final TsdAggregatingSink sink = createSink("testEmptyFlush", new MutableClock(START));
+        sink.flush();
+        sink.close();
+        Assert.assertFalse(sink.getFile().exists());
+    }
+
+    @Test
+    public void testBuilder() {
+        Assert.assertTrue(new TsdAggregatingSink.Builder()
+                .setPath("./target/TsdAggregatingSinkTest/testBuilder")
+                .setName("foo")
+                .setExtension(".bar")
+                .setMaxHistory(48)
+                .setPeriod(Duration.ofSeconds(10))
+                .setPrecision(10)
+                .setCloseOnShutdown(true)
+                .build() instanceof TsdAggregatingSink);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullPath() {
+        new TsdAggregatingSink.Builder()
+                .setPath(null)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderEmptyName() {
+        new TsdAggregatingSink.Builder()
+                .setName("")
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNegativeMaxHistory() {
+        new TsdAggregatingSink.Builder()
+                .setMaxHistory(-1)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullPeriod() {
+        new TsdAggregatingSink.Builder()
+                .setPeriod(null)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderZeroPeriod() {
+        new TsdAggregatingSink.Builder()
+                .setPeriod(Duration.ZERO)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullPrecision() {
+        new TsdAggregatingSink.Builder()
+                .setPrecision(null)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderZeroPrecision() {
+        new TsdAggregatingSink.Builder()
+                .setPrecision(0)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderExcessivePrecision() {
+        new TsdAggregatingSink.Builder()
+                .setPrecision(53)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullCloseOnShutdown() {
+        new TsdAggregatingSink.Builder()
+                .setCloseOnShutdown(null)
+                .build();
+    }
+
+    private static void record(final TsdAggregatingSink sink, final String host, final long value) {
+        sink.record(
+                createAnnotations(host),
+                Collections.<String, List<Quantity>>emptyMap(),
+                Collections.singletonMap("counter", Collections.singletonList(TsdQuantity.newInstance(value, null))),
+                Collections.<String, List<Quantity>>emptyMap());
+    }
+
+    private static void assertBucket(final JsonNode bucket, final String value, final long count, final String unit) {
+        Assert.assertEquals(value, bucket.get("value").asText());
+        Assert.assertEquals(count, bucket.get("count").asLong());
+        if (unit == null) {
+            Assert.assertNull(bucket.get("unit"));
+        } else {
+            Assert.assertEquals(unit, bucket.get("unit").asText());
+        }
+    }
+
+    private static Map<String, String> createAnnotations(final String host) {
+        final Map<String, String> annotations = new LinkedHashMap<>();
+        annotations.put("host", host);
+        annotations.put("initTimestamp", "2015-03-24T11:00:00Z");
+        annotations.put("finalTimestamp", "2015-03-24T11:00:01Z");
+        return annotations;
+    }
+
+    private static TsdAggregatingSink createSink(final String name, final Clock clock) throws IOException {
+        final File directory = new File(DIRECTORY, name);
+        Files.createDirectories(directory.toPath());
+        Files.deleteIfExists(new File(directory, "query.log").toPath());
+        return new TsdAggregatingSink(
+                new TsdAggregatingSink.Builder()
+                        .setPath(directory.getPath())
+                        .setMaxHistory(0),
+                clock,
+                Mockito.mock(Logger.class));
+    }
+
+    private static List<JsonNode> readLines(final File file) throws IOException {
+        final List<JsonNode> lines = new ArrayList<>();
+        for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            lines.add(OBJECT_MAPPER.readTree(line));
+        }
+        return lines;
+    }
+
+    private static final File DIRECTORY = new File("./target/TsdAggregatingSinkTest");
+    private static final Instant START = Instant.parse("2015-03-24T12:00:00Z");
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.impl;
+
+import com.arpnetworking.metrics.Quantity;
+import com.arpnetworking.metrics.Unit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Tests for <code>TsdBinaryQueryLogSink</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class TsdBinaryQueryLogSinkTest {
+
+    @Test
+    public void testRecord() throws IOException {
+        final TsdBinaryQueryLogSink sink = createSink("testRecord");
+        final Map<String, List<Quantity>> timers = new LinkedHashMap<>();
+        timers.put("timer", Arrays.asList(
+                TsdQuantity.newInstance(12L, Unit.MILLISECOND),
+                TsdQuantity.newInstance(1.5, Unit.SECOND)));
+        sink.record(
+                createAnnotations("host1"),
+                timers,
+                Collections.singletonMap("counter", Collections.singletonList(TsdQuantity.newInstance(1L, null))),
+                Collections.singletonMap("gauge", Collections.singletonList(TsdQuantity.newInstance(512L, Unit.MEGABYTE))));
+        sink.record(
+                createAnnotations("host2"),
+                Collections.<String, List<Quantity>>emptyMap(),
+                Collections.singletonMap("counter", Collections.singletonList(TsdQuantity.newInstance(2L, null))),
+                Collections.<String, List<Quantity>>emptyMap());
+        sink.close();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(sink.getFile().toPath()));
+
+        // First frame defines the annotation key and metric names
+        final ByteBuffer first = readFrame(buffer);
+        Assert.assertEquals(1, first.get());
+        Assert.assertEquals(0, readVarint(first));
+        Assert.assertEquals(4, readVarint(first));
+        Assert.assertEquals(Arrays.asList("host", "timer", "counter", "gauge"), Arrays.asList(
+                readString(first),
+                readString(first),
+                readString(first),
+                readString(first)));
+        Assert.assertEquals(INITIAL_TIMESTAMP, readVarint(first));
+        Assert.assertEquals(FINAL_TIMESTAMP, readVarint(first));
+        Assert.assertEquals(1, readVarint(first));
+        Assert.assertEquals(0, readVarint(first));
+        Assert.assertEquals("host1", readString(first));
+        // Timers
+        Assert.assertEquals(1, readVarint(first));
+        Assert.assertEquals(1, readVarint(first));
+        Assert.assertEquals(2, readVarint(first));
+        assertSample(first, 3, 12.0);
+        assertSample(first, 4, 1.5);
+        // Counters
+        Assert.assertEquals(1, readVarint(first));
+        Assert.assertEquals(2, readVarint(first));
+        Assert.assertEquals(1, readVarint(first));
+        assertSample(first, 0, 1.0);
+        // Gauges
+        Assert.assertEquals(1, readVarint(first));
+        Assert.assertEquals(3, readVarint(first));
+        Assert.assertEquals(1, readVarint(first));
+        assertSample(first, 11, 512.0);
+        Assert.assertFalse(first.hasRemaining());
+
+        // Second frame only refers to existing definitions
+        final ByteBuffer second = readFrame(buffer);
+        Assert.assertEquals(1, second.get());
+        Assert.assertEquals(4, readVarint(second));
+        Assert.assertEquals(0, readVarint(second));
+        Assert.assertEquals(INITIAL_TIMESTAMP, readVarint(second));
+        Assert.assertEquals(FINAL_TIMESTAMP, readVarint(second));
+        Assert.assertEquals(1, readVarint(second));
+        Assert.assertEquals(0, readVarint(second));
+        Assert.assertEquals("host2", readString(second));
+        Assert.assertEquals(0, readVarint(second));
+        Assert.assertEquals(1, readVarint(second));
+        Assert.assertEquals(2, readVarint(second));
+        Assert.assertEquals(1, readVarint(second));
+        assertSample(second, 0, 2.0);
+        Assert.assertEquals(0, readVarint(second));
+        Assert.assertFalse(second.hasRemaining());
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testDictionaryPerFile() throws IOException {
+        final TsdBinaryQueryLogSink sink = createSink("testDictionaryPerFile");
+        record(sink, "counter");
+        sink.close();
+        final byte[] existing = Files.readAllBytes(sink.getFile().toPath());
+
+        // Another sink rolls over the existing file and starts a new dictionary
+        final TsdBinaryQueryLogSink rollingSink = new TsdBinaryQueryLogSink(
+                new TsdBinaryQueryLogSink.Builder()
+                        .setPath(sink.getFile().getParent())
+                        .setMaxHistory(0),
+                Mockito.mock(Logger.class));
+        record(rollingSink, "counter");
+        rollingSink.close();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(sink.getFile().toPath()));
+        final ByteBuffer first = readFrame(ByteBuffer.wrap(existing));
+        final ByteBuffer second = readFrame(buffer);
+        Assert.assertEquals(first, second);
+        Assert.assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testExistingFileNotAppended() throws IOException {
+        final File directory = createDirectory("testExistingFileNotAppended");
+        final File file = new File(directory, "query.bin");
+        // A partial frame left by a crash
+        Files.write(file.toPath(), new byte[] {(byte) 0xb5, (byte) 0x1f, 100, 1, 2});
+
+        final TsdBinaryQueryLogSink sink = new TsdBinaryQueryLogSink(
+                new TsdBinaryQueryLogSink.Builder()
+                        .setPath(directory.getPath())
+                        .setMaxHistory(0),
+                Mockito.mock(Logger.class));
+        record(sink, "counter");
+        sink.close();
+
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        final ByteBuffer frame = readFrame(buffer);
+        Assert.assertEquals(1, frame.get());
+        Assert.assertFalse(buffer.hasRemaining());
+        final File[] archives = directory.listFiles((dir, name) -> name.endsWith(".bin.gz"));
+        Assert.assertNotNull(archives);
+        Assert.assertEquals(1, archives.length);
+    }
+
+    @Test
+    public void testInvalidTimestamps() throws IOException {
+        final Logger logger = Mockito.mock(Logger.class);
+        final File directory = createDirectory("testInvalidTimestamps");
+        final TsdBinaryQueryLogSink sink = new TsdBinaryQueryLogSink(
+                new TsdBinaryQueryLogSink.Builder()
+                        .setPath(directory.getPath())
+                        .setMaxHistory(0),
+                logger);
+        final Map<String, String> annotations = createAnnotations("host1");
+        annotations.put("finalTimestamp", "not a timestamp");
+        sink.record(
+                annotations,
+                Collections.<String, List<Quantity>>emptyMap(),
+                Collections.<String, List<Quantity>>emptyMap(),
+                Collections.<String, List<Quantity>>emptyMap());
+        sink.close();
+
+        Mockito.verify(logger).warn(Mockito.startsWith("Discarding entry without valid timestamps"));
+        Assert.assertFalse(sink.getFile().exists());
+    }
+
+    @Test
+    public void testBuilder() {
+        Assert.assertTrue(new TsdBinaryQueryLogSink.Builder()
+                .setPath("./target/TsdBinaryQueryLogSinkTest/testBuilder")
+                .setName("foo")
+                .setExtension(".bar")
+                .setImmediateFlush(false)
+                .setMaxHistory(48)
+                .build() instanceof TsdBinaryQueryLogSink);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullPath() {
+        new TsdBinaryQueryLogSink.Builder()
+                .setPath(null)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderEmptyName() {
+        new TsdBinaryQueryLogSink.Builder()
+                .setName("")
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullExtension() {
+        new TsdBinaryQueryLogSink.Builder()
+                .setExtension(null)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNegativeMaxHistory() {
+        new TsdBinaryQueryLogSink.Builder()
+                .setMaxHistory(-1)
+                .build();
+    }
+
+    private static void record(final TsdBinaryQueryLogSink sink, final String name) {
+        sink.record(
+                createAnnotations("host1"),
+                Collections.<String, List<Quantity>>emptyMap(),
+                Collections.singletonMap(name, Collections.singletonList(TsdQuantity.newInstance(1L, null))),
+                Collections.<String, List<Quantity>>emptyMap());
+    }
+
+    private static void assertSample(final ByteBuffer buffer, final int unit, final double value) {
+        Assert.assertEquals(unit, buffer.get());
+        Assert.assertEquals(value, buffer.getDouble(), 0.0);
+    }
+
+    private static ByteBuffer readFrame(final ByteBuffer buffer) {
+        Assert.assertEquals((byte) 0xb5, buffer.get());
+        Assert.assertEquals((byte) 0x1f, buffer.get());
+        final int length = (int) readVarint(buffer);
+        final long checksum = buffer.getInt() & 0xffffffffL;
+        final ByteBuffer frame = buffer.slice();
+        frame.limit(length);
+        buffer.position(buffer.position() + length);
+
+        final CRC32 expectedChecksum = new CRC32();
+        expectedChecksum.update(frame.duplicate());
+        Assert.assertEquals(expectedChecksum.getValue(), checksum);
+        return frame;
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final byte[] bytes = new byte[(int) readVarint(buffer)];
+        buffer.get(bytes);
+        // CHECKSTYLE.OFF: IllegalInstantiation - No Guava
+        return new String(bytes, StandardCharsets.UTF_8);
+        // CHECKSTYLE.ON: IllegalInstantiation
+    }
+
+    private static long readVarint(final ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static Map<String, String> createAnnotations(final String host) {
+        final Map<String, String> annotations = new LinkedHashMap<>();
+        annotations.put("initTimestamp", "2015-03-24T12:00:05.000Z");
+        annotations.put("host", host);
+        annotations.put("finalTimestamp", "2015-03-24T12:00:06.250Z");
+        return annotations;
+    }
+
+    private static File createDirectory(final String name) throws IOException {
+        final File directory = new File(DIRECTORY, name);
+        Files.createDirectories(directory.toPath());
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        return directory;
+    }
+
+    private static TsdBinaryQueryLogSink createSink(final String name) throws IOException {
+        return new TsdBinaryQueryLogSink(
+                new TsdBinaryQueryLogSink.Builder()
+                        .setPath(createDirectory(name).getPath())
+                        .setMaxHistory(0),
+                Mockito.mock(Logger.class));
+    }
+
+    private static final File DIRECTORY = new File("./target/TsdBinaryQueryLogSinkTest");
+    private static final long INITIAL_TIMESTAMP = 1427198405000L;
+    private static final long FINAL_TIMESTAMP = 1427198406250L;
+}
@@ -28,6 +28,7 @@ import org.mockito.Mockito;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -78,6 +79,33 @@ public class TsdMetricsFactoryTest {
         metrics.close();
     }
 
+    @Test
+    public void testCreateSingleThreaded() {
+        final Sink sink = Mockito.mock(Sink.class);
+        final MetricsFactory metricsFactory = new TsdMetricsFactory.Builder()
+                .setSinks(Collections.singletonList(sink))
+                .setSingleThreaded(true)
+                .build();
+        @SuppressWarnings("resource")
+        final Metrics metrics = metricsFactory.create();
+        Assert.assertNotNull(metrics);
+        Assert.assertTrue(metrics instanceof SingleThreadedTsdMetrics);
+        metrics.close();
+        Mockito.verify(sink).record(
+                org.mockito.Matchers.anyMapOf(String.class, String.class),
+                MockitoHelper.<Map<String, List<Quantity>>>argThat(Matchers.anEmptyMap()),
+                MockitoHelper.<Map<String, List<Quantity>>>argThat(Matchers.anEmptyMap()),
+                MockitoHelper.<Map<String, List<Quantity>>>argThat(Matchers.anEmptyMap()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullSingleThreaded() {
+        new TsdMetricsFactory.Builder()
+                .setSinks(Collections.<Sink>emptyList())
+                .setSingleThreaded(null)
+                .build();
+    }
+
     @Test
     public void testCreateWithDeprecatedSink() {
         final MetricsFactory metricsFactory = new TsdMetricsFactory.Builder().build();
@@ -16,6 +16,7 @@
 package com.arpnetworking.metrics.impl;
 
 import com.arpnetworking.metrics.Counter;
+import com.arpnetworking.metrics.Metrics;
 import com.arpnetworking.metrics.Quantity;
 import com.arpnetworking.metrics.Sink;
 import com.arpnetworking.metrics.Timer;
@@ -53,7 +54,7 @@ public class TsdMetricsTest {
     public void testEmptySingleSink() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.close();
 
         Mockito.verify(sink).record(
@@ -71,7 +72,7 @@ public class TsdMetricsTest {
         final Sink sink1 = Mockito.mock(Sink.class, "TsdMetricsTest.testEmptyMultipleSinks.sink1");
         final Sink sink2 = Mockito.mock(Sink.class, "TsdMetricsTest.testEmptyMultipleSinks.sink2");
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink1, sink2);
+        final Metrics metrics = createTsdMetrics(sink1, sink2);
         metrics.close();
 
         Mockito.verify(sink1).record(
@@ -97,7 +98,7 @@ public class TsdMetricsTest {
     public void testCounterOnly() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.incrementCounter("counter");
         metrics.close();
 
@@ -118,7 +119,7 @@ public class TsdMetricsTest {
     public void testTimerOnly() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.setTimer("timer", 1L, TimeUnit.MILLISECONDS);
         metrics.close();
 
@@ -139,7 +140,7 @@ public class TsdMetricsTest {
     public void testGaugeOnly() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.setGauge("gauge", 3.14);
         metrics.close();
 
@@ -160,7 +161,7 @@ public class TsdMetricsTest {
     public void testTimerCounterGauge() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.incrementCounter("counter");
         metrics.setTimer("timer", 1L, TimeUnit.MILLISECONDS);
         metrics.setGauge("gauge", 3.14);
@@ -190,7 +191,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         Assert.assertTrue(metrics.isOpen());
         metrics.close();
         Assert.assertFalse(metrics.isOpen());
@@ -201,7 +202,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         final Counter counter = metrics.createCounter("counter-closed");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -213,7 +214,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.incrementCounter("counter-closed");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -224,7 +225,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.resetCounter("counter-closed");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -235,7 +236,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.setGauge("gauge-closed", 3.14);
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -246,7 +247,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.setGauge("gauge-closed", 10L);
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -257,7 +258,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         final Timer timer = metrics.createTimer("timer-closed");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -269,7 +270,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.setTimer("timer-closed", 1L, TimeUnit.MILLISECONDS);
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -280,7 +281,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.startTimer("timer-closed");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -291,7 +292,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.stopTimer("timer-closed");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -302,7 +303,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         metrics.annotate("key", "value");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -313,7 +314,7 @@ public class TsdMetricsTest {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.close();
         Mockito.verifyZeroInteractions(logger);
         metrics.close();
@@ -324,7 +325,7 @@ public class TsdMetricsTest {
     public void testStartTimerAlreadyStarted() {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.startTimer("timer-already-started");
         metrics.startTimer("timer-already-started");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
@@ -334,7 +335,7 @@ public class TsdMetricsTest {
     public void testStopTimerNotStarted() {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.stopTimer("timer-not-started");
         Mockito.verify(logger).warn(Mockito.argThat(Matchers.any(String.class)));
     }
@@ -343,7 +344,7 @@ public class TsdMetricsTest {
     public void testStopTimerAlreadyStopped() {
         final org.slf4j.Logger logger = createSlf4jLoggerMock();
         final Sink sink = Mockito.mock(Sink.class);
-        final TsdMetrics metrics = createTsdMetrics(logger, sink);
+        final Metrics metrics = createTsdMetrics(logger, sink);
         metrics.startTimer("timer-already-stopped");
         metrics.stopTimer("timer-already-stopped");
         Mockito.verifyZeroInteractions(logger);
@@ -354,7 +355,7 @@ public class TsdMetricsTest {
     @Test
     public void testCloseTryWithResource() {
         final Sink sink = Mockito.mock(Sink.class);
-        try (final TsdMetrics metrics = createTsdMetrics(sink)) {
+        try (final Metrics metrics = createTsdMetrics(sink)) {
             metrics.incrementCounter("testCloseTryWithResource");
         }
 
@@ -376,7 +377,7 @@ public class TsdMetricsTest {
         final Sink sink = Mockito.mock(Sink.class);
         final Date earliestStartDate = new Date();
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
 
         metrics.setTimer("timerA", 100L, TimeUnit.MILLISECONDS);
         metrics.startTimer("timerB");
@@ -424,7 +425,7 @@ public class TsdMetricsTest {
         final Sink sink = Mockito.mock(Sink.class);
         final Date earliestStartDate = new Date();
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
 
         metrics.incrementCounter("counterA");
         metrics.incrementCounter("counterB", 2L);
@@ -477,7 +478,7 @@ public class TsdMetricsTest {
         final Sink sink = Mockito.mock(Sink.class);
         final Date earliestStartDate = new Date();
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
 
         metrics.setGauge("gaugeA", 10L);
         metrics.setGauge("gaugeB", 3.14);
@@ -521,7 +522,7 @@ public class TsdMetricsTest {
         final Sink sink = Mockito.mock(Sink.class);
         final Date earliestStartDate = new Date();
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
 
         metrics.annotate("foo", "bar");
         metrics.annotate("dup", "cat");
@@ -551,7 +552,7 @@ public class TsdMetricsTest {
     public void testUnits() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
 
         metrics.setGauge("bySize", 21L, Unit.BYTE);
         metrics.setGauge("bySize", 22L, Unit.KILOBYTE);
@@ -621,7 +622,7 @@ public class TsdMetricsTest {
     public void testTimerObjects() throws InterruptedException {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         @SuppressWarnings("resource")
         final Timer timerObjectA = metrics.createTimer("timerObjectA");
         @SuppressWarnings("resource")
@@ -663,7 +664,7 @@ public class TsdMetricsTest {
     public void testSkipUnclosedTimerSample() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.createTimer("timerObjectA");
         metrics.setTimer("timerObjectA", 1, TimeUnit.SECONDS);
 
@@ -686,7 +687,7 @@ public class TsdMetricsTest {
     public void testTimerWithoutClosedSample() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.createTimer("timerObjectB");
         metrics.setTimer("timerObjectA", 1, TimeUnit.SECONDS);
 
@@ -710,7 +711,7 @@ public class TsdMetricsTest {
     public void testOnlyTimerWithClosedSample() {
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(sink);
+        final Metrics metrics = createTsdMetrics(sink);
         metrics.createTimer("timerObjectB");
 
         metrics.close();
@@ -736,7 +737,7 @@ public class TsdMetricsTest {
 
         final Sink sink = Mockito.mock(Sink.class);
         @SuppressWarnings("resource")
-        final TsdMetrics metrics = createTsdMetrics(clock, createSlf4jLoggerMock(), sink);
+        final Metrics metrics = createTsdMetrics(clock, createSlf4jLoggerMock(), sink);
         Assert.assertEquals(start, metrics.getOpenTime());
         Assert.assertNull(metrics.getCloseTime());
 
@@ -744,16 +745,28 @@ public class TsdMetricsTest {
         Assert.assertEquals(end, metrics.getCloseTime());
     }
 
-    private TsdMetrics createTsdMetrics(final Sink... sinks) {
+    /**
+     * Create the instance of <code>Metrics</code> under test.
+     *
+     * @param sinks The sinks to record to.
+     * @param clock The clock for timestamps.
+     * @param logger The logger for warnings.
+     * @return The instance of <code>Metrics</code> under test.
+     */
+    protected Metrics createMetrics(final List<Sink> sinks, final Clock clock, final org.slf4j.Logger logger) {
+        return new TsdMetrics(sinks, clock, logger);
+    }
+
+    private Metrics createTsdMetrics(final Sink... sinks) {
         return createTsdMetrics(createSlf4jLoggerMock(), sinks);
     }
 
-    private TsdMetrics createTsdMetrics(final org.slf4j.Logger logger, final Sink... sinks) {
+    private Metrics createTsdMetrics(final org.slf4j.Logger logger, final Sink... sinks) {
         return createTsdMetrics(Clock.systemUTC(), logger, sinks);
     }
 
-    private TsdMetrics createTsdMetrics(final Clock clock, final org.slf4j.Logger logger, final Sink... sinks) {
-        return new TsdMetrics(
+    private Metrics createTsdMetrics(final Clock clock, final org.slf4j.Logger logger, final Sink... sinks) {
+        return createMetrics(
                 Arrays.asList(sinks),
                 clock,
                 logger);
@@ -41,8 +41,12 @@ import org.mockito.Mockito;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -276,6 +280,188 @@ public class TsdQueryLogSinkTest {
                 actual);
     }
 
+    @Test
+    public void testDirectBuilder() {
+        final String expectedPath = "./target/TsdQueryLogSinkTest/testDirectBuilder/";
+        final TsdQueryLogSink sink = (TsdQueryLogSink) new TsdQueryLogSink.Builder()
+                .setPath(expectedPath)
+                .setName("foo")
+                .setExtension(".bar")
+                .setDirect(true)
+                .setQueueCapacity(100)
+                .setOverflowPolicy(TsdQueryLogSink.OverflowPolicy.DROP_OLDEST)
+                .build();
+
+        Assert.assertNull(sink.getQueryLogger());
+        Assert.assertEquals(new File(expectedPath + "foo.bar"), sink.getWriter().getFile());
+        Assert.assertEquals(128, sink.getWriter().getBuffer().getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullDirect() {
+        new TsdQueryLogSink.Builder()
+                .setDirect(null)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullQueueCapacity() {
+        new TsdQueryLogSink.Builder()
+                .setQueueCapacity(null)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderZeroQueueCapacity() {
+        new TsdQueryLogSink.Builder()
+                .setQueueCapacity(0)
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuilderNullOverflowPolicy() {
+        new TsdQueryLogSink.Builder()
+                .setOverflowPolicy(null)
+                .build();
+    }
+
+    @Test
+    public void testDirectSerialization() throws IOException, InterruptedException {
+        final File actualFile = new File("./target/TsdQueryLogSinkTest/testDirectSerialization-Query.log");
+        Files.deleteIfExists(actualFile.toPath());
+        final Sink sink = new TsdQueryLogSink.Builder()
+                .setPath("./target/TsdQueryLogSinkTest")
+                .setName("testDirectSerialization-Query")
+                .setImmediateFlush(Boolean.TRUE)
+                .setDirect(Boolean.TRUE)
+                .build();
+
+        final Map<String, String> annotations = new LinkedHashMap<>(ANNOTATIONS);
+        annotations.put("foo", "bar");
+        sink.record(
+                annotations,
+                TEST_SERIALIZATION_TIMERS,
+                TEST_SERIALIZATION_COUNTERS,
+                TEST_SERIALIZATION_GAUGES);
+
+        final String actualOriginalJson = fileToString(actualFile);
+        assertMatchesJsonSchema(actualOriginalJson);
+        final String actualComparableJson = actualOriginalJson
+                .replaceAll("\"time\":\"[^\"]*\"", "\"time\":\"<TIME>\"")
+                .replaceAll("\"host\":\"[^\"]*\"", "\"host\":\"<HOST>\"")
+                .replaceAll("\"processId\":\"[^\"]*\"", "\"processId\":\"<PROCESSID>\"")
+                .replaceAll("\"threadId\":\"[^\"]*\"", "\"threadId\":\"<THREADID>\"")
+                .replaceAll("\"id\":\"[^\"]*\"", "\"id\":\"<ID>\"");
+        final JsonNode actual = OBJECT_MAPPER.readTree(actualComparableJson);
+        final JsonNode expected = OBJECT_MAPPER.readTree(EXPECTED_METRICS_JSON);
+
+        Assert.assertEquals(
+                "expectedJson=" + OBJECT_MAPPER.writeValueAsString(expected)
+                        + " vs actualJson=" + OBJECT_MAPPER.writeValueAsString(actual),
+                expected,
+                actual);
+    }
+
+    @Test
+    public void testDirectSerializationMatchesLogback() throws IOException, InterruptedException {
+        final File logbackFile = new File("./target/TsdQueryLogSinkTest/testDirectSerializationMatchesLogback-Logback.log");
+        final File directFile = new File("./target/TsdQueryLogSinkTest/testDirectSerializationMatchesLogback-Direct.log");
+        Files.deleteIfExists(logbackFile.toPath());
+        Files.deleteIfExists(directFile.toPath());
+        final Sink logbackSink = new TsdQueryLogSink.Builder()
+                .setPath("./target/TsdQueryLogSinkTest")
+                .setName("testDirectSerializationMatchesLogback-Logback")
+                .build();
+        final Sink directSink = new TsdQueryLogSink.Builder()
+                .setPath("./target/TsdQueryLogSinkTest")
+                .setName("testDirectSerializationMatchesLogback-Direct")
+                .setDirect(Boolean.TRUE)
+                .build();
+
+        final Map<String, String> annotations = new LinkedHashMap<>(ANNOTATIONS);
+        annotations.put("quote", "\"\u00e9\n");
+        final Map<String, List<Quantity>> samples = createQuantityMap(
+                "float",
+                TsdQuantity.newInstance(Float.valueOf(1.1f), Unit.SECOND),
+                "integer",
+                TsdQuantity.newInstance(Integer.valueOf(-2), null),
+                "big",
+                TsdQuantity.newInstance(new BigDecimal("3.14159265358979323846"), null),
+                TsdQuantity.newInstance(new BigDecimal("1.50"), null),
+                TsdQuantity.newInstance(new BigDecimal("0.00"), null),
+                TsdQuantity.newInstance(new BigInteger("123456789012345678901234567890"), null));
+        for (final Sink sink : Arrays.asList(logbackSink, directSink)) {
+            sink.record(annotations, TEST_SERIALIZATION_TIMERS, samples, TEST_EMPTY_SERIALIZATION_GAUGES);
+            sink.record(ANNOTATIONS, TEST_EMPTY_SERIALIZATION_TIMERS, TEST_SERIALIZATION_COUNTERS, samples);
+        }
+
+        // Only the timestamp and identifier may differ
+        Assert.assertEquals(
+                readWithoutTimeAndId(awaitFile(logbackFile, 2)),
+                readWithoutTimeAndId(awaitFile(directFile, 2)));
+    }
+
+    @Test
+    public void testDirectWriterIOException() throws IOException {
+        final org.slf4j.Logger logger = createSlf4jLoggerMock();
+        final TsdQueryLogSink sink = new TsdQueryLogSink(
+                new TsdQueryLogSink.Builder()
+                        .setPath("./target/TsdQueryLogSinkTest")
+                        .setName("testDirectWriterIOException-Query")
+                        .setDirect(Boolean.TRUE),
+                OBJECT_MAPPER,
+                logger);
+
+        sink.getWriter().close();
+        recordEmpty(sink);
+        Mockito.verify(logger).warn(
+                Mockito.argThat(Matchers.any(String.class)),
+                Mockito.argThat(Matchers.any(Throwable.class)));
+    }
+
+    @Test
+    public void testWriterStatistics() throws IOException, InterruptedException {
+        final String path = "./target/TsdQueryLogSinkTest/testWriterStatistics/";
+        final File file = new File(path + "query.log");
+        Files.deleteIfExists(file.toPath());
+        final TsdQueryLogSink sink = (TsdQueryLogSink) new TsdQueryLogSink.Builder()
+                .setPath(path)
+                .setName("query")
+                .setDirect(true)
+                .build();
+
+        for (int i = 0; i < 3; ++i) {
+            recordEmpty(sink);
+        }
+        awaitFile(file, 3);
+        sink.getWriter().close();
+
+        final TsdQueryLogSink.WriterStatistics statistics = sink.getWriterStatistics();
+        Assert.assertEquals(3, statistics.getEnqueuedCount());
+        Assert.assertEquals(0, statistics.getDroppedCount());
+        Assert.assertEquals(3, statistics.getWrittenCount());
+        Assert.assertTrue(statistics.getBatchCount() >= 1);
+        Assert.assertTrue(statistics.getLastFlushLatencyNanos() > 0);
+        Assert.assertTrue(statistics.getMaxFlushLatencyNanos() >= statistics.getLastFlushLatencyNanos());
+    }
+
+    @Test
+    public void testWriterStatisticsNotDirect() {
+        final TsdQueryLogSink sink = (TsdQueryLogSink) new TsdQueryLogSink.Builder()
+                .setPath("./target/TsdQueryLogSinkTest")
+                .setName("testWriterStatisticsNotDirect-Query")
+                .build();
+        Assert.assertNull(sink.getWriterStatistics());
+    }
+
+    private static String readWithoutTimeAndId(final File file) throws IOException {
+        // CHECKSTYLE.OFF: IllegalInstantiation - No Guava
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8)
+                .replaceAll("\"time\":\"[^\"]*\"", "\"time\":\"<TIME>\"")
+                .replaceAll("\"id\":\"[^\"]*\"", "\"id\":\"<ID>\"");
+        // CHECKSTYLE.ON: IllegalInstantiation
+    }
+
     private static Map<String, List<Quantity>> createQuantityMap(final Object... arguments) {
         // CHECKSTYLE.OFF: IllegalInstantiation - No Guava
         final Map<String, List<Quantity>> map = new HashMap<>();
@@ -317,6 +503,17 @@ public class TsdQueryLogSinkTest {
         }
     }
 
+    private File awaitFile(final File file, final int lines) throws IOException, InterruptedException {
+        // TODO(vkoskela): Need to work around async flushes to disk [MAI-458]
+        for (int i = 0; i < 50; ++i) {
+            if (file.exists() && Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size() >= lines) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        return file;
+    }
+
     private String fileToString(final File file) throws InterruptedException {
         // TODO(vkoskela): Need to work around async flushes to disk [MAI-458]
         Thread.sleep(500);
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * <code>Clock</code> whose instant is set by the test. Clocks created with
+ * <code>withZone</code> share the instant of the clock they were created
+ * from.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class MutableClock extends Clock {
+
+    /**
+     * Public constructor.
+     *
+     * @param instant The initial instant.
+     */
+    public MutableClock(final Instant instant) {
+        this(new AtomicReference<>(instant), ZoneOffset.UTC);
+    }
+
+    /**
+     * Set the instant returned by this clock.
+     *
+     * @param instant The instant.
+     */
+    public void setInstant(final Instant instant) {
+        _instant.set(instant);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ZoneId getZone() {
+        return _zone;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Clock withZone(final ZoneId zone) {
+        return new MutableClock(_instant, zone);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Instant instant() {
+        return _instant.get();
+    }
+
+    private MutableClock(final AtomicReference<Instant> instant, final ZoneId zone) {
+        _instant = instant;
+        _zone = zone;
+    }
+
+    private final AtomicReference<Instant> _instant;
+    private final ZoneId _zone;
+}
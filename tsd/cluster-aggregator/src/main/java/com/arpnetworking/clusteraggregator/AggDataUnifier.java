@@ -18,11 +18,12 @@ package com.arpnetworking.clusteraggregator;
 
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
 import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
-import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 
 import java.util.Collection;
@@ -46,9 +47,9 @@ public final class AggDataUnifier {
         Optional<Unit> smallestUnit = Optional.absent();
         for (final AggregatedData data : aggData) {
             smallestUnit = getSmaller(smallestUnit, data.getValue().getUnit());
-
-            for (final Quantity quantity : data.getSamples()) {
-                smallestUnit = getSmaller(smallestUnit, quantity.getUnit());
+            smallestUnit = getSmaller(smallestUnit, data.getSamples().getUnit());
+            if (data.getHistogram().isPresent()) {
+                smallestUnit = getSmaller(smallestUnit, data.getHistogram().get().getUnit());
             }
         }
 
@@ -73,39 +74,53 @@ public final class AggDataUnifier {
         @Nonnull
         @Override
         public AggregatedData apply(@Nonnull final AggregatedData input) {
-            boolean transformSamples = false;
-
-            for (final Quantity quantity : input.getSamples()) {
-                if (!quantity.getUnit().equals(_unit)) {
-                    transformSamples = true;
-                    break;
-                }
-            }
+            // All samples of an AggregatedData instance share a unit
+            final boolean transformSamples = !input.getSamples().isEmpty() && !input.getSamples().getUnit().equals(_unit);
 
             final boolean transformValue = !input.getValue().getUnit().equals(_unit);
 
+            final Optional<Histogram> histogram = input.getHistogram();
+            final boolean transformHistogram = histogram.isPresent()
+                    && histogram.get().getUnit().isPresent()
+                    && !histogram.get().getUnit().equals(_unit);
+
             // We don't need to transform anything
-            if (!(transformValue || transformSamples)) {
+            if (!(transformValue || transformSamples || transformHistogram)) {
                 return input;
             } else {
 
-                final List<Quantity> newDataSamples;
+                final Samples newDataSamples;
                 if (transformSamples) {
-                    newDataSamples = Lists.newArrayList();
-                    for (final Quantity oldSample : input.getSamples()) {
-                        newDataSamples.add(convertQuantity(oldSample));
-                    }
+                    newDataSamples = convertSamples(input.getSamples());
                 } else {
                     newDataSamples = input.getSamples();
                 }
                 // Build a new AggregatedData
                 return AggregatedData.Builder.<AggregatedData, AggregatedData.Builder>clone(input)
                         .setSamples(newDataSamples)
+                        .setHistogram(transformHistogram ? histogram.get().convert(_unit.get()) : histogram.orNull())
                         .setValue(convertQuantity(input.getValue()))
                         .build();
             }
         }
 
+        private Samples convertSamples(final Samples oldSamples) {
+            if (!oldSamples.getUnit().isPresent()) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "cannot convert old samples to %s; oldSamples=%s",
+                                _unit,
+                                oldSamples));
+            }
+            final Unit unit = _unit.get();
+            final Unit oldUnit = oldSamples.getUnit().get();
+            final Samples.Builder newSamples = new Samples.Builder(oldSamples.size());
+            for (int i = 0; i < oldSamples.size(); ++i) {
+                newSamples.add(unit.convert(oldSamples.getValue(i), oldUnit), unit);
+            }
+            return newSamples.build();
+        }
+
         private Quantity convertQuantity(final Quantity oldSample) {
             if (oldSample.getUnit().equals(_unit)) {
                 return oldSample;
@@ -16,19 +16,32 @@
 
 package com.arpnetworking.clusteraggregator;
 
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
 import com.arpnetworking.clusteraggregator.configuration.EmitterConfiguration;
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.MetricsFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.PeriodicData;
 import com.arpnetworking.tsdcore.sinks.MultiSink;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.io.Serializable;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Holds the sinks and emits to them.
+ * Holds the sinks and emits to them. Data is buffered and flushed to the
+ * sinks as a single collection once the maximum batch size is reached or the
+ * oldest buffered datum has waited for the maximum batch delay. Since the
+ * sinks may block, the emitter runs on its own dispatcher.
  *
  * @author Brandon Arp (barp at groupon dot com)
  */
@@ -37,22 +50,29 @@ public class Emitter extends UntypedActor {
      * Creates a <code>Props</code> for construction in Akka.
      *
      * @param config Config describing the sinks to write to
+     * @param metricsFactory A <code>MetricsFactory</code> to use for metrics creation.
      * @return A new <code>Props</code>.
      */
-    public static Props props(final EmitterConfiguration config) {
-        return Props.create(Emitter.class, config);
+    public static Props props(final EmitterConfiguration config, final MetricsFactory metricsFactory) {
+        return Props.create(Emitter.class, config, metricsFactory).withDispatcher(DISPATCHER);
     }
 
     /**
      * Public constructor.
      *
      * @param config Config describing the sinks to write to
+     * @param metricsFactory A <code>MetricsFactory</code> to use for metrics creation.
      */
-    public Emitter(final EmitterConfiguration config) {
+    public Emitter(final EmitterConfiguration config, final MetricsFactory metricsFactory) {
         _sink = new MultiSink.Builder()
                 .setName("EmitterMultiSink")
                 .setSinks(config.getSinks())
                 .build();
+        _metricsFactory = metricsFactory;
+        _maxBatchSize = config.getMaxBatchSize();
+        _maxBatchDelay = FiniteDuration.create(
+                config.getMaxBatchDelay().toStandardDuration().getMillis(),
+                TimeUnit.MILLISECONDS);
         _log.debug(String.format("Emitter starting up; sink=%s", _sink));
     }
 
@@ -62,9 +82,15 @@ public class Emitter extends UntypedActor {
     @Override
     public void onReceive(final Object message) throws Exception {
         if (message instanceof AggregatedData) {
-            final AggregatedData data = (AggregatedData) message;
-            _log.debug("Emitting data to sink: " + message);
-            _sink.recordAggregateData(Collections.singletonList(data));
+            _log.debug("Buffering data for sink: " + message);
+            buffer(Collections.singletonList((AggregatedData) message));
+        } else if (message instanceof PeriodicData) {
+            final PeriodicData periodicData = (PeriodicData) message;
+            _log.debug("Buffering periodic data for sink: " + message);
+            buffer(periodicData.getData());
+        } else if (message instanceof Flush) {
+            _flushTimer = null;
+            flush();
         } else {
             unhandled(message);
         }
@@ -76,9 +102,58 @@ public class Emitter extends UntypedActor {
     @Override
     public void postStop() throws Exception {
         super.postStop();
+        flush();
         _sink.close();
     }
 
+    private void buffer(final Iterable<AggregatedData> data) {
+        Iterables.addAll(_buffer, data);
+        if (_buffer.size() >= _maxBatchSize) {
+            flush();
+        } else if (_flushTimer == null && !_buffer.isEmpty()) {
+            _flushTimer = getContext().system().scheduler().scheduleOnce(
+                    _maxBatchDelay,
+                    getSelf(),
+                    new Flush(),
+                    getContext().dispatcher(),
+                    getSelf());
+        }
+    }
+
+    private void flush() {
+        if (_flushTimer != null) {
+            _flushTimer.cancel();
+            _flushTimer = null;
+        }
+        if (_buffer.isEmpty()) {
+            return;
+        }
+        final List<AggregatedData> batch = _buffer;
+        _buffer = Lists.newArrayList();
+        _log.debug(String.format("Emitting data to sink; size=%d", batch.size()));
+
+        final long startTime = System.nanoTime();
+        _sink.recordAggregateData(batch);
+        final long latencyInNanoseconds = System.nanoTime() - startTime;
+
+        try (final Metrics metrics = _metricsFactory.create()) {
+            metrics.setGauge("Emitter/Batch/Size", batch.size());
+            metrics.setTimer("Emitter/Batch/Latency", latencyInNanoseconds, TimeUnit.NANOSECONDS);
+        }
+    }
+
     private final LoggingAdapter _log = Logging.getLogger(getContext().system(), this);
     private final Sink _sink;
+    private final MetricsFactory _metricsFactory;
+    private final int _maxBatchSize;
+    private final FiniteDuration _maxBatchDelay;
+    private List<AggregatedData> _buffer = Lists.newArrayList();
+    private Cancellable _flushTimer;
+
+    // Defined in reference.conf and may be overridden in the Akka configuration
+    private static final String DISPATCHER = "cluster-aggregator.emitter-dispatcher";
+
+    private static final class Flush implements Serializable {
+        private static final long serialVersionUID = 1L;
+    }
 }
@@ -115,8 +115,10 @@ public class GuiceModule extends AbstractModule {
     @Provides
     @Singleton
     @Named("emitter")
-    private ActorRef provideEmitter(final Injector injector, final ActorSystem system) {
-        final ActorRef emitterConfigurationProxy = system.actorOf(ConfigurableActorProxy.props(Emitter::props), "emitter-configurator");
+    private ActorRef provideEmitter(final Injector injector, final ActorSystem system, final MetricsFactory metricsFactory) {
+        final ActorRef emitterConfigurationProxy = system.actorOf(
+                ConfigurableActorProxy.<EmitterConfiguration>props(config -> Emitter.props(config, metricsFactory)),
+                "emitter-configurator");
         final ActorConfigurator<EmitterConfiguration> configurator =
                 new ActorConfigurator<>(emitterConfigurationProxy, EmitterConfiguration.class);
         final ObjectMapper objectMapper = EmitterConfiguration.createObjectMapper(injector);
@@ -243,7 +245,7 @@ public class GuiceModule extends AbstractModule {
     @Provides
     @Singleton
     private AggMessageExtractor provideExtractor() {
-        return new AggMessageExtractor();
+        return new AggMessageExtractor(_configuration.getAggregationMode());
     }
 
     @Provides
@@ -17,6 +17,7 @@
 package com.arpnetworking.clusteraggregator.aggregation;
 
 import akka.contrib.pattern.ShardRegion;
+import com.arpnetworking.clusteraggregator.models.AggregationMode;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 
 /**
@@ -25,6 +26,24 @@ import com.arpnetworking.tsdcore.model.AggregatedData;
  * @author Brandon Arp (barp at groupon dot com)
  */
 public class AggMessageExtractor implements ShardRegion.MessageExtractor {
+
+    /**
+     * Public constructor. Creates an extractor for one aggregator per
+     * statistic.
+     */
+    public AggMessageExtractor() {
+        this(AggregationMode.STATISTIC);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param mode The unit of work owned by each aggregator.
+     */
+    public AggMessageExtractor(final AggregationMode mode) {
+        _mode = mode;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -33,14 +52,7 @@ public class AggMessageExtractor implements ShardRegion.MessageExtractor {
     @Override
     public String entryId(final Object message) {
         if (message instanceof AggregatedData) {
-            final AggregatedData aggregationMessage = (AggregatedData) message;
-            final StringBuilder builder = new StringBuilder();
-            builder.append(aggregationMessage.getFQDSN().getCluster())
-                    .append(aggregationMessage.getFQDSN().getService())
-                    .append(aggregationMessage.getFQDSN().getMetric())
-                    .append(aggregationMessage.getPeriod())
-                    .append(aggregationMessage.getFQDSN().getStatistic());
-            return builder.toString();
+            return createKey((AggregatedData) message);
         }
         throw new IllegalArgumentException("Unknown message type " + message);
     }
@@ -63,15 +75,22 @@ public class AggMessageExtractor implements ShardRegion.MessageExtractor {
     @Override
     public String shardId(final Object message) {
         if (message instanceof AggregatedData) {
-            final AggregatedData aggregationMessage = (AggregatedData) message;
-            final StringBuilder builder = new StringBuilder()
-                    .append(aggregationMessage.getFQDSN().getCluster())
-                    .append(aggregationMessage.getFQDSN().getService())
-                    .append(aggregationMessage.getFQDSN().getMetric())
-                    .append(aggregationMessage.getPeriod())
-                    .append(aggregationMessage.getFQDSN().getStatistic());
-            return String.format("shard_%d", Math.abs(builder.toString().hashCode() % 10000));
+            return String.format("shard_%d", Math.abs(createKey((AggregatedData) message).hashCode() % 10000));
         }
         throw new IllegalArgumentException("Unknown message type " + message);
     }
+
+    private String createKey(final AggregatedData aggregationMessage) {
+        final StringBuilder builder = new StringBuilder()
+                .append(aggregationMessage.getFQDSN().getCluster())
+                .append(aggregationMessage.getFQDSN().getService())
+                .append(aggregationMessage.getFQDSN().getMetric())
+                .append(aggregationMessage.getPeriod());
+        if (_mode == AggregationMode.STATISTIC) {
+            builder.append(aggregationMessage.getFQDSN().getStatistic().getName());
+        }
+        return builder.toString();
+    }
+
+    private final AggregationMode _mode;
 }
@@ -28,9 +28,12 @@ import com.arpnetworking.clusteraggregator.AggDataUnifier;
 import com.arpnetworking.clusteraggregator.AggregatorLifecycle;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.FQDSN;
+import com.arpnetworking.tsdcore.model.PeriodicData;
 import com.arpnetworking.tsdcore.model.Quantity;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.google.inject.name.Named;
 import org.joda.time.DateTime;
@@ -45,10 +48,15 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Actual actor responsible for aggregating.
+ * Actual actor responsible for aggregating. Depending on the sharding of
+ * the aggregators each actor aggregates either a single statistic or all
+ * statistics of a metric and period. The statistics computed for a period
+ * are sent to the emitter together as <code>PeriodicData</code>.
  *
  * @author Brandon Arp (barp at groupon dot com)
  */
@@ -116,27 +124,7 @@ public class Aggregator extends UntypedActor {
                     final AggregationBucket bucket = _aggBuckets.getFirst();
                     if (bucket.getPeriodStart().plus(_period).plus(AGG_TIMEOUT).isBeforeNow()) {
                         _aggBuckets.removeFirst();
-                        //The units may be different coming from different machines
-                        //Need to unify them
-                        final List<AggregatedData> aggData = AggDataUnifier.unify(bucket.getAggregatedData());
-                        final Quantity computed = _statistic.calculateAggregations(aggData);
-                        _log.info(
-                                String.format(
-                                        "Computed %s %s %s %s %s (%s) = %s",
-                                        _cluster,
-                                        _service,
-                                        _metric,
-                                        _statistic,
-                                        _period,
-                                        bucket.getPeriodStart().withZone(DateTimeZone.UTC),
-                                        computed));
-                        final AggregatedData result = _resultBuilder
-                                .setStart(bucket.getPeriodStart())
-                                .setValue(computed)
-                                .build();
-                        _emitter.tell(result, getSelf());
-
-                        _periodicStatistics.tell(result, getSelf());
+                        emitBucket(bucket);
                     } else {
                         //Walk of the list is complete
                         break;
@@ -144,8 +132,8 @@ public class Aggregator extends UntypedActor {
                 }
             }
         } else if (message instanceof UpdateBookkeeper) {
-            if (_resultBuilder != null) {
-                _lifecycleTracker.tell(new AggregatorLifecycle.NotifyAggregatorStarted(_resultBuilder.build()), getSelf());
+            for (final Statistic statistic : _statistics) {
+                _lifecycleTracker.tell(new AggregatorLifecycle.NotifyAggregatorStarted(buildResult(statistic)), getSelf());
             }
         } else if (message instanceof ShutdownAggregator) {
             context().stop(self());
@@ -166,6 +154,55 @@ public class Aggregator extends UntypedActor {
         super.preRestart(reason, message);
     }
 
+    private void emitBucket(final AggregationBucket bucket) {
+        // Compute every statistic of the metric and emit them together
+        final Map<Statistic, List<AggregatedData>> dataByStatistic = Maps.newLinkedHashMap();
+        for (final AggregatedData datum : bucket.getAggregatedData()) {
+            List<AggregatedData> statisticData = dataByStatistic.get(datum.getFQDSN().getStatistic());
+            if (statisticData == null) {
+                statisticData = Lists.newArrayList();
+                dataByStatistic.put(datum.getFQDSN().getStatistic(), statisticData);
+            }
+            statisticData.add(datum);
+        }
+        final PeriodicData.Builder periodicDataBuilder = new PeriodicData.Builder()
+                .setPeriod(_period)
+                .setStart(bucket.getPeriodStart());
+        for (final Map.Entry<Statistic, List<AggregatedData>> entry : dataByStatistic.entrySet()) {
+            final Statistic statistic = entry.getKey();
+            //The units may be different coming from different machines
+            //Need to unify them
+            final List<AggregatedData> aggData = AggDataUnifier.unify(entry.getValue());
+            final Quantity computed = statistic.calculateAggregations(aggData);
+            _log.info(
+                    String.format(
+                            "Computed %s %s %s %s %s (%s) = %s",
+                            _cluster,
+                            _service,
+                            _metric,
+                            statistic,
+                            _period,
+                            bucket.getPeriodStart().withZone(DateTimeZone.UTC),
+                            computed));
+            final AggregatedData result = _resultBuilder
+                    .setFQDSN(_fqdsnBuilder.setStatistic(statistic).build())
+                    .setStart(bucket.getPeriodStart())
+                    .setValue(computed)
+                    .build();
+            periodicDataBuilder.addData(result);
+            _periodicStatistics.tell(result, getSelf());
+        }
+        _emitter.tell(periodicDataBuilder.build(), getSelf());
+    }
+
+    private AggregatedData buildResult(final Statistic statistic) {
+        return _resultBuilder
+                .setFQDSN(_fqdsnBuilder.setStatistic(statistic).build())
+                .setStart(DateTime.now().hourOfDay().roundFloorCopy())
+                .setValue(new Quantity.Builder().setValue(0d).build())
+                .build();
+    }
+
     private void processAggregationMessage(final AggregatedData data) {
         //First message sets the data we know about this actor
         if (!_initialized) {
@@ -173,45 +210,34 @@ public class Aggregator extends UntypedActor {
             _cluster = data.getFQDSN().getCluster();
             _metric = data.getFQDSN().getMetric();
             _service = data.getFQDSN().getService();
-            _statistic = data.getFQDSN().getStatistic();
+            _fqdsnBuilder = new FQDSN.Builder()
+                    .setCluster(_cluster)
+                    .setMetric(_metric)
+                    .setService(_service);
             _resultBuilder = new AggregatedData.Builder()
-                    .setFQDSN(
-                            new FQDSN.Builder()
-                                    .setCluster(_cluster)
-                                    .setMetric(_metric)
-                                    .setService(_service)
-                                    .setStatistic(_statistic)
-                                    .build())
                     .setHost(_cluster + "-cluster")
                     .setPeriod(_period)
                     .setPopulationSize(1L)
-                    .setSamples(Collections.<Quantity>emptyList())
-                    .setStart(DateTime.now().hourOfDay().roundFloorCopy())
-                    .setValue(new Quantity.Builder().setValue(0d).build());
-
-            _lifecycleTracker.tell(new AggregatorLifecycle.NotifyAggregatorStarted(_resultBuilder.build()), getSelf());
+                    .setSamples(Collections.<Quantity>emptyList());
 
             _initialized = true;
             _log.debug(
                     String.format(
-                            "Initialized aggregator for %s %s %s %s %s",
+                            "Initialized aggregator for %s %s %s %s",
                             _cluster,
                             _service,
                             _metric,
-                            _statistic,
                             _period));
-        } else if (!(_period.equals(data.getPeriod()))
+        } else if (!(_period.equals(data.getPeriod())
                 && _cluster.equals(data.getFQDSN().getCluster())
                 && _service.equals(data.getFQDSN().getService())
-                && _metric.equals(data.getFQDSN().getMetric())
-                && _statistic.equals(data.getFQDSN().getStatistic())) {
+                && _metric.equals(data.getFQDSN().getMetric()))) {
             _log.error(
                     String.format(
-                            "Aggregator for %s %s %s %s %s received a message with %s %s %s %s %s",
+                            "Aggregator for %s %s %s %s received a message with %s %s %s %s %s",
                             _cluster,
                             _service,
                             _metric,
-                            _statistic,
                             _period,
                             data.getFQDSN().getCluster(),
                             data.getFQDSN().getService(),
@@ -219,6 +245,12 @@ public class Aggregator extends UntypedActor {
                             data.getFQDSN().getStatistic(),
                             data.getPeriod()));
         }
+        //An aggregator owns either a single statistic or all statistics of the metric
+        if (_statistics.add(data.getFQDSN().getStatistic())) {
+            _lifecycleTracker.tell(
+                    new AggregatorLifecycle.NotifyAggregatorStarted(buildResult(data.getFQDSN().getStatistic())),
+                    getSelf());
+        }
         //Find the time bucket to dump this in
         if (_aggBuckets.size() > 0 && _aggBuckets.getFirst().getPeriodStart().isAfter(data.getPeriodStart())) {
             //We got a bit of data that is too old for us to aggregate.
@@ -264,7 +296,8 @@ public class Aggregator extends UntypedActor {
     private String _cluster;
     private String _metric;
     private String _service;
-    private Statistic _statistic;
+    private final Set<Statistic> _statistics = Sets.newLinkedHashSet();
+    private FQDSN.Builder _fqdsnBuilder;
     private AggregatedData.Builder _resultBuilder;
     private static final Duration AGG_TIMEOUT = Duration.standardMinutes(1);
 
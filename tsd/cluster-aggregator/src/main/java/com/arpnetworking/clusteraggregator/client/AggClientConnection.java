@@ -28,22 +28,29 @@ import akka.util.ByteString;
 import com.arpnetworking.tsdcore.Messages;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.AggregationMessage;
+import com.arpnetworking.tsdcore.model.AggregationMessageDecoder;
 import com.arpnetworking.tsdcore.model.FQDSN;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
 import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.tsdcore.statistics.StatisticFactory;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.protobuf.GeneratedMessage;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.joda.time.Period;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An actor that handles the data sent from an agg client.
@@ -96,7 +103,7 @@ public class AggClientConnection extends UntypedActor {
             final Tcp.Received received = (Tcp.Received) message;
             final ByteString data = received.data();
             _log.debug(String.format("received a message of %d bytes", data.length()));
-            _buffer = _buffer.concat(data);
+            _decoder.append(data);
             processMessages();
         } else if (message instanceof Tcp.CloseCommand) {
             _log.info(String.format("connection timeout hit, cycling connection to %s", _remoteAddress));
@@ -119,76 +126,109 @@ public class AggClientConnection extends UntypedActor {
 
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void postStop() throws Exception {
+        _decoder.close();
+        super.postStop();
+    }
+
     private void processMessages() {
-        ByteString current = _buffer;
-        Optional<AggregationMessage> messageOptional = AggregationMessage.deserialize(current);
-        while (messageOptional.isPresent()) {
-            final AggregationMessage message = messageOptional.get();
-            current = current.drop(message.getLength());
-            final GeneratedMessage gm = message.getMessage();
-            if (gm instanceof Messages.HostIdentification) {
-                final Messages.HostIdentification hostIdent = (Messages.HostIdentification) gm;
-                if (hostIdent.hasHostName()) {
-                    _hostName = Optional.fromNullable(hostIdent.getHostName());
-                }
-                if (hostIdent.hasClusterName()) {
-                    _clusterName = Optional.fromNullable(hostIdent.getClusterName());
-                }
-                _log.info(String.format("Handshake from host %s in cluster %s", _hostName.or(""), _clusterName.or("")));
-            } else if (gm instanceof Messages.AggregationRecord) {
-                final Messages.AggregationRecord aggRecord = (Messages.AggregationRecord) gm;
-                if (_log.isDebugEnabled()) {
-                    _log.debug(
-                            String.format(
-                                    "Aggregation received; host=%s, cluster=%s, service=%s, metric=%s, statistic=%s, period=%s, ",
-                                    _hostName.or(""),
-                                    _clusterName.or(""),
-                                    aggRecord.getService(),
-                                    aggRecord.getMetric(),
-                                    aggRecord.getStatistic(),
-                                    aggRecord.getPeriod()));
-                }
-                final Optional<AggregatedData> aggData = getAggData(aggRecord);
-                if (aggData.isPresent()) {
-                    getContext().parent().tell(aggData.get(), getSelf());
-                }
-            } else if (gm instanceof Messages.LegacyAggRecord) {
-                final Messages.LegacyAggRecord aggRecord = (Messages.LegacyAggRecord) gm;
-                if (_log.isDebugEnabled()) {
-                    _log.debug(
-                            String.format(
-                                    "Legacy aggregation received; host=%s, cluster=%s, service=%s, metric=%s, statistic=%s, period=%s, ",
-                                    _hostName.or(""),
-                                    _clusterName.or(""),
-                                    aggRecord.getService(),
-                                    aggRecord.getMetric(),
-                                    aggRecord.getStatistic(),
-                                    aggRecord.getPeriod()));
-                }
-                final Optional<AggregatedData> aggData = getAggData(aggRecord);
-                if (aggData.isPresent()) {
-                    getContext().parent().tell(aggData.get(), getSelf());
-                }
-            } else if (gm instanceof Messages.HeartbeatRecord) {
-                final Messages.HeartbeatRecord heartbeatRecord = (Messages.HeartbeatRecord) gm;
-                if (_log.isDebugEnabled()) {
-                    _log.debug(
+        try {
+            Optional<AggregationMessage> messageOptional = _decoder.next();
+            while (messageOptional.isPresent()) {
+                final GeneratedMessage message = messageOptional.get().getMessage();
+                try {
+                    processMessage(message);
+                // CHECKSTYLE.OFF: IllegalCatch - Records from the host may be invalid in a variety of ways
+                } catch (final RuntimeException e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                    // Drop the record rather than restart the actor and lose the decoder state
+                    _log.error(
+                            e,
                             String.format(
-                                    "Heartbeat record; timestamp=%s from host %s in cluster %s",
-                                    heartbeatRecord.getTimestamp(),
+                                    "Caught an error processing record; type=%s, host=%s, cluster=%s",
+                                    message.getClass().getSimpleName(),
                                     _hostName.or(""),
                                     _clusterName.or("")));
                 }
-            } else {
-                _log.warning(String.format("Unknown message type! type=%s", gm.getClass()));
+                messageOptional = _decoder.next();
+            }
+            if (_decoder.getBufferedBytes() > 4) {
+                _log.debug(String.format("buffer did not deserialize with %d bytes left", _decoder.getBufferedBytes()));
+            }
+        } catch (final IOException e) {
+            _log.error(e, String.format("Invalid data received, closing connection to %s", _remoteAddress));
+            if (_connection != null) {
+                _connection.tell(TcpMessage.close(), self());
+            }
+        }
+    }
+
+    private void processMessage(final GeneratedMessage gm) {
+        if (gm instanceof Messages.HostIdentification) {
+            final Messages.HostIdentification hostIdent = (Messages.HostIdentification) gm;
+            if (hostIdent.hasHostName()) {
+                _hostName = Optional.fromNullable(hostIdent.getHostName());
+            }
+            if (hostIdent.hasClusterName()) {
+                _clusterName = Optional.fromNullable(hostIdent.getClusterName());
             }
-            messageOptional = AggregationMessage.deserialize(current);
-            if (!messageOptional.isPresent() && current.length() > 4) {
-                _log.debug(String.format("buffer did not deserialize with %d bytes left", current.length()));
+            _log.info(String.format("Handshake from host %s in cluster %s", _hostName.or(""), _clusterName.or("")));
+        } else if (gm instanceof Messages.AggregationRecord) {
+            final Messages.AggregationRecord aggRecord = (Messages.AggregationRecord) gm;
+            if (_log.isDebugEnabled()) {
+                _log.debug(
+                        String.format(
+                                "Aggregation received; host=%s, cluster=%s, service=%s, metric=%s, statistic=%s, period=%s, ",
+                                _hostName.or(""),
+                                _clusterName.or(""),
+                                aggRecord.getService(),
+                                aggRecord.getMetric(),
+                                aggRecord.getStatistic(),
+                                aggRecord.getPeriod()));
             }
+            final Optional<AggregatedData> aggData = getAggData(aggRecord);
+            if (aggData.isPresent()) {
+                getContext().parent().tell(aggData.get(), getSelf());
+            }
+        } else if (gm instanceof Messages.LegacyAggRecord) {
+            final Messages.LegacyAggRecord aggRecord = (Messages.LegacyAggRecord) gm;
+            if (_log.isDebugEnabled()) {
+                _log.debug(
+                        String.format(
+                                "Legacy aggregation received; host=%s, cluster=%s, service=%s, metric=%s, statistic=%s, period=%s, ",
+                                _hostName.or(""),
+                                _clusterName.or(""),
+                                aggRecord.getService(),
+                                aggRecord.getMetric(),
+                                aggRecord.getStatistic(),
+                                aggRecord.getPeriod()));
+            }
+            final Optional<AggregatedData> aggData = getAggData(aggRecord);
+            if (aggData.isPresent()) {
+                getContext().parent().tell(aggData.get(), getSelf());
+            }
+        } else if (gm instanceof Messages.MetricRecord) {
+            final Messages.MetricRecord metricRecord = (Messages.MetricRecord) gm;
+            for (final AggregatedData aggData : getAggData(metricRecord)) {
+                getContext().parent().tell(aggData, getSelf());
+            }
+        } else if (gm instanceof Messages.HeartbeatRecord) {
+            final Messages.HeartbeatRecord heartbeatRecord = (Messages.HeartbeatRecord) gm;
+            if (_log.isDebugEnabled()) {
+                _log.debug(
+                        String.format(
+                                "Heartbeat record; timestamp=%s from host %s in cluster %s",
+                                heartbeatRecord.getTimestamp(),
+                                _hostName.or(""),
+                                _clusterName.or("")));
+            }
+        } else {
+            _log.warning(String.format("Unknown message type! type=%s", gm.getClass()));
         }
-        //TODO(barp): Investigate using a ring buffer [MAI-196]
-        _buffer = current;
     }
 
 
@@ -254,6 +294,12 @@ public class AggClientConnection extends UntypedActor {
         } else {
             recordUnit = Optional.fromNullable(Unit.valueOf(aggRecord.getUnit()));
         }
+        final Optional<Unit> histogramUnit;
+        if (Strings.isNullOrEmpty(aggRecord.getHistogramUnit())) {
+            histogramUnit = Optional.absent();
+        } else {
+            histogramUnit = Optional.of(Unit.valueOf(aggRecord.getHistogramUnit()));
+        }
         final Quantity quantity = new Quantity.Builder()
                 .setValue(aggRecord.getStatisticValue())
                 .setUnit(recordUnit.orNull())
@@ -271,23 +317,104 @@ public class AggClientConnection extends UntypedActor {
                         .setStart(DateTime.parse(aggRecord.getPeriodStart()))
                         .setPopulationSize(aggRecord.getPopulationSize())
                         .setSamples(sampleizeDoubles(aggRecord.getSamplesList(), recordUnit))
+                        .setHistogram(getHistogram(aggRecord.hasHistogram(), aggRecord.getHistogram(), histogramUnit))
                         .setValue(quantity)
                         .build());
     }
 
-    private List<Quantity> sampleizeDoubles(final List<Double> samplesList, final Optional<Unit> recordUnit) {
-        final Quantity.Builder builder = new Quantity.Builder().setUnit(recordUnit.orNull());
-        final List<Quantity> samples = Lists.newArrayListWithCapacity(samplesList.size());
+    private List<AggregatedData> getAggData(final Messages.MetricRecord metricRecord) {
+        for (final Messages.StringDeclaration declaration : metricRecord.getDeclarationsList()) {
+            _strings.put(declaration.getId(), declaration.getValue());
+        }
+        final String service = _strings.get(metricRecord.getService());
+        final String metric = _strings.get(metricRecord.getMetric());
+        final String period = _strings.get(metricRecord.getPeriod());
+        if (service == null || metric == null || period == null) {
+            _log.error(String.format("Undeclared string in metric record; record=%s", metricRecord));
+            return Collections.emptyList();
+        }
+        if (_log.isDebugEnabled()) {
+            _log.debug(
+                    String.format(
+                            "Metric record received; host=%s, cluster=%s, service=%s, metric=%s, statistics=%d, period=%s",
+                            _hostName.or(""),
+                            _clusterName.or(""),
+                            service,
+                            metric,
+                            metricRecord.getStatisticsCount(),
+                            period));
+        }
+        final Samples samples = sampleizeDoubles(
+                metricRecord.getSamplesList(),
+                getUnit(metricRecord.hasSamplesUnit(), metricRecord.getSamplesUnit()));
+        final Histogram histogram = getHistogram(
+                metricRecord.hasHistogram(),
+                metricRecord.getHistogram(),
+                getUnit(metricRecord.hasHistogramUnit(), metricRecord.getHistogramUnit()));
+        final AggregatedData.Builder builder = new AggregatedData.Builder()
+                .setHost(_hostName.get())
+                .setPeriod(Period.parse(period))
+                .setStart(new DateTime(metricRecord.getPeriodStart(), DateTimeZone.UTC))
+                .setPopulationSize(metricRecord.getPopulationSize());
+        final FQDSN.Builder fqdsnBuilder = new FQDSN.Builder()
+                .setService(service)
+                .setMetric(metric)
+                .setCluster(_clusterName.get());
+        final List<AggregatedData> data = Lists.newArrayListWithCapacity(metricRecord.getStatisticsCount());
+        for (final Messages.StatisticValue statisticValue : metricRecord.getStatisticsList()) {
+            final String statisticName = _strings.get(statisticValue.getStatistic());
+            final Optional<Statistic> statisticOptional = _statisticFactory.createStatistic(Strings.nullToEmpty(statisticName));
+            if (!statisticOptional.isPresent()) {
+                _log.error(String.format("Unsupported statistic %s", statisticName));
+                continue;
+            }
+            data.add(builder.setFQDSN(fqdsnBuilder.setStatistic(statisticOptional.get()).build())
+                    .setSamples(statisticValue.getSamples() ? samples : Samples.empty())
+                    .setHistogram(statisticValue.getSamples() ? histogram : null)
+                    .setValue(new Quantity.Builder()
+                            .setValue(statisticValue.getValue())
+                            .setUnit(getUnit(statisticValue.hasUnit(), statisticValue.getUnit()).orNull())
+                            .build())
+                    .build());
+        }
+        return data;
+    }
+
+    private Optional<Unit> getUnit(final boolean hasUnit, final int unitId) {
+        if (!hasUnit) {
+            return Optional.absent();
+        }
+        final String unit = _strings.get(unitId);
+        if (Strings.isNullOrEmpty(unit)) {
+            return Optional.absent();
+        }
+        return Optional.of(Unit.valueOf(unit));
+    }
+
+    private Histogram getHistogram(
+            final boolean hasHistogram,
+            final Messages.HistogramRecord record,
+            final Optional<Unit> unit) {
+        if (!hasHistogram) {
+            return null;
+        }
+        return Histogram.fromRecord(record, unit);
+    }
+
+    private Samples sampleizeDoubles(final List<Double> samplesList, final Optional<Unit> recordUnit) {
+        final Unit unit = recordUnit.orNull();
+        final Samples.Builder samples = new Samples.Builder(samplesList.size());
         for (final Double sample : samplesList) {
-            samples.add(builder.setValue(sample).build());
+            samples.add(sample, unit);
         }
-        return Collections.unmodifiableList(samples);
+        return samples.build();
     }
 
 
     private Optional<String> _hostName = Optional.absent();
     private Optional<String> _clusterName = Optional.absent();
-    private ByteString _buffer = ByteString.empty();
+    private final AggregationMessageDecoder _decoder = new AggregationMessageDecoder();
+    private final Map<Integer, String> _strings = Maps.newHashMap();
     private final ActorRef _connection;
     private final InetSocketAddress _remoteAddress;
     private final LoggingAdapter _log = Logging.getLogger(getContext().system(), this);
@@ -16,6 +16,7 @@
 
 package com.arpnetworking.clusteraggregator.configuration;
 
+import com.arpnetworking.clusteraggregator.models.AggregationMode;
 import com.arpnetworking.jackson.BuilderDeserializer;
 import com.arpnetworking.jackson.ObjectMapperFactory;
 import com.arpnetworking.utility.InterfaceDatabase;
@@ -100,6 +101,10 @@ public final class ClusterAggregatorConfiguration {
         return _aggregationHost;
     }
 
+    public AggregationMode getAggregationMode() {
+        return _aggregationMode;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -122,6 +127,7 @@ public final class ClusterAggregatorConfiguration {
         _maxConnectionTimeout = builder._maxConnectionTimeout;
         _jvmMetricsCollectionInterval = builder._jvmMetricsCollectionInterval;
         _rebalanceConfiguration = builder._rebalanceConfiguration;
+        _aggregationMode = builder._aggregationMode;
     }
 
     private final File _logDirectory;
@@ -135,6 +141,7 @@ public final class ClusterAggregatorConfiguration {
     private final Period _maxConnectionTimeout;
     private final Period _jvmMetricsCollectionInterval;
     private final RebalanceConfiguration _rebalanceConfiguration;
+    private final AggregationMode _aggregationMode;
 
     private static final InterfaceDatabase INTERFACE_DATABASE = ReflectionsDatabase.newInstance();
 
@@ -280,6 +287,20 @@ public final class ClusterAggregatorConfiguration {
             return this;
         }
 
+        /**
+         * The unit of work owned by each aggregator actor. Changing the mode
+         * changes the sharding of the aggregators and should be done on all
+         * nodes of the cluster at once. Optional. Cannot be null. Default is
+         * <code>STATISTIC</code>.
+         *
+         * @param value The aggregation mode.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setAggregationMode(final AggregationMode value) {
+            _aggregationMode = value;
+            return this;
+        }
+
         @NotNull
         @NotEmpty
         private String _httpHost = "0.0.0.0";
@@ -306,5 +327,7 @@ public final class ClusterAggregatorConfiguration {
         private Period _jvmMetricsCollectionInterval;
         @NotNull
         private RebalanceConfiguration _rebalanceConfiguration;
+        @NotNull
+        private AggregationMode _aggregationMode = AggregationMode.STATISTIC;
     }
 }
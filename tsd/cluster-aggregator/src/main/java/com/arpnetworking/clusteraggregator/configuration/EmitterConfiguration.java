@@ -30,8 +30,10 @@ import com.fasterxml.jackson.module.guice.GuiceAnnotationIntrospector;
 import com.fasterxml.jackson.module.guice.GuiceInjectableValues;
 import com.google.common.collect.Lists;
 import com.google.inject.Injector;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import org.joda.time.Period;
 
 import java.util.Collections;
 import java.util.List;
@@ -83,11 +85,23 @@ public final class EmitterConfiguration {
         return Collections.unmodifiableList(_sinks);
     }
 
+    public int getMaxBatchSize() {
+        return _maxBatchSize;
+    }
+
+    public Period getMaxBatchDelay() {
+        return _maxBatchDelay;
+    }
+
     private EmitterConfiguration(final Builder builder) {
         _sinks = Lists.newArrayList(builder._sinks);
+        _maxBatchSize = builder._maxBatchSize;
+        _maxBatchDelay = builder._maxBatchDelay;
     }
 
     private final List<Sink> _sinks;
+    private final int _maxBatchSize;
+    private final Period _maxBatchDelay;
 
     private static final InterfaceDatabase INTERFACE_DATABASE = ReflectionsDatabase.newInstance();
 
@@ -115,8 +129,38 @@ public final class EmitterConfiguration {
             return this;
         }
 
+        /**
+         * The maximum number of buffered data before the emitter flushes
+         * them to the sinks. Optional. Cannot be null. Must be at least 1.
+         * Default is 1000.
+         *
+         * @param value The maximum batch size.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxBatchSize(final Integer value) {
+            _maxBatchSize = value;
+            return this;
+        }
+
+        /**
+         * The maximum time data is buffered before the emitter flushes it to
+         * the sinks. Optional. Cannot be null. Default is one second.
+         *
+         * @param value The maximum batch delay.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxBatchDelay(final Period value) {
+            _maxBatchDelay = value;
+            return this;
+        }
+
         @NotNull
         @NotEmpty
         private List<Sink> _sinks;
+        @NotNull
+        @Min(1)
+        private Integer _maxBatchSize = 1000;
+        @NotNull
+        private Period _maxBatchDelay = Period.seconds(1);
     }
 }
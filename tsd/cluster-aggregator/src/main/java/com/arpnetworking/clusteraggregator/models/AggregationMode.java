@@ -0,0 +1,33 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.clusteraggregator.models;
+
+/**
+ * The unit of work owned by each cluster aggregator actor.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public enum AggregationMode {
+    /**
+     * One actor aggregates each statistic of each metric and period.
+     */
+    STATISTIC,
+    /**
+     * One actor aggregates all statistics of each metric and period sharing
+     * its buckets and timers across the statistics.
+     */
+    METRIC
+}
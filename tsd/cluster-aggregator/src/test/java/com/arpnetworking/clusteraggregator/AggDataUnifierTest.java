@@ -20,6 +20,7 @@ import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.FQDSN;
 import com.arpnetworking.tsdcore.model.Quantity;
 import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.tsdcore.statistics.SumStatistic;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
@@ -286,6 +287,39 @@ public class AggDataUnifierTest {
 
     }
 
+    /**
+     * Tests that histograms are converted to the smallest unit.
+     */
+    @Test
+    public void testHistogramConvert() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.SECOND));
+        histogram.record(1d);
+        histogram.record(2d);
+        final AggregatedData.Builder builder = getDataBuilder()
+                .setValue(new Quantity.Builder()
+                        .setValue(2d)
+                        .setUnit(Unit.SECOND)
+                        .build());
+        final List<AggregatedData> data = Lists.newArrayList(
+                builder.setHistogram(histogram).build(),
+                builder.setValue(new Quantity.Builder()
+                                .setValue(3d)
+                                .setUnit(Unit.MILLISECOND)
+                                .build())
+                        .setHistogram(null)
+                        .build());
+
+        final List<AggregatedData> unified = AggDataUnifier.unify(data);
+        Assert.assertEquals(2, unified.size());
+        final AggregatedData unifiedData = unified.get(0);
+        Assert.assertEquals(2000d, unifiedData.getValue().getValue(), 0.001);
+        Assert.assertTrue(unifiedData.getHistogram().isPresent());
+        Assert.assertEquals(Optional.of(Unit.MILLISECOND), unifiedData.getHistogram().get().getUnit());
+        Assert.assertEquals(2, unifiedData.getHistogram().get().getCount());
+        Assert.assertEquals(2000d, unifiedData.getHistogram().get().getMax(), 0.001);
+        Assert.assertFalse(unified.get(1).getHistogram().isPresent());
+    }
+
     private AggregatedData.Builder getDataBuilder() {
         return new AggregatedData.Builder()
                 .setFQDSN(new FQDSN.Builder()
@@ -22,13 +22,18 @@ import akka.actor.UnhandledMessage;
 import akka.testkit.TestActorRef;
 import akka.testkit.TestProbe;
 import com.arpnetworking.clusteraggregator.configuration.EmitterConfiguration;
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.MetricsFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
 import com.arpnetworking.tsdcore.model.FQDSN;
+import com.arpnetworking.tsdcore.model.PeriodicData;
 import com.arpnetworking.tsdcore.model.Quantity;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.MeanStatistic;
 import com.arpnetworking.tsdcore.statistics.MedianStatistic;
 import com.arpnetworking.utility.BaseActorTest;
+import com.google.common.collect.Lists;
 import org.joda.time.Period;
 import org.junit.Assert;
 import org.junit.Before;
@@ -39,6 +44,7 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -52,11 +58,12 @@ public class EmitterTest extends BaseActorTest {
     @Before
     public void setup() {
         _config = new EmitterConfiguration.Builder().setSinks(Collections.singletonList(_sink)).build();
+        Mockito.doReturn(_metrics).when(_metricsFactory).create();
     }
 
     @Test
     public void propsCreation() {
-        TestActorRef.create(getSystem(), Emitter.props(_config));
+        TestActorRef.create(getSystem(), Emitter.props(_config, _metricsFactory));
     }
 
     @Test
@@ -77,20 +84,93 @@ public class EmitterTest extends BaseActorTest {
                         .setValue(14.0)
                         .build())
                 .build();
-        final TestActorRef<Actor> ref = TestActorRef.create(getSystem(), Emitter.props(_config));
+        final TestActorRef<Actor> ref = TestActorRef.create(getSystem(), Emitter.props(_config, _metricsFactory));
 
         ref.tell(data, ActorRef.noSender());
-        Mockito.verify(_sink).recordAggregateData(_aggregatedData.capture(), Mockito.anyCollectionOf(Condition.class));
+        Mockito.verify(_sink, Mockito.timeout(TIMEOUT_IN_MILLISECONDS))
+                .recordAggregateData(_aggregatedData.capture(), Mockito.anyCollectionOf(Condition.class));
         final List<AggregatedData> dataList = _aggregatedData.getValue();
         Assert.assertNotNull(dataList);
         Assert.assertEquals(1, dataList.size());
         Assert.assertSame(data, dataList.get(0));
     }
 
+    @Test
+    public void flushesWhenBatchIsFull() {
+        final AggregatedData.Builder builder = new AggregatedData.Builder()
+                .setFQDSN(new FQDSN.Builder()
+                        .setCluster("TestCluster")
+                        .setMetric("TestMetric")
+                        .setService("TestService")
+                        .setStatistic(new MedianStatistic())
+                        .build())
+                .setPeriod(Period.minutes(1))
+                .setStart(org.joda.time.DateTime.now().hourOfDay().roundFloorCopy())
+                .setPopulationSize(0L)
+                .setSamples(Collections.<Quantity>emptyList())
+                .setValue(new Quantity.Builder()
+                        .setValue(14.0)
+                        .build());
+        final AggregatedData first = builder.setHost("TestHost1").build();
+        final AggregatedData second = builder.setHost("TestHost2").build();
+        final EmitterConfiguration config = new EmitterConfiguration.Builder()
+                .setSinks(Collections.singletonList(_sink))
+                .setMaxBatchSize(2)
+                .setMaxBatchDelay(Period.hours(1))
+                .build();
+        final TestActorRef<Actor> ref = TestActorRef.create(getSystem(), Emitter.props(config, _metricsFactory));
+
+        ref.tell(first, ActorRef.noSender());
+        ref.tell(second, ActorRef.noSender());
+        Mockito.verify(_sink, Mockito.timeout(TIMEOUT_IN_MILLISECONDS))
+                .recordAggregateData(_aggregatedData.capture(), Mockito.anyCollectionOf(Condition.class));
+        Assert.assertEquals(Lists.newArrayList(first, second), _aggregatedData.getValue());
+        Mockito.verify(_metrics, Mockito.timeout(TIMEOUT_IN_MILLISECONDS)).close();
+        Mockito.verify(_metrics).setGauge("Emitter/Batch/Size", 2);
+        Mockito.verify(_metrics).setTimer(
+                Mockito.eq("Emitter/Batch/Latency"),
+                Mockito.anyLong(),
+                Mockito.eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void callsSinkWithPeriodicData() {
+        final AggregatedData.Builder builder = new AggregatedData.Builder()
+                .setHost("TestHost")
+                .setPeriod(Period.minutes(1))
+                .setStart(org.joda.time.DateTime.now().hourOfDay().roundFloorCopy())
+                .setPopulationSize(0L)
+                .setSamples(Collections.<Quantity>emptyList())
+                .setValue(new Quantity.Builder()
+                        .setValue(14.0)
+                        .build());
+        final FQDSN.Builder fqdsnBuilder = new FQDSN.Builder()
+                .setCluster("TestCluster")
+                .setMetric("TestMetric")
+                .setService("TestService");
+        final AggregatedData median = builder.setFQDSN(fqdsnBuilder.setStatistic(new MedianStatistic()).build()).build();
+        final AggregatedData mean = builder.setFQDSN(fqdsnBuilder.setStatistic(new MeanStatistic()).build()).build();
+        final TestActorRef<Actor> ref = TestActorRef.create(getSystem(), Emitter.props(_config, _metricsFactory));
+
+        ref.tell(
+                new PeriodicData.Builder()
+                        .setPeriod(Period.minutes(1))
+                        .setStart(median.getPeriodStart())
+                        .addData(median)
+                        .addData(mean)
+                        .build(),
+                ActorRef.noSender());
+        final ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(_sink, Mockito.timeout(TIMEOUT_IN_MILLISECONDS))
+                .recordAggregateData(captor.capture(), Mockito.anyCollectionOf(Condition.class));
+        Assert.assertEquals(Lists.newArrayList(median, mean), Lists.newArrayList(captor.getValue()));
+    }
+
     @Test
     public void doesNotSwallowUnhandled() {
         final TestProbe probe = TestProbe.apply(getSystem());
-        final TestActorRef<Actor> ref = TestActorRef.create(getSystem(), Emitter.props(_config));
+        final TestActorRef<Actor> ref = TestActorRef.create(getSystem(), Emitter.props(_config, _metricsFactory));
         getSystem().eventStream().subscribe(probe.ref(), UnhandledMessage.class);
         ref.tell("notAValidMessage", ActorRef.noSender());
         probe.expectMsgClass(FiniteDuration.apply(3, TimeUnit.SECONDS), UnhandledMessage.class);
@@ -101,4 +181,10 @@ public class EmitterTest extends BaseActorTest {
     private EmitterConfiguration _config = null;
     @Mock
     private Sink _sink = null;
+    @Mock
+    private MetricsFactory _metricsFactory = null;
+    @Mock
+    private Metrics _metrics = null;
+
+    private static final long TIMEOUT_IN_MILLISECONDS = 5000;
 }
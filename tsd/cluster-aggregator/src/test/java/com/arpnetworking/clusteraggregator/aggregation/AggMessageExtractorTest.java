@@ -0,0 +1,84 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.clusteraggregator.aggregation;
+
+import com.arpnetworking.clusteraggregator.models.AggregationMode;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.FQDSN;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.statistics.MeanStatistic;
+import com.arpnetworking.tsdcore.statistics.Statistic;
+import com.arpnetworking.tsdcore.statistics.TP99Statistic;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+
+/**
+ * Tests for the <code>AggMessageExtractor</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class AggMessageExtractorTest {
+
+    @Test
+    public void testStatisticMode() {
+        final AggMessageExtractor extractor = new AggMessageExtractor();
+        Assert.assertFalse(
+                extractor.entryId(createData(new MeanStatistic(), Period.minutes(1))).equals(
+                        extractor.entryId(createData(new TP99Statistic(), Period.minutes(1)))));
+        Assert.assertEquals(
+                extractor.entryId(createData(new MeanStatistic(), Period.minutes(1))),
+                extractor.entryId(createData(new MeanStatistic(), Period.minutes(1))));
+    }
+
+    @Test
+    public void testMetricMode() {
+        final AggMessageExtractor extractor = new AggMessageExtractor(AggregationMode.METRIC);
+        final AggregatedData mean = createData(new MeanStatistic(), Period.minutes(1));
+        final AggregatedData tp99 = createData(new TP99Statistic(), Period.minutes(1));
+        Assert.assertEquals(extractor.entryId(mean), extractor.entryId(tp99));
+        Assert.assertEquals(extractor.shardId(mean), extractor.shardId(tp99));
+        Assert.assertFalse(
+                extractor.entryId(mean).equals(
+                        extractor.entryId(createData(new MeanStatistic(), Period.minutes(5)))));
+        Assert.assertSame(mean, extractor.entryMessage(mean));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownMessage() {
+        new AggMessageExtractor(AggregationMode.METRIC).entryId("notAValidMessage");
+    }
+
+    private static AggregatedData createData(final Statistic statistic, final Period period) {
+        return new AggregatedData.Builder()
+                .setFQDSN(new FQDSN.Builder()
+                        .setCluster("MyCluster")
+                        .setService("MyService")
+                        .setMetric("MyMetric")
+                        .setStatistic(statistic)
+                        .build())
+                .setHost("MyHost")
+                .setPeriod(period)
+                .setStart(DateTime.parse("2015-05-08T00:00:00Z"))
+                .setPopulationSize(1L)
+                .setSamples(Collections.<Quantity>emptyList())
+                .setValue(new Quantity.Builder().setValue(1.0).build())
+                .build();
+    }
+}
@@ -21,11 +21,20 @@ import akka.actor.Terminated;
 import akka.contrib.pattern.ShardRegion;
 import akka.testkit.TestActorRef;
 import akka.testkit.TestProbe;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.FQDSN;
+import com.arpnetworking.tsdcore.model.PeriodicData;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.statistics.CountStatistic;
+import com.arpnetworking.tsdcore.statistics.SumStatistic;
 import com.arpnetworking.utility.BaseActorTest;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
 import org.junit.Assert;
 import org.junit.Test;
 import scala.concurrent.duration.FiniteDuration;
 
+import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -47,6 +56,47 @@ public class AggregatorTest extends BaseActorTest {
         Assert.assertEquals(aggregator, terminated.getActor());
     }
 
+    @Test
+    public void emitsAllStatisticsOfMetricTogether() {
+        final TestProbe probe = TestProbe.apply(getSystem());
+        final TestProbe emitter = TestProbe.apply(getSystem());
+        final TestProbe ignored = TestProbe.apply(getSystem());
+        final ActorRef aggregator = TestActorRef.apply(
+                Aggregator.props(ignored.ref(), ignored.ref(), emitter.ref()),
+                probe.ref(),
+                "agg-metric",
+                getSystem());
+
+        // A closed period with two hosts reporting two statistics of a metric
+        final DateTime start = DateTime.now().minusHours(1).hourOfDay().roundFloorCopy();
+        final FQDSN.Builder fqdsnBuilder = new FQDSN.Builder()
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .setMetric("MyMetric");
+        final AggregatedData.Builder builder = new AggregatedData.Builder()
+                .setPeriod(Period.minutes(1))
+                .setStart(start)
+                .setSamples(Collections.<Quantity>emptyList());
+        for (int i = 1; i <= 2; ++i) {
+            builder.setHost("MyHost" + i)
+                    .setPopulationSize((long) i)
+                    .setValue(new Quantity.Builder().setValue((double) i).build());
+            aggregator.tell(builder.setFQDSN(fqdsnBuilder.setStatistic(new CountStatistic()).build()).build(), ActorRef.noSender());
+            aggregator.tell(builder.setFQDSN(fqdsnBuilder.setStatistic(new SumStatistic()).build()).build(), ActorRef.noSender());
+        }
+
+        final PeriodicData periodicData = emitter.expectMsgClass(TIMEOUT, PeriodicData.class);
+        Assert.assertEquals(start, periodicData.getStart());
+        Assert.assertEquals(Period.minutes(1), periodicData.getPeriod());
+        Assert.assertEquals(2, periodicData.getData().size());
+        final AggregatedData count = periodicData.getDataByFQDSN(fqdsnBuilder.setStatistic(new CountStatistic()).build()).get();
+        Assert.assertEquals(3.0, count.getValue().getValue(), 0.001);
+        Assert.assertEquals("MyCluster-cluster", count.getHost());
+        final AggregatedData sum = periodicData.getDataByFQDSN(fqdsnBuilder.setStatistic(new SumStatistic()).build()).get();
+        Assert.assertEquals(3.0, sum.getValue().getValue(), 0.001);
+        emitter.expectNoMsg(FiniteDuration.apply(1, TimeUnit.SECONDS));
+    }
+
     public ActorRef createAggregator(final TestProbe probe) {
         final TestProbe ignored = TestProbe.apply(getSystem());
         return TestActorRef.apply(Aggregator.props(ignored.ref(), ignored.ref(), ignored.ref()), probe.ref(), "agg", getSystem());
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.clusteraggregator.client;
+
+import akka.actor.ActorRef;
+import akka.io.Tcp;
+import akka.testkit.TestActorRef;
+import akka.testkit.TestProbe;
+import akka.util.ByteString;
+import com.arpnetworking.tsdcore.Messages;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.AggregationMessage;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.statistics.Histogram;
+import com.arpnetworking.utility.BaseActorTest;
+import com.google.common.base.Optional;
+import com.google.protobuf.GeneratedMessage;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for the <code>AggClientConnection</code> actor.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class AggClientConnectionTest extends BaseActorTest {
+
+    @Before
+    public void setUp() {
+        _parent = new TestProbe(getSystem());
+        _connectionActor = TestActorRef.apply(
+                AggClientConnection.props(
+                        new TestProbe(getSystem()).ref(),
+                        new InetSocketAddress("localhost", 7065),
+                        new FiniteDuration(1, TimeUnit.HOURS)),
+                _parent.ref(),
+                "AggClientConnectionTest",
+                getSystem());
+    }
+
+    @Test
+    public void testAggregationRecord() {
+        receive(
+                HOST_IDENTIFICATION,
+                Messages.AggregationRecord.newBuilder()
+                        .setService("MyService")
+                        .setMetric("MyMetric")
+                        .setStatistic("tp99")
+                        .setPeriod("PT1M")
+                        .setPeriodStart(START.toString())
+                        .setStatisticValue(3.0)
+                        .addSamples(3.0)
+                        .setPopulationSize(1)
+                        .setUnit("SECOND")
+                        .build());
+
+        final AggregatedData datum = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertEquals("MyHost", datum.getHost());
+        Assert.assertEquals("MyCluster", datum.getFQDSN().getCluster());
+        Assert.assertEquals("MyService", datum.getFQDSN().getService());
+        Assert.assertEquals("MyMetric", datum.getFQDSN().getMetric());
+        Assert.assertEquals("tp99", datum.getFQDSN().getStatistic().getName());
+        Assert.assertEquals(Period.minutes(1), datum.getPeriod());
+        Assert.assertEquals(START.getMillis(), datum.getPeriodStart().getMillis());
+        Assert.assertEquals(3.0, datum.getValue().getValue(), 0.0);
+        Assert.assertEquals(Unit.SECOND, datum.getValue().getUnit().get());
+        Assert.assertEquals(1, datum.getSamples().size());
+        Assert.assertFalse(datum.getHistogram().isPresent());
+    }
+
+    @Test
+    public void testMetricRecord() {
+        receive(
+                HOST_IDENTIFICATION,
+                Messages.MetricRecord.newBuilder()
+                        .addDeclarations(declare(1, "MyService"))
+                        .addDeclarations(declare(2, "MyMetric"))
+                        .addDeclarations(declare(3, "PT1M"))
+                        .addDeclarations(declare(4, "count"))
+                        .addDeclarations(declare(5, "tp99"))
+                        .addDeclarations(declare(6, "SECOND"))
+                        .setService(1)
+                        .setMetric(2)
+                        .setPeriod(3)
+                        .setPeriodStart(START.getMillis())
+                        .setPopulationSize(2)
+                        .addSamples(1.0)
+                        .addSamples(2.0)
+                        .setSamplesUnit(6)
+                        .addStatistics(Messages.StatisticValue.newBuilder().setStatistic(4).setValue(2.0))
+                        .addStatistics(Messages.StatisticValue.newBuilder().setStatistic(5).setValue(2.0).setUnit(6).setSamples(true))
+                        .build(),
+                // Strings declared by an earlier record on the connection
+                Messages.MetricRecord.newBuilder()
+                        .setService(1)
+                        .setMetric(2)
+                        .setPeriod(3)
+                        .setPeriodStart(START.plus(Period.minutes(1)).getMillis())
+                        .setPopulationSize(1)
+                        .addStatistics(Messages.StatisticValue.newBuilder().setStatistic(4).setValue(1.0))
+                        .build());
+
+        final AggregatedData count = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertEquals("MyHost", count.getHost());
+        Assert.assertEquals("MyCluster", count.getFQDSN().getCluster());
+        Assert.assertEquals("MyService", count.getFQDSN().getService());
+        Assert.assertEquals("MyMetric", count.getFQDSN().getMetric());
+        Assert.assertEquals("count", count.getFQDSN().getStatistic().getName());
+        Assert.assertEquals(Period.minutes(1), count.getPeriod());
+        Assert.assertEquals(START.getMillis(), count.getPeriodStart().getMillis());
+        Assert.assertEquals(2, count.getPopulationSize());
+        Assert.assertEquals(2.0, count.getValue().getValue(), 0.0);
+        Assert.assertFalse(count.getValue().getUnit().isPresent());
+        Assert.assertTrue(count.getSamples().isEmpty());
+
+        final AggregatedData tp99 = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertEquals("tp99", tp99.getFQDSN().getStatistic().getName());
+        Assert.assertEquals(Unit.SECOND, tp99.getValue().getUnit().get());
+        Assert.assertEquals(2, tp99.getSamples().size());
+        Assert.assertEquals(2.0, tp99.getSamples().getValue(1), 0.0);
+        Assert.assertEquals(Unit.SECOND, tp99.getSamples().getUnit().get());
+
+        final AggregatedData next = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertEquals("MyMetric", next.getFQDSN().getMetric());
+        Assert.assertEquals(START.plus(Period.minutes(1)).getMillis(), next.getPeriodStart().getMillis());
+        Assert.assertEquals(1.0, next.getValue().getValue(), 0.0);
+        _parent.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMetricRecordHistogram() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.SECOND));
+        histogram.record(1.0);
+        histogram.record(2.0);
+        receive(
+                HOST_IDENTIFICATION,
+                Messages.MetricRecord.newBuilder()
+                        .addDeclarations(declare(1, "MyService"))
+                        .addDeclarations(declare(2, "MyMetric"))
+                        .addDeclarations(declare(3, "PT1M"))
+                        .addDeclarations(declare(4, "tp90"))
+                        .addDeclarations(declare(5, "tp99"))
+                        .addDeclarations(declare(6, "SECOND"))
+                        .setService(1)
+                        .setMetric(2)
+                        .setPeriod(3)
+                        .setPeriodStart(START.getMillis())
+                        .setPopulationSize(2)
+                        .setHistogram(histogram.toRecord())
+                        .setHistogramUnit(6)
+                        .addStatistics(Messages.StatisticValue.newBuilder().setStatistic(4).setValue(2.0).setUnit(6).setSamples(true))
+                        .addStatistics(Messages.StatisticValue.newBuilder().setStatistic(5).setValue(2.0).setUnit(6).setSamples(true))
+                        .build());
+
+        final AggregatedData tp90 = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertEquals("tp90", tp90.getFQDSN().getStatistic().getName());
+        Assert.assertTrue(tp90.getSamples().isEmpty());
+        Assert.assertEquals(Optional.of(histogram), tp90.getHistogram());
+        final AggregatedData tp99 = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertEquals(Optional.of(histogram), tp99.getHistogram());
+    }
+
+    @Test
+    public void testAggregationRecordHistogram() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.SECOND));
+        histogram.record(3.0);
+        receive(
+                HOST_IDENTIFICATION,
+                Messages.AggregationRecord.newBuilder()
+                        .setService("MyService")
+                        .setMetric("MyMetric")
+                        .setStatistic("tp99")
+                        .setPeriod("PT1M")
+                        .setPeriodStart(START.toString())
+                        .setStatisticValue(3.0)
+                        .setPopulationSize(1)
+                        .setUnit("SECOND")
+                        .setHistogram(histogram.toRecord())
+                        .setHistogramUnit("SECOND")
+                        .build());
+
+        final AggregatedData datum = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertTrue(datum.getSamples().isEmpty());
+        Assert.assertEquals(Optional.of(histogram), datum.getHistogram());
+    }
+
+    @Test
+    public void testInvalidHistogramDropsRecord() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.SECOND));
+        histogram.record(1.0);
+        receive(
+                HOST_IDENTIFICATION,
+                Messages.MetricRecord.newBuilder()
+                        .addDeclarations(declare(1, "MyService"))
+                        .addDeclarations(declare(2, "MyMetric"))
+                        .addDeclarations(declare(3, "PT1M"))
+                        .addDeclarations(declare(4, "tp99"))
+                        .setService(1)
+                        .setMetric(2)
+                        .setPeriod(3)
+                        .setPeriodStart(START.getMillis())
+                        .setPopulationSize(1)
+                        .setHistogram(histogram.toRecord().toBuilder().setPrecision(0.0))
+                        .addStatistics(Messages.StatisticValue.newBuilder().setStatistic(4).setValue(1.0).setSamples(true))
+                        .build(),
+                Messages.AggregationRecord.newBuilder()
+                        .setService("MyService")
+                        .setMetric("MyMetric")
+                        .setStatistic("tp99")
+                        .setPeriod("PT1M")
+                        .setPeriodStart(START.toString())
+                        .setStatisticValue(1.0)
+                        .setPopulationSize(1)
+                        .setUnit("SECOND")
+                        .setHistogram(histogram.toRecord())
+                        .setHistogramUnit("NOT_A_UNIT")
+                        .build(),
+                // The strings declared by the dropped record remain declared
+                Messages.MetricRecord.newBuilder()
+                        .setService(1)
+                        .setMetric(2)
+                        .setPeriod(3)
+                        .setPeriodStart(START.getMillis())
+                        .setPopulationSize(1)
+                        .addStatistics(Messages.StatisticValue.newBuilder().setStatistic(4).setValue(1.0))
+                        .build());
+
+        final AggregatedData datum = _parent.expectMsgClass(AggregatedData.class);
+        Assert.assertEquals("tp99", datum.getFQDSN().getStatistic().getName());
+        Assert.assertEquals(1.0, datum.getValue().getValue(), 0.0);
+        _parent.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMetricRecordUndeclaredString() {
+        receive(
+                HOST_IDENTIFICATION,
+                Messages.MetricRecord.newBuilder()
+                        .setService(1)
+                        .setMetric(2)
+                        .setPeriod(3)
+                        .setPeriodStart(START.getMillis())
+                        .setPopulationSize(1)
+                        .build());
+        _parent.expectNoMsg(FiniteDuration.create(100, TimeUnit.MILLISECONDS));
+    }
+
+    private void receive(final GeneratedMessage... messages) {
+        ByteString data = ByteString.empty();
+        for (final GeneratedMessage message : messages) {
+            data = data.concat(ByteString.fromArray(AggregationMessage.create(message).serialize().getBytes()));
+        }
+        // Split the data to exercise buffering of partial messages
+        final int split = data.length() / 2;
+        _connectionActor.tell(new Tcp.Received(data.take(split)), ActorRef.noSender());
+        _connectionActor.tell(new Tcp.Received(data.drop(split)), ActorRef.noSender());
+    }
+
+    private static Messages.StringDeclaration declare(final int id, final String value) {
+        return Messages.StringDeclaration.newBuilder().setId(id).setValue(value).build();
+    }
+
+    private TestProbe _parent;
+    private ActorRef _connectionActor;
+
+    private static final DateTime START = DateTime.parse("2015-05-08T00:00:00Z");
+    private static final Messages.HostIdentification HOST_IDENTIFICATION = Messages.HostIdentification.newBuilder()
+            .setHostName("MyHost")
+            .setClusterName("MyCluster")
+            .build();
+}
@@ -32,6 +32,7 @@ import akka.http.javadsl.model.headers.CacheDirectives;
 import akka.japi.JavaPartialFunction;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
+import com.arpnetworking.jackson.ObjectMapperFactory;
 import com.arpnetworking.metrics.Metrics;
 import com.arpnetworking.metrics.MetricsFactory;
 import com.arpnetworking.metrics.Timer;
@@ -39,9 +40,15 @@ import com.arpnetworking.steno.LogBuilder;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdaggregator.Status;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import scala.concurrent.Future;
 import scala.runtime.AbstractFunction1;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -119,6 +126,31 @@ public class Routes extends AbstractFunction1<HttpRequest, Future<HttpResponse>>
                                 },
                                 _actorSystem.dispatcher()
                         );
+            } else if (STATUS_PATH.equals(request.getUri().path())) {
+                return ask("/user/status", Status.WORK_QUEUES, Collections.<Map<String, Object>>emptyList())
+                        .map(
+                                new Mapper<List<Map<String, Object>>, HttpResponse>() {
+                                    @Override
+                                    public HttpResponse apply(final List<Map<String, Object>> workQueues) {
+                                        try {
+                                            return (HttpResponse) HttpResponse.create()
+                                                    .withStatus(StatusCodes.OK)
+                                                    .addHeader(PING_CACHE_CONTROL_HEADER)
+                                                    .withEntity(
+                                                            JSON_CONTENT_TYPE,
+                                                            OBJECT_MAPPER.writeValueAsString(
+                                                                    ImmutableMap.of("workQueues", workQueues)));
+                                        } catch (final JsonProcessingException e) {
+                                            LOGGER.error()
+                                                    .setMessage("Failed to serialize status")
+                                                    .setThrowable(e)
+                                                    .log();
+                                            return HttpResponse.create().withStatus(StatusCodes.INTERNAL_SERVER_ERROR);
+                                        }
+                                    }
+                                },
+                                _actorSystem.dispatcher()
+                        );
             }
         }
         return Futures.successful(HttpResponse.create().withStatus(404));
@@ -176,6 +208,10 @@ public class Routes extends AbstractFunction1<HttpRequest, Future<HttpResponse>>
     private static final String UNHEALTHY_STATE = "UNHEALTHY";
     private static final String HEALTHY_STATE = "HEALTHY";
 
+    // Status
+    private static final String STATUS_PATH = "/status";
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
+
     private static final ContentType JSON_CONTENT_TYPE = ContentType.create(MediaTypes.APPLICATION_JSON);
 
 }
@@ -17,28 +17,49 @@ package com.arpnetworking.tsdaggregator;
 
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdaggregator.model.DefaultRecord;
+import com.arpnetworking.tsdaggregator.model.Metric;
 import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdaggregator.model.SampleMode;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.utility.Launchable;
 import com.arpnetworking.utility.OvalBuilder;
+import com.arpnetworking.utility.PartitionedWorkQueue;
+import com.arpnetworking.utility.WorkQueueRegistry;
 import com.arpnetworking.utility.observer.Observable;
 import com.arpnetworking.utility.observer.Observer;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.ValidateWithMethod;
 import org.joda.time.Period;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Performs aggregation of <code>Record</code> instances per <code>Period</code>.
+ * By default records are aggregated on the thread notifying the aggregator.
+ * If ingestion workers are configured each record is instead split by metric
+ * name into partitions; each partition is queued to a dedicated worker thread
+ * which records into separate buckets. The buckets of every partition for a
+ * period are closed together and emitted to the sink as a single batch.
+ *
  * This class is thread safe.
  *
  * @author Ville Koskela (vkoskela at groupon dot com)
@@ -57,24 +78,34 @@ public final class Aggregator implements Observer, Launchable {
 
         _periodClosers.clear();
         if (!_periods.isEmpty()) {
-            _periodCloserExecutor = Executors.newFixedThreadPool(_periods.size());
-            // TODO(vkoskela): Convert to scheduled thread executor [MAI-468]
-            for (final Period period : _periods) {
-                final PeriodCloser periodCloser = new PeriodCloser.Builder()
-                        .setPeriod(period)
-                        .setBucketBuilder(
-                                new Bucket.Builder()
-                                        .setCounterStatistics(_counterStatistics)
-                                        .setGaugeStatistics(_gaugeStatistics)
-                                        .setTimerStatistics(_timerStatistics)
-                                        .setPeriod(period)
-                                        .setCluster(_cluster)
-                                        .setHost(_host)
-                                        .setService(_service)
-                                        .setSink(_sink))
+            final ScheduledExecutorService executor;
+            if (_sharedPeriodCloserExecutor.isPresent()) {
+                executor = _sharedPeriodCloserExecutor.get();
+            } else {
+                _periodCloserExecutor = Executors.newSingleThreadScheduledExecutor();
+                executor = _periodCloserExecutor;
+            }
+            final int partitionCount = Math.max(1, _ingestionWorkers);
+            final List<PeriodCloser> periodClosers = launchPeriodClosers(executor, partitionCount);
+            _periodClosers.addAll(periodClosers);
+            if (_ingestionWorkers > 0) {
+                final List<Consumer<Record>> consumers = Lists.newArrayListWithCapacity(partitionCount);
+                for (int i = 0; i < partitionCount; ++i) {
+                    final int partition = i;
+                    consumers.add(record -> {
+                        for (final PeriodCloser periodCloser : periodClosers) {
+                            periodCloser.record(partition, record);
+                        }
+                    });
+                }
+                _ingestionQueue = new PartitionedWorkQueue.Builder<Record>()
+                        .setName("Aggregator/" + _service + "/" + _cluster)
+                        .setConsumers(consumers)
+                        .setPartitionCapacity(_ingestionQueueSize)
+                        .setOverflowPolicy(_ingestionOverflowPolicy)
+                        .setRegistry(_workQueueRegistry.orNull())
                         .build();
-                _periodClosers.add(periodCloser);
-                _periodCloserExecutor.submit(periodCloser);
+                _ingestionQueue.launch();
             }
         }
     }
@@ -89,6 +120,14 @@ public final class Aggregator implements Observer, Launchable {
                 .addData("aggregator", this)
                 .log();
 
+        // Stop accepting records and let the workers consume those already
+        // queued; the period closers are then stopped without closing the
+        // open buckets, so the samples of the current periods are discarded
+        final PartitionedWorkQueue<Record> ingestionQueue = _ingestionQueue;
+        _ingestionQueue = null;
+        if (ingestionQueue != null) {
+            ingestionQueue.shutdown();
+        }
         for (final PeriodCloser periodCloser : _periodClosers) {
             periodCloser.shutdown();
         }
@@ -121,8 +160,21 @@ public final class Aggregator implements Observer, Launchable {
                 .setMessage("Processing record")
                 .addData("record", record)
                 .log();
-        for (final PeriodCloser periodCloser : _periodClosers) {
-            periodCloser.record(record);
+        if (_ingestionWorkers > 0) {
+            final PartitionedWorkQueue<Record> ingestionQueue = _ingestionQueue;
+            if (ingestionQueue == null) {
+                LOGGER.warn()
+                        .setMessage("Discarding record")
+                        .addData("reason", "aggregator not running")
+                        .addData("aggregator", this)
+                        .log();
+                return;
+            }
+            partition(record, ingestionQueue);
+        } else {
+            for (final PeriodCloser periodCloser : _periodClosers) {
+                periodCloser.record(record);
+            }
         }
     }
 
@@ -140,11 +192,83 @@ public final class Aggregator implements Observer, Launchable {
                 .add("TimerStatistics", _timerStatistics)
                 .add("CounterStatistics", _counterStatistics)
                 .add("GaugeStatistics", _gaugeStatistics)
+                .add("SampleMode", _sampleMode)
+                .add("HistogramPrecision", _histogramPrecision)
+                .add("SharedPeriodCloserExecutor", _sharedPeriodCloserExecutor)
+                .add("BucketCloseExecutor", _bucketCloseExecutor)
+                .add("IngestionWorkers", _ingestionWorkers)
+                .add("IngestionQueueSize", _ingestionQueueSize)
+                .add("IngestionOverflowPolicy", _ingestionOverflowPolicy)
                 .add("PeriodClosers", _periodClosers)
                 .toString();
 
     }
 
+    private List<PeriodCloser> launchPeriodClosers(final ScheduledExecutorService executor, final int partitions) {
+        final List<PeriodCloser> periodClosers = Lists.newArrayListWithCapacity(_periods.size());
+        for (final Period period : _periods) {
+            final PeriodCloser periodCloser = new PeriodCloser.Builder()
+                    .setPeriod(period)
+                    .setPartitions(partitions)
+                    .setBucketBuilder(
+                            new Bucket.Builder()
+                                    .setCounterStatistics(_counterStatistics)
+                                    .setGaugeStatistics(_gaugeStatistics)
+                                    .setTimerStatistics(_timerStatistics)
+                                    .setSampleMode(_sampleMode)
+                                    .setHistogramPrecision(_histogramPrecision)
+                                    .setCloseExecutor(_bucketCloseExecutor.orNull())
+                                    .setPeriod(period)
+                                    .setCluster(_cluster)
+                                    .setHost(_host)
+                                    .setService(_service)
+                                    .setSink(_sink))
+                    .build();
+            periodClosers.add(periodCloser);
+            periodCloser.launch(executor);
+        }
+        return ImmutableList.copyOf(periodClosers);
+    }
+
+    private void partition(final Record record, final PartitionedWorkQueue<Record> ingestionQueue) {
+        final int partitionCount = ingestionQueue.getPartitionCount();
+        final List<Map<String, Metric>> partitions = Lists.newArrayListWithCapacity(partitionCount);
+        for (int i = 0; i < partitionCount; ++i) {
+            partitions.add(null);
+        }
+        int lastPartition = -1;
+        int nonEmptyPartitions = 0;
+        for (final Map.Entry<String, ? extends Metric> entry : record.getMetrics().entrySet()) {
+            final int partition = Math.floorMod(entry.getKey().hashCode(), partitionCount);
+            Map<String, Metric> metrics = partitions.get(partition);
+            if (metrics == null) {
+                metrics = Maps.newHashMap();
+                partitions.set(partition, metrics);
+                ++nonEmptyPartitions;
+            }
+            metrics.put(entry.getKey(), entry.getValue());
+            lastPartition = partition;
+        }
+
+        // Avoid copying records whose metrics all belong to one partition
+        if (nonEmptyPartitions == 1) {
+            ingestionQueue.offer(lastPartition, record);
+            return;
+        }
+        for (int i = 0; i < partitionCount; ++i) {
+            final Map<String, Metric> metrics = partitions.get(i);
+            if (metrics != null) {
+                ingestionQueue.offer(
+                        i,
+                        new DefaultRecord.Builder()
+                                .setMetrics(metrics)
+                                .setTime(record.getTime())
+                                .setAnnotations(record.getAnnotations())
+                                .build());
+            }
+        }
+    }
+
     private Aggregator(final Builder builder) {
         _periods = ImmutableSet.copyOf(builder._periods);
         _service = builder._service;
@@ -154,6 +278,14 @@ public final class Aggregator implements Observer, Launchable {
         _counterStatistics = ImmutableSet.copyOf(builder._counterStatistics);
         _gaugeStatistics = ImmutableSet.copyOf(builder._gaugeStatistics);
         _timerStatistics = ImmutableSet.copyOf(builder._timerStatistics);
+        _sampleMode = builder._sampleMode;
+        _histogramPrecision = builder._histogramPrecision;
+        _sharedPeriodCloserExecutor = Optional.fromNullable(builder._periodCloserExecutor);
+        _bucketCloseExecutor = Optional.fromNullable(builder._bucketCloseExecutor);
+        _ingestionWorkers = builder._ingestionWorkers;
+        _ingestionQueueSize = builder._ingestionQueueSize;
+        _ingestionOverflowPolicy = builder._ingestionOverflowPolicy;
+        _workQueueRegistry = Optional.fromNullable(builder._workQueueRegistry);
     }
 
     private final ImmutableSet<Period> _periods;
@@ -164,9 +296,18 @@ public final class Aggregator implements Observer, Launchable {
     private final ImmutableSet<Statistic> _timerStatistics;
     private final ImmutableSet<Statistic> _counterStatistics;
     private final ImmutableSet<Statistic> _gaugeStatistics;
+    private final SampleMode _sampleMode;
+    private final double _histogramPrecision;
+    private final Optional<ScheduledExecutorService> _sharedPeriodCloserExecutor;
+    private final Optional<ForkJoinPool> _bucketCloseExecutor;
+    private final int _ingestionWorkers;
+    private final int _ingestionQueueSize;
+    private final PartitionedWorkQueue.OverflowPolicy _ingestionOverflowPolicy;
+    private final Optional<WorkQueueRegistry> _workQueueRegistry;
     private final ArrayList<PeriodCloser> _periodClosers = Lists.newArrayList();
 
-    private ExecutorService _periodCloserExecutor = null;
+    private ScheduledExecutorService _periodCloserExecutor = null;
+    private volatile PartitionedWorkQueue<Record> _ingestionQueue = null;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Aggregator.class);
 
@@ -270,6 +411,109 @@ public final class Aggregator implements Observer, Launchable {
             return this;
         }
 
+        /**
+         * Set the sample mode. Optional. Default is <code>SampleMode.EXACT</code>.
+         *
+         * @param value The sample mode.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setSampleMode(final SampleMode value) {
+            _sampleMode = value;
+            return this;
+        }
+
+        /**
+         * Set the relative error of percentiles computed when the sample mode
+         * is <code>SampleMode.HISTOGRAM</code>. Must be greater than zero and
+         * less than one. Optional. Default is 0.01.
+         *
+         * @param value The histogram precision.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setHistogramPrecision(final Double value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * Set the executor on which expired buckets are closed. Optional. By
+         * default each <code>Aggregator</code> creates a single threaded
+         * executor of its own. The executor is not shutdown with the
+         * <code>Aggregator</code>.
+         *
+         * @param value The period closer executor.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setPeriodCloserExecutor(final ScheduledExecutorService value) {
+            _periodCloserExecutor = value;
+            return this;
+        }
+
+        /**
+         * Set the pool on which the statistics of large buckets are computed
+         * in parallel when the bucket is closed. Optional. By default
+         * statistics are computed on the period closer executor.
+         *
+         * @param value The bucket close executor.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setBucketCloseExecutor(final ForkJoinPool value) {
+            _bucketCloseExecutor = value;
+            return this;
+        }
+
+        /**
+         * Set the number of ingestion worker threads. Optional. Default is
+         * zero which aggregates records on the notifying thread.
+         *
+         * @param value The number of ingestion workers.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setIngestionWorkers(final Integer value) {
+            _ingestionWorkers = value;
+            return this;
+        }
+
+        /**
+         * Set the number of records queued per ingestion worker. Optional.
+         * Default is 1024.
+         *
+         * @param value The ingestion queue size.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setIngestionQueueSize(final Integer value) {
+            _ingestionQueueSize = value;
+            return this;
+        }
+
+        /**
+         * Set the behavior when an ingestion worker's queue is full.
+         * Optional. Default is <code>OverflowPolicy.BLOCK</code>.
+         *
+         * @param value The ingestion overflow policy.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setIngestionOverflowPolicy(final PartitionedWorkQueue.OverflowPolicy value) {
+            _ingestionOverflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * Set the registry to report the ingestion queue to. Optional.
+         *
+         * @param value The work queue registry.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setWorkQueueRegistry(final WorkQueueRegistry value) {
+            _workQueueRegistry = value;
+            return this;
+        }
+
+        @SuppressWarnings("unused")
+        private boolean validateHistogramPrecision(final Double histogramPrecision) {
+            return Histogram.isValidPrecision(histogramPrecision.doubleValue());
+        }
+
         @NotNull
         @NotEmpty
         private String _service;
@@ -289,5 +533,21 @@ public final class Aggregator implements Observer, Launchable {
         private Set<Statistic> _counterStatistics;
         @NotNull
         private Set<Statistic> _gaugeStatistics;
+        @NotNull
+        private SampleMode _sampleMode = SampleMode.EXACT;
+        @NotNull
+        @ValidateWithMethod(methodName = "validateHistogramPrecision", parameterType = Double.class)
+        private Double _histogramPrecision = 0.01;
+        private ScheduledExecutorService _periodCloserExecutor;
+        private ForkJoinPool _bucketCloseExecutor;
+        @NotNull
+        @Min(value = 0)
+        private Integer _ingestionWorkers = 0;
+        @NotNull
+        @Min(value = 1)
+        private Integer _ingestionQueueSize = 1024;
+        @NotNull
+        private PartitionedWorkQueue.OverflowPolicy _ingestionOverflowPolicy = PartitionedWorkQueue.OverflowPolicy.BLOCK;
+        private WorkQueueRegistry _workQueueRegistry;
     }
 }
@@ -19,30 +19,35 @@ import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdaggregator.model.Metric;
 import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdaggregator.model.SampleMode;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
 import com.arpnetworking.tsdcore.model.FQDSN;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
 import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.CompositeAccumulator;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.tsdcore.statistics.OrderedStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.utility.OvalBuilder;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.TreeMultiset;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.ValidateWithMethod;
 import org.joda.time.DateTime;
 import org.joda.time.Period;
 
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -53,21 +58,58 @@ import java.util.concurrent.atomic.AtomicBoolean;
 /* package private */ class Bucket {
 
     /**
-     * Close the bucket. The aggregates for each metric are emitted to the sink.
+     * Close the bucket. The aggregates for each metric are emitted to the sink
+     * in a single batch. If a close executor was provided and the bucket
+     * contains enough metrics the statistics are computed in parallel on it.
      */
     public void close() {
-        if (_isOpen.getAndSet(false)) {
-            final Collection<AggregatedData> data = Lists.newArrayList();
-            computeStatistics(_counterMetricSamples, _counterStatistics, data);
-            computeStatistics(_gaugeMetricSamples, _gaugeStatistics, data);
-            computeStatistics(_timerMetricSamples, _timerStatistics, data);
-            _sink.recordAggregateData(data, Collections.<Condition>emptyList());
+        close(Collections.singletonList(this));
+    }
+
+    /**
+     * Close the buckets of each ingestion partition for the same period. The
+     * buckets must be built by the same <code>Builder</code> with the same
+     * start. The aggregates of all the buckets are emitted to the sink in a
+     * single batch and the statistics of their metrics are computed together,
+     * in parallel if a close executor was provided.
+     *
+     * @param buckets The buckets to close.
+     */
+    public static void close(final List<Bucket> buckets) {
+        Bucket owner = null;
+        int size = 0;
+        for (final Bucket bucket : buckets) {
+            size += bucket._counterMetricSamples.size()
+                    + bucket._gaugeMetricSamples.size()
+                    + bucket._timerMetricSamples.size();
+        }
+        final List<PendingMetric> metrics = Lists.newArrayListWithExpectedSize(size);
+        for (final Bucket bucket : buckets) {
+            if (bucket._isOpen.getAndSet(false)) {
+                addPendingMetrics(bucket._counterMetricSamples, bucket._counterStatistics, metrics);
+                addPendingMetrics(bucket._gaugeMetricSamples, bucket._gaugeStatistics, metrics);
+                addPendingMetrics(bucket._timerMetricSamples, bucket._timerStatistics, metrics);
+                if (owner == null) {
+                    owner = bucket;
+                }
+            } else {
+                LOGGER.warn()
+                        .setMessage("Bucket closed multiple times")
+                        .addData("bucket", bucket)
+                        .log();
+            }
+        }
+        if (owner == null) {
+            return;
+        }
+
+        final List<AggregatedData> data;
+        if (owner._closeExecutor.isPresent() && metrics.size() > METRICS_PER_CLOSE_TASK) {
+            data = owner._closeExecutor.get().invoke(owner.new CloseTask(metrics, 0, metrics.size()));
         } else {
-            LOGGER.warn()
-                    .setMessage("Bucket closed multiple times")
-                    .addData("bucket", this)
-                    .log();
+            data = owner.computeStatistics(metrics, 0, metrics.size());
         }
+        owner._sink.recordAggregateData(data, Collections.<Condition>emptyList());
     }
 
     /**
@@ -91,21 +133,15 @@ import java.util.concurrent.atomic.AtomicBoolean;
             }
 
             switch (metric.getType()) {
-                case COUNTER: {
-                    final boolean sorted = _counterStatistics.stream().anyMatch((s) -> s instanceof OrderedStatistic);
-                    addMetric(name, metric, record.getTime(), _counterMetricSamples, sorted);
+                case COUNTER:
+                    addMetric(name, metric, record.getTime(), _counterMetricSamples, _counterStatistics);
                     break;
-                }
-                case GAUGE: {
-                    final boolean sorted = _gaugeStatistics.stream().anyMatch((s) -> s instanceof OrderedStatistic);
-                    addMetric(name, metric, record.getTime(), _gaugeMetricSamples, sorted);
+                case GAUGE:
+                    addMetric(name, metric, record.getTime(), _gaugeMetricSamples, _gaugeStatistics);
                     break;
-                }
-                case TIMER: {
-                    final boolean sorted = _timerStatistics.stream().anyMatch((s) -> s instanceof OrderedStatistic);
-                    addMetric(name, metric, record.getTime(), _timerMetricSamples, sorted);
+                case TIMER:
+                    addMetric(name, metric, record.getTime(), _timerMetricSamples, _timerStatistics);
                     break;
-                }
                 default:
                     LOGGER.warn()
                             .setMessage("Discarding metric")
@@ -142,14 +178,25 @@ import java.util.concurrent.atomic.AtomicBoolean;
                 .add("CounterStatistics", _counterStatistics)
                 .add("GaugeStatistics", _gaugeStatistics)
                 .add("TimerStatistics", _timerStatistics)
+                .add("SampleMode", _sampleMode)
+                .add("HistogramPrecision", _histogramPrecision)
+                .add("CloseExecutor", _closeExecutor)
                 .toString();
     }
 
-    private void computeStatistics(
-            final Map<String, Collection<Quantity>> metricSamples,
+    private static void addPendingMetrics(
+            final Map<String, CompositeAccumulator> metricSamples,
             final Set<Statistic> statistics,
-            final Collection<AggregatedData> data) {
+            final List<PendingMetric> metrics) {
+        for (final Map.Entry<String, CompositeAccumulator> entry : metricSamples.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                metrics.add(new PendingMetric(entry.getKey(), entry.getValue(), statistics));
+            }
+        }
+    }
 
+    private List<AggregatedData> computeStatistics(final List<PendingMetric> metrics, final int from, final int to) {
+        final List<AggregatedData> data = Lists.newArrayList();
         final FQDSN.Builder fqdsnBuilder = new FQDSN.Builder()
                 .setCluster(_cluster)
                 .setService(_service);
@@ -158,50 +205,52 @@ import java.util.concurrent.atomic.AtomicBoolean;
                 .setPeriod(_period)
                 .setHost(_host);
 
-        for (final Map.Entry<String, Collection<Quantity>> entry : metricSamples.entrySet()) {
-            final String metric = entry.getKey();
-            final Collection<Quantity> samples = entry.getValue();
-            fqdsnBuilder.setMetric(metric);
-
-            // Unify sample units
-            // TODO(vkoskela): Extend Quantity to support unit-aware arithmetic. [MAI-?]
-            final List<Quantity> computableSamples = Quantity.unify(samples);
+        for (final PendingMetric metric : metrics.subList(from, to)) {
+            fqdsnBuilder.setMetric(metric._name);
 
-            // Compute statistics
-            for (final Statistic statistic : statistics) {
+            // Compute all statistics in a single pass; only ordered statistics
+            // require the samples or their histogram
+            final CompositeAccumulator accumulator = metric._accumulator;
+            final Map<Statistic, Quantity> values = accumulator.finish();
+            final Samples samples = accumulator.getSamples();
+            final Histogram histogram = accumulator.getHistogram().orNull();
+            for (final Statistic statistic : metric._statistics) {
                 datumBuilder.setFQDSN(
                         fqdsnBuilder.setStatistic(statistic)
                                 .build());
 
-                data.add(datumBuilder.setValue(statistic.calculate(computableSamples))
-                        .setPopulationSize((long) samples.size())
-                        .setSamples(samples)
+                final boolean ordered = statistic instanceof OrderedStatistic;
+                data.add(datumBuilder.setValue(values.get(statistic))
+                        .setPopulationSize(accumulator.getCount())
+                        .setSamples(ordered ? samples : Samples.empty())
+                        .setHistogram(ordered ? histogram : null)
                         .build());
             }
         }
+        return data;
     }
 
     private void addMetric(
             final String name,
             final Metric metric,
             final DateTime time,
-            final Map<String, Collection<Quantity>> data,
-            final boolean sorted) {
-
-        Collection<Quantity> samples = data.get(name);
-        if (samples == null) {
-            final Collection<Quantity> newSamples;
-            if (sorted) {
-                newSamples = TreeMultiset.create();
+            final Map<String, CompositeAccumulator> data,
+            final Set<Statistic> statistics) {
+
+        CompositeAccumulator accumulator = data.get(name);
+        if (accumulator == null) {
+            final CompositeAccumulator newAccumulator;
+            if (SampleMode.HISTOGRAM.equals(_sampleMode)) {
+                newAccumulator = new CompositeAccumulator(statistics, _histogramPrecision);
             } else {
-                newSamples = new ArrayList<>();
+                newAccumulator = new CompositeAccumulator(statistics);
             }
-            samples = data.putIfAbsent(name, newSamples);
-            if (samples == null) {
-                samples = newSamples;
+            accumulator = data.putIfAbsent(name, newAccumulator);
+            if (accumulator == null) {
+                accumulator = newAccumulator;
             }
         }
-        synchronized (samples) {
+        synchronized (accumulator) {
             if (!_isOpen.get()) {
                 LOGGER.warn()
                         .setMessage("Discarding metric")
@@ -213,7 +262,21 @@ import java.util.concurrent.atomic.AtomicBoolean;
                         .log();
                 return;
             }
-            samples.addAll(metric.getValues());
+            // The samples of a metric are validated together so the
+            // accumulator accepts either all of them or none
+            try {
+                accumulator.acceptAll(metric.getValues());
+            } catch (final IllegalArgumentException e) {
+                LOGGER.warn()
+                        .setMessage("Discarding metric")
+                        .addData("reason", "invalid samples")
+                        .addData("bucket", this)
+                        .addData("name", name)
+                        .addData("metric", metric)
+                        .addData("time", time)
+                        .setThrowable(e)
+                        .log();
+            }
         }
     }
 
@@ -227,6 +290,9 @@ import java.util.concurrent.atomic.AtomicBoolean;
         _counterStatistics = builder._counterStatistics;
         _gaugeStatistics = builder._gaugeStatistics;
         _timerStatistics = builder._timerStatistics;
+        _sampleMode = builder._sampleMode;
+        _histogramPrecision = builder._histogramPrecision;
+        _closeExecutor = Optional.fromNullable(builder._closeExecutor);
     }
 
 
@@ -240,11 +306,69 @@ import java.util.concurrent.atomic.AtomicBoolean;
     private final Set<Statistic> _counterStatistics;
     private final Set<Statistic> _gaugeStatistics;
     private final Set<Statistic> _timerStatistics;
-    private final Map<String, Collection<Quantity>> _counterMetricSamples = Maps.newConcurrentMap();
-    private final Map<String, Collection<Quantity>> _gaugeMetricSamples = Maps.newConcurrentMap();
-    private final Map<String, Collection<Quantity>> _timerMetricSamples = Maps.newConcurrentMap();
+    private final SampleMode _sampleMode;
+    private final double _histogramPrecision;
+    private final Optional<ForkJoinPool> _closeExecutor;
+    private final Map<String, CompositeAccumulator> _counterMetricSamples = Maps.newConcurrentMap();
+    private final Map<String, CompositeAccumulator> _gaugeMetricSamples = Maps.newConcurrentMap();
+    private final Map<String, CompositeAccumulator> _timerMetricSamples = Maps.newConcurrentMap();
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Bucket.class);
+    private static final int METRICS_PER_CLOSE_TASK = 256;
+
+    /**
+     * Accumulated samples and the statistics to compute from them for a
+     * single metric.
+     */
+    private static final class PendingMetric {
+
+        private PendingMetric(
+                final String name,
+                final CompositeAccumulator accumulator,
+                final Set<Statistic> statistics) {
+            _name = name;
+            _accumulator = accumulator;
+            _statistics = statistics;
+        }
+
+        private final String _name;
+        private final CompositeAccumulator _accumulator;
+        private final Set<Statistic> _statistics;
+    }
+
+    /**
+     * Computes the statistics for a range of metrics by recursively splitting
+     * the range until each task covers at most
+     * <code>METRICS_PER_CLOSE_TASK</code> metrics. Results are concatenated
+     * in the order of the metrics.
+     */
+    private final class CloseTask extends RecursiveTask<List<AggregatedData>> {
+
+        private CloseTask(final List<PendingMetric> metrics, final int from, final int to) {
+            _metrics = metrics;
+            _from = from;
+            _to = to;
+        }
+
+        @Override
+        protected List<AggregatedData> compute() {
+            if (_to - _from <= METRICS_PER_CLOSE_TASK) {
+                return computeStatistics(_metrics, _from, _to);
+            }
+            final int middle = (_from + _to) >>> 1;
+            final CloseTask right = new CloseTask(_metrics, middle, _to);
+            right.fork();
+            final List<AggregatedData> data = new CloseTask(_metrics, _from, middle).compute();
+            data.addAll(right.join());
+            return data;
+        }
+
+        private final List<PendingMetric> _metrics;
+        private final int _from;
+        private final int _to;
+
+        private static final long serialVersionUID = 1L;
+    }
 
     /**
      * <code>Builder</code> implementation for <code>Bucket</code>.
@@ -357,6 +481,48 @@ import java.util.concurrent.atomic.AtomicBoolean;
             return this;
         }
 
+        /**
+         * Set the sample mode. Optional. Default is <code>SampleMode.EXACT</code>.
+         *
+         * @param value The sample mode.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setSampleMode(final SampleMode value) {
+            _sampleMode = value;
+            return this;
+        }
+
+        /**
+         * Set the pool on which statistics are computed in parallel when the
+         * bucket is closed. Optional. By default statistics are computed on
+         * the thread closing the bucket.
+         *
+         * @param value The close executor.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setCloseExecutor(final ForkJoinPool value) {
+            _closeExecutor = value;
+            return this;
+        }
+
+        /**
+         * Set the relative error of percentiles computed when the sample mode
+         * is <code>SampleMode.HISTOGRAM</code>. Must be greater than zero and
+         * less than one. Optional. Default is 0.01.
+         *
+         * @param value The histogram precision.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setHistogramPrecision(final Double value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        @SuppressWarnings("unused")
+        private boolean validateHistogramPrecision(final Double histogramPrecision) {
+            return Histogram.isValidPrecision(histogramPrecision.doubleValue());
+        }
+
         @NotNull
         @NotEmpty
         private String _service;
@@ -378,5 +544,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
         private ImmutableSet<Statistic> _counterStatistics;
         @NotNull
         private ImmutableSet<Statistic> _gaugeStatistics;
+        @NotNull
+        private SampleMode _sampleMode = SampleMode.EXACT;
+        @NotNull
+        @ValidateWithMethod(methodName = "validateHistogramPrecision", parameterType = Double.class)
+        private Double _histogramPrecision = 0.01;
+        private ForkJoinPool _closeExecutor;
     }
 }
@@ -38,8 +38,10 @@ import com.arpnetworking.tsdaggregator.configuration.TsdAggregatorConfiguration;
 import com.arpnetworking.tsdcore.limiter.MetricsLimiter;
 import com.arpnetworking.utility.Configurator;
 import com.arpnetworking.utility.Launchable;
+import com.arpnetworking.utility.WorkQueueRegistry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -58,6 +60,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -172,9 +175,14 @@ public final class Main implements Launchable {
 
     private void launchPipelines(final Injector injector) {
         LOGGER.info().setMessage("Launching pipelines").log();
+        // All pipelines share the executors for closing buckets
+        _periodCloserExecutor = Executors.newScheduledThreadPool(Runtime.getRuntime().availableProcessors());
+        _bucketCloseExecutor = new ForkJoinPool(_configuration.getBucketCloseParallelism());
         _pipelinesLaunchable = new PipelinesLaunchable(
                 PipelineConfiguration.createObjectMapper(injector),
-                _configuration.getPipelinesDirectory());
+                _configuration.getPipelinesDirectory(),
+                _periodCloserExecutor,
+                _bucketCloseExecutor);
         _pipelinesLaunchable.launch();
     }
 
@@ -200,7 +208,7 @@ public final class Main implements Launchable {
         final Routes routes = new Routes(_actorSystem, injector.getInstance(MetricsFactory.class));
 
         // Create the status actor
-        _actorSystem.actorOf(Props.create(Status.class), "status");
+        _actorSystem.actorOf(Props.create(Status.class, injector.getInstance(WorkQueueRegistry.class)), "status");
 
         final ActorFlowMaterializerSettings materializerSettings = ActorFlowMaterializerSettings.create(_actorSystem);
         final ActorFlowMaterializer materializer = ActorFlowMaterializer.create(materializerSettings, _actorSystem);
@@ -249,6 +257,7 @@ public final class Main implements Launchable {
                     @Override
                     public void configure() {
                         bind(MetricsFactory.class).toInstance(metricsFactory);
+                        bind(WorkQueueRegistry.class).toInstance(new WorkQueueRegistry());
                         for (final Map.Entry<String, MetricsLimiter> entry : _configuration.getLimiters().entrySet()) {
                             bind(MetricsLimiter.class).annotatedWith(Names.named(entry.getKey())).toInstance(entry.getValue());
                         }
@@ -266,6 +275,19 @@ public final class Main implements Launchable {
     private void shutdownPipelines() {
         LOGGER.info().setMessage("Stopping pipelines").log();
         _pipelinesLaunchable.shutdown();
+        if (_periodCloserExecutor != null) {
+            _periodCloserExecutor.shutdown();
+            try {
+                _periodCloserExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                LOGGER.warn("Unable to shutdown period closer executor", e);
+            }
+            _periodCloserExecutor = null;
+        }
+        if (_bucketCloseExecutor != null) {
+            _bucketCloseExecutor.shutdown();
+            _bucketCloseExecutor = null;
+        }
     }
 
     private void shutdownLimiters() {
@@ -301,6 +323,8 @@ public final class Main implements Launchable {
 
     private PipelinesLaunchable _pipelinesLaunchable;
     private ScheduledExecutorService _jvmMetricsCollector;
+    private ScheduledExecutorService _periodCloserExecutor;
+    private ForkJoinPool _bucketCloseExecutor;
 
     private volatile ActorSystem _actorSystem;
 
@@ -310,9 +334,15 @@ public final class Main implements Launchable {
 
     private static final class PipelinesLaunchable implements Launchable, Runnable {
 
-        public PipelinesLaunchable(final ObjectMapper objectMapper, final File directory) {
+        public PipelinesLaunchable(
+                final ObjectMapper objectMapper,
+                final File directory,
+                final ScheduledExecutorService periodCloserExecutor,
+                final ForkJoinPool bucketCloseExecutor) {
             _objectMapper = objectMapper;
             _directory = directory;
+            _periodCloserExecutor = periodCloserExecutor;
+            _bucketCloseExecutor = bucketCloseExecutor;
             _fileToPipelineLaunchables = Maps.newConcurrentMap();
         }
 
@@ -370,7 +400,12 @@ public final class Main implements Launchable {
                     .log();
 
             final Configurator<Pipeline, PipelineConfiguration> pipelineConfigurator =
-                    new Configurator<>(Pipeline::new, PipelineConfiguration.class);
+                    new Configurator<>(
+                            configuration -> new Pipeline(
+                                    configuration,
+                                    Optional.of(_periodCloserExecutor),
+                                    Optional.of(_bucketCloseExecutor)),
+                            PipelineConfiguration.class);
             final DynamicConfiguration pipelineConfiguration = new DynamicConfiguration.Builder()
                     .setObjectMapper(_objectMapper)
                     .addSourceBuilder(new JsonNodeFileSource.Builder()
@@ -405,6 +440,8 @@ public final class Main implements Launchable {
 
         private final ObjectMapper _objectMapper;
         private final File _directory;
+        private final ScheduledExecutorService _periodCloserExecutor;
+        private final ForkJoinPool _bucketCloseExecutor;
         private final Map<File, List<Launchable>> _fileToPipelineLaunchables;
 
         private ScheduledExecutorService _pipelinesExecutor;
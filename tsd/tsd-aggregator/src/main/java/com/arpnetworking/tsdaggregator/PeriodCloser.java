@@ -19,85 +19,120 @@ import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdaggregator.model.Record;
 import com.arpnetworking.utility.OvalBuilder;
+import com.arpnetworking.utility.TimingWheel;
 import com.google.common.base.MoreObjects;
-import com.google.common.collect.Lists;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.joda.time.Period;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Responsible for managing aggregation buckets for a period.
+ * Responsible for managing aggregation buckets for a period. Open buckets are
+ * indexed by the number of periods since the epoch in a fixed size table of
+ * slots guarded by striped locks; lookups are lock free. Bucket expiration
+ * is tracked in a <code>TimingWheel</code> which is advanced by a task
+ * periodically executed on a shared <code>ScheduledExecutorService</code>.
+ *
+ * Each ingestion partition records into a separate bucket for each period.
+ * The buckets of all partitions for a period expire together and are closed
+ * as one batch.
  *
  * @author Ville Koskela (vkoskela at groupon dot com)
  */
 /* package private */ final class PeriodCloser implements Runnable {
 
+    /**
+     * Start periodically closing expired buckets on the specified executor.
+     *
+     * @param executor The <code>ScheduledExecutorService</code> to execute on.
+     */
+    public synchronized void launch(final ScheduledExecutorService executor) {
+        if (_future != null) {
+            throw new IllegalStateException("PeriodCloser already launched");
+        }
+        _future = executor.scheduleAtFixedRate(this, _tickMillis, _tickMillis, TimeUnit.MILLISECONDS);
+    }
+
     /**
      * Shutdown this <code>PeriodCloser</code>. Cannot be restarted.
      */
-    public void shutdown() {
-        _isRunning = false;
+    public synchronized void shutdown() {
+        if (_future != null) {
+            _future.cancel(false);
+        }
     }
 
     /**
-     * Process a <code>Record</code>.
+     * Process a <code>Record</code> in the first partition.
      *
      * @param record Instance of <code>Record</code> to process.
      */
     public void record(final Record record) {
-        // Find an existing bucket for the record
-        final Duration timeout = getPeriodTimeout(_period);
-        final DateTime start = getStartTime(record.getTime(), _period);
-        final DateTime expiration = max(DateTime.now().plus(timeout), start.plus(_period).plus(timeout));
-        Bucket bucket = _bucketsByStart.get(start);
-
-        // Create a new bucket if one does not exist
-        if (bucket == null) {
-            // Pre-emptively add the record to the _new_ bucket. This avoids
-            // the race condition after indexing by expiration between adding
-            // the record and closing the bucket.
-            final Bucket newBucket = _bucketBuilder
-                    .setStart(start)
-                    .build();
-            newBucket.add(record);
-
-            // Resolve bucket creation race condition; either:
-            // 1) We won and can proceed to index the new bucket
-            // 2) We lost and can proceed to add data to the existing bucket
-            bucket = _bucketsByStart.putIfAbsent(start, newBucket);
-            if (bucket == null) {
-                LOGGER.debug()
-                        .setMessage("Created new bucket")
-                        .addData("bucket", newBucket)
-                        .log();
-
-                // Index the bucket by its expiration date; the expiration date is always in the future
-                List<Bucket> bucketsAtExpiration = _bucketsByExpiration.get(expiration);
-                if (bucketsAtExpiration == null) {
-                    final List<Bucket> newBucketsAtExpiration = Lists.newCopyOnWriteArrayList();
-                    newBucketsAtExpiration.add(newBucket);
-
-                    bucketsAtExpiration = _bucketsByExpiration.putIfAbsent(
-                            expiration,
-                            newBucketsAtExpiration);
-                    if (bucketsAtExpiration != null) {
-                        bucketsAtExpiration.add(newBucket);
+        record(0, record);
+    }
+
+    /**
+     * Process a <code>Record</code> in the specified partition.
+     *
+     * @param partition The ingestion partition of the record.
+     * @param record Instance of <code>Record</code> to process.
+     */
+    public void record(final int partition, final Record record) {
+        // Find the existing buckets for the record
+        final long index = Math.floorDiv(record.getTime().getMillis(), _periodMillis);
+        final int slot = (int) (index & SLOT_MASK);
+        Bucket[] buckets = find(_slots.get(slot), index);
+
+        // Create new buckets if they do not exist
+        if (buckets == null) {
+            synchronized (_locks[slot & STRIPE_MASK]) {
+                // Resolve bucket creation race condition; either:
+                // 1) We won and can proceed to create and index new buckets
+                // 2) We lost and can proceed to add data to the existing buckets
+                final BucketNode head = _slots.get(slot);
+                buckets = find(head, index);
+                if (buckets == null) {
+                    // Pre-emptively add the record to the _new_ bucket. This
+                    // avoids any race condition between indexing the bucket by
+                    // expiration and adding the record.
+                    final long startMillis = index * _periodMillis;
+                    final long expirationMillis = Math.max(
+                            DateTimeUtils.currentTimeMillis() + _timeoutMillis,
+                            startMillis + _periodMillis + _timeoutMillis);
+                    final Bucket[] newBuckets = new Bucket[_partitions];
+                    synchronized (_bucketBuilder) {
+                        _bucketBuilder.setStart(new DateTime(startMillis, DateTimeZone.UTC));
+                        for (int i = 0; i < newBuckets.length; ++i) {
+                            newBuckets[i] = _bucketBuilder.build();
+                        }
                     }
-                }
+                    newBuckets[partition].add(record);
+                    _slots.set(slot, new BucketNode(index, newBuckets, head));
+                    _expirations.schedule(expirationMillis, new BucketNode(index, newBuckets, null));
+
+                    LOGGER.debug()
+                            .setMessage("Created new buckets")
+                            .addData("buckets", newBuckets)
+                            .log();
 
-                // New bucket created and indexed with record
-                return;
+                    // New buckets created and indexed with record
+                    return;
+                }
             }
         }
 
         // Add the record to the _existing_ bucket
-        bucket.add(record);
+        buckets[partition].add(record);
     }
 
     /**
@@ -105,39 +140,16 @@ import java.util.concurrent.ConcurrentSkipListMap;
      */
     @Override
     public void run() {
-        Thread.setDefaultUncaughtExceptionHandler(
-                (thread, throwable) -> LOGGER.error()
-                        .setMessage("Unhandled exception")
-                        .addData("periodCloser", PeriodCloser.this)
-                        .setThrowable(throwable)
-                        .log());
-
-        while (_isRunning) {
-            try {
-                DateTime now = DateTime.now();
-                final DateTime rotateAt = getRotateAt(now);
-                Duration timeToRotate = new Duration(now, rotateAt);
-                while (_isRunning && timeToRotate.isLongerThan(Duration.ZERO)) {
-                    Thread.sleep(Math.min(timeToRotate.getMillis(), 100));
-                    now = DateTime.now();
-                    timeToRotate = new Duration(now, rotateAt);
-                }
-                rotate(now);
-            } catch (final InterruptedException e) {
-                Thread.interrupted();
-                LOGGER.warn()
-                        .setMessage("Interrupted waiting to close buckets")
-                        .setThrowable(e)
-                        .log();
-                // CHECKSTYLE.OFF: IllegalCatch - Top level catch to prevent thread death
-            } catch (final Exception e) {
-                // CHECKSTYLE.ON: IllegalCatch
-                LOGGER.error()
-                        .setMessage("Aggregator failure")
-                        .addData("periodCloser", this)
-                        .setThrowable(e)
-                        .log();
-            }
+        try {
+            rotate(DateTimeUtils.currentTimeMillis());
+            // CHECKSTYLE.OFF: IllegalCatch - Prevent suppression of subsequent executions
+        } catch (final Exception e) {
+            // CHECKSTYLE.ON: IllegalCatch
+            LOGGER.error()
+                    .setMessage("Aggregator failure")
+                    .addData("periodCloser", this)
+                    .setThrowable(e)
+                    .log();
         }
     }
 
@@ -149,57 +161,47 @@ import java.util.concurrent.ConcurrentSkipListMap;
         return MoreObjects.toStringHelper(this)
                 .add("id", Integer.toHexString(System.identityHashCode(this)))
                 .add("Period", _period)
+                .add("Partitions", _partitions)
+                .add("TickMillis", _tickMillis)
+                .add("Expirations", _expirations)
                 .add("BucketBuilder", _bucketBuilder)
                 .toString();
 
     }
 
-    /* package private */ void rotate(final DateTime now) {
-        final Map<DateTime, List<Bucket>> expiredBucketMap = _bucketsByExpiration.headMap(now);
-        int closedBucketCount = 0;
-
-        // Phase 1: Update thresholds and close expired buckets
-        for (final Map.Entry<DateTime, List<Bucket>> entry : expiredBucketMap.entrySet()) {
-            for (final Bucket bucket : entry.getValue()) {
-                // Close the bucket
-                bucket.close();
-                ++closedBucketCount;
-
-                LOGGER.debug()
-                        .setMessage("Bucket closed")
-                        .addData("periodCloser", this)
-                        .addData("bucket", bucket)
-                        .addData("now", now)
-                        .log();
-            }
+    /* package private */ void rotate(final long nowMillis) {
+        final List<BucketNode> expiredBuckets = _expirations.advance(nowMillis);
+        if (expiredBuckets.isEmpty()) {
+            return;
         }
 
-        // Phase 2: Remove expired buckets
-        for (final Map.Entry<DateTime, List<Bucket>> entry : expiredBucketMap.entrySet()) {
-            // Remove all buckets at the expiration date
-            for (final Bucket bucket : _bucketsByExpiration.remove(entry.getKey())) {
-                if (bucket.isOpen()) {
-                    LOGGER.error()
-                            .setMessage("Dropped bucket still open")
-                            .addData("periodCloser", this)
-                            .addData("bucket", bucket)
-                            .addData("now", now)
-                            .log();
-                }
-                _bucketsByStart.remove(bucket.getStart());
+        // Phase 1: Remove expired buckets; any subsequent records for the
+        // same period create a new bucket
+        for (final BucketNode expired : expiredBuckets) {
+            final int slot = (int) (expired._index & SLOT_MASK);
+            synchronized (_locks[slot & STRIPE_MASK]) {
+                _slots.set(slot, remove(_slots.get(slot), expired._buckets));
             }
         }
 
-        LOGGER.debug().setMessage("Rotated").addData("count", closedBucketCount).log();
-    }
+        // Phase 2: Close the expired buckets of all partitions together
+        for (final BucketNode expired : expiredBuckets) {
+            Bucket.close(Arrays.asList(expired._buckets));
 
-    /* package private */ DateTime getRotateAt(final DateTime now) {
-        final Map.Entry<DateTime, List<Bucket>> firstEntry = _bucketsByExpiration.firstEntry();
-        final DateTime periodFirstExpiration = firstEntry == null ? null : firstEntry.getKey();
-        if (periodFirstExpiration != null && periodFirstExpiration.isAfter(now)) {
-            return periodFirstExpiration;
+            LOGGER.debug()
+                    .setMessage("Buckets closed")
+                    .addData("periodCloser", this)
+                    .addData("buckets", expired._buckets)
+                    .addData("now", nowMillis)
+                    .log();
         }
-        return now.plus(_rotationCheck);
+
+        LOGGER.debug().setMessage("Rotated").addData("count", expiredBuckets.size()).log();
+    }
+
+    /* package private */ static long getTickMillis(final Period period) {
+        final long tickMillis = period.toStandardDuration().getMillis() / TICKS_PER_PERIOD;
+        return Math.max(MINIMUM_TICK.getMillis(), Math.min(MAXIMUM_TICK.getMillis(), tickMillis));
     }
 
     /* package private */ static Duration getPeriodTimeout(final Period period) {
@@ -216,32 +218,86 @@ import java.util.concurrent.ConcurrentSkipListMap;
         // for non-standard bucket sizes (e.g. 18 min) that do not divide
         // equally into an hour or day. Such use cases are rather uncommon.
         final long periodMillis = period.toStandardDuration().getMillis();
-        final long dateTimeMillis = dateTime.getMillis();
-        return new DateTime(dateTimeMillis - (dateTimeMillis % periodMillis), DateTimeZone.UTC);
+        return new DateTime(Math.floorDiv(dateTime.getMillis(), periodMillis) * periodMillis, DateTimeZone.UTC);
+    }
+
+    private static Bucket[] find(final BucketNode head, final long index) {
+        for (BucketNode node = head; node != null; node = node._next) {
+            if (node._index == index) {
+                return node._buckets;
+            }
+        }
+        return null;
     }
 
-    /* package private */ static DateTime max(final DateTime dateTime1, final DateTime dateTime2) {
-        if (dateTime1.isAfter(dateTime2)) {
-            return dateTime1;
+    private static BucketNode remove(final BucketNode head, final Bucket[] buckets) {
+        if (head == null) {
+            return null;
         }
-        return dateTime2;
+        if (head._buckets == buckets) {
+            return head._next;
+        }
+        final BucketNode next = remove(head._next, buckets);
+        if (next == head._next) {
+            return head;
+        }
+        return new BucketNode(head._index, head._buckets, next);
     }
 
     private PeriodCloser(final Builder builder) {
         _period = builder._period;
         _bucketBuilder = builder._bucketBuilder;
+        _partitions = builder._partitions;
+        _periodMillis = _period.toStandardDuration().getMillis();
+        _timeoutMillis = getPeriodTimeout(_period).getMillis();
+        _tickMillis = getTickMillis(_period);
+        _expirations = new TimingWheel<>(_tickMillis, WHEEL_SIZE, DateTimeUtils.currentTimeMillis());
+        for (int i = 0; i < _locks.length; ++i) {
+            _locks[i] = new Object();
+        }
     }
 
-    private volatile boolean _isRunning = true;
+    private ScheduledFuture<?> _future;
 
     private final Period _period;
     private final Bucket.Builder _bucketBuilder;
-    private final Duration _rotationCheck = Duration.millis(100);
-    private final ConcurrentSkipListMap<DateTime, Bucket> _bucketsByStart = new ConcurrentSkipListMap<>();
-    private final ConcurrentSkipListMap<DateTime, List<Bucket>> _bucketsByExpiration = new ConcurrentSkipListMap<>();
+    private final int _partitions;
+    private final long _periodMillis;
+    private final long _timeoutMillis;
+    private final long _tickMillis;
+    private final TimingWheel<BucketNode> _expirations;
+    private final AtomicReferenceArray<BucketNode> _slots = new AtomicReferenceArray<>(SLOT_COUNT);
+    private final Object[] _locks = new Object[STRIPE_COUNT];
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PeriodCloser.class);
     private static final Duration MAXIMUM_PERIOD_TIMEOUT = Duration.standardMinutes(10);
+    private static final Duration MINIMUM_TICK = Duration.millis(100);
+    private static final Duration MAXIMUM_TICK = Duration.standardSeconds(1);
+    private static final long TICKS_PER_PERIOD = 10;
+    private static final int WHEEL_SIZE = 64;
+    // Slots are indexed by period index so consecutive periods never collide
+    private static final int SLOT_COUNT = 64;
+    private static final long SLOT_MASK = SLOT_COUNT - 1;
+    private static final int STRIPE_COUNT = 16;
+    private static final int STRIPE_MASK = STRIPE_COUNT - 1;
+
+    /**
+     * Immutable node in the chain of buckets sharing a slot. Each node holds
+     * the buckets of every partition for one period. Chains are replaced
+     * rather than modified so that readers need not lock.
+     */
+    private static final class BucketNode {
+
+        private BucketNode(final long index, final Bucket[] buckets, final BucketNode next) {
+            _index = index;
+            _buckets = buckets;
+            _next = next;
+        }
+
+        private final long _index;
+        private final Bucket[] _buckets;
+        private final BucketNode _next;
+    }
 
     /**
      * <code>Builder</code> implementation for <code>PeriodCloser</code>.
@@ -277,9 +333,23 @@ import java.util.concurrent.ConcurrentSkipListMap;
             return this;
         }
 
+        /**
+         * Set the number of ingestion partitions. Optional. Default is one.
+         *
+         * @param value The number of partitions.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setPartitions(final Integer value) {
+            _partitions = value;
+            return this;
+        }
+
         @NotNull
         private Period _period;
         @NotNull
         private Bucket.Builder _bucketBuilder;
+        @NotNull
+        @Min(value = 1)
+        private Integer _partitions = 1;
     }
 }
@@ -30,6 +30,8 @@ import com.google.common.collect.Lists;
 
 import java.net.UnknownHostException;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -48,7 +50,25 @@ public class Pipeline implements Launchable {
      * @param pipelineConfiguration Instance of <code>PipelineConfiguration</code>.
      */
     public Pipeline(final PipelineConfiguration pipelineConfiguration) {
+        this(pipelineConfiguration, Optional.absent(), Optional.absent());
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param pipelineConfiguration Instance of <code>PipelineConfiguration</code>.
+     * @param periodCloserExecutor The <code>ScheduledExecutorService</code> shared
+     * across pipelines on which expired buckets are closed.
+     * @param bucketCloseExecutor The <code>ForkJoinPool</code> shared across
+     * pipelines on which statistics are computed when buckets are closed.
+     */
+    public Pipeline(
+            final PipelineConfiguration pipelineConfiguration,
+            final Optional<ScheduledExecutorService> periodCloserExecutor,
+            final Optional<ForkJoinPool> bucketCloseExecutor) {
         _pipelineConfiguration = pipelineConfiguration;
+        _periodCloserExecutor = periodCloserExecutor;
+        _bucketCloseExecutor = bucketCloseExecutor;
     }
 
     /**
@@ -90,7 +110,15 @@ public class Pipeline implements Launchable {
                 .setTimerStatistics(_pipelineConfiguration.getTimerStatistic())
                 .setCounterStatistics(_pipelineConfiguration.getCounterStatistic())
                 .setGaugeStatistics(_pipelineConfiguration.getGaugeStatistic())
+                .setSampleMode(_pipelineConfiguration.getSampleMode())
+                .setHistogramPrecision(_pipelineConfiguration.getHistogramPrecision())
                 .setSink(rootSink)
+                .setPeriodCloserExecutor(_periodCloserExecutor.orNull())
+                .setBucketCloseExecutor(_bucketCloseExecutor.orNull())
+                .setIngestionWorkers(_pipelineConfiguration.getIngestionWorkers())
+                .setIngestionQueueSize(_pipelineConfiguration.getIngestionQueueSize())
+                .setIngestionOverflowPolicy(_pipelineConfiguration.getIngestionOverflowPolicy())
+                .setWorkQueueRegistry(_pipelineConfiguration.getWorkQueueRegistry())
                 .build();
         aggregator.launch();
         _aggregator.set(aggregator);
@@ -128,6 +156,8 @@ public class Pipeline implements Launchable {
     }
 
     private final PipelineConfiguration _pipelineConfiguration;
+    private final Optional<ScheduledExecutorService> _periodCloserExecutor;
+    private final Optional<ForkJoinPool> _bucketCloseExecutor;
     private final AtomicReference<Aggregator> _aggregator = new AtomicReference<>();
     private final List<Sink> _sinks = Lists.newArrayList();
     private final List<Source> _sources = Lists.newArrayList();
@@ -16,6 +16,13 @@
 package com.arpnetworking.tsdaggregator;
 
 import akka.actor.UntypedActor;
+import com.arpnetworking.utility.PartitionedWorkQueue;
+import com.arpnetworking.utility.WorkQueueRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.List;
+import java.util.Map;
 
 /**
  * Actor to determine the status of the system.
@@ -24,6 +31,15 @@ import akka.actor.UntypedActor;
  */
 public class Status extends UntypedActor {
 
+    /**
+     * Public constructor.
+     *
+     * @param workQueueRegistry The registry of work queues to report on.
+     */
+    public Status(final WorkQueueRegistry workQueueRegistry) {
+        _workQueueRegistry = workQueueRegistry;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -32,11 +48,39 @@ public class Status extends UntypedActor {
         if (IS_HEALTHY.equals(message)) {
             // TODO(vkoskela): Implement a deep health check [MAI-?]
             getSender().tell(Boolean.TRUE, self());
+        } else if (WORK_QUEUES.equals(message)) {
+            getSender().tell(getWorkQueues(), self());
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private List<Map<String, Object>> getWorkQueues() {
+        final ImmutableList.Builder<Map<String, Object>> workQueues = ImmutableList.builder();
+        for (final PartitionedWorkQueue<?> queue : _workQueueRegistry.getQueues()) {
+            workQueues.add(ImmutableMap.<String, Object>builder()
+                    .put("name", queue.getName())
+                    .put("partitions", queue.getPartitionCount())
+                    .put("capacity", queue.getCapacity())
+                    .put("depth", queue.getDepth())
+                    .put("dropped", queue.getDroppedCount())
+                    .put("consumed", queue.getConsumedCount())
+                    .put("overflowPolicy", queue.getOverflowPolicy())
+                    .build());
         }
+        return workQueues.build();
     }
 
+    private final WorkQueueRegistry _workQueueRegistry;
+
     /**
      * Message to request service health.
      */
     public static final String IS_HEALTHY = "isHealthy";
+
+    /**
+     * Message to request the depth and drop counts of the work queues. The
+     * response is a <code>List</code> with a <code>Map</code> per queue.
+     */
+    public static final String WORK_QUEUES = "workQueues";
 }
@@ -18,10 +18,12 @@ package com.arpnetworking.tsdaggregator.configuration;
 import com.arpnetworking.configuration.jackson.DynamicConfigurationFactory;
 import com.arpnetworking.jackson.BuilderDeserializer;
 import com.arpnetworking.jackson.ObjectMapperFactory;
+import com.arpnetworking.tsdaggregator.model.SampleMode;
 import com.arpnetworking.tsdcore.parsers.Parser;
 import com.arpnetworking.tsdcore.sinks.Sink;
 import com.arpnetworking.tsdcore.sources.Source;
 import com.arpnetworking.tsdcore.statistics.CountStatistic;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.tsdcore.statistics.MeanStatistic;
 import com.arpnetworking.tsdcore.statistics.MedianStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
@@ -33,7 +35,10 @@ import com.arpnetworking.tsdcore.statistics.TP90Statistic;
 import com.arpnetworking.tsdcore.statistics.TP99Statistic;
 import com.arpnetworking.utility.InterfaceDatabase;
 import com.arpnetworking.utility.OvalBuilder;
+import com.arpnetworking.utility.PartitionedWorkQueue;
 import com.arpnetworking.utility.ReflectionsDatabase;
+import com.arpnetworking.utility.WorkQueueRegistry;
+import com.fasterxml.jackson.annotation.JacksonInject;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.introspect.AnnotationIntrospectorPair;
 import com.fasterxml.jackson.databind.module.SimpleModule;
@@ -45,8 +50,10 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 import com.google.inject.Injector;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.ValidateWithMethod;
 import org.joda.time.Period;
 
 import java.util.Collections;
@@ -149,6 +156,30 @@ public final class PipelineConfiguration {
         return _gaugeStatistic;
     }
 
+    public SampleMode getSampleMode() {
+        return _sampleMode;
+    }
+
+    public double getHistogramPrecision() {
+        return _histogramPrecision;
+    }
+
+    public int getIngestionWorkers() {
+        return _ingestionWorkers;
+    }
+
+    public int getIngestionQueueSize() {
+        return _ingestionQueueSize;
+    }
+
+    public PartitionedWorkQueue.OverflowPolicy getIngestionOverflowPolicy() {
+        return _ingestionOverflowPolicy;
+    }
+
+    public WorkQueueRegistry getWorkQueueRegistry() {
+        return _workQueueRegistry;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -165,6 +196,11 @@ public final class PipelineConfiguration {
                 .add("TimerStatistic", _timerStatistic)
                 .add("CounterStatistic", _counterStatistic)
                 .add("GaugeStatistic", _gaugeStatistic)
+                .add("SampleMode", _sampleMode)
+                .add("HistogramPrecision", _histogramPrecision)
+                .add("IngestionWorkers", _ingestionWorkers)
+                .add("IngestionQueueSize", _ingestionQueueSize)
+                .add("IngestionOverflowPolicy", _ingestionOverflowPolicy)
                 .toString();
     }
 
@@ -179,6 +215,12 @@ public final class PipelineConfiguration {
         _timerStatistic = ImmutableSet.copyOf(builder._timerStatistics);
         _counterStatistic = ImmutableSet.copyOf(builder._counterStatistics);
         _gaugeStatistic = ImmutableSet.copyOf(builder._gaugeStatistics);
+        _sampleMode = builder._sampleMode;
+        _histogramPrecision = builder._histogramPrecision;
+        _ingestionWorkers = builder._ingestionWorkers;
+        _ingestionQueueSize = builder._ingestionQueueSize;
+        _ingestionOverflowPolicy = builder._ingestionOverflowPolicy;
+        _workQueueRegistry = builder._workQueueRegistry;
     }
 
     private final String _name;
@@ -191,6 +233,12 @@ public final class PipelineConfiguration {
     private final ImmutableSet<Statistic> _timerStatistic;
     private final ImmutableSet<Statistic> _counterStatistic;
     private final ImmutableSet<Statistic> _gaugeStatistic;
+    private final SampleMode _sampleMode;
+    private final double _histogramPrecision;
+    private final int _ingestionWorkers;
+    private final int _ingestionQueueSize;
+    private final PartitionedWorkQueue.OverflowPolicy _ingestionOverflowPolicy;
+    private final WorkQueueRegistry _workQueueRegistry;
 
     private static final InterfaceDatabase INTERFACE_DATABASE = ReflectionsDatabase.newInstance();
 
@@ -323,6 +371,91 @@ public final class PipelineConfiguration {
             return this;
         }
 
+        /**
+         * The manner in which samples are retained for computing statistics.
+         * Optional. Default is <code>SampleMode.EXACT</code> which retains
+         * every sample for the duration of each period.
+         * <code>SampleMode.HISTOGRAM</code> uses constant memory per metric
+         * but computes percentiles within the histogram precision and does
+         * not forward raw samples to sinks.
+         *
+         * @param value The sample mode.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setSampleMode(final SampleMode value) {
+            _sampleMode = value;
+            return this;
+        }
+
+        /**
+         * The maximum relative error of percentiles computed in
+         * <code>SampleMode.HISTOGRAM</code>. Optional. Must be greater than
+         * zero and less than one. Default is 0.01 (one percent).
+         *
+         * @param value The histogram precision.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogramPrecision(final Double value) {
+            _histogramPrecision = value;
+            return this;
+        }
+
+        /**
+         * The number of threads aggregating records. Optional. Default is
+         * zero which aggregates records on the thread of each source. When
+         * greater than zero the metrics in each record are partitioned by
+         * name across the workers, each of which owns its own buckets.
+         *
+         * @param value The number of ingestion workers.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setIngestionWorkers(final Integer value) {
+            _ingestionWorkers = value;
+            return this;
+        }
+
+        /**
+         * The number of records queued for each ingestion worker. Optional.
+         * Default is 1024.
+         *
+         * @param value The ingestion queue size.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setIngestionQueueSize(final Integer value) {
+            _ingestionQueueSize = value;
+            return this;
+        }
+
+        /**
+         * The behavior when an ingestion worker's queue is full. Optional.
+         * Default is <code>BLOCK</code> which applies back pressure to the
+         * sources; <code>DROP</code> discards and counts the records.
+         *
+         * @param value The ingestion overflow policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setIngestionOverflowPolicy(final PartitionedWorkQueue.OverflowPolicy value) {
+            _ingestionOverflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * The registry that ingestion queues are reported to. Cannot be null.
+         * Injected when deserialized.
+         *
+         * @param value The work queue registry.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setWorkQueueRegistry(final WorkQueueRegistry value) {
+            _workQueueRegistry = value;
+            return this;
+        }
+
+        @SuppressWarnings("unused")
+        private boolean validateHistogramPrecision(final Double histogramPrecision) {
+            return Histogram.isValidPrecision(histogramPrecision.doubleValue());
+        }
+
         @NotNull
         @NotEmpty
         private String _name;
@@ -353,5 +486,21 @@ public final class PipelineConfiguration {
         @NotEmpty
         private Set<Statistic> _gaugeStatistics = Sets.<Statistic>newHashSet(
                 new TP0Statistic(), new TP100Statistic(), new MeanStatistic());
+        @NotNull
+        private SampleMode _sampleMode = SampleMode.EXACT;
+        @NotNull
+        @ValidateWithMethod(methodName = "validateHistogramPrecision", parameterType = Double.class)
+        private Double _histogramPrecision = 0.01;
+        @NotNull
+        @Min(value = 0)
+        private Integer _ingestionWorkers = 0;
+        @NotNull
+        @Min(value = 1)
+        private Integer _ingestionQueueSize = 1024;
+        @NotNull
+        private PartitionedWorkQueue.OverflowPolicy _ingestionOverflowPolicy = PartitionedWorkQueue.OverflowPolicy.BLOCK;
+        @JacksonInject
+        @NotNull
+        private WorkQueueRegistry _workQueueRegistry = new WorkQueueRegistry();
     }
 }
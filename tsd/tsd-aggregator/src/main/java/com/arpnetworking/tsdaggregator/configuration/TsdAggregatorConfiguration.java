@@ -82,6 +82,10 @@ public final class TsdAggregatorConfiguration {
         return _jvmMetricsCollectionInterval;
     }
 
+    public int getBucketCloseParallelism() {
+        return _bucketCloseParallelism;
+    }
+
     public Map<String, MetricsLimiter> getLimiters() {
         return Collections.unmodifiableMap(_limiters);
     }
@@ -104,6 +108,7 @@ public final class TsdAggregatorConfiguration {
                 .add("Limiters", _limiters)
                 .add("AkkaConfiguration", _akkaConfiguration)
                 .add("JvmMetricsCollectorInterval", _jvmMetricsCollectionInterval)
+                .add("BucketCloseParallelism", _bucketCloseParallelism)
                 .toString();
     }
 
@@ -114,6 +119,7 @@ public final class TsdAggregatorConfiguration {
         _httpPort = builder._httpPort;
         _limiters = builder._limiters;
         _jvmMetricsCollectionInterval = builder._jvmMetricsCollectionInterval;
+        _bucketCloseParallelism = builder._bucketCloseParallelism;
         _akkaConfiguration = builder._akkaConfiguration;
     }
 
@@ -122,6 +128,7 @@ public final class TsdAggregatorConfiguration {
     private final String _httpHost;
     private final int _httpPort;
     private final Period _jvmMetricsCollectionInterval;
+    private final int _bucketCloseParallelism;
     private final Map<String, MetricsLimiter> _limiters;
     private final Map<String, ?> _akkaConfiguration;
 
@@ -197,6 +204,19 @@ public final class TsdAggregatorConfiguration {
             return this;
         }
 
+        /**
+         * The maximum number of threads computing statistics when closing
+         * buckets; shared by all pipelines. Optional. Default is the number
+         * of available processors.
+         *
+         * @param value The bucket close parallelism.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setBucketCloseParallelism(final Integer value) {
+            _bucketCloseParallelism = value;
+            return this;
+        }
+
         /**
          * The named limiters. Optional. Defaults to an empty map.
          *
@@ -238,6 +258,9 @@ public final class TsdAggregatorConfiguration {
         @NotNull
         private Period _jvmMetricsCollectionInterval = Period.millis(500);
         @NotNull
+        @Range(min = 1, max = 32767)
+        private Integer _bucketCloseParallelism = Runtime.getRuntime().availableProcessors();
+        @NotNull
         private Map<String, MetricsLimiter> _limiters = Collections.emptyMap();
         @NotNull
         private Map<String, ?> _akkaConfiguration;
@@ -16,10 +16,10 @@
 package com.arpnetworking.tsdaggregator.model;
 
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
 import com.arpnetworking.utility.OvalBuilder;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
-import com.google.common.collect.ImmutableList;
 
 import net.sf.oval.constraint.NotNull;
 
@@ -44,7 +44,7 @@ public final class DefaultMetric implements Metric {
      * {@inheritDoc}
      */
     @Override
-    public List<Quantity> getValues() {
+    public Samples getValues() {
         return _values;
     }
 
@@ -88,11 +88,11 @@ public final class DefaultMetric implements Metric {
 
     private DefaultMetric(final Builder builder) {
         _type = builder._type;
-        _values = ImmutableList.copyOf(builder._values);
+        _values = Samples.copyOf(builder._values);
     }
 
     private final MetricType _type;
-    private final ImmutableList<Quantity> _values;
+    private final Samples _values;
 
     /**
      * Implementation of builder pattern for <code>DefaultMetric</code>.
@@ -109,7 +109,8 @@ public final class DefaultMetric implements Metric {
         }
 
         /**
-         * The values <code>List</code>. Cannot be null.
+         * The values <code>List</code>. Cannot be null. Providing a
+         * <code>Samples</code> instance avoids copying the values.
          *
          * @param value The values <code>List</code>.
          * @return This instance of <code>Builder</code>.
@@ -130,6 +131,20 @@ public final class DefaultMetric implements Metric {
             return this;
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Metric build() {
+            if (_values == null) {
+                throw new IllegalStateException("values must not be null");
+            }
+            if (_type == null) {
+                throw new IllegalStateException("type must not be null");
+            }
+            return new DefaultMetric(this);
+        }
+
         @NotNull
         private List<Quantity> _values;
         @NotNull
@@ -116,8 +116,6 @@ public final class DefaultRecord implements Record {
                 .toString();
     }
 
-    // NOTE: Invoked through reflection by OvalBuilder
-    @SuppressWarnings("unused")
     private DefaultRecord(final Builder builder) {
         _metrics = ImmutableMap.copyOf(builder._metrics);
         _time = builder._time;
@@ -176,6 +174,23 @@ public final class DefaultRecord implements Record {
             return this;
         }
 
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Record build() {
+            if (_metrics == null) {
+                throw new IllegalStateException("metrics must not be null");
+            }
+            if (_time == null) {
+                throw new IllegalStateException("time must not be null");
+            }
+            if (_annotations == null) {
+                throw new IllegalStateException("annotations must not be null");
+            }
+            return new DefaultRecord(this);
+        }
+
         @NotNull
         private Map<String, ? extends Metric> _metrics;
         @NotNull
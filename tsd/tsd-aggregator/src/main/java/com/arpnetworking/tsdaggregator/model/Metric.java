@@ -15,9 +15,7 @@
  */
 package com.arpnetworking.tsdaggregator.model;
 
-import com.arpnetworking.tsdcore.model.Quantity;
-
-import java.util.List;
+import com.arpnetworking.tsdcore.model.Samples;
 
 /**
  * Interface for a type of collected data .
@@ -38,5 +36,5 @@ public interface Metric {
      * 
      * @return The collected data.
      */
-    List<Quantity> getValues();
+    Samples getValues();
 }
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.model;
+
+/**
+ * The manner in which samples are retained for computing statistics.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public enum SampleMode {
+    /**
+     * Every sample is retained until the period closes and statistics are
+     * computed exactly.
+     */
+    EXACT,
+    /**
+     * Samples are recorded into a fixed precision <code>Histogram</code> and
+     * percentile statistics are computed within the precision of the
+     * histogram. Raw samples are not retained.
+     */
+    HISTOGRAM
+}
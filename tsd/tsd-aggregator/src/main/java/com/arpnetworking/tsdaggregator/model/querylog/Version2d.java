@@ -205,6 +205,17 @@ public final class Version2d {
                 return this;
             }
 
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public Sample build() {
+                if (_value == null) {
+                    throw new IllegalStateException("value must not be null");
+                }
+                return new Sample(this);
+            }
+
             private Unit _unit;
             @NotNull
             private Double _value;
@@ -249,6 +260,17 @@ public final class Version2d {
                 return this;
             }
 
+            /**
+             * {@inheritDoc}
+             */
+            @Override
+            public Element build() {
+                if (_values == null) {
+                    throw new IllegalStateException("values must not be null");
+                }
+                return new Element(this);
+            }
+
             @NotNull
             private List<Sample> _values = Collections.emptyList();
         }
@@ -0,0 +1,277 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.parsers;
+
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdaggregator.model.DefaultMetric;
+import com.arpnetworking.tsdaggregator.model.DefaultRecord;
+import com.arpnetworking.tsdaggregator.model.Metric;
+import com.arpnetworking.tsdaggregator.model.MetricType;
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdcore.model.Samples;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.parsers.Parser;
+import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Implementation of <code>Parser</code> for frames of the binary query log
+ * format. The format is documented in doc/QUERY_LOG_FORMAT.md; in short each
+ * frame holds one record:
+ *
+ * <pre>
+ * frame      := version:u8 offset:varint definitions timestamps annotations timers counters gauges
+ * definitions:= count:varint string*
+ * timestamps := initTimestamp:varint finalTimestamp:varint
+ * annotations:= count:varint (keyId:varint value:string)*
+ * metrics    := count:varint (nameId:varint samples:varint (unit:u8 value:f64)*)*
+ * string     := length:varint utf8
+ * </pre>
+ *
+ * Metric names and annotation keys are written once per file and referred
+ * to by their position in the file's dictionary. Each frame carries the
+ * definitions first used by it together with the size of the dictionary
+ * preceding them, which is zero for the first frame of a file; this allows
+ * the parser to detect the start of a new file and frames written without
+ * the preceding definitions. Consequently, frames must be parsed in the
+ * order they were written; this class is not thread safe and cannot be used
+ * with parser workers. Timestamps are milliseconds since the epoch and
+ * values are big endian IEEE 754 doubles.
+ *
+ * To use this parser specify its class as the parser type of a source in
+ * the pipeline configuration and set the source's framing to
+ * <code>LENGTH_PREFIXED</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class BinaryQueryLogParser implements Parser<Record> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Record parse(final byte[] data) throws ParsingException {
+        return parse(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The frame is parsed from the buffer without copying it.
+     */
+    @Override
+    public Record parse(final ByteBuffer data) throws ParsingException {
+        final ByteBuffer buffer = data.duplicate();
+        try {
+            readDefinitions(buffer);
+            // The initial timestamp is not part of the record
+            readVarint(buffer);
+            final DateTime timestamp = new DateTime(readVarint(buffer), ISOChronology.getInstanceUTC());
+            final Map<String, String> annotations = readAnnotations(buffer);
+            final Map<String, Metric> variables = Maps.newHashMap();
+            readMetrics(buffer, MetricType.TIMER, variables);
+            readMetrics(buffer, MetricType.COUNTER, variables);
+            readMetrics(buffer, MetricType.GAUGE, variables);
+            if (buffer.hasRemaining()) {
+                throw new ParsingException(String.format(
+                        "Unexpected data after record; remaining=%d",
+                        buffer.remaining()));
+            }
+            return new DefaultRecord.Builder()
+                    .setMetrics(variables)
+                    .setTime(timestamp)
+                    .setAnnotations(annotations)
+                    .build();
+        } catch (final BufferUnderflowException | IllegalArgumentException e) {
+            throw new ParsingException("Truncated or invalid binary query log frame", e);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Only the dictionary definitions are read from the frame.
+     */
+    @Override
+    public void replay(final ByteBuffer data) {
+        try {
+            readDefinitions(data.duplicate());
+        } catch (final ParsingException | BufferUnderflowException | IllegalArgumentException e) {
+            LOGGER.warn()
+                    .setMessage("Unable to replay frame")
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private void readDefinitions(final ByteBuffer buffer) throws ParsingException {
+        final int version = buffer.get() & 0xff;
+        if (version != VERSION) {
+            throw new ParsingException(String.format("Unsupported version; version=%d", version));
+        }
+        final long offset = readVarint(buffer);
+        if (offset > _dictionary.size()) {
+            throw new ParsingException(String.format(
+                    "Missing dictionary definitions; offset=%d, size=%d",
+                    offset,
+                    _dictionary.size()));
+        }
+        // The offset is zero at the start of each file
+        if (offset < _dictionary.size()) {
+            _dictionary.subList((int) offset, _dictionary.size()).clear();
+        }
+        final int count = readCount(buffer);
+        for (int i = 0; i < count; ++i) {
+            _dictionary.add(readString(buffer));
+        }
+    }
+
+    private Map<String, String> readAnnotations(final ByteBuffer buffer) throws ParsingException {
+        final int count = readCount(buffer);
+        final Map<String, String> annotations = Maps.newHashMapWithExpectedSize(count);
+        for (int i = 0; i < count; ++i) {
+            final String key = lookup(buffer);
+            annotations.put(key, readString(buffer));
+        }
+        return annotations;
+    }
+
+    private void readMetrics(
+            final ByteBuffer buffer,
+            final MetricType metricType,
+            final Map<String, Metric> variables)
+            throws ParsingException {
+        final int count = readCount(buffer);
+        for (int i = 0; i < count; ++i) {
+            final String name = lookup(buffer);
+            final int sampleCount = readCount(buffer);
+            final Samples.Builder samples = new Samples.Builder(sampleCount);
+            for (int j = 0; j < sampleCount; ++j) {
+                final int code = buffer.get() & 0xff;
+                final double value = buffer.getDouble();
+                addSample(name, value, toUnit(code), samples);
+            }
+            variables.put(
+                    name,
+                    new DefaultMetric.Builder()
+                            .setType(metricType)
+                            .setValues(samples.build())
+                            .build());
+        }
+    }
+
+    private String lookup(final ByteBuffer buffer) throws ParsingException {
+        final long id = readVarint(buffer);
+        if (id >= _dictionary.size()) {
+            throw new ParsingException(String.format(
+                    "Undefined dictionary entry; id=%d, size=%d",
+                    id,
+                    _dictionary.size()));
+        }
+        return _dictionary.get((int) id);
+    }
+
+    private static int readCount(final ByteBuffer buffer) throws ParsingException {
+        final long count = readVarint(buffer);
+        // Each element occupies at least one byte
+        if (count > buffer.remaining()) {
+            throw new ParsingException(String.format(
+                    "Count exceeds frame; count=%d, remaining=%d",
+                    count,
+                    buffer.remaining()));
+        }
+        return (int) count;
+    }
+
+    private static String readString(final ByteBuffer buffer) throws ParsingException {
+        final int length = readCount(buffer);
+        final ByteBuffer value = buffer.slice();
+        value.limit(length);
+        buffer.position(buffer.position() + length);
+        return Charsets.UTF_8.decode(value).toString();
+    }
+
+    private static long readVarint(final ByteBuffer buffer) throws ParsingException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new ParsingException("Malformed variable length integer");
+    }
+
+    @Nullable
+    private static Unit toUnit(final int code) throws ParsingException {
+        if (code >= UNITS.length) {
+            throw new ParsingException(String.format("Unsupported unit; code=%d", code));
+        }
+        return UNITS[code];
+    }
+
+    private static void addSample(
+            final String name,
+            final double value,
+            @Nullable final Unit unit,
+            final Samples.Builder samples) {
+        try {
+            samples.add(value, unit);
+        } catch (final IllegalArgumentException e) {
+            LOGGER.warn()
+                    .setMessage("Discarding sample")
+                    .addData("reason", "incompatible unit")
+                    .addData("name", name)
+                    .addData("value", value)
+                    .addData("unit", unit)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private final List<String> _dictionary = Lists.newArrayList();
+
+    private static final int VERSION = 1;
+    // NOTE: The position of each unit is its code in the format
+    private static final Unit[] UNITS = new Unit[] {
+        null,
+        Unit.NANOSECOND,
+        Unit.MICROSECOND,
+        Unit.MILLISECOND,
+        Unit.SECOND,
+        Unit.MINUTE,
+        Unit.HOUR,
+        Unit.DAY,
+        Unit.WEEK,
+        Unit.BYTE,
+        Unit.KILOBYTE,
+        Unit.MEGABYTE,
+        Unit.GIGABYTE
+    };
+    private static final Logger LOGGER = LoggerFactory.getLogger(BinaryQueryLogParser.class);
+}
@@ -19,6 +19,8 @@ import com.arpnetworking.jackson.BuilderDeserializer;
 import com.arpnetworking.jackson.EnumerationDeserializer;
 import com.arpnetworking.jackson.EnumerationDeserializerStrategyUsingToUpperCase;
 import com.arpnetworking.jackson.ObjectMapperFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdaggregator.model.DefaultMetric;
 import com.arpnetworking.tsdaggregator.model.DefaultRecord;
 import com.arpnetworking.tsdaggregator.model.Metric;
@@ -27,7 +29,8 @@ import com.arpnetworking.tsdaggregator.model.Record;
 import com.arpnetworking.tsdaggregator.model.querylog.Version2c;
 import com.arpnetworking.tsdaggregator.model.querylog.Version2d;
 import com.arpnetworking.tsdaggregator.model.querylog.Version2e;
-import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdaggregator.model.querylog.Version2f;
+import com.arpnetworking.tsdcore.model.Samples;
 import com.arpnetworking.tsdcore.model.Unit;
 import com.arpnetworking.tsdcore.parsers.Parser;
 import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
@@ -35,10 +38,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.google.common.base.Charsets;
-import com.google.common.base.Function;
-import com.google.common.base.Predicates;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
 import net.sf.oval.exception.ConstraintsViolatedException;
@@ -49,12 +48,42 @@ import org.joda.time.chrono.ISOChronology;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Implementation of <code>RecordParser</code> for the TSD query log format. The
  * query log format represents each <code>Record</code> instance with one json 
  * object per line.
  * 
+ * Specification for version 2f is the same as for version 2e except that the
+ * version must match "^2f$" and each sample may include the number of times
+ * its value was recorded. The count must be a positive integer and is carried
+ * with the sample as its weight rather than expanding the sample into that
+ * many samples. This allows clients to aggregate samples into histograms before writing
+ * them:
+ * {@code
+ *{
+ *    "sampleObject" : {
+ *        "type": "object",
+ *        "properties" : {
+ *            "unit": {
+ *                "type": "string",
+ *                "enum": ["nanosecond","microsecond", "millisecond", "second", "minute", "hour", "day", "week", 
+ *                "bit", "byte", "kilobit", "kilobyte", "megabit", "megabyte", "gigabit", "gigabyte", "terabyte", "petabyte"]
+ *            },
+ *            "value": {
+ *                "type": "number"
+ *            },
+ *            "count": {
+ *                "type": "integer",
+ *                "minimum": 1
+ *            }
+ *        },
+ *        "required": [ "value" ]
+ *    }
+ *}
+ * }
+ *
  * Specification for version 2e:
  * {@code
  *{
@@ -335,6 +364,8 @@ public final class QueryLogParser implements Parser<Record> {
                 return parseV2dLogLine(jsonNode);
             case "2e":
                 return parseV2eLogLine(jsonNode);
+            case "2f":
+                return parseV2fLogLine(jsonNode);
             default:
                 throw new ParsingException(String.format("Unsupported version; version=%s", version));
         }
@@ -345,7 +376,7 @@ public final class QueryLogParser implements Parser<Record> {
         final Version2c model;
         try {
             model = OBJECT_MAPPER.treeToValue(jsonNode, Version2c.class);
-        } catch (final IOException | IllegalArgumentException | ConstraintsViolatedException e) {
+        } catch (final IOException | IllegalArgumentException | IllegalStateException | ConstraintsViolatedException e) {
             throw new ParsingException("Failed to deserialize version 2c", e);
         }
 
@@ -369,7 +400,7 @@ public final class QueryLogParser implements Parser<Record> {
         final Version2d model;
         try {
             model = OBJECT_MAPPER.treeToValue(jsonNode, Version2d.class);
-        } catch (final IOException | IllegalArgumentException | ConstraintsViolatedException e) {
+        } catch (final IOException | IllegalArgumentException | IllegalStateException | ConstraintsViolatedException e) {
             throw new ParsingException("Failed to deserialize version 2d", e);
         }
 
@@ -393,7 +424,7 @@ public final class QueryLogParser implements Parser<Record> {
         final Version2e model;
         try {
             model = OBJECT_MAPPER.treeToValue(jsonNode, Version2e.class);
-        } catch (final IOException | IllegalArgumentException | ConstraintsViolatedException e) {
+        } catch (final IOException | IllegalArgumentException | IllegalStateException | ConstraintsViolatedException e) {
             throw new ParsingException("Failed to deserialize version 2e", e);
         }
 
@@ -413,6 +444,31 @@ public final class QueryLogParser implements Parser<Record> {
                 .build();
     }
 
+    // NOTE: Package private for testing
+    /* package private */com.arpnetworking.tsdaggregator.model.Record parseV2fLogLine(final JsonNode jsonNode) throws ParsingException {
+        final Version2f model;
+        try {
+            model = OBJECT_MAPPER.treeToValue(jsonNode, Version2f.class);
+        } catch (final IOException | IllegalArgumentException | IllegalStateException | ConstraintsViolatedException e) {
+            throw new ParsingException("Failed to deserialize version 2f", e);
+        }
+
+        final Version2f.Data data = model.getData();
+        final Version2f.Annotations annotations = data.getAnnotations();
+        final DateTime timestamp = annotations.getFinalTimestamp();
+
+        final Map<String, Metric> variables = Maps.newHashMap();
+        putVariablesVersion2f(data.getTimers(), MetricType.TIMER, variables);
+        putVariablesVersion2f(data.getCounters(), MetricType.COUNTER, variables);
+        putVariablesVersion2f(data.getGauges(), MetricType.GAUGE, variables);
+
+        return new DefaultRecord.Builder()
+                .setMetrics(variables)
+                .setTime(timestamp)
+                .setAnnotations(annotations.getOtherAnnotations())
+                .build();
+    }
+
     private static void putVariablesVersion2c(
             final Map<String, List<String>> elements,
             final MetricType metricKind,
@@ -420,14 +476,23 @@ public final class QueryLogParser implements Parser<Record> {
 
         for (final Map.Entry<String, List<String>> entry : elements.entrySet()) {
             final List<String> element = entry.getValue();
-            final List<Quantity> quantities = Lists.newArrayList(Iterables.filter(
-                    Lists.transform(element, VERSION_2C_SAMPLE_TO_QUANTITY),
-                    Predicates.notNull()));
+            final Samples.Builder samples = new Samples.Builder(element.size());
+            for (final String sample : element) {
+                if (sample != null) {
+                    try {
+                        samples.add(Double.parseDouble(sample), null);
+                        // CHECKSTYLE.OFF: EmptyBlock - Unparsable samples are discarded.
+                    } catch (final NumberFormatException nfe) {
+                        // CHECKSTYLE.ON: EmptyBlock
+                        // Ignore.
+                    }
+                }
+            }
             variables.put(
                     entry.getKey(),
                     new DefaultMetric.Builder()
                             .setType(metricKind)
-                            .setValues(quantities)
+                            .setValues(samples.build())
                             .build());
         }
     }
@@ -439,14 +504,17 @@ public final class QueryLogParser implements Parser<Record> {
 
         for (final Map.Entry<String, Version2d.Element> entry : elements.entrySet()) {
             final Version2d.Element element = entry.getValue();
-            final List<Quantity> quantities = Lists.newArrayList(Iterables.filter(
-                    Lists.transform(element.getValues(), VERSION_2D_SAMPLE_TO_QUANTITY),
-                    Predicates.notNull()));
+            final Samples.Builder samples = new Samples.Builder(element.getValues().size());
+            for (final Version2d.Sample sample : element.getValues()) {
+                if (sample != null) {
+                    addSample(entry.getKey(), sample.getValue(), sample.getUnit().orNull(), samples);
+                }
+            }
             variables.put(
                     entry.getKey(),
                     new DefaultMetric.Builder()
                             .setType(metricKind)
-                            .setValues(quantities)
+                            .setValues(samples.build())
                             .build());
         }
     }
@@ -458,18 +526,71 @@ public final class QueryLogParser implements Parser<Record> {
 
         for (final Map.Entry<String, Version2e.Element> entry : elements.entrySet()) {
             final Version2e.Element element = entry.getValue();
-            final List<Quantity> quantities = Lists.newArrayList(Iterables.filter(
-                    Lists.transform(element.getValues(), VERSION_2E_SAMPLE_TO_QUANTITY),
-                    Predicates.notNull()));
+            final Samples.Builder samples = new Samples.Builder(element.getValues().size());
+            for (final Version2e.Sample sample : element.getValues()) {
+                if (sample != null) {
+                    addSample(entry.getKey(), sample.getValue(), sample.getUnit().orNull(), samples);
+                }
+            }
             variables.put(
                     entry.getKey(),
                     new DefaultMetric.Builder()
                             .setType(metricKind)
-                            .setValues(quantities)
+                            .setValues(samples.build())
                             .build());
         }
     }
 
+    private static void putVariablesVersion2f(
+            final Map<String, Version2f.Element> elements,
+            final MetricType metricKind,
+            final Map<String, Metric> variables) {
+
+        for (final Map.Entry<String, Version2f.Element> entry : elements.entrySet()) {
+            final Version2f.Element element = entry.getValue();
+            final Samples.Builder samples = new Samples.Builder(element.getValues().size());
+            for (final Version2f.Sample sample : element.getValues()) {
+                if (sample != null) {
+                    addSample(entry.getKey(), sample.getValue(), sample.getUnit().orNull(), sample.getCount(), samples);
+                }
+            }
+            variables.put(
+                    entry.getKey(),
+                    new DefaultMetric.Builder()
+                            .setType(metricKind)
+                            .setValues(samples.build())
+                            .build());
+        }
+    }
+
+    private static void addSample(
+            final String name,
+            final double value,
+            @Nullable final Unit unit,
+            final Samples.Builder samples) {
+        addSample(name, value, unit, 1, samples);
+    }
+
+    private static void addSample(
+            final String name,
+            final double value,
+            @Nullable final Unit unit,
+            final long count,
+            final Samples.Builder samples) {
+        try {
+            samples.add(value, unit, count);
+        } catch (final IllegalArgumentException e) {
+            LOGGER.warn()
+                    .setMessage("Discarding sample")
+                    .addData("reason", "incompatible unit")
+                    .addData("name", name)
+                    .addData("value", value)
+                    .addData("unit", unit)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
     private DateTime getTimestampFor2c(final Version2c.Annotations annotations) throws ParsingException {
         if (annotations.getFinalTimestamp().isPresent()) {
             try {
@@ -499,37 +620,14 @@ public final class QueryLogParser implements Parser<Record> {
     private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.createInstance();
     private static final String DATA_KEY = "data";
     private static final String VERSION_KEY = "version";
-
-    private static final Function<String, Quantity> VERSION_2C_SAMPLE_TO_QUANTITY = new Function<String, Quantity>() {
-        @Override
-        public Quantity apply(final String sample) {
-            try {
-                return sample != null ? new Quantity.Builder().setValue(Double.parseDouble(sample)).build() : null;
-            } catch (final NumberFormatException nfe) {
-                return null;
-            }
-        }
-    };
-
-    private static final Function<Version2d.Sample, Quantity> VERSION_2D_SAMPLE_TO_QUANTITY = new Function<Version2d.Sample, Quantity>() {
-        @Override
-        public Quantity apply(final Version2d.Sample sample) {
-            return sample != null ? new Quantity.Builder().setValue(sample.getValue()).setUnit(sample.getUnit().orNull()).build() : null;
-        }
-    };
-
-    private static final Function<Version2e.Sample, Quantity> VERSION_2E_SAMPLE_TO_QUANTITY = new Function<Version2e.Sample, Quantity>() {
-        @Override
-        public Quantity apply(final Version2e.Sample sample) {
-            return sample != null ? new Quantity.Builder().setValue(sample.getValue()).setUnit(sample.getUnit().orNull()).build() : null;
-        }
-    };
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryLogParser.class);
 
     static {
         final SimpleModule queryLogParserModule = new SimpleModule("QuerLogParser");
         BuilderDeserializer.addTo(queryLogParserModule, Version2c.class);
         BuilderDeserializer.addTo(queryLogParserModule, Version2d.class);
         BuilderDeserializer.addTo(queryLogParserModule, Version2e.class);
+        BuilderDeserializer.addTo(queryLogParserModule, Version2f.class);
         queryLogParserModule.addDeserializer(
                 Unit.class,
                 EnumerationDeserializer.newInstance(
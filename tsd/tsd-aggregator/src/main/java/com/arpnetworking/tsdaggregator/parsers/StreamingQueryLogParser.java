@@ -0,0 +1,678 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.parsers;
+
+import com.arpnetworking.jackson.ObjectMapperFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.tsdaggregator.model.DefaultMetric;
+import com.arpnetworking.tsdaggregator.model.DefaultRecord;
+import com.arpnetworking.tsdaggregator.model.Metric;
+import com.arpnetworking.tsdaggregator.model.MetricType;
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdcore.model.Samples;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.parsers.Parser;
+import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+import org.joda.time.DateTime;
+import org.joda.time.chrono.ISOChronology;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * Implementation of <code>Parser</code> for the TSD query log format which
+ * reads each line in a single pass over the <code>JsonParser</code> token
+ * stream and builds the <code>Record</code> directly. This avoids the
+ * intermediate <code>JsonNode</code> tree and the version specific models
+ * that <code>QueryLogParser</code> materializes for each line.
+ *
+ * The formats and validation rules are the same as those documented on
+ * <code>QueryLogParser</code>; the two parsers produce equal records for
+ * valid lines and both reject invalid lines with <code>ParsingException</code>.
+ * Since the version may appear anywhere in the object, metrics are read
+ * before the version is known and checked against it once the object has
+ * been consumed. Lines handed over as a <code>ByteBuffer</code> (e.g. by a
+ * memory mapped <code>FileSource</code>) are parsed in place. To use this
+ * parser specify its class as the parser type of a source in the pipeline
+ * configuration.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class StreamingQueryLogParser implements Parser<Record> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Record parse(final byte[] data) throws ParsingException {
+        final Line line;
+        try (final JsonParser parser = JSON_FACTORY.createParser(data)) {
+            line = parseLine(parser);
+        } catch (final IOException e) {
+            // CHECKSTYLE.OFF: IllegalInstantiation - Approved for byte[] to String
+            throw new ParsingException(
+                    String.format("Unsupported non-json format; data=%s", new String(data, Charsets.UTF_8)),
+                    e);
+            // CHECKSTYLE.ON: IllegalInstantiation
+        }
+        return toRecord(line);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The line is parsed from the buffer without copying it.
+     */
+    @Override
+    public Record parse(final ByteBuffer data) throws ParsingException {
+        final Line line;
+        try (final JsonParser parser = data.hasArray()
+                ? JSON_FACTORY.createParser(data.array(), data.arrayOffset() + data.position(), data.remaining())
+                : JSON_FACTORY.createParser(new ByteBufferBackedInputStream(data.duplicate()))) {
+            line = parseLine(parser);
+        } catch (final IOException e) {
+            throw new ParsingException(
+                    String.format("Unsupported non-json format; data=%s", Charsets.UTF_8.decode(data.duplicate())),
+                    e);
+        }
+        return toRecord(line);
+    }
+
+    private static Record toRecord(final Line line) throws ParsingException {
+        final Section versionSection = line._data != null && line._data._hasVersion ? line._data : line._top;
+        if (!versionSection._hasVersion) {
+            throw new ParsingException("Unable to determine version");
+        }
+        if (versionSection._version == null) {
+            throw new ParsingException("Unsupported version; version=null");
+        }
+        final String version = versionSection._version.toLowerCase();
+        switch (version) {
+            case "2c":
+                return buildV2c(line._top);
+            case "2d":
+                return buildV2d(line._top);
+            case "2e":
+                return buildV2e(line, "2e");
+            case "2f":
+                return buildV2e(line, "2f");
+            default:
+                throw new ParsingException(String.format("Unsupported version; version=%s", version));
+        }
+    }
+
+    private static Record buildV2c(final Section section) throws ParsingException {
+        validateSection(section, "2c", false);
+        if (section._hasElementMetrics) {
+            throw new ParsingException("Failed to deserialize version 2c; metrics must be arrays of samples");
+        }
+        final DateTime timestamp = getTimestampFor2c(section._annotations);
+        return buildRecord(section, timestamp);
+    }
+
+    private static Record buildV2d(final Section section) throws ParsingException {
+        validateSection(section, "2d", false);
+        if (section._hasListMetrics) {
+            throw new ParsingException("Failed to deserialize version 2d; metrics must be objects with values");
+        }
+        readDateTime(section._annotations._initTimestamp, "initTimestamp");
+        final DateTime timestamp = readDateTime(section._annotations._finalTimestamp, "finalTimestamp");
+        return buildRecord(section, timestamp);
+    }
+
+    private static Record buildV2e(final Line line, final String version) throws ParsingException {
+        // Version 2f is version 2e with sample counts
+        final Section section = line._data;
+        if (section == null) {
+            throw new ParsingException(String.format("Failed to deserialize version %s; data must not be null", version));
+        }
+        validateSection(section, version, true);
+        if (section._hasListMetrics) {
+            throw new ParsingException(String.format(
+                    "Failed to deserialize version %s; metrics must be objects with values",
+                    version));
+        }
+        readDateTime(line._time, "time");
+        if (line._name == null || !NAME_PATTERN.matcher(line._name).matches()) {
+            throw new ParsingException(String.format("Failed to deserialize version %s; name=%s", version, line._name));
+        }
+        if (line._level == null || !LEVEL_PATTERN.matcher(line._level).matches()) {
+            throw new ParsingException(String.format("Failed to deserialize version %s; level=%s", version, line._level));
+        }
+        readDateTime(section._annotations._initTimestamp, "initTimestamp");
+        final DateTime timestamp = readDateTime(section._annotations._finalTimestamp, "finalTimestamp");
+        if ("2f".equals(version)) {
+            if (section._hasInvalidCount) {
+                throw new ParsingException("Failed to deserialize version 2f; count must be a positive integer");
+            }
+            applyCounts(section._timers, section._counts);
+            applyCounts(section._counters, section._counts);
+            applyCounts(section._gauges, section._counts);
+        }
+        return buildRecord(section, timestamp);
+    }
+
+    private static void applyCounts(final Map<String, Samples> elements, final Map<Samples, long[]> counts) {
+        for (final Map.Entry<String, Samples> entry : elements.entrySet()) {
+            final Samples samples = entry.getValue();
+            final long[] sampleCounts = counts.get(samples);
+            if (sampleCounts == null) {
+                continue;
+            }
+            final Unit unit = samples.getUnit().orNull();
+            final Samples.Builder weighted = new Samples.Builder(samples.size());
+            for (int i = 0; i < samples.size(); ++i) {
+                weighted.add(samples.getValue(i), unit, sampleCounts[i]);
+            }
+            entry.setValue(weighted.build());
+        }
+    }
+
+    private static void validateSection(
+            final Section section,
+            final String version,
+            final boolean allowNullMetrics)
+            throws ParsingException {
+        if (section._version == null || !version.equalsIgnoreCase(section._version)) {
+            throw new ParsingException(String.format(
+                    "Failed to deserialize version %s; version=%s",
+                    version,
+                    section._version));
+        }
+        if (section._annotations == null) {
+            throw new ParsingException(String.format(
+                    "Failed to deserialize version %s; annotations must not be null",
+                    version));
+        }
+        if (section._hasNullMetrics && !allowNullMetrics) {
+            throw new ParsingException(String.format(
+                    "Failed to deserialize version %s; metrics must not be null",
+                    version));
+        }
+    }
+
+    private static Record buildRecord(final Section section, final DateTime timestamp) {
+        final Map<String, Metric> variables = Maps.newHashMapWithExpectedSize(
+                section._timers.size() + section._counters.size() + section._gauges.size());
+        putVariables(section._timers, MetricType.TIMER, variables);
+        putVariables(section._counters, MetricType.COUNTER, variables);
+        putVariables(section._gauges, MetricType.GAUGE, variables);
+
+        return new DefaultRecord.Builder()
+                .setMetrics(variables)
+                .setTime(timestamp)
+                .setAnnotations(section._annotations._otherAnnotations)
+                .build();
+    }
+
+    private static void putVariables(
+            final Map<String, Samples> elements,
+            final MetricType metricKind,
+            final Map<String, Metric> variables) {
+        for (final Map.Entry<String, Samples> entry : elements.entrySet()) {
+            variables.put(
+                    entry.getKey(),
+                    new DefaultMetric.Builder()
+                            .setType(metricKind)
+                            .setValues(entry.getValue())
+                            .build());
+        }
+    }
+
+    private static Line parseLine(final JsonParser parser) throws IOException, ParsingException {
+        final JsonToken startToken = parser.nextToken();
+        if (startToken != JsonToken.START_OBJECT) {
+            throw new ParsingException(String.format("Unable to determine version; token=%s", startToken));
+        }
+        final Line line = new Line();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            switch (field) {
+                case DATA_KEY:
+                    if (token == JsonToken.START_OBJECT) {
+                        line._data = new Section();
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            final String dataField = parser.getCurrentName();
+                            parser.nextToken();
+                            if (!parseSectionField(parser, dataField, line._data)) {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "time":
+                    line._time = bufferValue(parser);
+                    break;
+                case "name":
+                    line._name = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    parser.skipChildren();
+                    break;
+                case "level":
+                    line._level = token == JsonToken.VALUE_STRING ? parser.getText() : null;
+                    parser.skipChildren();
+                    break;
+                case "id":
+                    readScalarText(parser, "id");
+                    break;
+                case "context":
+                    parseContext(parser);
+                    break;
+                default:
+                    if (!parseSectionField(parser, field, line._top)) {
+                        parser.skipChildren();
+                    }
+            }
+        }
+        return line;
+    }
+
+    private static boolean parseSectionField(
+            final JsonParser parser,
+            final String field,
+            final Section section)
+            throws IOException, ParsingException {
+        switch (field) {
+            case VERSION_KEY:
+                section._hasVersion = true;
+                section._version = parser.getCurrentToken() == JsonToken.VALUE_STRING ? parser.getText() : null;
+                parser.skipChildren();
+                return true;
+            case "annotations":
+                section._annotations = parseAnnotations(parser);
+                return true;
+            case "timers":
+                section._timers = parseMetrics(parser, section);
+                return true;
+            case "counters":
+                section._counters = parseMetrics(parser, section);
+                return true;
+            case "gauges":
+                section._gauges = parseMetrics(parser, section);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Nullable
+    private static Annotations parseAnnotations(final JsonParser parser) throws IOException, ParsingException {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new ParsingException(String.format("Annotations must be an object; token=%s", token));
+        }
+        final Annotations annotations = new Annotations();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            final JsonToken valueToken = parser.nextToken();
+            if ("initTimestamp".equals(key)) {
+                annotations._initTimestamp = bufferValue(parser);
+            } else if ("finalTimestamp".equals(key)) {
+                annotations._finalTimestamp = bufferValue(parser);
+            } else if (valueToken == JsonToken.VALUE_STRING) {
+                annotations._otherAnnotations.put(key, parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return annotations;
+    }
+
+    private static Map<String, Samples> parseMetrics(final JsonParser parser, final Section section)
+            throws IOException, ParsingException {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            section._hasNullMetrics = true;
+            return Maps.newHashMap();
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new ParsingException(String.format("Metrics must be an object; token=%s", token));
+        }
+        final Map<String, Samples> metrics = Maps.newHashMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken elementToken = parser.nextToken();
+            if (elementToken == JsonToken.START_ARRAY) {
+                section._hasListMetrics = true;
+                metrics.put(name, parseSampleList(parser));
+            } else if (elementToken == JsonToken.START_OBJECT) {
+                section._hasElementMetrics = true;
+                metrics.put(name, parseElement(parser, name, section));
+            } else {
+                throw new ParsingException(String.format(
+                        "Metric must be an array or object; name=%s, token=%s",
+                        name,
+                        elementToken));
+            }
+        }
+        return metrics;
+    }
+
+    private static Samples parseSampleList(final JsonParser parser) throws IOException, ParsingException {
+        // Version 2c samples are numbers or numeric strings; unparsable samples are discarded
+        final Samples.Builder samples = new Samples.Builder();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            final String sample = readScalarText(parser, "sample");
+            if (sample == null) {
+                throw new ParsingException("Sample must not be null");
+            }
+            try {
+                samples.add(Double.parseDouble(sample), null);
+                // CHECKSTYLE.OFF: EmptyBlock - Unparsable samples are discarded.
+            } catch (final NumberFormatException nfe) {
+                // CHECKSTYLE.ON: EmptyBlock
+                // Ignore.
+            }
+        }
+        return samples.build();
+    }
+
+    private static Samples parseElement(final JsonParser parser, final String name, final Section section)
+            throws IOException, ParsingException {
+        Samples values = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if (VALUES_KEY.equals(field)) {
+                if (token == JsonToken.START_ARRAY) {
+                    final Samples.Builder samples = new Samples.Builder();
+                    // Counts are only retained if a sample was recorded more than once
+                    long[] counts = null;
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        final long count = parseSample(parser, name, samples, section);
+                        if (count == 0) {
+                            continue;
+                        }
+                        final int index = samples.size() - 1;
+                        if (counts == null && count != 1) {
+                            counts = new long[Math.max(index + 1, INITIAL_COUNTS_SIZE)];
+                            Arrays.fill(counts, 0, index, 1L);
+                        }
+                        if (counts != null) {
+                            if (index == counts.length) {
+                                counts = Arrays.copyOf(counts, counts.length * 2);
+                            }
+                            counts[index] = count;
+                        }
+                    }
+                    values = samples.build();
+                    if (counts != null) {
+                        section._counts.put(values, counts);
+                    }
+                } else if (token == JsonToken.VALUE_NULL) {
+                    values = null;
+                } else {
+                    throw new ParsingException(String.format("Values must be an array; name=%s", name));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (values == null) {
+            throw new ParsingException(String.format("Values must not be null; name=%s", name));
+        }
+        return values;
+    }
+
+    private static long parseSample(
+            final JsonParser parser,
+            final String name,
+            final Samples.Builder samples,
+            final Section section)
+            throws IOException, ParsingException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new ParsingException(String.format("Sample must be an object; name=%s", name));
+        }
+        Double value = null;
+        Unit unit = null;
+        long count = 1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken token = parser.nextToken();
+            if ("value".equals(field)) {
+                if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+                    value = parser.getDoubleValue();
+                } else if (token == JsonToken.VALUE_STRING || token == JsonToken.VALUE_NULL) {
+                    // Defer to the data binding for consistent handling of numeric strings
+                    value = parser.readValueAs(Double.class);
+                } else {
+                    throw new ParsingException(String.format("Sample value must be a number; name=%s", name));
+                }
+            } else if ("unit".equals(field)) {
+                final String unitText = readScalarText(parser, "unit");
+                if (unitText == null) {
+                    unit = null;
+                } else {
+                    try {
+                        unit = Unit.valueOf(unitText.toUpperCase());
+                    } catch (final IllegalArgumentException e) {
+                        throw new ParsingException(String.format("Unsupported unit; name=%s, unit=%s", name, unitText), e);
+                    }
+                }
+            } else if ("count".equals(field)) {
+                count = readCount(parser);
+                if (count < 1) {
+                    // Only version 2f lines are rejected; other versions ignore the count
+                    section._hasInvalidCount = true;
+                    count = 1;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (value == null) {
+            throw new ParsingException(String.format("Sample value must not be null; name=%s", name));
+        }
+        return addSample(name, value, unit, samples) ? count : 0;
+    }
+
+    private static long readCount(final JsonParser parser) throws IOException {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return 1;
+        }
+        if (!token.isScalarValue()) {
+            parser.skipChildren();
+            return 0;
+        }
+        try {
+            // Counts may be strings or decimals but must be integers
+            return new BigDecimal(parser.getText().trim()).longValueExact();
+        } catch (final NumberFormatException | ArithmeticException e) {
+            return 0;
+        }
+    }
+
+    private static void parseContext(final JsonParser parser) throws IOException, ParsingException {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new ParsingException(String.format("Context must be an object; token=%s", token));
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String key = parser.getCurrentName();
+            parser.nextToken();
+            if (readScalarText(parser, key) == null) {
+                throw new ParsingException(String.format("Context value must not be null; key=%s", key));
+            }
+        }
+    }
+
+    @Nullable
+    private static String readScalarText(final JsonParser parser, final String field) throws IOException, ParsingException {
+        final JsonToken token = parser.getCurrentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (!token.isScalarValue()) {
+            throw new ParsingException(String.format("Expected scalar value; field=%s, token=%s", field, token));
+        }
+        return parser.getText();
+    }
+
+    private static TokenBuffer bufferValue(final JsonParser parser) throws IOException {
+        final TokenBuffer buffer = new TokenBuffer(parser);
+        buffer.copyCurrentStructure(parser);
+        return buffer;
+    }
+
+    private static DateTime readDateTime(@Nullable final TokenBuffer buffer, final String field) throws ParsingException {
+        final DateTime value = readValue(buffer, DateTime.class, field);
+        if (value == null) {
+            throw new ParsingException(String.format("Timestamp must not be null; field=%s", field));
+        }
+        return value;
+    }
+
+    @Nullable
+    private static <T> T readValue(@Nullable final TokenBuffer buffer, final Class<T> clazz, final String field)
+            throws ParsingException {
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            return OBJECT_MAPPER.readValue(buffer.asParser(), clazz);
+        } catch (final IOException | IllegalArgumentException e) {
+            throw new ParsingException(String.format("Invalid value; field=%s", field), e);
+        }
+    }
+
+    private static boolean addSample(
+            final String name,
+            final double value,
+            @Nullable final Unit unit,
+            final Samples.Builder samples) {
+        try {
+            samples.add(value, unit);
+            return true;
+        } catch (final IllegalArgumentException e) {
+            LOGGER.warn()
+                    .setMessage("Discarding sample")
+                    .addData("reason", "incompatible unit")
+                    .addData("name", name)
+                    .addData("value", value)
+                    .addData("unit", unit)
+                    .setThrowable(e)
+                    .log();
+            return false;
+        }
+    }
+
+    private static DateTime getTimestampFor2c(final Annotations annotations) throws ParsingException {
+        final String finalTimestamp = readValue(annotations._finalTimestamp, String.class, "finalTimestamp");
+        final String initTimestamp = readValue(annotations._initTimestamp, String.class, "initTimestamp");
+        if (finalTimestamp != null) {
+            try {
+                return timestampToDateTime(Double.parseDouble(finalTimestamp));
+                // CHECKSTYLE.OFF: EmptyBlock - Exception triggers fallback.
+            } catch (final NumberFormatException nfe) {
+                // CHECKSTYLE.ON: EmptyBlock
+                // Ignore.
+            }
+        }
+        if (initTimestamp != null) {
+            try {
+                return timestampToDateTime(Double.parseDouble(initTimestamp));
+                // CHECKSTYLE.OFF: EmptyBlock - Exception triggers fallback.
+            } catch (final NumberFormatException nfe) {
+                // CHECKSTYLE.ON: EmptyBlock
+                // Ignore.
+            }
+        }
+        throw new ParsingException(String.format(
+                "No timestamp found in annotations; initTimestamp=%s, finalTimestamp=%s",
+                initTimestamp,
+                finalTimestamp));
+    }
+
+    private static DateTime timestampToDateTime(final double seconds) {
+        return new DateTime(Math.round(seconds * 1000.0), ISOChronology.getInstanceUTC());
+    }
+
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.createInstance();
+    private static final JsonFactory JSON_FACTORY = OBJECT_MAPPER.getFactory();
+    private static final String DATA_KEY = "data";
+    private static final String VERSION_KEY = "version";
+    private static final String VALUES_KEY = "values";
+    private static final int INITIAL_COUNTS_SIZE = 8;
+    private static final Pattern NAME_PATTERN = Pattern.compile("^aint\\.metrics$");
+    private static final Pattern LEVEL_PATTERN = Pattern.compile("^(debug|info|warn|crit|fatal|unknown)$");
+    private static final Logger LOGGER = LoggerFactory.getLogger(StreamingQueryLogParser.class);
+
+    /**
+     * The state read from one line.
+     */
+    private static final class Line {
+
+        private final Section _top = new Section();
+        private Section _data;
+        private TokenBuffer _time;
+        private String _name;
+        private String _level;
+    }
+
+    /**
+     * The version, annotations and metrics read from either the top level
+     * object (versions 2c and 2d) or the data object (versions 2e and 2f).
+     */
+    private static final class Section {
+
+        private boolean _hasVersion = false;
+        private String _version;
+        private Annotations _annotations;
+        private Map<String, Samples> _timers = Maps.newHashMap();
+        private Map<String, Samples> _counters = Maps.newHashMap();
+        private Map<String, Samples> _gauges = Maps.newHashMap();
+        private boolean _hasNullMetrics = false;
+        private boolean _hasListMetrics = false;
+        private boolean _hasElementMetrics = false;
+        private boolean _hasInvalidCount = false;
+        // NOTE: Keyed by identity since equal samples may have different counts
+        private final Map<Samples, long[]> _counts = Maps.newIdentityHashMap();
+    }
+
+    /**
+     * The annotations read from a section. The timestamps are buffered since
+     * their type depends on the version.
+     */
+    private static final class Annotations {
+
+        private TokenBuffer _initTimestamp;
+        private TokenBuffer _finalTimestamp;
+        private final Map<String, String> _otherAnnotations = Maps.newHashMap();
+    }
+}
@@ -22,19 +22,19 @@ import com.arpnetworking.tsdaggregator.model.DefaultRecord;
 import com.arpnetworking.tsdaggregator.model.Metric;
 import com.arpnetworking.tsdaggregator.model.MetricType;
 import com.arpnetworking.tsdaggregator.model.Record;
-import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
+import com.arpnetworking.tsdcore.model.Unit;
 import com.arpnetworking.tsdcore.sources.BaseSource;
 import com.arpnetworking.tsdcore.sources.Source;
 import com.arpnetworking.utility.OvalBuilder;
 import com.arpnetworking.utility.observer.Observable;
 import com.arpnetworking.utility.observer.Observer;
 import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import net.sf.oval.constraint.NotNull;
 
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -176,18 +176,29 @@ public final class MappingSource extends BaseSource {
 
         public MergingMetric(final Metric metric) {
             _type = metric.getType();
-            _values = Lists.newArrayList(metric.getValues());
+            _values = metric.getValues();
         }
 
         public boolean isMergable(final Metric metric) {
-            return _type.equals(metric.getType());
+            if (!_type.equals(metric.getType())) {
+                return false;
+            }
+            final Optional<Unit> unit = _values.getUnit();
+            final Optional<Unit> otherUnit = metric.getValues().getUnit();
+            if (_values.isEmpty() || metric.getValues().isEmpty() || unit.equals(otherUnit)) {
+                return true;
+            }
+            return unit.isPresent() && otherUnit.isPresent() && unit.get().getSmallestUnit() == otherUnit.get().getSmallestUnit();
         }
 
         public void merge(final Metric metric) {
             if (!isMergable(metric)) {
                 throw new IllegalArgumentException(String.format("Metric cannot be merged; metric=%s", metric));
             }
-            _values.addAll(metric.getValues());
+            _values = new Samples.Builder(_values.size() + metric.getValues().size())
+                    .addAll(_values)
+                    .addAll(metric.getValues())
+                    .build();
         }
 
         @Override
@@ -196,8 +207,8 @@ public final class MappingSource extends BaseSource {
         }
 
         @Override
-        public List<Quantity> getValues() {
-            return Collections.unmodifiableList(_values);
+        public Samples getValues() {
+            return _values;
         }
 
         @Override
@@ -210,7 +221,7 @@ public final class MappingSource extends BaseSource {
         }
 
         private final MetricType _type;
-        private final List<Quantity> _values;
+        private Samples _values;
     }
 
     /**
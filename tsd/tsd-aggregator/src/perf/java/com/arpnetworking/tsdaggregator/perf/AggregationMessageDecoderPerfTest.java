@@ -0,0 +1,143 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.perf;
+
+import akka.util.ByteString;
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.arpnetworking.tsdcore.Messages;
+import com.arpnetworking.tsdcore.model.AggregationMessage;
+import com.arpnetworking.tsdcore.model.AggregationMessageDecoder;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.protobuf.GeneratedMessage;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares decoding the traffic of an aggregation host by concatenating the
+ * received <code>ByteString</code> instances against decoding it with
+ * <code>AggregationMessageDecoder</code>. The traffic is recorded from the
+ * messages a host sends for one period split into reads of random size.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+@BenchmarkOptions(callgc = false, benchmarkRounds = 20, warmupRounds = 5)
+public class AggregationMessageDecoderPerfTest {
+
+    @Test
+    public void testConcatenate() {
+        int messages = 0;
+        ByteString buffer = ByteString.empty();
+        for (final ByteString read : TRAFFIC) {
+            buffer = buffer.concat(read);
+            Optional<AggregationMessage> message = AggregationMessage.deserialize(buffer);
+            while (message.isPresent()) {
+                ++messages;
+                buffer = buffer.drop(message.get().getLength());
+                message = AggregationMessage.deserialize(buffer);
+            }
+        }
+        Assert.assertEquals(MESSAGES, messages);
+    }
+
+    @Test
+    public void testDecoder() throws IOException {
+        int messages = 0;
+        try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+            for (final ByteString read : TRAFFIC) {
+                decoder.append(read);
+                Optional<AggregationMessage> message = decoder.next();
+                while (message.isPresent()) {
+                    ++messages;
+                    message = decoder.next();
+                }
+            }
+        }
+        Assert.assertEquals(MESSAGES, messages);
+    }
+
+    private static List<ByteString> recordTraffic() {
+        final Random random = new Random(1);
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        write(outputStream, Messages.HostIdentification.newBuilder()
+                .setHostName("app1.example.com")
+                .setClusterName("my_cluster")
+                .build());
+        final String periodStart = DateTime.parse("2015-05-08T00:00:00Z").toString();
+        for (int i = 0; i < METRICS; ++i) {
+            final List<Double> samples = Lists.newArrayList();
+            final int sampleCount = 1 + random.nextInt(MAX_SAMPLES);
+            for (int j = 0; j < sampleCount; ++j) {
+                samples.add(random.nextDouble() * 1000);
+            }
+            for (final String statistic : STATISTICS) {
+                final boolean ordered = statistic.startsWith("tp");
+                write(outputStream, Messages.AggregationRecord.newBuilder()
+                        .setService("my_service")
+                        .setMetric("my_metric_" + i)
+                        .setStatistic(statistic)
+                        .setPeriod(Period.minutes(1).toString())
+                        .setPeriodStart(periodStart)
+                        .setStatisticValue(random.nextDouble() * 1000)
+                        .addAllSamples(ordered ? samples : Lists.<Double>newArrayList())
+                        .setPopulationSize(samples.size())
+                        .setUnit("MILLISECOND")
+                        .build());
+            }
+        }
+
+        // Split the traffic into reads
+        final byte[] bytes = outputStream.toByteArray();
+        final List<ByteString> traffic = Lists.newArrayList();
+        int offset = 0;
+        while (offset < bytes.length) {
+            final int length = Math.min(bytes.length - offset, 1 + random.nextInt(MAX_READ_SIZE));
+            traffic.add(ByteString.fromArray(bytes, offset, length));
+            offset += length;
+        }
+        return traffic;
+    }
+
+    private static void write(final ByteArrayOutputStream outputStream, final GeneratedMessage message) {
+        final byte[] bytes = AggregationMessage.create(message).serialize().getBytes();
+        outputStream.write(bytes, 0, bytes.length);
+    }
+
+    //CHECKSTYLE.OFF: VisibilityModifier - Needs to be public for it to work
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(
+            new JsonBenchmarkConsumer(Paths.get("build/reports/perf/benchmark-aggregation-message-decoder.json")));
+    //CHECKSTYLE.ON: VisibilityModifier
+
+    private static final int METRICS = 2000;
+    private static final int MAX_SAMPLES = 200;
+    private static final int MAX_READ_SIZE = 16 * 1024;
+    private static final String[] STATISTICS = new String[] {"min", "max", "mean", "count", "tp50", "tp90", "tp99"};
+    private static final int MESSAGES = 1 + METRICS * STATISTICS.length;
+    private static final List<ByteString> TRAFFIC = recordTraffic();
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2014 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.perf;
+
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.arpnetworking.tsdaggregator.model.DefaultMetric;
+import com.arpnetworking.tsdaggregator.model.DefaultRecord;
+import com.arpnetworking.tsdaggregator.model.Metric;
+import com.arpnetworking.tsdaggregator.model.MetricType;
+import com.arpnetworking.tsdaggregator.model.querylog.Version2e;
+import com.arpnetworking.tsdcore.model.Samples;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.google.common.collect.ImmutableMap;
+import net.sf.oval.ConstraintViolation;
+import net.sf.oval.Validator;
+import net.sf.oval.exception.ConstraintsViolatedException;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the builders of the per-sample, per-metric and per-record models
+ * against the reflective construction with OVal validation that
+ * <code>OvalBuilder</code> performs by default.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+@BenchmarkOptions(callgc = false, benchmarkRounds = 20, warmupRounds = 10)
+public class BuilderPerfTest {
+
+    @Test
+    public void testSampleBuilder() {
+        final Version2e.Sample.Builder builder = new Version2e.Sample.Builder().setUnit(Unit.MILLISECOND);
+        double sum = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            sum += builder.setValue((double) i).build().getValue();
+        }
+        Assert.assertTrue(sum > 0);
+    }
+
+    @Test
+    public void testSampleReflective() {
+        final Version2e.Sample.Builder builder = new Version2e.Sample.Builder().setUnit(Unit.MILLISECOND);
+        double sum = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            sum += buildReflectively(builder.setValue((double) i), Version2e.Sample.class).getValue();
+        }
+        Assert.assertTrue(sum > 0);
+    }
+
+    @Test
+    public void testMetricBuilder() {
+        final DefaultMetric.Builder builder = new DefaultMetric.Builder()
+                .setType(MetricType.TIMER)
+                .setValues(SAMPLES);
+        long count = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            count += builder.build().getValues().size();
+        }
+        Assert.assertEquals(ITERATIONS, count);
+    }
+
+    @Test
+    public void testMetricReflective() {
+        final DefaultMetric.Builder builder = new DefaultMetric.Builder()
+                .setType(MetricType.TIMER)
+                .setValues(SAMPLES);
+        long count = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            count += buildReflectively(builder, DefaultMetric.class).getValues().size();
+        }
+        Assert.assertEquals(ITERATIONS, count);
+    }
+
+    @Test
+    public void testRecordBuilder() {
+        final DefaultRecord.Builder builder = new DefaultRecord.Builder()
+                .setTime(TIME)
+                .setMetrics(METRICS)
+                .setAnnotations(Collections.<String, String>emptyMap());
+        long count = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            count += builder.build().getMetrics().size();
+        }
+        Assert.assertEquals(ITERATIONS, count);
+    }
+
+    @Test
+    public void testRecordReflective() {
+        final DefaultRecord.Builder builder = new DefaultRecord.Builder()
+                .setTime(TIME)
+                .setMetrics(METRICS)
+                .setAnnotations(Collections.<String, String>emptyMap());
+        long count = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            count += buildReflectively(builder, DefaultRecord.class).getMetrics().size();
+        }
+        Assert.assertEquals(ITERATIONS, count);
+    }
+
+    private static <T> T buildReflectively(final Object builder, final Class<? extends T> targetClass) {
+        final List<ConstraintViolation> violations = VALIDATOR.validate(builder);
+        if (!violations.isEmpty()) {
+            throw new ConstraintsViolatedException(violations);
+        }
+        try {
+            final Constructor<? extends T> constructor = targetClass.getDeclaredConstructor(builder.getClass());
+            constructor.setAccessible(true);
+            return constructor.newInstance(builder);
+        } catch (final NoSuchMethodException | InstantiationException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //CHECKSTYLE.OFF: VisibilityModifier - Needs to be public for it to work
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(
+            new JsonBenchmarkConsumer(Paths.get("build/reports/perf/benchmark-builders.json")));
+    //CHECKSTYLE.ON: VisibilityModifier
+
+    private static final int ITERATIONS = 100000;
+    private static final Validator VALIDATOR = new Validator();
+    private static final DateTime TIME = new DateTime();
+    private static final Samples SAMPLES = new Samples.Builder().add(1.0, Unit.MILLISECOND).build();
+    private static final ImmutableMap<String, Metric> METRICS = ImmutableMap.<String, Metric>of(
+            "metric",
+            new DefaultMetric.Builder()
+                    .setType(MetricType.TIMER)
+                    .setValues(SAMPLES)
+                    .build());
+}
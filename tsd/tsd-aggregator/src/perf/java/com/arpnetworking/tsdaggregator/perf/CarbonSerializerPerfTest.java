@@ -0,0 +1,114 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.perf;
+
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.FQDSN;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.sinks.CarbonSerializer;
+import com.arpnetworking.tsdcore.statistics.MeanStatistic;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares serializing Carbon lines one datum at a time with
+ * <code>String.format</code> against batch serialization with
+ * <code>CarbonSerializer</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+@BenchmarkOptions(callgc = false, benchmarkRounds = 20, warmupRounds = 10)
+public class CarbonSerializerPerfTest {
+
+    @Test
+    public void testFormat() {
+        long length = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            for (final AggregatedData datum : DATA) {
+                length += new Buffer(
+                        String.format(
+                                "%s.%s.%s.%s.%s.%s %f %d%n",
+                                datum.getFQDSN().getCluster(),
+                                datum.getHost(),
+                                datum.getFQDSN().getService(),
+                                datum.getFQDSN().getMetric(),
+                                datum.getPeriod().toString(),
+                                datum.getFQDSN().getStatistic().getName(),
+                                datum.getValue().getValue(),
+                                datum.getPeriodStart().toInstant().getMillis() / 1000))
+                        .length();
+            }
+        }
+        Assert.assertTrue(length > 0);
+    }
+
+    @Test
+    public void testCarbonSerializer() {
+        final CarbonSerializer serializer = new CarbonSerializer();
+        long length = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            length += serializer.serialize(DATA).length();
+        }
+        Assert.assertTrue(length > 0);
+    }
+
+    private static List<AggregatedData> createData() {
+        final Random random = new Random(1);
+        final DateTime start = DateTime.parse("2015-05-08T00:00:00Z");
+        final List<AggregatedData> data = Lists.newArrayListWithCapacity(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            data.add(new AggregatedData.Builder()
+                    .setFQDSN(new FQDSN.Builder()
+                            .setCluster("my_cluster")
+                            .setService("my_service")
+                            .setMetric("my_metric_" + i % METRICS)
+                            .setStatistic(new MeanStatistic())
+                            .build())
+                    .setHost("app1.example.com")
+                    .setValue(new Quantity.Builder().setValue(random.nextDouble() * 1000).build())
+                    .setStart(start)
+                    .setPeriod(Period.minutes(1))
+                    .setSamples(Lists.<Quantity>newArrayList())
+                    .setPopulationSize(1L)
+                    .build());
+        }
+        return data;
+    }
+
+    //CHECKSTYLE.OFF: VisibilityModifier - Needs to be public for it to work
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(
+            new JsonBenchmarkConsumer(Paths.get("build/reports/perf/benchmark-carbon-serializer.json")));
+    //CHECKSTYLE.ON: VisibilityModifier
+
+    private static final int ITERATIONS = 100;
+    private static final int BATCH_SIZE = 1000;
+    private static final int METRICS = 200;
+    private static final List<AggregatedData> DATA = createData();
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.perf;
+
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.test.junitbenchmarks.JsonBenchmarkConsumer;
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdaggregator.parsers.BinaryQueryLogFrameWriter;
+import com.arpnetworking.tsdaggregator.parsers.BinaryQueryLogParser;
+import com.arpnetworking.tsdaggregator.parsers.QueryLogParser;
+import com.arpnetworking.tsdaggregator.parsers.StreamingQueryLogParser;
+import com.arpnetworking.tsdcore.parsers.Parser;
+import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.google.common.base.Charsets;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import java.nio.file.Paths;
+
+/**
+ * Compares the tree based <code>QueryLogParser</code> against the token
+ * streaming <code>StreamingQueryLogParser</code> on a representative version
+ * 2e query log line and the <code>BinaryQueryLogParser</code> on the same
+ * record in the binary format.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+@BenchmarkOptions(callgc = false, benchmarkRounds = 20, warmupRounds = 10)
+public class QueryLogParserPerfTest {
+
+    @Test
+    public void testQueryLogParser() throws ParsingException {
+        assertParse(new QueryLogParser());
+    }
+
+    @Test
+    public void testStreamingQueryLogParser() throws ParsingException {
+        assertParse(new StreamingQueryLogParser());
+    }
+
+    @Test
+    public void testBinaryQueryLogParser() throws ParsingException {
+        // The dictionary is defined once per file so only the first frame carries it
+        final BinaryQueryLogParser parser = new BinaryQueryLogParser();
+        parser.parse(createFrame(0, DEFINITIONS));
+        assertParse(parser, createFrame(DEFINITIONS.length));
+    }
+
+    @Test
+    public void testEncodedSize() {
+        final int binarySize = createFrame(DEFINITIONS.length).length;
+        LOGGER.info()
+                .setMessage("Encoded size per sample")
+                .addData("samples", SAMPLES)
+                .addData("json", (double) LINE.length / SAMPLES)
+                .addData("binary", (double) binarySize / SAMPLES)
+                .log();
+        Assert.assertTrue(binarySize * 4 < LINE.length);
+    }
+
+    private static void assertParse(final Parser<Record> parser) throws ParsingException {
+        assertParse(parser, LINE);
+    }
+
+    private static void assertParse(final Parser<Record> parser, final byte[] data) throws ParsingException {
+        long count = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            count += parser.parse(data).getMetrics().size();
+        }
+        Assert.assertEquals(4L * ITERATIONS, count);
+    }
+
+    private static byte[] createFrame(final int offset, final String... definitions) {
+        return new BinaryQueryLogFrameWriter()
+                .writeHeader(offset, definitions)
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                .writeVarint(1).writeVarint(0).writeString("GET")
+                .writeVarint(2)
+                .writeVarint(1).writeVarint(3).writeSample(3, 12).writeSample(3, 7.5).writeSample(3, 31)
+                .writeVarint(2).writeVarint(2).writeSample(3, 1.2).writeSample(3, 0.9)
+                .writeVarint(1)
+                .writeVarint(3).writeVarint(1).writeSample(0, 1)
+                .writeVarint(1)
+                .writeVarint(4).writeVarint(1).writeSample(11, 512)
+                .toByteArray();
+    }
+
+    //CHECKSTYLE.OFF: VisibilityModifier - Needs to be public for it to work
+    @Rule
+    public final TestRule _benchmarkRule = new BenchmarkRule(
+            new JsonBenchmarkConsumer(Paths.get("build/reports/perf/benchmark-query-log-parser.json")));
+    //CHECKSTYLE.ON: VisibilityModifier
+
+    private static final int ITERATIONS = 20000;
+    private static final int SAMPLES = 7;
+    private static final long INIT_TIMESTAMP = 1427199340008L;
+    private static final long FINAL_TIMESTAMP = 1427199341010L;
+    private static final String[] DEFINITIONS = new String[] {
+        "method",
+        "request/latency",
+        "db/query",
+        "request/count",
+        "heap/used"
+    };
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryLogParserPerfTest.class);
+    private static final byte[] LINE = ("{\"time\":\"2015-03-24T12:15:41.110Z\",\"name\":\"aint.metrics\",\"level\":\"info\","
+            + "\"id\":\"oRw59PrARvatGNC7fiWw4A\",\"context\":{\"host\":\"app1.example.com\"},\"data\":{\"version\":\"2e\","
+            + "\"annotations\":{\"initTimestamp\":\"2015-03-24T12:15:40.008Z\",\"finalTimestamp\":\"2015-03-24T12:15:41.010Z\","
+            + "\"method\":\"GET\"},\"timers\":{\"request/latency\":{\"values\":[{\"value\":12,\"unit\":\"millisecond\"},"
+            + "{\"value\":7.5,\"unit\":\"millisecond\"},{\"value\":31,\"unit\":\"millisecond\"}]},\"db/query\":{\"values\":"
+            + "[{\"value\":1.2,\"unit\":\"millisecond\"},{\"value\":0.9,\"unit\":\"millisecond\"}]}},\"gauges\":{\"heap/used\":"
+            + "{\"values\":[{\"value\":512,\"unit\":\"megabyte\"}]}},\"counters\":{\"request/count\":{\"values\":"
+            + "[{\"value\":1}]}}}}").getBytes(Charsets.UTF_8);
+}
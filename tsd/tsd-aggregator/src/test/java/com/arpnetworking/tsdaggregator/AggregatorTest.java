@@ -17,6 +17,7 @@ package com.arpnetworking.tsdaggregator;
 
 import com.arpnetworking.tsdaggregator.model.DefaultMetric;
 import com.arpnetworking.tsdaggregator.model.DefaultRecord;
+import com.arpnetworking.tsdaggregator.model.Metric;
 import com.arpnetworking.tsdaggregator.model.MetricType;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
@@ -25,6 +26,11 @@ import com.arpnetworking.tsdcore.model.Quantity;
 import com.arpnetworking.tsdcore.sinks.Sink;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.tsdcore.statistics.TP100Statistic;
+import com.arpnetworking.utility.WorkQueueRegistry;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.sf.oval.exception.ConstraintsViolatedException;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
@@ -39,6 +45,8 @@ import org.mockito.MockitoAnnotations;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Tests for the <code>Aggregator</code> class.
@@ -52,6 +60,21 @@ public class AggregatorTest {
         MockitoAnnotations.initMocks(this);
     }
 
+    @Test(expected = ConstraintsViolatedException.class)
+    public void testHistogramPrecisionOutOfRange() {
+        new Aggregator.Builder()
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .setHost("MyHost")
+                .setSink(Mockito.mock(Sink.class))
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Period.seconds(1)))
+                .setHistogramPrecision(1.0)
+                .build();
+    }
+
     @Test
     public void testCloseAfterElapsed() throws InterruptedException {
         final DateTime dataTimeInThePast = new DateTime(DateTimeZone.UTC)
@@ -119,6 +142,131 @@ public class AggregatorTest {
         }
     }
 
+    @Test
+    public void testPartitionedIngestion() throws InterruptedException {
+        final DateTime dataTimeInThePast = new DateTime(DateTimeZone.UTC)
+                .minus(Duration.standardSeconds(10));
+
+        // Create aggregator with ingestion workers
+        final Sink sink = Mockito.mock(Sink.class);
+        final WorkQueueRegistry registry = new WorkQueueRegistry();
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .setHost("MyHost")
+                .setSink(sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(Collections.singleton(Period.seconds(1)))
+                .setIngestionWorkers(2)
+                .setWorkQueueRegistry(registry)
+                .build();
+        try {
+            aggregator.launch();
+            Assert.assertEquals(1, registry.getQueues().size());
+
+            // Send data to aggregator
+            final Map<String, Metric> metrics = Maps.newHashMap();
+            for (int i = 0; i < 10; ++i) {
+                metrics.put(
+                        "MyMetric" + i,
+                        new DefaultMetric.Builder()
+                                .setType(MetricType.GAUGE)
+                                .setValues(Collections.singletonList(
+                                        new Quantity.Builder().setValue((double) i).build()))
+                                .build());
+            }
+            aggregator.notify(
+                    null,
+                    new DefaultRecord.Builder()
+                            .setMetrics(metrics)
+                            .setTime(dataTimeInThePast)
+                            .build());
+
+            // Wait for the period to close
+            Thread.sleep(2000);
+
+            // Verify every metric was aggregated exactly once across the partitions
+            Mockito.verify(sink, Mockito.atLeastOnce()).recordAggregateData(
+                    _dataCaptor.capture(),
+                    _conditionsCaptor.capture());
+            final Map<String, Double> values = Maps.newHashMap();
+            for (final List<AggregatedData> data : _dataCaptor.getAllValues()) {
+                for (final AggregatedData datum : data) {
+                    Assert.assertNull(values.put(datum.getFQDSN().getMetric(), datum.getValue().getValue()));
+                }
+            }
+            Assert.assertEquals(10, values.size());
+            for (int i = 0; i < 10; ++i) {
+                Assert.assertEquals(i, values.get("MyMetric" + i), 0.001);
+            }
+        } finally {
+            aggregator.shutdown();
+        }
+        Assert.assertTrue(registry.getQueues().isEmpty());
+    }
+
+    @Test
+    public void testPartitionedIngestionClosesOncePerPeriod() throws InterruptedException {
+        final DateTime dataTimeInThePast = new DateTime(DateTimeZone.UTC)
+                .minus(Duration.standardSeconds(10));
+
+        // Create aggregator with ingestion workers and multiple periods
+        final Sink sink = Mockito.mock(Sink.class);
+        final Aggregator aggregator = new Aggregator.Builder()
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .setHost("MyHost")
+                .setSink(sink)
+                .setCounterStatistics(Collections.singleton(MAX_STATISTIC))
+                .setTimerStatistics(Collections.singleton(MAX_STATISTIC))
+                .setGaugeStatistics(Collections.singleton(MAX_STATISTIC))
+                .setPeriods(ImmutableSet.of(Period.seconds(1), Period.seconds(2)))
+                .setIngestionWorkers(4)
+                .build();
+        try {
+            aggregator.launch();
+
+            // Send data to aggregator spread across the partitions
+            for (int i = 0; i < 20; ++i) {
+                aggregator.notify(
+                        null,
+                        new DefaultRecord.Builder()
+                                .setMetrics(Collections.singletonMap(
+                                        "MyMetric" + i,
+                                        new DefaultMetric.Builder()
+                                                .setType(MetricType.GAUGE)
+                                                .setValues(Collections.singletonList(
+                                                        new Quantity.Builder().setValue((double) i).build()))
+                                                .build()))
+                                .setTime(dataTimeInThePast)
+                                .build());
+            }
+
+            // Wait for the periods to close
+            Thread.sleep(3000);
+
+            // Verify each period was emitted in a single batch with every metric
+            Mockito.verify(sink, Mockito.times(2)).recordAggregateData(
+                    _dataCaptor.capture(),
+                    _conditionsCaptor.capture());
+            final Set<Period> periods = Sets.newHashSet();
+            for (final List<AggregatedData> data : _dataCaptor.getAllValues()) {
+                Assert.assertEquals(20, data.size());
+                final Set<String> names = Sets.newHashSet();
+                for (final AggregatedData datum : data) {
+                    Assert.assertTrue(names.add(datum.getFQDSN().getMetric()));
+                    Assert.assertEquals(data.get(0).getPeriod(), datum.getPeriod());
+                }
+                Assert.assertTrue(periods.add(data.get(0).getPeriod()));
+            }
+            Assert.assertEquals(ImmutableSet.of(Period.seconds(1), Period.seconds(2)), periods);
+        } finally {
+            aggregator.shutdown();
+        }
+    }
+
     @Captor
     private ArgumentCaptor<List<AggregatedData>> _dataCaptor;
     @Captor
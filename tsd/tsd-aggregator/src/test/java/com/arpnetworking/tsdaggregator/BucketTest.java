@@ -18,7 +18,10 @@ package com.arpnetworking.tsdaggregator;
 
 import com.arpnetworking.tsdaggregator.model.DefaultMetric;
 import com.arpnetworking.tsdaggregator.model.DefaultRecord;
+import com.arpnetworking.tsdaggregator.model.Metric;
 import com.arpnetworking.tsdaggregator.model.MetricType;
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdaggregator.model.SampleMode;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
 import com.arpnetworking.tsdcore.model.FQDSN;
@@ -29,9 +32,13 @@ import com.arpnetworking.tsdcore.statistics.MeanStatistic;
 import com.arpnetworking.tsdcore.statistics.MedianStatistic;
 import com.arpnetworking.tsdcore.statistics.TP0Statistic;
 import com.arpnetworking.tsdcore.statistics.TP100Statistic;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import net.sf.oval.exception.ConstraintsViolatedException;
 import org.hamcrest.Matchers;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
@@ -43,6 +50,8 @@ import org.mockito.Mockito;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Tests for the <code>Bucket</code> class.
@@ -194,7 +203,7 @@ public class BucketTest {
                 .setStart(start)
                 .setPeriod(Period.minutes(1))
                 .setPopulationSize(3L)
-                .setSamples(Lists.newArrayList(TWO, ONE, THREE))
+                .setSamples(Collections.<Quantity>emptyList())
                 .setValue(TWO)
                 .build()));
     }
@@ -268,7 +277,10 @@ public class BucketTest {
                 .setStart(start)
                 .setPeriod(Period.minutes(1))
                 .setPopulationSize(3L)
-                .setSamples(Lists.newArrayList(ONE_SECOND, TWO_SECONDS, THREE_SECONDS))
+                .setSamples(Lists.newArrayList(
+                        new Quantity.Builder().setValue(1000.0).setUnit(Unit.MILLISECOND).build(),
+                        new Quantity.Builder().setValue(2000.0).setUnit(Unit.MILLISECOND).build(),
+                        new Quantity.Builder().setValue(3000.0).setUnit(Unit.MILLISECOND).build()))
                 .setValue(new Quantity.Builder()
                         .setValue(3000.0)
                         .setUnit(Unit.MILLISECOND)
@@ -276,6 +288,163 @@ public class BucketTest {
                 .build()));
     }
 
+    @Test(expected = ConstraintsViolatedException.class)
+    public void testHistogramPrecisionZero() {
+        createHistogramBucketBuilder().setHistogramPrecision(0.0).build();
+    }
+
+    @Test(expected = ConstraintsViolatedException.class)
+    public void testHistogramPrecisionOne() {
+        createHistogramBucketBuilder().setHistogramPrecision(1.0).build();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testTimerHistogram() {
+        final Sink sink = Mockito.mock(Sink.class);
+        final DateTime start = DateTime.parse("2015-02-05T00:00:00Z");
+        final Bucket bucket = new Bucket.Builder()
+                .setSink(sink)
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .setHost("MyHost")
+                .setStart(start)
+                .setPeriod(Period.minutes(1))
+                .setCounterStatistics(ImmutableSet.of(new TP0Statistic()))
+                .setGaugeStatistics(ImmutableSet.of(new MeanStatistic()))
+                .setTimerStatistics(ImmutableSet.of(new TP100Statistic(), new MedianStatistic()))
+                .setSampleMode(SampleMode.HISTOGRAM)
+                .setHistogramPrecision(0.01)
+                .build();
+
+        bucket.add(
+                new DefaultRecord.Builder()
+                        .setTime(start.plus(Duration.standardSeconds(10)))
+                        .setMetrics(ImmutableMap.of(
+                                "MyTimer",
+                                new DefaultMetric.Builder()
+                                        .setType(MetricType.TIMER)
+                                        .setValues(Lists.newArrayList(THREE_SECONDS, TWO_SECONDS, ONE_SECOND))
+                                        .build()))
+                        .build());
+
+        bucket.close();
+
+        final ArgumentCaptor<Collection> dataCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(sink).recordAggregateData(dataCaptor.capture(), Mockito.eq(Collections.<Condition>emptyList()));
+
+        final Collection<AggregatedData> data = dataCaptor.getValue();
+        Assert.assertEquals(2, data.size());
+        for (final AggregatedData datum : data) {
+            Assert.assertEquals(3L, datum.getPopulationSize());
+            Assert.assertTrue(datum.getSamples().isEmpty());
+            Assert.assertTrue(datum.getHistogram().isPresent());
+            Assert.assertEquals(3L, datum.getHistogram().get().getCount());
+            Assert.assertEquals(Optional.of(Unit.MILLISECOND), datum.getValue().getUnit());
+            if (datum.getFQDSN().getStatistic() instanceof TP100Statistic) {
+                Assert.assertEquals(3000.0, datum.getValue().getValue(), 0.001);
+            } else {
+                Assert.assertEquals(2000.0, datum.getValue().getValue(), 2000.0 * 0.01);
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInvalidMetricDiscarded() {
+        final Sink sink = Mockito.mock(Sink.class);
+        final DateTime start = DateTime.parse("2015-02-05T00:00:00Z");
+        final Bucket bucket = new Bucket.Builder()
+                .setSink(sink)
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .setHost("MyHost")
+                .setStart(start)
+                .setPeriod(Period.minutes(1))
+                .setCounterStatistics(ImmutableSet.of(new TP0Statistic()))
+                .setGaugeStatistics(ImmutableSet.of(new MeanStatistic()))
+                .setTimerStatistics(ImmutableSet.of(new TP100Statistic(), new MeanStatistic()))
+                .build();
+
+        bucket.add(createTimerRecord(start, ONE_SECOND, THREE_SECONDS));
+        // None of the samples of a metric with an invalid sample are accepted
+        bucket.add(createTimerRecord(
+                start,
+                TWO_SECONDS,
+                new Quantity.Builder().setValue(Double.POSITIVE_INFINITY).setUnit(Unit.SECOND).build()));
+
+        bucket.close();
+
+        final ArgumentCaptor<Collection> dataCaptor = ArgumentCaptor.forClass(Collection.class);
+        Mockito.verify(sink).recordAggregateData(dataCaptor.capture(), Mockito.eq(Collections.<Condition>emptyList()));
+
+        final Collection<AggregatedData> data = dataCaptor.getValue();
+        Assert.assertEquals(2, data.size());
+        for (final AggregatedData datum : data) {
+            Assert.assertEquals(2L, datum.getPopulationSize());
+            if (datum.getFQDSN().getStatistic() instanceof TP100Statistic) {
+                Assert.assertEquals(3.0, datum.getValue().getValue(), 0.001);
+            } else {
+                Assert.assertEquals(2.0, datum.getValue().getValue(), 0.001);
+            }
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testParallelClose() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            final Sink serialSink = Mockito.mock(Sink.class);
+            final Sink parallelSink = Mockito.mock(Sink.class);
+            final DateTime start = DateTime.parse("2015-02-05T00:00:00Z");
+            final Bucket.Builder bucketBuilder = new Bucket.Builder()
+                    .setCluster("MyCluster")
+                    .setService("MyService")
+                    .setHost("MyHost")
+                    .setStart(start)
+                    .setPeriod(Period.minutes(1))
+                    .setCounterStatistics(ImmutableSet.of(new TP0Statistic()))
+                    .setGaugeStatistics(ImmutableSet.of(new MeanStatistic()))
+                    .setTimerStatistics(ImmutableSet.of(new TP100Statistic(), new MedianStatistic()));
+            final Bucket serialBucket = bucketBuilder.setSink(serialSink).build();
+            final Bucket parallelBucket = bucketBuilder.setSink(parallelSink).setCloseExecutor(pool).build();
+
+            final Map<String, Metric> metrics = Maps.newHashMap();
+            for (int i = 0; i < 1000; ++i) {
+                metrics.put(
+                        "MyMetric" + i,
+                        new DefaultMetric.Builder()
+                                .setType(MetricType.values()[i % MetricType.values().length])
+                                .setValues(Lists.newArrayList(ONE, TWO, new Quantity.Builder().setValue((double) i).build()))
+                                .build());
+            }
+            final Record record = new DefaultRecord.Builder()
+                    .setTime(start.plus(Duration.standardSeconds(10)))
+                    .setMetrics(metrics)
+                    .build();
+            serialBucket.add(record);
+            parallelBucket.add(record);
+
+            serialBucket.close();
+            parallelBucket.close();
+
+            final ArgumentCaptor<Collection> serialCaptor = ArgumentCaptor.forClass(Collection.class);
+            Mockito.verify(serialSink).recordAggregateData(serialCaptor.capture(), Mockito.eq(Collections.<Condition>emptyList()));
+            final ArgumentCaptor<Collection> parallelCaptor = ArgumentCaptor.forClass(Collection.class);
+            Mockito.verify(parallelSink).recordAggregateData(
+                    parallelCaptor.capture(),
+                    Mockito.eq(Collections.<Condition>emptyList()));
+
+            final Collection<AggregatedData> serialData = serialCaptor.getValue();
+            final Collection<AggregatedData> parallelData = parallelCaptor.getValue();
+            Assert.assertEquals(serialData.size(), parallelData.size());
+            Assert.assertEquals(Sets.newHashSet(serialData), Sets.newHashSet(parallelData));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test
     public void testToString() {
         final String asString = new Bucket.Builder()
@@ -294,6 +463,32 @@ public class BucketTest {
         Assert.assertFalse(asString.isEmpty());
     }
 
+    private static Record createTimerRecord(final DateTime start, final Quantity... values) {
+        return new DefaultRecord.Builder()
+                .setTime(start.plus(Duration.standardSeconds(10)))
+                .setMetrics(ImmutableMap.of(
+                        "MyTimer",
+                        new DefaultMetric.Builder()
+                                .setType(MetricType.TIMER)
+                                .setValues(Lists.newArrayList(values))
+                                .build()))
+                .build();
+    }
+
+    private static Bucket.Builder createHistogramBucketBuilder() {
+        return new Bucket.Builder()
+                .setSink(Mockito.mock(Sink.class))
+                .setCluster("MyCluster")
+                .setService("MyService")
+                .setHost("MyHost")
+                .setStart(DateTime.parse("2015-02-05T00:00:00Z"))
+                .setPeriod(Period.minutes(1))
+                .setCounterStatistics(ImmutableSet.of(new TP0Statistic()))
+                .setGaugeStatistics(ImmutableSet.of(new MeanStatistic()))
+                .setTimerStatistics(ImmutableSet.of(new TP100Statistic()))
+                .setSampleMode(SampleMode.HISTOGRAM);
+    }
+
     private static final Quantity ONE = new Quantity.Builder().setValue(1.0).build();
     private static final Quantity TWO = new Quantity.Builder().setValue(2.0).build();
     private static final Quantity THREE = new Quantity.Builder().setValue(3.0).build();
@@ -15,12 +15,32 @@
  */
 package com.arpnetworking.tsdaggregator;
 
+import com.arpnetworking.tsdaggregator.model.DefaultMetric;
+import com.arpnetworking.tsdaggregator.model.DefaultRecord;
+import com.arpnetworking.tsdaggregator.model.MetricType;
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.Condition;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.sinks.Sink;
+import com.arpnetworking.tsdcore.statistics.TP100Statistic;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.joda.time.Period;
 import org.junit.Assert;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Matchers;
+import org.mockito.Mockito;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Tests for the <code>PeriodCloser</code> class.
@@ -116,6 +136,127 @@ public class PeriodCloserTest {
         Assert.assertEquals(new Duration(600000), PeriodCloser.getPeriodTimeout(Period.hours(1)));
     }
 
+    @Test
+    public void testGetTickMillis() {
+        Assert.assertEquals(100, PeriodCloser.getTickMillis(Period.millis(500)));
+        Assert.assertEquals(100, PeriodCloser.getTickMillis(Period.seconds(1)));
+        Assert.assertEquals(500, PeriodCloser.getTickMillis(Period.seconds(5)));
+        Assert.assertEquals(1000, PeriodCloser.getTickMillis(Period.minutes(1)));
+        Assert.assertEquals(1000, PeriodCloser.getTickMillis(Period.hours(1)));
+    }
+
+    @Test
+    public void testRotate() {
+        DateTimeUtils.setCurrentMillisFixed(createDateTime(0, 0, 30, 0).getMillis());
+        try {
+            final Sink sink = Mockito.mock(Sink.class);
+            final PeriodCloser periodCloser = new PeriodCloser.Builder()
+                    .setPeriod(Period.minutes(1))
+                    .setBucketBuilder(new Bucket.Builder()
+                            .setSink(sink)
+                            .setCluster("MyCluster")
+                            .setService("MyService")
+                            .setHost("MyHost")
+                            .setPeriod(Period.minutes(1))
+                            .setCounterStatistics(ImmutableSet.of(new TP100Statistic()))
+                            .setGaugeStatistics(ImmutableSet.of(new TP100Statistic()))
+                            .setTimerStatistics(ImmutableSet.of(new TP100Statistic())))
+                    .build();
+
+            periodCloser.record(createRecord(createDateTime(0, 0, 10, 0), 1d));
+            periodCloser.record(createRecord(createDateTime(0, 0, 50, 0), 2d));
+            periodCloser.record(createRecord(createDateTime(0, 1, 10, 0), 3d));
+
+            // The first bucket expires half a period after it ends
+            periodCloser.rotate(createDateTime(0, 1, 29, 999).getMillis());
+            Mockito.verifyZeroInteractions(sink);
+            periodCloser.rotate(createDateTime(0, 1, 30, 0).getMillis());
+            assertClosed(sink, createDateTime(0, 0, 0, 0), 2d);
+
+            // Late data for a closed period is placed in a new bucket which
+            // expires immediately
+            periodCloser.record(createRecord(createDateTime(0, 0, 20, 0), 4d));
+            periodCloser.rotate(createDateTime(0, 1, 31, 0).getMillis());
+            assertClosed(sink, createDateTime(0, 0, 0, 0), 4d);
+
+            periodCloser.rotate(createDateTime(0, 2, 30, 0).getMillis());
+            assertClosed(sink, createDateTime(0, 1, 0, 0), 3d);
+            Mockito.verifyNoMoreInteractions(sink);
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+    }
+
+    @Test
+    public void testRotatePartitions() {
+        DateTimeUtils.setCurrentMillisFixed(createDateTime(0, 0, 30, 0).getMillis());
+        try {
+            final Sink sink = Mockito.mock(Sink.class);
+            final PeriodCloser periodCloser = new PeriodCloser.Builder()
+                    .setPeriod(Period.minutes(1))
+                    .setPartitions(3)
+                    .setBucketBuilder(new Bucket.Builder()
+                            .setSink(sink)
+                            .setCluster("MyCluster")
+                            .setService("MyService")
+                            .setHost("MyHost")
+                            .setPeriod(Period.minutes(1))
+                            .setCounterStatistics(ImmutableSet.of(new TP100Statistic()))
+                            .setGaugeStatistics(ImmutableSet.of(new TP100Statistic()))
+                            .setTimerStatistics(ImmutableSet.of(new TP100Statistic())))
+                    .build();
+
+            periodCloser.record(0, createRecord(createDateTime(0, 0, 10, 0), "MyMetricA", 1d));
+            periodCloser.record(2, createRecord(createDateTime(0, 0, 20, 0), "MyMetricB", 2d));
+            periodCloser.record(1, createRecord(createDateTime(0, 0, 30, 0), "MyMetricC", 3d));
+
+            // The buckets of all partitions are emitted in one batch
+            periodCloser.rotate(createDateTime(0, 1, 30, 0).getMillis());
+            @SuppressWarnings("unchecked")
+            final ArgumentCaptor<List> dataCaptor = ArgumentCaptor.forClass(List.class);
+            Mockito.verify(sink).recordAggregateData(dataCaptor.capture(), Matchers.<List<Condition>>any());
+            Mockito.verifyNoMoreInteractions(sink);
+            @SuppressWarnings("unchecked")
+            final List<AggregatedData> data = dataCaptor.getValue();
+            Assert.assertEquals(3, data.size());
+            final Map<String, Double> values = Maps.newHashMap();
+            for (final AggregatedData datum : data) {
+                Assert.assertEquals(createDateTime(0, 0, 0, 0), datum.getStart());
+                values.put(datum.getFQDSN().getMetric(), datum.getValue().getValue());
+            }
+            Assert.assertEquals(ImmutableMap.of("MyMetricA", 1d, "MyMetricB", 2d, "MyMetricC", 3d), values);
+        } finally {
+            DateTimeUtils.setCurrentMillisSystem();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertClosed(final Sink sink, final DateTime start, final double value) {
+        final ArgumentCaptor<List> dataCaptor = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(sink).recordAggregateData(dataCaptor.capture(), Matchers.<List<Condition>>any());
+        final List<AggregatedData> data = dataCaptor.getValue();
+        Assert.assertEquals(1, data.size());
+        Assert.assertEquals(start, data.get(0).getStart());
+        Assert.assertEquals(value, data.get(0).getValue().getValue(), 0.001);
+        Mockito.reset(sink);
+    }
+
+    private static Record createRecord(final DateTime time, final double value) {
+        return createRecord(time, "MyMetric", value);
+    }
+
+    private static Record createRecord(final DateTime time, final String name, final double value) {
+        return new DefaultRecord.Builder()
+                .setTime(time)
+                .setMetrics(Collections.singletonMap(
+                        name,
+                        new DefaultMetric.Builder()
+                                .setType(MetricType.GAUGE)
+                                .setValues(Collections.singletonList(new Quantity.Builder().setValue(value).build()))
+                                .build()))
+                .build();
+    }
+
     private static DateTime createDateTime(final int hour, final int minute, final int second, final int millisecond) {
         return new DateTime(2014, 1, 1, hour, minute, second, millisecond, DateTimeZone.UTC);
     }
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.parsers;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Writes the elements of a binary query log frame for tests.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class BinaryQueryLogFrameWriter {
+
+    /**
+     * Write an unsigned byte.
+     *
+     * @param value The value.
+     * @return This instance of <code>BinaryQueryLogFrameWriter</code>.
+     */
+    public BinaryQueryLogFrameWriter writeByte(final int value) {
+        _outputStream.write(value);
+        return this;
+    }
+
+    /**
+     * Write a variable length integer.
+     *
+     * @param value The value.
+     * @return This instance of <code>BinaryQueryLogFrameWriter</code>.
+     */
+    public BinaryQueryLogFrameWriter writeVarint(final long value) {
+        long remaining = value;
+        while ((remaining & ~0x7fL) != 0) {
+            _outputStream.write((int) ((remaining & 0x7f) | 0x80));
+            remaining >>>= 7;
+        }
+        _outputStream.write((int) remaining);
+        return this;
+    }
+
+    /**
+     * Write a length prefixed UTF-8 string.
+     *
+     * @param value The value.
+     * @return This instance of <code>BinaryQueryLogFrameWriter</code>.
+     */
+    public BinaryQueryLogFrameWriter writeString(final String value) {
+        final byte[] bytes = value.getBytes(Charsets.UTF_8);
+        writeVarint(bytes.length);
+        _outputStream.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    /**
+     * Write a sample as its unit code and value.
+     *
+     * @param unit The unit code.
+     * @param value The value.
+     * @return This instance of <code>BinaryQueryLogFrameWriter</code>.
+     */
+    public BinaryQueryLogFrameWriter writeSample(final int unit, final double value) {
+        writeByte(unit);
+        final long bits = Double.doubleToLongBits(value);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            _outputStream.write((int) (bits >>> shift) & 0xff);
+        }
+        return this;
+    }
+
+    /**
+     * Write a frame header with the given dictionary offset and definitions.
+     *
+     * @param offset The size of the dictionary preceding the definitions.
+     * @param definitions The definitions.
+     * @return This instance of <code>BinaryQueryLogFrameWriter</code>.
+     */
+    public BinaryQueryLogFrameWriter writeHeader(final int offset, final String... definitions) {
+        writeByte(1);
+        writeVarint(offset);
+        writeVarint(definitions.length);
+        for (final String definition : definitions) {
+            writeString(definition);
+        }
+        return this;
+    }
+
+    /**
+     * Return the frame written so far.
+     *
+     * @return The frame.
+     */
+    public byte[] toByteArray() {
+        return _outputStream.toByteArray();
+    }
+
+    private final ByteArrayOutputStream _outputStream = new ByteArrayOutputStream();
+}
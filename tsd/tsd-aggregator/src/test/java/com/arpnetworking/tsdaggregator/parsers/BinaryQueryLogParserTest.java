@@ -0,0 +1,239 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.parsers;
+
+import com.arpnetworking.tsdaggregator.model.Metric;
+import com.arpnetworking.tsdaggregator.model.MetricType;
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
+import com.google.common.base.Charsets;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for the <code>BinaryQueryLogParser</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class BinaryQueryLogParserTest {
+
+    @Test
+    public void testParse() throws ParsingException {
+        final Record record = new BinaryQueryLogParser().parse(createFrame(0));
+
+        Assert.assertEquals(FINAL_TIMESTAMP, record.getTime().getMillis());
+        Assert.assertEquals(Collections.singletonMap("method", "GET"), record.getAnnotations());
+        Assert.assertEquals(4, record.getMetrics().size());
+
+        final Metric latency = record.getMetrics().get("request/latency");
+        Assert.assertEquals(MetricType.TIMER, latency.getType());
+        Assert.assertEquals(3, latency.getValues().size());
+        Assert.assertEquals(Unit.MILLISECOND, latency.getValues().getUnit().get());
+        Assert.assertEquals(7.5, latency.getValues().getValue(1), 0.0);
+
+        final Metric count = record.getMetrics().get("request/count");
+        Assert.assertEquals(MetricType.COUNTER, count.getType());
+        Assert.assertFalse(count.getValues().getUnit().isPresent());
+        Assert.assertEquals(1.0, count.getValues().getValue(0), 0.0);
+
+        final Metric heap = record.getMetrics().get("heap/used");
+        Assert.assertEquals(MetricType.GAUGE, heap.getType());
+        Assert.assertEquals(Unit.MEGABYTE, heap.getValues().getUnit().get());
+    }
+
+    @Test
+    public void testEquivalentToQueryLog() throws ParsingException {
+        final byte[] line = ("{\"time\":\"2015-03-24T12:15:41.110Z\",\"name\":\"aint.metrics\",\"level\":\"info\","
+                + "\"data\":{\"version\":\"2e\",\"annotations\":{\"initTimestamp\":\"2015-03-24T12:15:40.008Z\","
+                + "\"finalTimestamp\":\"2015-03-24T12:15:41.010Z\",\"method\":\"GET\"},\"timers\":{\"request/latency\":"
+                + "{\"values\":[{\"value\":12,\"unit\":\"millisecond\"},{\"value\":7.5,\"unit\":\"millisecond\"},"
+                + "{\"value\":31,\"unit\":\"millisecond\"}]},\"db/query\":{\"values\":[{\"value\":1.2,\"unit\":\"millisecond\"},"
+                + "{\"value\":0.9,\"unit\":\"millisecond\"}]}},\"gauges\":{\"heap/used\":{\"values\":[{\"value\":512,"
+                + "\"unit\":\"megabyte\"}]}},\"counters\":{\"request/count\":{\"values\":[{\"value\":1}]}}}}")
+                .getBytes(Charsets.UTF_8);
+
+        Assert.assertEquals(new StreamingQueryLogParser().parse(line), new BinaryQueryLogParser().parse(createFrame(0)));
+    }
+
+    @Test
+    public void testParseByteBuffer() throws ParsingException {
+        final byte[] frame = createFrame(0);
+        final byte[] padded = new byte[frame.length + 4];
+        System.arraycopy(frame, 0, padded, 2, frame.length);
+        final ByteBuffer buffer = ByteBuffer.wrap(padded, 2, frame.length);
+
+        final Record record = new BinaryQueryLogParser().parse(buffer);
+        Assert.assertEquals(new BinaryQueryLogParser().parse(frame), record);
+        Assert.assertEquals(2, buffer.position());
+    }
+
+    @Test
+    public void testDictionaryReuse() throws ParsingException {
+        final BinaryQueryLogParser parser = new BinaryQueryLogParser();
+        parser.parse(createFrame(0));
+
+        // Refers to the definitions from the previous frame and adds one
+        final Record record = parser.parse(new BinaryQueryLogFrameWriter()
+                .writeHeader(5, "errors")
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                .writeVarint(1).writeVarint(0).writeString("PUT")
+                .writeVarint(0)
+                .writeVarint(2)
+                .writeVarint(3).writeVarint(1).writeSample(0, 2)
+                .writeVarint(5).writeVarint(1).writeSample(0, 1)
+                .writeVarint(0)
+                .toByteArray());
+
+        Assert.assertEquals(Collections.singletonMap("method", "PUT"), record.getAnnotations());
+        Assert.assertEquals(2, record.getMetrics().size());
+        Assert.assertEquals(2.0, record.getMetrics().get("request/count").getValues().getValue(0), 0.0);
+        Assert.assertEquals(1.0, record.getMetrics().get("errors").getValues().getValue(0), 0.0);
+    }
+
+    @Test
+    public void testDictionaryReset() throws ParsingException {
+        final BinaryQueryLogParser parser = new BinaryQueryLogParser();
+        parser.parse(createFrame(0));
+
+        // A frame with offset zero starts a new dictionary
+        final Record record = parser.parse(new BinaryQueryLogFrameWriter()
+                .writeHeader(0, "other")
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                .writeVarint(0)
+                .writeVarint(0)
+                .writeVarint(1).writeVarint(0).writeVarint(1).writeSample(0, 3)
+                .writeVarint(0)
+                .toByteArray());
+        Assert.assertEquals(Collections.singleton("other"), record.getMetrics().keySet());
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testMissingDefinitions() throws ParsingException {
+        new BinaryQueryLogParser().parse(createFrame(5));
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testUndefinedEntry() throws ParsingException {
+        new BinaryQueryLogParser().parse(new BinaryQueryLogFrameWriter()
+                .writeHeader(0)
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                .writeVarint(0)
+                .writeVarint(0)
+                .writeVarint(1).writeVarint(0).writeVarint(1).writeSample(0, 3)
+                .writeVarint(0)
+                .toByteArray());
+    }
+
+    @Test
+    public void testReplay() throws ParsingException {
+        final byte[] first = new BinaryQueryLogFrameWriter()
+                .writeHeader(0, "method", "request/count")
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                .writeVarint(0)
+                .writeVarint(0)
+                .writeVarint(1).writeVarint(1).writeVarint(1).writeSample(0, 1)
+                .writeVarint(0)
+                .toByteArray();
+        final byte[] second = new BinaryQueryLogFrameWriter()
+                .writeHeader(2)
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                .writeVarint(1).writeVarint(0).writeString("GET")
+                .writeVarint(0)
+                .writeVarint(1).writeVarint(1).writeVarint(1).writeSample(0, 4)
+                .writeVarint(0)
+                .toByteArray();
+
+        final BinaryQueryLogParser parser = new BinaryQueryLogParser();
+        parser.replay(ByteBuffer.wrap(first));
+        final Record record = parser.parse(second);
+        Assert.assertEquals(Collections.singletonMap("method", "GET"), record.getAnnotations());
+        Assert.assertEquals(4.0, record.getMetrics().get("request/count").getValues().getValue(0), 0.0);
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testUnsupportedVersion() throws ParsingException {
+        final byte[] frame = createFrame(0);
+        frame[0] = 2;
+        new BinaryQueryLogParser().parse(frame);
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testUnsupportedUnit() throws ParsingException {
+        new BinaryQueryLogParser().parse(new BinaryQueryLogFrameWriter()
+                .writeHeader(0, "timer")
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                .writeVarint(0)
+                .writeVarint(1).writeVarint(0).writeVarint(1).writeSample(99, 1)
+                .writeVarint(0)
+                .writeVarint(0)
+                .toByteArray());
+    }
+
+    @Test
+    public void testTruncated() {
+        final byte[] frame = createFrame(0);
+        final BinaryQueryLogParser parser = new BinaryQueryLogParser();
+        for (int length = 0; length < frame.length; ++length) {
+            try {
+                parser.parse(Arrays.copyOf(frame, length));
+                Assert.fail("Expected exception not thrown; length=" + length);
+            } catch (final ParsingException e) {
+                // Expected exception
+            }
+        }
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testTrailingData() throws ParsingException {
+        final byte[] frame = createFrame(0);
+        new BinaryQueryLogParser().parse(Arrays.copyOf(frame, frame.length + 1));
+    }
+
+    private static byte[] createFrame(final int offset) {
+        return new BinaryQueryLogFrameWriter()
+                .writeHeader(offset, "method", "request/latency", "db/query", "request/count", "heap/used")
+                .writeVarint(INIT_TIMESTAMP)
+                .writeVarint(FINAL_TIMESTAMP)
+                // Annotations
+                .writeVarint(1).writeVarint(0).writeString("GET")
+                // Timers
+                .writeVarint(2)
+                .writeVarint(1).writeVarint(3).writeSample(3, 12).writeSample(3, 7.5).writeSample(3, 31)
+                .writeVarint(2).writeVarint(2).writeSample(3, 1.2).writeSample(3, 0.9)
+                // Counters
+                .writeVarint(1)
+                .writeVarint(3).writeVarint(1).writeSample(0, 1)
+                // Gauges
+                .writeVarint(1)
+                .writeVarint(4).writeVarint(1).writeSample(11, 512)
+                .toByteArray();
+    }
+
+    private static final long INIT_TIMESTAMP = DateTime.parse("2015-03-24T12:15:40.008Z").getMillis();
+    private static final long FINAL_TIMESTAMP = DateTime.parse("2015-03-24T12:15:41.010Z").getMillis();
+}
@@ -49,10 +49,11 @@ public class QueryLogParserV2eTest {
         Assert.assertThat(variables, Matchers.<String>hasKey("t1"));
         final Metric t1 = variables.get("t1");
         Assert.assertEquals(4, t1.getValues().size());
-        assertValue(t1.getValues().get(0), 1d, Unit.SECOND);
+        // Samples are unified to the smallest unit
+        assertValue(t1.getValues().get(0), 1000d, Unit.MILLISECOND);
         assertValue(t1.getValues().get(1), 2d, Unit.MILLISECOND);
         assertValue(t1.getValues().get(2), 0d, Unit.MILLISECOND);
-        assertValue(t1.getValues().get(3), 4d, Unit.SECOND);
+        assertValue(t1.getValues().get(3), 4000d, Unit.MILLISECOND);
 
         Assert.assertThat(variables, Matchers.<String>hasKey("t2"));
         final Metric t2 = variables.get("t2");
@@ -63,10 +64,9 @@ public class QueryLogParserV2eTest {
 
         Assert.assertThat(variables, Matchers.<String>hasKey("g1"));
         final Metric g1 = variables.get("g1");
-        Assert.assertEquals(3, g1.getValues().size());
+        // Samples with units incompatible with the first sample are discarded
+        Assert.assertEquals(1, g1.getValues().size());
         assertValue(g1.getValues().get(0), 1.2d, Unit.GIGABYTE);
-        assertValue(g1.getValues().get(1), 1.1d);
-        assertValue(g1.getValues().get(2), 0.8d, Unit.SECOND);
 
         Assert.assertThat(variables, Matchers.<String>hasKey("c1"));
         final Metric c1 = variables.get("c1");
@@ -170,6 +170,17 @@ public class QueryLogParserV2eTest {
         Assert.assertTrue(record.getMetrics().isEmpty());
     }
 
+    @Test
+    public void testIgnoresCount() throws ParsingException, IOException {
+        final Record record = parseRecord("QueryLogParserV2eTest.testIgnoresCount.json");
+        Assert.assertNotNull(record);
+
+        // Counts are only supported by version 2f
+        final Map<String, ? extends Metric> variables = record.getMetrics();
+        Assert.assertEquals(3, variables.get("t1").getValues().size());
+        Assert.assertEquals(2, variables.get("c1").getValues().size());
+    }
+
     @Test
     public void testMissingGauges() throws ParsingException, IOException {
         final Record record = parseRecord("QueryLogParserV2eTest.testMissingGauges.json");
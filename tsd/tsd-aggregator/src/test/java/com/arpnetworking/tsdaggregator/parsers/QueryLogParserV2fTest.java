@@ -0,0 +1,144 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.parsers;
+
+import com.arpnetworking.tsdaggregator.model.Metric;
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Resources;
+
+import org.hamcrest.Matchers;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Tests for the 2f version of the query log format.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class QueryLogParserV2fTest {
+
+    @Test
+    public void testParse() throws ParsingException, IOException {
+        final Record record = parseRecord("QueryLogParserV2fTest.testParse.json");
+        Assert.assertNotNull(record);
+
+        Assert.assertEquals(DateTime.parse("2014-03-24T12:15:59.010Z"), record.getTime());
+        Assert.assertEquals(ImmutableMap.of("host", "host1"), record.getAnnotations());
+
+        final Map<String, ? extends Metric> variables = record.getMetrics();
+        Assert.assertThat(variables, Matchers.<String>hasKey("t1"));
+        final Metric t1 = variables.get("t1");
+        // Each sample carries its count and is unified to the smallest unit
+        Assert.assertEquals(3, t1.getValues().size());
+        assertValue(t1.getValues().get(0), 1000d, Unit.MILLISECOND);
+        Assert.assertEquals(2, t1.getValues().getCount(0));
+        assertValue(t1.getValues().get(1), 2d, Unit.MILLISECOND);
+        Assert.assertEquals(3, t1.getValues().getCount(1));
+        assertValue(t1.getValues().get(2), 4000d, Unit.MILLISECOND);
+        Assert.assertEquals(1, t1.getValues().getCount(2));
+
+        Assert.assertThat(variables, Matchers.<String>hasKey("g1"));
+        final Metric g1 = variables.get("g1");
+        // Samples with units incompatible with the first sample are discarded
+        Assert.assertEquals(2, g1.getValues().size());
+        final double gigabytes = Unit.MEGABYTE.convert(1.5, Unit.GIGABYTE);
+        assertValue(g1.getValues().get(0), gigabytes, Unit.MEGABYTE);
+        Assert.assertEquals(2, g1.getValues().getCount(0));
+        assertValue(g1.getValues().get(1), 0.8d, Unit.MEGABYTE);
+        Assert.assertEquals(2, g1.getValues().getCount(1));
+
+        Assert.assertThat(variables, Matchers.<String>hasKey("c1"));
+        final Metric c1 = variables.get("c1");
+        // A null count is the same as an unspecified count
+        Assert.assertEquals(2, c1.getValues().size());
+        assertValue(c1.getValues().get(0), 1d);
+        Assert.assertEquals(3, c1.getValues().getCount(0));
+        assertValue(c1.getValues().get(1), 0d);
+        Assert.assertEquals(1, c1.getValues().getCount(1));
+    }
+
+    @Test
+    public void testStringCount() throws ParsingException, IOException {
+        final Record record = parseRecord("QueryLogParserV2fTest.testStringCount.json");
+        Assert.assertEquals(1, record.getMetrics().get("t1").getValues().size());
+        Assert.assertEquals(3, record.getMetrics().get("t1").getValues().getCount(0));
+    }
+
+    @Test
+    public void testLargeCount() throws ParsingException, IOException {
+        // The count is carried as the weight of the sample and not expanded
+        final Record record = parseRecord("QueryLogParserV2fTest.testLargeCount.json");
+        Assert.assertEquals(1, record.getMetrics().get("t1").getValues().size());
+        Assert.assertEquals(1000000000000L, record.getMetrics().get("t1").getValues().getCount(0));
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testFractionalCount() throws ParsingException, IOException {
+        parseRecord("QueryLogParserV2fTest.testFractionalCount.json");
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testZeroCount() throws ParsingException, IOException {
+        parseRecord("QueryLogParserV2fTest.testZeroCount.json");
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testNegativeCount() throws ParsingException, IOException {
+        parseRecord("QueryLogParserV2fTest.testNegativeCount.json");
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testBadCount() throws ParsingException, IOException {
+        parseRecord("QueryLogParserV2fTest.testBadCount.json");
+    }
+
+    @Test(expected = ParsingException.class)
+    public void testObjectCount() throws ParsingException, IOException {
+        parseRecord("QueryLogParserV2fTest.testObjectCount.json");
+    }
+
+    private static void assertValue(final Quantity quantity, final double value) {
+        assertValue(quantity, value, Optional.<Unit>absent());
+    }
+
+    private static void assertValue(final Quantity quantity, final double value, final Unit unit) {
+        assertValue(quantity, value, Optional.of(unit));
+    }
+
+    private static void assertValue(final Quantity quantity, final double value, final Optional<Unit> unit) {
+        Assert.assertEquals(value, quantity.getValue(), 0.001);
+        if (unit.isPresent()) {
+            Assert.assertTrue(quantity.getUnit().isPresent());
+            Assert.assertEquals(unit.get(), quantity.getUnit().get());
+        } else {
+            Assert.assertFalse(quantity.getUnit().isPresent());
+        }
+    }
+
+    private static Record parseRecord(final String fileName) throws ParsingException, IOException {
+        return new QueryLogParser().parse(Resources.toByteArray(Resources.getResource(
+                QueryLogParserV2fTest.class, fileName)));
+    }
+}
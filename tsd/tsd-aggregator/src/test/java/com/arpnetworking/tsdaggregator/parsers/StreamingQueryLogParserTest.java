@@ -0,0 +1,173 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdaggregator.parsers;
+
+import com.arpnetworking.tsdaggregator.model.Record;
+import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Tests for the <code>StreamingQueryLogParser</code> class. Each test
+ * checks that the streaming parser agrees with <code>QueryLogParser</code>.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class StreamingQueryLogParserTest {
+
+    @Test
+    public void testEquivalenceOnTestResources() throws IOException, URISyntaxException {
+        final Path directory = Paths.get(
+                Resources.getResource(QueryLogParserV2eTest.class, "QueryLogParserV2eTest.testParse.json").toURI())
+                .getParent();
+        final List<Path> files = Lists.newArrayList();
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "QueryLogParserV2*Test.*.json")) {
+            for (final Path file : stream) {
+                files.add(file);
+            }
+        }
+        Assert.assertFalse(files.isEmpty());
+        for (final Path file : files) {
+            assertEquivalent(file.getFileName().toString(), Files.readAllBytes(file));
+        }
+    }
+
+    @Test
+    public void testParseByteBuffer() throws ParsingException {
+        final byte[] line = ("{\"version\":\"2d\",\"timers\":{\"t\":{\"values\":[{\"value\":1,\"unit\":\"second\"}]}},"
+                + "\"annotations\":{\"initTimestamp\":\"2014-03-24T12:15:40.008Z\","
+                + "\"finalTimestamp\":\"2014-03-24T12:15:41.010Z\"}}").getBytes(Charsets.UTF_8);
+        final Record expected = new StreamingQueryLogParser().parse(line);
+
+        // Array backed view of a line in the middle of a larger buffer
+        final byte[] padded = new byte[line.length + 4];
+        System.arraycopy(line, 0, padded, 2, line.length);
+        final ByteBuffer heap = ByteBuffer.wrap(padded, 2, line.length);
+        Assert.assertEquals(expected, new StreamingQueryLogParser().parse(heap));
+        Assert.assertEquals(2, heap.position());
+
+        // Direct buffer as handed over by the memory mapped tailer
+        final ByteBuffer direct = ByteBuffer.allocateDirect(line.length);
+        direct.put(line);
+        direct.flip();
+        Assert.assertEquals(expected, new StreamingQueryLogParser().parse(direct));
+        Assert.assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void testVersionLast() {
+        assertEquivalent(
+                "2c",
+                "{\"timers\":{\"t\":[1,\"2\",\"x\",true]},\"annotations\":{\"initTimestamp\":\"1347527680.486\","
+                        + "\"finalTimestamp\":\"1347527687.686\",\"host\":\"h\"},\"version\":\"2c\"}");
+        assertEquivalent(
+                "2d",
+                "{\"timers\":{\"t\":{\"values\":[{\"unit\":\"millisecond\",\"value\":1}]}},\"annotations\":{"
+                        + "\"finalTimestamp\":\"2014-03-24T12:15:41.010Z\",\"initTimestamp\":\"2014-03-24T12:15:40.008Z\"},"
+                        + "\"version\":\"2d\"}");
+        assertEquivalent(
+                "2e",
+                "{\"data\":{\"gauges\":{\"g\":{\"values\":[{\"value\":\"1.5\",\"unit\":\"Byte\"}]}},\"annotations\":{"
+                        + "\"initTimestamp\":\"2014-03-24T12:15:40.008Z\",\"finalTimestamp\":\"2014-03-24T12:15:41.010Z\"},"
+                        + "\"version\":\"2E\"},\"level\":\"info\",\"name\":\"aint.metrics\",\"time\":\"2014-03-24T12:15:41.110Z\"}");
+    }
+
+    @Test
+    public void testCounts() {
+        final String prefix = "{\"level\":\"info\",\"name\":\"aint.metrics\",\"time\":\"2014-03-24T12:15:41.110Z\",\"data\":{"
+                + "\"annotations\":{\"initTimestamp\":\"2014-03-24T12:15:40.008Z\","
+                + "\"finalTimestamp\":\"2014-03-24T12:15:41.010Z\"},\"timers\":{\"t\":{\"values\":[";
+        assertEquivalent("2f", prefix + "{\"value\":1,\"count\":3},{\"value\":2}]}},\"version\":\"2f\"}}");
+        assertEquivalent("2f large count", prefix + "{\"value\":1,\"count\":1e12}]}},\"version\":\"2f\"}}");
+        assertEquivalent("2f fractional count", prefix + "{\"value\":1,\"count\":2.7}]}},\"version\":\"2f\"}}");
+        assertEquivalent("2f invalid count", prefix + "{\"value\":1,\"count\":true}]}},\"version\":\"2f\"}}");
+        assertEquivalent("2e invalid count", prefix + "{\"value\":1,\"count\":[1]}]}},\"version\":\"2e\"}}");
+        assertEquivalent(
+                "2f discarded sample",
+                prefix + "{\"value\":1,\"unit\":\"second\"},{\"value\":2,\"unit\":\"byte\",\"count\":3},"
+                        + "{\"value\":3,\"unit\":\"minute\",\"count\":2}]}},\"version\":\"2f\"}}");
+    }
+
+    @Test
+    public void testDuplicateNames() {
+        assertEquivalent(
+                "duplicate",
+                "{\"version\":\"2d\",\"timers\":{\"a\":{\"values\":[{\"value\":1}]}},\"gauges\":{\"a\":{\"values\":[]}},"
+                        + "\"counters\":{\"a\":{\"values\":[{\"value\":2}]}},\"annotations\":{"
+                        + "\"initTimestamp\":\"2014-03-24T12:15:40.008Z\",\"finalTimestamp\":\"2014-03-24T12:15:41.010Z\"}}");
+    }
+
+    @Test
+    public void testMismatchedShape() {
+        assertEquivalent(
+                "2c with elements",
+                "{\"version\":\"2c\",\"timers\":{\"t\":{\"values\":[]}},\"annotations\":{\"finalTimestamp\":\"1\"}}");
+        assertEquivalent(
+                "2d with lists",
+                "{\"version\":\"2d\",\"timers\":{\"t\":[1]},\"annotations\":{"
+                        + "\"initTimestamp\":\"2014-03-24T12:15:40.008Z\",\"finalTimestamp\":\"2014-03-24T12:15:41.010Z\"}}");
+    }
+
+    @Test
+    public void testInvalid() {
+        assertEquivalent("empty", "");
+        assertEquivalent("array", "[]");
+        assertEquivalent("string", "\"2c\"");
+        assertEquivalent("truncated", "{\"version\":\"2c\",\"timers\":{");
+        assertEquivalent("unknown version", "{\"version\":\"3a\"}");
+        assertEquivalent("null version", "{\"version\":null}");
+        assertEquivalent(
+                "null sample",
+                "{\"version\":\"2c\",\"timers\":{\"t\":[1,null]},\"annotations\":{\"finalTimestamp\":\"1\"}}");
+    }
+
+    private static void assertEquivalent(final String name, final String data) {
+        assertEquivalent(name, data.getBytes(Charsets.UTF_8));
+    }
+
+    private static void assertEquivalent(final String name, final byte[] data) {
+        Record expected = null;
+        try {
+            expected = new QueryLogParser().parse(data);
+            // CHECKSTYLE.OFF: IllegalCatch - Any failure is expected from the streaming parser as a parsing exception
+        } catch (final Exception e) {
+            // CHECKSTYLE.ON: IllegalCatch
+            try {
+                new StreamingQueryLogParser().parse(data);
+                Assert.fail("Expected parsing exception for " + name);
+            } catch (final ParsingException pe) {
+                return;
+            }
+        }
+        try {
+            Assert.assertEquals(name, expected, new StreamingQueryLogParser().parse(data));
+        } catch (final ParsingException e) {
+            throw new AssertionError("Unexpected parsing exception for " + name, e);
+        }
+    }
+}
@@ -109,6 +109,41 @@ public class MappingSourceTest {
                 .build());
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergingMetricMergeMismatchedUnits() {
+        final MergingMetric mergingMetric = new MergingMetric(
+                TestBeanFactory.createMetricBuilder()
+                        .setType(MetricType.GAUGE)
+                        .setValues(Collections.singletonList(
+                                new Quantity.Builder().setValue(1.0).setUnit(Unit.BYTE).build()))
+                        .build());
+        mergingMetric.merge(TestBeanFactory.createMetricBuilder()
+                .setType(MetricType.GAUGE)
+                .setValues(Collections.singletonList(
+                        new Quantity.Builder().setValue(1.0).setUnit(Unit.SECOND).build()))
+                .build());
+    }
+
+    @Test
+    public void testMergingMetricMergeUnifiesUnits() {
+        final MergingMetric mergingMetric = new MergingMetric(
+                TestBeanFactory.createMetricBuilder()
+                        .setType(MetricType.GAUGE)
+                        .setValues(Collections.singletonList(
+                                new Quantity.Builder().setValue(1.0).setUnit(Unit.KILOBYTE).build()))
+                        .build());
+        mergingMetric.merge(TestBeanFactory.createMetricBuilder()
+                .setType(MetricType.GAUGE)
+                .setValues(Collections.singletonList(
+                        new Quantity.Builder().setValue(24.0).setUnit(Unit.BYTE).build()))
+                .build());
+        Assert.assertEquals(
+                ImmutableList.of(
+                        new Quantity.Builder().setValue(1000.0).setUnit(Unit.BYTE).build(),
+                        new Quantity.Builder().setValue(24.0).setUnit(Unit.BYTE).build()),
+                mergingMetric.getValues());
+    }
+
     @Test
     public void testMergeNotMatch() {
         final Record nonMatchingRecord = TestBeanFactory.createRecordBuilder()
@@ -150,6 +185,7 @@ public class MappingSourceTest {
                                 .setValues(Collections.singletonList(
                                         new Quantity.Builder()
                                                 .setValue(6.28d)
+                                                .setUnit(Unit.BYTE)
                                                 .build()))
                                 .build()))
                 .build();
@@ -176,6 +212,7 @@ public class MappingSourceTest {
                                                 .build(),
                                         new Quantity.Builder()
                                                 .setValue(6.28d)
+                                                .setUnit(Unit.BYTE)
                                                 .build()))
                                 .build()))
                 .build();
@@ -302,6 +339,7 @@ public class MappingSourceTest {
                                 .setValues(Collections.singletonList(
                                         new Quantity.Builder()
                                                 .setValue(6.28d)
+                                                .setUnit(Unit.BYTE)
                                                 .build()))
                                 .build()))
                 .build();
@@ -328,6 +366,7 @@ public class MappingSourceTest {
                                                 .build(),
                                         new Quantity.Builder()
                                                 .setValue(6.28d)
+                                                .setUnit(Unit.BYTE)
                                                 .build()))
                                 .build(),
                         "cat/dog/sheep",
@@ -336,6 +375,7 @@ public class MappingSourceTest {
                                 .setValues(ImmutableList.of(
                                         new Quantity.Builder()
                                                 .setValue(6.28d)
+                                                .setUnit(Unit.BYTE)
                                                 .build()))
                                 .build(),
                         "cat/dog/bear",
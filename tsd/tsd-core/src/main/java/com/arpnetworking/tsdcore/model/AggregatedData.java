@@ -15,11 +15,12 @@
  */
 package com.arpnetworking.tsdcore.model;
 
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.utility.OvalBuilder;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
+import com.google.common.base.Optional;
 import com.google.common.base.Strings;
-import com.google.common.collect.ImmutableList;
 
 import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
@@ -30,7 +31,6 @@ import org.joda.time.Period;
 
 import java.io.Serializable;
 import java.util.Collection;
-import java.util.List;
 
 /**
  * Serves as a data class for storing data for aggregated values after
@@ -84,10 +84,14 @@ public final class AggregatedData implements Serializable {
         return _value;
     }
 
-    public List<Quantity> getSamples() {
+    public Samples getSamples() {
         return _samples;
     }
 
+    public Optional<Histogram> getHistogram() {
+        return Optional.fromNullable(_histogram);
+    }
+
     public long getPopulationSize() {
         return _populationSize;
     }
@@ -143,7 +147,8 @@ public final class AggregatedData implements Serializable {
                 && Objects.equal(_period, other._period)
                 && Objects.equal(_fqdsn, other._fqdsn)
                 && Objects.equal(_host, other._host)
-                && Objects.equal(_samples, other._samples);
+                && Objects.equal(_samples, other._samples)
+                && Objects.equal(_histogram, other._histogram);
     }
 
     /**
@@ -159,6 +164,7 @@ public final class AggregatedData implements Serializable {
                 getPeriod(),
                 getHost(),
                 getSamples(),
+                _histogram,
                 getPopulationSize());
     }
 
@@ -172,6 +178,7 @@ public final class AggregatedData implements Serializable {
                 .add("FQDSN", _fqdsn)
                 .add("Value", _value)
                 .add("SamplesSize", _samples.size())
+                .add("Histogram", _histogram)
                 .add("PopulationSize", _populationSize)
                 .add("Period", _period)
                 .add("Start", _start)
@@ -182,7 +189,8 @@ public final class AggregatedData implements Serializable {
     private AggregatedData(final Builder builder) {
         _fqdsn = builder._fqdsn;
         _value = builder._value;
-        _samples = ImmutableList.copyOf(builder._samples);
+        _samples = Samples.copyOf(builder._samples);
+        _histogram = builder._histogram;
         _populationSize = builder._populationSize;
         _period = builder._period;
         _start = builder._start;
@@ -192,7 +200,8 @@ public final class AggregatedData implements Serializable {
     private final FQDSN _fqdsn;
     private final Quantity _value;
     private final long _populationSize;
-    private final ImmutableList<Quantity> _samples;
+    private final Samples _samples;
+    private final Histogram _histogram;
     private final DateTime _start;
     private final Period _period;
     private final String _host;
@@ -236,7 +245,8 @@ public final class AggregatedData implements Serializable {
         }
 
         /**
-         * The samples. Required. Cannot be null.
+         * The samples. Required. Cannot be null. Providing a
+         * <code>Samples</code> instance avoids copying the samples.
          *
          * @param value The samples.
          * @return This instance of <code>Builder</code>.
@@ -246,6 +256,18 @@ public final class AggregatedData implements Serializable {
             return this;
         }
 
+        /**
+         * The histogram of the samples. Optional. Defaults to null. The
+         * histogram is not copied and must not be modified afterwards.
+         *
+         * @param value The histogram.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setHistogram(final Histogram value) {
+            _histogram = value;
+            return this;
+        }
+
         /**
          * The population size. Required. Cannot be null.
          *
@@ -328,6 +350,7 @@ public final class AggregatedData implements Serializable {
         private Quantity _value;
         @NotNull
         private Collection<Quantity> _samples;
+        private Histogram _histogram;
         @NotNull
         @Min(value = 0)
         private Long _populationSize;
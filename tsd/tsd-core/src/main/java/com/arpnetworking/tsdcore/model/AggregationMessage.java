@@ -28,6 +28,7 @@ import org.slf4j.LoggerFactory;
 import org.vertx.java.core.buffer.Buffer;
 
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 /**
  * Class for building messages from the raw, on-the-wire bytes in the TCP stream.
@@ -81,26 +82,52 @@ public final class AggregationMessage {
         final byte[] payloadBytes = new byte [length - position];
         reader.getBytes(payloadBytes);
 
-        // Deserialize the message based on the type
+        return parse(type, payloadBytes, 0, payloadBytes.length);
+    }
+
+    /**
+     * Parse the payload of a message of the specified type in place.
+     *
+     * @param type The message type.
+     * @param bytes The array containing the payload.
+     * @param offset The offset of the payload in the array.
+     * @param length The length of the payload.
+     * @return The parsed <code>AggregationMessage</code> or absent if the
+     * type is not supported or the payload could not be parsed.
+     */
+    /* package private */ static Optional<AggregationMessage> parse(
+            final byte type,
+            final byte[] bytes,
+            final int offset,
+            final int length) {
         try {
             switch (type) {
                 case 0x01:
-                    return Optional.of(new AggregationMessage(Messages.HostIdentification.parseFrom(payloadBytes)));
+                    return Optional.of(new AggregationMessage(Messages.HostIdentification.PARSER.parseFrom(bytes, offset, length)));
                 case 0x02:
-                    try {
-                        return Optional.of(new AggregationMessage(Messages.AggregationRecord.parseFrom(payloadBytes)));
-                    } catch (final InvalidProtocolBufferException ignored) {
-                        return Optional.of(new AggregationMessage(Messages.LegacyAggRecord.parseFrom(payloadBytes)));
+                    // Older clients also send legacy records with this type
+                    final Messages.AggregationRecord record = Messages.AggregationRecord.PARSER.parsePartialFrom(bytes, offset, length);
+                    if (record.isInitialized()) {
+                        return Optional.of(new AggregationMessage(record));
                     }
+                    return Optional.of(new AggregationMessage(Messages.LegacyAggRecord.PARSER.parseFrom(bytes, offset, length)));
                 case 0x03:
-                    return Optional.of(new AggregationMessage(Messages.HeartbeatRecord.parseFrom(payloadBytes)));
+                    return Optional.of(new AggregationMessage(Messages.HeartbeatRecord.PARSER.parseFrom(bytes, offset, length)));
+                case 0x04:
+                    return Optional.of(new AggregationMessage(Messages.MetricRecord.PARSER.parseFrom(bytes, offset, length)));
+                case 0x05:
+                    return Optional.of(new AggregationMessage(Messages.LegacyAggRecord.PARSER.parseFrom(bytes, offset, length)));
                 default:
                     LOGGER.warn(String.format("Unsupported message type; type=%s", type));
                     return Optional.absent();
             }
         } catch (final InvalidProtocolBufferException e) {
             LOGGER.warn(
-                String.format("Invalid protocol buffer; type=%s bytes=%s", type, Hex.encodeHexString(payloadBytes)), e);
+                String.format(
+                        "Invalid protocol buffer; type=%s bytes=%s",
+                        type,
+                        Hex.encodeHexString(Arrays.copyOfRange(bytes, offset, offset + length))),
+                e);
             return Optional.absent();
         }
     }
@@ -119,6 +146,10 @@ public final class AggregationMessage {
             b.appendByte((byte) 0x02);
         } else if (_message instanceof Messages.HeartbeatRecord) {
             b.appendByte((byte) 0x03);
+        } else if (_message instanceof Messages.MetricRecord) {
+            b.appendByte((byte) 0x04);
+        } else if (_message instanceof Messages.LegacyAggRecord) {
+            b.appendByte((byte) 0x05);
         } else {
             throw new IllegalArgumentException(String.format("Unsupported message; message=%s", _message));
         }
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.model;
+
+import akka.util.ByteString;
+import com.google.common.base.Optional;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes <code>AggregationMessage</code> instances from a stream of bytes
+ * received in arbitrary chunks. Received bytes are copied once into a buffer
+ * and each message is parsed in place from the buffer. Unread bytes are moved
+ * to the front of the buffer only when the space behind them is exhausted,
+ * which is typically just the start of a partially received message.
+ *
+ * Buffers are borrowed from a shared pool and must be returned by closing the
+ * decoder. Buffers are array backed since protocol buffers only parse arrays
+ * without copying.
+ *
+ * This class is not thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class AggregationMessageDecoder implements AutoCloseable {
+
+    /**
+     * Public constructor.
+     */
+    public AggregationMessageDecoder() {
+        final byte[] buffer = POOL.poll();
+        if (buffer != null) {
+            POOL_SIZE.decrementAndGet();
+            _buffer = buffer;
+        } else {
+            _buffer = new byte[BUFFER_SIZE];
+        }
+    }
+
+    /**
+     * Append received bytes.
+     *
+     * @param data The received bytes.
+     */
+    public void append(final ByteString data) {
+        final int length = data.length();
+        ensureWritable(length);
+        data.copyToBuffer(ByteBuffer.wrap(_buffer, _writeIndex, length));
+        _writeIndex += length;
+    }
+
+    /**
+     * Append received bytes.
+     *
+     * @param data The array containing the received bytes.
+     * @param offset The offset of the received bytes in the array.
+     * @param length The number of received bytes.
+     */
+    public void append(final byte[] data, final int offset, final int length) {
+        ensureWritable(length);
+        System.arraycopy(data, offset, _buffer, _writeIndex, length);
+        _writeIndex += length;
+    }
+
+    /**
+     * Decode the next complete message. Messages of unsupported types or with
+     * invalid payloads are skipped.
+     *
+     * @return The next message or absent if no complete message is buffered.
+     * @throws IOException If the framing is invalid. The stream cannot be
+     * decoded any further.
+     */
+    public Optional<AggregationMessage> next() throws IOException {
+        while (_writeIndex - _readIndex >= HEADER_SIZE_IN_BYTES) {
+            final int length = getInt(_readIndex);
+            if (length < HEADER_SIZE_IN_BYTES || length > MAX_MESSAGE_SIZE_IN_BYTES) {
+                throw new IOException(String.format("Invalid message length; length=%d", length));
+            }
+            if (_writeIndex - _readIndex < length) {
+                // Reserve space for the remainder of the message
+                ensureWritable(length - (_writeIndex - _readIndex));
+                return Optional.absent();
+            }
+            final byte type = _buffer[_readIndex + INTEGER_SIZE_IN_BYTES];
+            final int payloadIndex = _readIndex + HEADER_SIZE_IN_BYTES;
+            _readIndex += length;
+            final Optional<AggregationMessage> message = AggregationMessage.parse(
+                    type,
+                    _buffer,
+                    payloadIndex,
+                    length - HEADER_SIZE_IN_BYTES);
+            if (_readIndex == _writeIndex) {
+                _readIndex = 0;
+                _writeIndex = 0;
+            }
+            if (message.isPresent()) {
+                return message;
+            }
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Return the number of buffered bytes not yet decoded.
+     *
+     * @return The number of buffered bytes.
+     */
+    public int getBufferedBytes() {
+        return _writeIndex - _readIndex;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Returns the buffer to the pool.
+     */
+    @Override
+    public void close() {
+        if (_buffer != null) {
+            // Only buffers of the default size are pooled
+            if (_buffer.length == BUFFER_SIZE && POOL_SIZE.incrementAndGet() <= MAX_POOL_SIZE) {
+                POOL.offer(_buffer);
+            } else if (_buffer.length == BUFFER_SIZE) {
+                POOL_SIZE.decrementAndGet();
+            }
+            _buffer = null;
+        }
+    }
+
+    private void ensureWritable(final int length) {
+        if (_buffer.length - _writeIndex >= length) {
+            return;
+        }
+        final int bufferedBytes = _writeIndex - _readIndex;
+        final int requiredSize = bufferedBytes + length;
+        if (requiredSize <= _buffer.length) {
+            System.arraycopy(_buffer, _readIndex, _buffer, 0, bufferedBytes);
+        } else {
+            int size = _buffer.length;
+            while (size < requiredSize) {
+                size *= 2;
+            }
+            final byte[] buffer = new byte[size];
+            System.arraycopy(_buffer, _readIndex, buffer, 0, bufferedBytes);
+            _buffer = buffer;
+        }
+        _readIndex = 0;
+        _writeIndex = bufferedBytes;
+    }
+
+    private int getInt(final int index) {
+        return ((_buffer[index] & 0xff) << 24)
+                | ((_buffer[index + 1] & 0xff) << 16)
+                | ((_buffer[index + 2] & 0xff) << 8)
+                | (_buffer[index + 3] & 0xff);
+    }
+
+    private byte[] _buffer;
+    private int _readIndex = 0;
+    private int _writeIndex = 0;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_POOL_SIZE = 256;
+    private static final int MAX_MESSAGE_SIZE_IN_BYTES = 64 * 1024 * 1024;
+    private static final int INTEGER_SIZE_IN_BYTES = Integer.SIZE / 8;
+    private static final int HEADER_SIZE_IN_BYTES = INTEGER_SIZE_IN_BYTES + 1;
+    private static final Queue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOL_SIZE = new AtomicInteger(0);
+}
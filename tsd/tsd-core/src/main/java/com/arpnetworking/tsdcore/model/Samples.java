@@ -0,0 +1,354 @@
+/**
+ * Copyright 2014 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.model;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.RandomAccess;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable list of samples stored as primitive values with a single shared
+ * <code>Unit</code>. The values are always expressed in the smallest
+ * <code>Unit</code> of the samples added to the <code>Builder</code>. Use
+ * <code>getValue(int)</code> and <code>getUnit()</code> to access samples
+ * without allocation; the <code>List</code> accessors create a
+ * <code>Quantity</code> instance for each sample accessed.
+ *
+ * Each sample has a count of the number of times its value was recorded,
+ * which is one unless specified otherwise. The <code>List</code> view
+ * contains each sample once regardless of its count; use
+ * <code>getCount(int)</code> to access the count.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class Samples extends AbstractList<Quantity> implements RandomAccess, Serializable {
+
+    /**
+     * Create an empty <code>Samples</code> instance.
+     *
+     * @return Empty <code>Samples</code> instance.
+     */
+    public static Samples empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Create a <code>Samples</code> instance from a <code>Collection</code>
+     * of <code>Quantity</code> instances. If the <code>Collection</code> is
+     * already a <code>Samples</code> instance it is returned as is.
+     *
+     * @param quantities The <code>Quantity</code> instances.
+     * @return <code>Samples</code> instance.
+     */
+    public static Samples copyOf(final Collection<Quantity> quantities) {
+        if (quantities instanceof Samples) {
+            return (Samples) quantities;
+        }
+        final Builder builder = new Builder(quantities.size());
+        for (final Quantity quantity : quantities) {
+            builder.add(quantity);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Accessor for the value of a sample expressed in the <code>Unit</code>
+     * of this <code>Samples</code> instance.
+     *
+     * @param index The index of the sample.
+     * @return The value of the sample.
+     */
+    public double getValue(final int index) {
+        checkIndex(index);
+        return _values[index];
+    }
+
+    /**
+     * Accessor for the number of times the value of a sample was recorded.
+     *
+     * @param index The index of the sample.
+     * @return The count of the sample.
+     */
+    public long getCount(final int index) {
+        checkIndex(index);
+        return _counts == null ? 1 : _counts[index];
+    }
+
+    public Optional<Unit> getUnit() {
+        return Optional.fromNullable(_unit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Quantity get(final int index) {
+        checkIndex(index);
+        return new Quantity.Builder().setValue(_values[index]).setUnit(_unit).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object instanceof Samples) {
+            final Samples other = (Samples) object;
+            if (_size != other._size || (_size > 0 && _unit != other._unit)) {
+                return false;
+            }
+            for (int i = 0; i < _size; ++i) {
+                if (Double.compare(_values[i], other._values[i]) != 0) {
+                    return false;
+                }
+                if (getCount(i) != other.getCount(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return _counts == null && super.equals(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("Unit", _unit)
+                .add("Values", Arrays.toString(Arrays.copyOf(_values, _size)))
+                .add("Counts", _counts == null ? null : Arrays.toString(Arrays.copyOf(_counts, _size)))
+                .toString();
+    }
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= _size) {
+            throw new IndexOutOfBoundsException(String.format("Index out of bounds; index=%d, size=%d", index, _size));
+        }
+    }
+
+    private Samples(final double[] values, @Nullable final long[] counts, final int size, final Unit unit) {
+        _values = values;
+        _counts = counts;
+        _size = size;
+        _unit = unit;
+    }
+
+    private final double[] _values;
+    // NOTE: Null if the count of every sample is one
+    private final long[] _counts;
+    private final int _size;
+    private final Unit _unit;
+
+    private static final Samples EMPTY = new Samples(new double[0], null, 0, null);
+    private static final long serialVersionUID = 5431898284526102379L;
+
+    /**
+     * Builder for <code>Samples</code>. Samples are appended to a growable
+     * primitive array. While all samples share the same <code>Unit</code> no
+     * conversion is performed; once samples in different units are added the
+     * unit of each sample is tracked and all values are converted to the
+     * smallest unit in a single in-place pass when <code>build()</code> is
+     * invoked. Samples with and without a <code>Unit</code> or with units of
+     * different types cannot be mixed.
+     *
+     * This class is <b>not</b> thread safe and may only be used to build one
+     * <code>Samples</code> instance.
+     */
+    public static final class Builder {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            this(INITIAL_CAPACITY);
+        }
+
+        /**
+         * Public constructor.
+         *
+         * @param expectedSize The expected number of samples.
+         */
+        public Builder(final int expectedSize) {
+            _values = new double[Math.max(expectedSize, 1)];
+        }
+
+        /**
+         * Add a sample.
+         *
+         * @param value The value of the sample.
+         * @param unit The <code>Unit</code> of the sample, if any.
+         * @return This instance of <code>Builder</code>.
+         * @throws IllegalArgumentException if the <code>Unit</code> is not
+         * compatible with that of samples already added.
+         */
+        public Builder add(final double value, @Nullable final Unit unit) {
+            return add(value, unit, 1);
+        }
+
+        /**
+         * Add a sample recorded a number of times.
+         *
+         * @param value The value of the sample.
+         * @param unit The <code>Unit</code> of the sample, if any.
+         * @param count The number of times the value was recorded.
+         * @return This instance of <code>Builder</code>.
+         * @throws IllegalArgumentException if the count is not positive or if
+         * the <code>Unit</code> is not compatible with that of samples
+         * already added.
+         */
+        public Builder add(final double value, @Nullable final Unit unit, final long count) {
+            if (count < 1) {
+                throw new IllegalArgumentException(String.format("Count must be positive; count=%d", count));
+            }
+            if (_size == 0) {
+                _unit = unit;
+                _smallestUnit = unit;
+            } else if (unit != _unit) {
+                if (unit == null || _unit == null) {
+                    throw new IllegalArgumentException(String.format(
+                            "Cannot mix samples with and without a unit; unit=%s, samplesUnit=%s",
+                            unit,
+                            _unit));
+                }
+                // Throws if the units are of different types
+                _smallestUnit = _smallestUnit.getSmallerUnit(unit);
+                if (_units == null) {
+                    _units = new Unit[_values.length];
+                    Arrays.fill(_units, 0, _size, _unit);
+                }
+            }
+            if (count != 1 && _counts == null) {
+                _counts = new long[_values.length];
+                Arrays.fill(_counts, 0, _size, 1);
+            }
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _values.length * 2);
+                if (_units != null) {
+                    _units = Arrays.copyOf(_units, _values.length);
+                }
+                if (_counts != null) {
+                    _counts = Arrays.copyOf(_counts, _values.length);
+                }
+            }
+            if (_units != null) {
+                _units[_size] = unit;
+            }
+            if (_counts != null) {
+                _counts[_size] = count;
+            }
+            _values[_size++] = value;
+            return this;
+        }
+
+        /**
+         * Add a sample.
+         *
+         * @param quantity The sample.
+         * @return This instance of <code>Builder</code>.
+         * @throws IllegalArgumentException if the <code>Unit</code> is not
+         * compatible with that of samples already added.
+         */
+        public Builder add(final Quantity quantity) {
+            return add(quantity.getValue(), quantity.getUnit().orNull());
+        }
+
+        /**
+         * Add all samples from a <code>Samples</code> instance.
+         *
+         * @param samples The samples.
+         * @return This instance of <code>Builder</code>.
+         * @throws IllegalArgumentException if the <code>Unit</code> is not
+         * compatible with that of samples already added.
+         */
+        public Builder addAll(final Samples samples) {
+            for (int i = 0; i < samples._size; ++i) {
+                add(samples._values[i], samples._unit, samples.getCount(i));
+            }
+            return this;
+        }
+
+        /**
+         * Accessor for the number of samples added.
+         *
+         * @return The number of samples added.
+         */
+        public int size() {
+            return _size;
+        }
+
+        /**
+         * Create the <code>Samples</code> instance.
+         *
+         * @return The <code>Samples</code> instance.
+         */
+        public Samples build() {
+            if (_size == 0) {
+                return EMPTY;
+            }
+            if (_units != null) {
+                for (int i = 0; i < _size; ++i) {
+                    if (_units[i] != _smallestUnit) {
+                        _values[i] = _smallestUnit.convert(_values[i], _units[i]);
+                    }
+                }
+                _units = null;
+            }
+            // Ownership of the array is transferred to the Samples instance
+            final Samples samples = new Samples(_values, _counts, _size, _smallestUnit);
+            _values = new double[INITIAL_CAPACITY];
+            _counts = null;
+            _size = 0;
+            return samples;
+        }
+
+        private double[] _values;
+        private Unit[] _units;
+        private long[] _counts;
+        private int _size = 0;
+        private Unit _unit;
+        private Unit _smallestUnit;
+
+        private static final int INITIAL_CAPACITY = 8;
+    }
+}
@@ -18,6 +18,8 @@ package com.arpnetworking.tsdcore.parsers;
 import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
+import java.nio.ByteBuffer;
+
 /**
  * Interface for classes which create instances of <code>T</code>.
  *
@@ -39,4 +41,33 @@ public interface Parser<T> {
      * @throws ParsingException If parsing of the data fails for any reason.
      */
     T parse(byte[] data) throws ParsingException;
+
+    /**
+     * Create a <code>Record</code> from the remaining bytes of a buffer. The
+     * buffer may be a view of a larger region (e.g. a memory mapped file) and
+     * is only valid for the duration of the call; implementations must not
+     * retain it. The default implementation copies the bytes and delegates
+     * to <code>parse(byte[])</code>.
+     *
+     * @param data Some serialized representation of a <code>Record</code>.
+     * @return Instance of <code>Record</code> from the data.
+     * @throws ParsingException If parsing of the data fails for any reason.
+     */
+    default T parse(final ByteBuffer data) throws ParsingException {
+        final byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return parse(bytes);
+    }
+
+    /**
+     * Observe data which precedes the position a source resumed reading
+     * from without creating a <code>Record</code>. Parsers which carry state
+     * from one datum to the next (e.g. a dictionary) use this to rebuild it.
+     * The buffer is only valid for the duration of the call. The default
+     * implementation ignores the data.
+     *
+     * @param data Some serialized representation of a <code>Record</code>.
+     */
+    default void replay(final ByteBuffer data) {
+    }
 }
@@ -21,21 +21,26 @@ import com.arpnetworking.tsdcore.Messages;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.AggregationMessage;
 import com.arpnetworking.tsdcore.model.Condition;
-import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
 import com.arpnetworking.tsdcore.statistics.ExpressionStatistic;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.tsdcore.statistics.Statistic;
-import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.Range;
 import org.joda.time.DateTime;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.net.NetSocket;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Publisher to send data to an upstream aggregation server.
@@ -74,6 +79,18 @@ public final class AggregationServerSink extends VertxSink {
     @Override
     protected void onConnect(final NetSocket socket) {
         _sentHandshake = false;
+        _stringIds.clear();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Spilled records identify their own host so the host must be identified
+     * again before sending further records on the connection.
+     */
+    @Override
+    protected void onReplay(final NetSocket socket) {
+        _sentHandshake = false;
     }
 
     /**
@@ -83,32 +100,102 @@ public final class AggregationServerSink extends VertxSink {
     protected Buffer serialize(final AggregatedData datum) {
         final Buffer buffer = new Buffer();
         if (!_sentHandshake) {
-            // TODO(barp): Revise aggregator sink protocol for host and cluster support [MAI-443]
-            final String host = datum.getHost();
-            final String cluster = datum.getFQDSN().getCluster();
-            final Messages.HostIdentification identifyHostMessage =
-                    Messages.HostIdentification.newBuilder()
-                            .setHostName(host)
-                            .setClusterName(cluster)
-                            .build();
-            buffer.appendBuffer(AggregationMessage.create(identifyHostMessage).serialize());
-            LOGGER.debug()
-                    .setMessage("Writing host identification message")
-                    .addData("sink", getName())
-                    .addData("hostName", host)
-                    .addData("clusterName", cluster)
-                    .log();
+            buffer.appendBuffer(createHandshake(datum));
             _sentHandshake = true;
         }
+        buffer.appendBuffer(createRecord(datum));
+        return buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * With protocol version 3 the statistics of each metric and period are
+     * sent in a single record with the samples or histogram sent once and
+     * strings declared once per connection.
+     */
+    @Override
+    protected Buffer serialize(final List<AggregatedData> data) {
+        if (_protocolVersion < 3) {
+            return super.serialize(data);
+        }
+        final Buffer buffer = new Buffer();
+        if (data.isEmpty()) {
+            return buffer;
+        }
+        if (!_sentHandshake) {
+            buffer.appendBuffer(createHandshake(data.get(0)));
+            _sentHandshake = true;
+        }
+
+        // Group the statistics by metric and period preserving order
+        final List<PendingRecord> records = Lists.newArrayList();
+        final Map<List<Object>, PendingRecord> recordsByKey = Maps.newHashMap();
+        for (final AggregatedData datum : data) {
+            final List<Object> key = Arrays.<Object>asList(
+                    datum.getFQDSN().getService(),
+                    datum.getFQDSN().getMetric(),
+                    datum.getPeriod(),
+                    datum.getPeriodStart(),
+                    datum.getPopulationSize());
+            PendingRecord record = recordsByKey.get(key);
+            if (record == null || !record.accepts(datum)) {
+                record = new PendingRecord();
+                recordsByKey.put(key, record);
+                records.add(record);
+            }
+            record.add(datum);
+        }
+        // Strings are interned as the records are built in the order they
+        // are sent so each string is declared before it is referenced
+        for (final PendingRecord record : records) {
+            buffer.appendBuffer(AggregationMessage.create(record.build()).serialize());
+        }
+        return buffer;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Each spilled record is preceded by its own host identification message
+     * since it may be replayed on a later connection.
+     */
+    @Override
+    protected Buffer serializeForSpill(final AggregatedData datum) {
+        return createHandshake(datum).appendBuffer(createRecord(datum));
+    }
 
-        final List<Double> sampleValues = FluentIterable.from(datum.getSamples()).transform(EXTRACT_VALUES_FROM_SAMPLES).toList();
+    private Buffer createHandshake(final AggregatedData datum) {
+        // TODO(barp): Revise aggregator sink protocol for host and cluster support [MAI-443]
+        final String host = datum.getHost();
+        final String cluster = datum.getFQDSN().getCluster();
+        final Messages.HostIdentification identifyHostMessage =
+                Messages.HostIdentification.newBuilder()
+                        .setHostName(host)
+                        .setClusterName(cluster)
+                        .build();
+        LOGGER.debug()
+                .setMessage("Writing host identification message")
+                .addData("sink", getName())
+                .addData("hostName", host)
+                .addData("clusterName", cluster)
+                .log();
+        return AggregationMessage.create(identifyHostMessage).serialize();
+    }
+
+    private Buffer createRecord(final AggregatedData datum) {
+        final Samples samples = datum.getSamples();
+        final List<Double> sampleValues = Lists.newArrayListWithCapacity(samples.size());
+        for (int i = 0; i < samples.size(); ++i) {
+            sampleValues.add(samples.getValue(i));
+        }
         final String unit;
         if (datum.getValue().getUnit().isPresent()) {
             unit = datum.getValue().getUnit().get().toString();
         } else {
             unit = "";
         }
-        final Messages.AggregationRecord recordMessage = Messages.AggregationRecord.newBuilder()
+        final Messages.AggregationRecord.Builder recordMessage = Messages.AggregationRecord.newBuilder()
                 .setMetric(datum.getFQDSN().getMetric())
                 .setPeriod(datum.getPeriod().toString())
                 .setPeriodStart(datum.getPeriodStart().toString())
@@ -117,11 +204,37 @@ public final class AggregationServerSink extends VertxSink {
                 .setStatisticValue(datum.getValue().getValue())
                 .setPopulationSize(datum.getPopulationSize())
                 .addAllSamples(sampleValues)
-                .setUnit(unit)
-                .build();
+                .setUnit(unit);
+        final Optional<Histogram> histogram = datum.getHistogram();
+        if (histogram.isPresent()) {
+            recordMessage.setHistogram(histogram.get().toRecord());
+            if (histogram.get().getUnit().isPresent()) {
+                recordMessage.setHistogramUnit(histogram.get().getUnit().get().toString());
+            }
+        }
+        return AggregationMessage.create(recordMessage.build()).serialize();
+    }
 
-        buffer.appendBuffer(AggregationMessage.create(recordMessage).serialize());
-        return buffer;
+    private Messages.MetricRecord.Builder createMetricRecord(final AggregatedData datum) {
+        final Messages.MetricRecord.Builder builder = Messages.MetricRecord.newBuilder();
+        return builder.setService(intern(datum.getFQDSN().getService(), builder))
+                .setMetric(intern(datum.getFQDSN().getMetric(), builder))
+                .setPeriod(intern(datum.getPeriod().toString(), builder))
+                .setPeriodStart(datum.getPeriodStart().getMillis())
+                .setPopulationSize(datum.getPopulationSize());
+    }
+
+    private int intern(final String value, final Messages.MetricRecord.Builder builder) {
+        Integer id = _stringIds.get(value);
+        if (id == null) {
+            id = _stringIds.size() + 1;
+            _stringIds.put(value, id);
+            builder.addDeclarations(
+                    Messages.StringDeclaration.newBuilder()
+                            .setId(id)
+                            .setValue(value));
+        }
+        return id;
     }
 
     private void heartbeat() {
@@ -138,6 +251,7 @@ public final class AggregationServerSink extends VertxSink {
 
     private AggregationServerSink(final Builder builder) {
         super(builder);
+        _protocolVersion = builder._protocolVersion;
         super.getVertx().setPeriodic(15000, new Handler<Long>() {
             @Override
             public void handle(final Long event) {
@@ -150,11 +264,10 @@ public final class AggregationServerSink extends VertxSink {
         });
     }
 
+    private final int _protocolVersion;
+    private final Map<String, Integer> _stringIds = Maps.newHashMap();
     private boolean _sentHandshake = false;
 
-    private static final Function<Quantity, Double> EXTRACT_VALUES_FROM_SAMPLES =
-            input -> input != null ? input.getValue() : null;
-
     private static final Statistic EXPRESSION_STATISTIC = new ExpressionStatistic();
     private static final Logger LOGGER = LoggerFactory.getLogger(AggregationServerSink.class);
 
@@ -173,6 +286,22 @@ public final class AggregationServerSink extends VertxSink {
             setServerPort(7065);
         }
 
+        /**
+         * Set the protocol version. Version 2 sends one record per
+         * statistic and is understood by every cluster aggregator. Version 3
+         * sends the statistics of each metric and period in a single record
+         * and must only be enabled once every cluster aggregator supports it;
+         * older cluster aggregators drop these records. Optional. Cannot be
+         * null. Must be 2 or 3. Default is 2.
+         *
+         * @param value The protocol version.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setProtocolVersion(final Integer value) {
+            _protocolVersion = value;
+            return this;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -180,5 +309,63 @@ public final class AggregationServerSink extends VertxSink {
         protected Builder self() {
             return this;
         }
+
+        @NotNull
+        @Range(min = 2, max = 3)
+        private Integer _protocolVersion = 2;
+    }
+
+    private final class PendingRecord {
+
+        public boolean accepts(final AggregatedData datum) {
+            // Statistics share the samples and histogram of the metric or have none
+            final Samples samples = datum.getSamples();
+            final Histogram histogram = datum.getHistogram().orNull();
+            return (samples.isEmpty() || _samples == null || _samples == samples || _samples.equals(samples))
+                    && (histogram == null || _histogram == null || _histogram == histogram || _histogram.equals(histogram));
+        }
+
+        public void add(final AggregatedData datum) {
+            if (!datum.getSamples().isEmpty() && _samples == null) {
+                _samples = datum.getSamples();
+            }
+            if (datum.getHistogram().isPresent() && _histogram == null) {
+                _histogram = datum.getHistogram().get();
+            }
+            _data.add(datum);
+        }
+
+        public Messages.MetricRecord build() {
+            final Messages.MetricRecord.Builder builder = createMetricRecord(_data.get(0));
+            if (_samples != null) {
+                for (int i = 0; i < _samples.size(); ++i) {
+                    builder.addSamples(_samples.getValue(i));
+                }
+                if (_samples.getUnit().isPresent()) {
+                    builder.setSamplesUnit(intern(_samples.getUnit().get().toString(), builder));
+                }
+            }
+            if (_histogram != null) {
+                builder.setHistogram(_histogram.toRecord());
+                if (_histogram.getUnit().isPresent()) {
+                    builder.setHistogramUnit(intern(_histogram.getUnit().get().toString(), builder));
+                }
+            }
+            for (final AggregatedData datum : _data) {
+                final Messages.StatisticValue.Builder statisticValue = Messages.StatisticValue.newBuilder()
+                        .setStatistic(intern(datum.getFQDSN().getStatistic().getName(), builder))
+                        .setValue(datum.getValue().getValue())
+                        .setSamples(!datum.getSamples().isEmpty() || datum.getHistogram().isPresent());
+                if (datum.getValue().getUnit().isPresent()) {
+                    statisticValue.setUnit(intern(datum.getValue().getUnit().get().toString(), builder));
+                }
+                builder.addStatistics(statisticValue);
+            }
+            return builder.build();
+        }
+
+        private final List<AggregatedData> _data = Lists.newArrayList();
+        private Samples _samples;
+        private Histogram _histogram;
     }
 }
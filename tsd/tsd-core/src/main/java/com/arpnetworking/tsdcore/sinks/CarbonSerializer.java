@@ -0,0 +1,195 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sinks;
+
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.FQDSN;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import io.netty.buffer.Unpooled;
+import org.joda.time.Period;
+import org.vertx.java.core.buffer.Buffer;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serializes <code>AggregatedData</code> instances into Carbon plaintext
+ * protocol lines of the form:
+ *
+ * <pre>
+ * cluster.host.service.metric.period.statistic value timestamp
+ * </pre>
+ *
+ * The value is written with six decimal places like <code>%f</code> and the
+ * timestamp in seconds. Lines for many data are written into a reused
+ * scratch array and copied into a single <code>Buffer</code>, and the name
+ * of each line is cached per <code>FQDSN</code>, host and period. Values
+ * whose rounding cannot be decided exactly from their binary representation
+ * fall back to <code>String.format</code>.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class CarbonSerializer {
+
+    /**
+     * Serialize a datum.
+     *
+     * @param datum The <code>AggregatedData</code> instance to serialize.
+     * @return The <code>Buffer</code> containing the line.
+     */
+    public Buffer serialize(final AggregatedData datum) {
+        return serialize(Lists.newArrayList(datum));
+    }
+
+    /**
+     * Serialize data into a single <code>Buffer</code>.
+     *
+     * @param data The <code>AggregatedData</code> instances to serialize.
+     * @return The <code>Buffer</code> containing one line per datum.
+     */
+    public synchronized Buffer serialize(final List<AggregatedData> data) {
+        _size = 0;
+        for (final AggregatedData datum : data) {
+            appendBytes(getName(datum));
+            appendValue(datum.getValue().getValue());
+            appendByte(' ');
+            appendLong(datum.getPeriodStart().getMillis() / 1000);
+            appendByte('\n');
+        }
+        return new Buffer(Unpooled.copiedBuffer(_scratch, 0, _size));
+    }
+
+    private byte[] getName(final AggregatedData datum) {
+        final FQDSN fqdsn = datum.getFQDSN();
+        final String host = datum.getHost();
+        final Period period = datum.getPeriod();
+        List<CachedName> names = _names.get(fqdsn);
+        if (names == null) {
+            if (_names.size() >= MAX_CACHED_FQDSNS) {
+                _names.clear();
+            }
+            names = Lists.newArrayListWithCapacity(1);
+            _names.put(fqdsn, names);
+        }
+        for (final CachedName name : names) {
+            if (name._period.equals(period) && name._host.equals(host)) {
+                return name._bytes;
+            }
+        }
+        final CachedName name = new CachedName(
+                host,
+                period,
+                (fqdsn.getCluster() + "." + host + "." + fqdsn.getService() + "." + fqdsn.getMetric() + "."
+                        + period.toString() + "." + fqdsn.getStatistic().getName() + " ").getBytes(Charsets.UTF_8));
+        names.add(name);
+        return name._bytes;
+    }
+
+    private void appendValue(final double value) {
+        final double magnitude = Math.abs(value);
+        if (!(magnitude < MAX_FAST_VALUE)) {
+            appendFormatted(value);
+            return;
+        }
+        final double scaled = magnitude * SCALE;
+        final double fraction = scaled - Math.floor(scaled);
+        if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled)) {
+            // The decimal rounding could go either way
+            appendFormatted(value);
+            return;
+        }
+        final long rounded = Math.round(scaled);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            appendByte('-');
+        }
+        appendLong(rounded / SCALE);
+        appendByte('.');
+        final long decimals = rounded % SCALE;
+        for (long divisor = SCALE / 10; divisor > 0; divisor /= 10) {
+            appendByte((int) ('0' + (decimals / divisor) % 10));
+        }
+    }
+
+    private void appendFormatted(final double value) {
+        appendBytes(String.format("%f", value).getBytes(Charsets.UTF_8));
+    }
+
+    private void appendLong(final long value) {
+        if (value == Long.MIN_VALUE) {
+            appendBytes(Long.toString(value).getBytes(Charsets.UTF_8));
+            return;
+        }
+        long remaining = value;
+        if (remaining < 0) {
+            appendByte('-');
+            remaining = -remaining;
+        }
+        int digits = 1;
+        for (long bound = 10; digits < 19 && remaining >= bound; bound *= 10) {
+            ++digits;
+        }
+        ensureCapacity(digits);
+        for (int i = _size + digits - 1; i >= _size; --i) {
+            _scratch[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        _size += digits;
+    }
+
+    private void appendBytes(final byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, _scratch, _size, bytes.length);
+        _size += bytes.length;
+    }
+
+    private void appendByte(final int value) {
+        ensureCapacity(1);
+        _scratch[_size++] = (byte) value;
+    }
+
+    private void ensureCapacity(final int length) {
+        if (_size + length > _scratch.length) {
+            _scratch = Arrays.copyOf(_scratch, Math.max(_scratch.length * 2, _size + length));
+        }
+    }
+
+    private byte[] _scratch = new byte[INITIAL_SCRATCH_SIZE];
+    private int _size = 0;
+    private final Map<FQDSN, List<CachedName>> _names = Maps.newHashMap();
+
+    private static final int INITIAL_SCRATCH_SIZE = 64 * 1024;
+    private static final int MAX_CACHED_FQDSNS = 100000;
+    private static final long SCALE = 1000000;
+    private static final double MAX_FAST_VALUE = 1e9;
+
+    private static final class CachedName {
+
+        private CachedName(final String host, final Period period, final byte[] bytes) {
+            _host = host;
+            _period = period;
+            _bytes = bytes;
+        }
+
+        private final String _host;
+        private final Period _period;
+        private final byte[] _bytes;
+    }
+}
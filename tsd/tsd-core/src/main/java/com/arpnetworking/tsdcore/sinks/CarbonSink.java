@@ -19,6 +19,8 @@ import com.arpnetworking.tsdcore.model.AggregatedData;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.net.NetSocket;
 
+import java.util.List;
+
 /**
  * Publisher to send data to a Carbon server.
  *
@@ -39,23 +41,23 @@ public final class CarbonSink extends VertxSink {
      */
     @Override
     protected Buffer serialize(final AggregatedData datum) {
-        return new Buffer(
-                String.format(
-                        "%s.%s.%s.%s.%s.%s %f %d%n",
-                        datum.getFQDSN().getCluster(),
-                        datum.getHost(),
-                        datum.getFQDSN().getService(),
-                        datum.getFQDSN().getMetric(),
-                        datum.getPeriod().toString(),
-                        datum.getFQDSN().getStatistic().getName(),
-                        datum.getValue().getValue(),
-                        datum.getPeriodStart().toInstant().getMillis() / 1000));
+        return _serializer.serialize(datum);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected Buffer serialize(final List<AggregatedData> data) {
+        return _serializer.serialize(data);
     }
 
     private CarbonSink(final Builder builder) {
         super(builder);
     }
 
+    private final CarbonSerializer _serializer = new CarbonSerializer();
+
     /**
      * Implementation of builder pattern for <code>CarbonSink</code>.
      *
@@ -21,20 +21,22 @@ import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
+import com.arpnetworking.utility.RotatingFileWriter;
 import com.google.common.base.Charsets;
-import com.google.common.base.Throwables;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import org.joda.time.Period;
 
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
 import java.util.Collection;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Publisher to write aggregated data to a file. This class is thread safe.
+ * Publisher to write aggregated data to a file. Each batch of data is
+ * written to the file as a group through a buffer and the file is optionally
+ * rotated by size or time. This class is thread safe.
  *
  * @author Brandon Arp (barp at groupon dot com)
  */
@@ -54,6 +56,7 @@ public final class FileSink extends BaseSink {
                 .log();
 
         if (!data.isEmpty()) {
+            // Serialize the batch and commit it to the file as a group
             final StringBuilder stringBuilder = new StringBuilder();
             for (final AggregatedData datum : data) {
                 // TODO(vkoskela): Refactor into JSON serializer [MAI-88]
@@ -72,18 +75,20 @@ public final class FileSink extends BaseSink {
                         .append("\",\"periodStart\":\"").append(datum.getPeriodStart())
                         .append("\",\"statistic\":\"").append(datum.getFQDSN().getStatistic().getName())
                         .append("\"}\n");
-                try {
-                    _writer.append(stringBuilder.toString());
-                } catch (final IOException e) {
-                    LOGGER.error()
-                            .setMessage("Error writing output to file")
-                            .addData("sink", getName())
-                            .addData("fileName", _fileName)
-                            .setThrowable(e)
-                            .log();
+            }
+            try {
+                synchronized (_writer) {
+                    _writer.write(stringBuilder.toString().getBytes(Charsets.UTF_8));
+                    _writer.commit();
                 }
-                stringBuilder.setLength(0);
-                _recordsWritten.incrementAndGet();
+                _recordsWritten.addAndGet(data.size());
+            } catch (final IOException e) {
+                LOGGER.error()
+                        .setMessage("Error writing output to file")
+                        .addData("sink", getName())
+                        .addData("fileName", _fileName)
+                        .setThrowable(e)
+                        .log();
             }
         }
     }
@@ -124,23 +129,27 @@ public final class FileSink extends BaseSink {
         return LogValueMapFactory.of(
                 "super", super.toLogValue(),
                 "FileName", _fileName,
+                "Writer", _writer,
                 "RecordsWritten", _recordsWritten);
     }
 
     private FileSink(final Builder builder) {
         super(builder);
         _fileName = builder._fileName;
-        FileOutputStream fileOutputStream = null;
-        try {
-            fileOutputStream = new FileOutputStream(_fileName, true);
-        } catch (final IOException e) {
-            throw Throwables.propagate(e);
-        }
-        _writer = new OutputStreamWriter(fileOutputStream, Charsets.UTF_8);
+        _writer = new RotatingFileWriter.Builder()
+                .setFile(new File(_fileName))
+                .setBufferSize(builder._bufferSize)
+                .setMaxFileSize(builder._maxFileSize)
+                .setRotationPeriod(builder._rotationPeriod)
+                .setMaxRotatedFiles(builder._maxRotatedFiles)
+                .setCompression(builder._compression)
+                .setFlushPolicy(builder._flushPolicy)
+                .setFlushInterval(builder._flushInterval)
+                .build();
     }
 
     private final String _fileName;
-    private final Writer _writer;
+    private final RotatingFileWriter _writer;
     private final AtomicLong _recordsWritten = new AtomicLong(0);
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileSink.class);
@@ -171,6 +180,94 @@ public final class FileSink extends BaseSink {
             return this;
         }
 
+        /**
+         * Set the size in bytes of the write buffer. Optional. Cannot be
+         * null; minimum 1. Default is 64 KiB.
+         *
+         * @param value The buffer size in bytes.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setBufferSize(final Integer value) {
+            _bufferSize = value;
+            return this;
+        }
+
+        /**
+         * Set the size in bytes at which the file is rotated. Zero disables
+         * rotation by size. Optional. Cannot be null; minimum 0. Default is
+         * 0.
+         *
+         * @param value The maximum file size in bytes.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxFileSize(final Long value) {
+            _maxFileSize = value;
+            return this;
+        }
+
+        /**
+         * Set the period after which the file is rotated. Optional. Default
+         * is to not rotate by time.
+         *
+         * @param value The rotation period.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setRotationPeriod(final Period value) {
+            _rotationPeriod = value;
+            return this;
+        }
+
+        /**
+         * Set the number of rotated files to retain. Zero retains all files.
+         * Optional. Cannot be null; minimum 0. Default is 0.
+         *
+         * @param value The number of rotated files to retain.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxRotatedFiles(final Integer value) {
+            _maxRotatedFiles = value;
+            return this;
+        }
+
+        /**
+         * Set the compression of rotated files. Optional. Cannot be null.
+         * Default is <code>NONE</code>.
+         *
+         * @param value The compression.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCompression(final RotatingFileWriter.Compression value) {
+            _compression = value;
+            return this;
+        }
+
+        /**
+         * Set when written data is flushed to the file. <code>BATCH</code>
+         * flushes after each batch of data, <code>INTERVAL</code> flushes
+         * every flush interval and <code>SYNC</code> flushes and forces the
+         * data to the storage device after each batch. Optional. Cannot be
+         * null. Default is <code>BATCH</code>.
+         *
+         * @param value The flush policy.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setFlushPolicy(final RotatingFileWriter.FlushPolicy value) {
+            _flushPolicy = value;
+            return this;
+        }
+
+        /**
+         * Set the interval between flushes with the <code>INTERVAL</code>
+         * flush policy. Optional. Cannot be null. Default is one second.
+         *
+         * @param value The flush interval.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setFlushInterval(final Period value) {
+            _flushInterval = value;
+            return this;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -182,5 +279,21 @@ public final class FileSink extends BaseSink {
         @NotNull
         @NotEmpty
         private String _fileName = "";
+        @NotNull
+        @Min(value = 1)
+        private Integer _bufferSize = 64 * 1024;
+        @NotNull
+        @Min(value = 0)
+        private Long _maxFileSize = 0L;
+        private Period _rotationPeriod;
+        @NotNull
+        @Min(value = 0)
+        private Integer _maxRotatedFiles = 0;
+        @NotNull
+        private RotatingFileWriter.Compression _compression = RotatingFileWriter.Compression.NONE;
+        @NotNull
+        private RotatingFileWriter.FlushPolicy _flushPolicy = RotatingFileWriter.FlushPolicy.BATCH;
+        @NotNull
+        private Period _flushInterval = Period.seconds(1);
     }
 }
@@ -16,35 +16,64 @@
 package com.arpnetworking.tsdcore.sinks;
 
 import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.MetricsFactory;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
+import com.fasterxml.jackson.annotation.JacksonInject;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
 
 /**
- * Publishes to an HTTP endpoint. This class is thread safe.
+ * Publishes to an HTTP endpoint. Requests are sent asynchronously by a fixed
+ * number of worker threads sharing a pool of persistent connections, so at
+ * most <code>maxConcurrentRequests</code> requests are in flight at once.
+ * Requests waiting for a worker are held in a bounded queue; when the queue
+ * is full further requests are rejected and dropped rather than blocking the
+ * caller. Requests failing with an I/O error or a server error are retried
+ * with exponential backoff up to <code>maxRetries</code> times. Request
+ * bodies are optionally gzip compressed.
+ *
+ * If a <code>MetricsFactory</code> is provided the latency of each request
+ * and the number of queued requests are recorded.
+ *
+ * This class is thread safe.
  *
  * @author Brandon Arp (barp at groupon dot com)
  */
@@ -64,58 +93,11 @@ public abstract class HttpPostSink extends BaseSink {
                 .log();
 
         if (!data.isEmpty() || !conditions.isEmpty()) {
-            // TODO(vkoskela): Support parallel post requests [MAI-97]
             for (final HttpUriRequest request : createRequests(data, conditions)) {
-                HttpEntity responseEntity = null;
-                try {
-                    // TODO(vkoskela): Add logging to client [MAI-89]
-                    // TODO(vkoskela): Add instrumentation to client [MAI-90]
-                    final HttpResponse result = CLIENT.execute(request);
-                    responseEntity = result.getEntity();
-                    final int responseStatusCode = result.getStatusLine().getStatusCode();
-
-                    if (responseStatusCode == HttpStatus.SC_OK) {
-                        LOGGER.debug()
-                                .setMessage("Post accepted")
-                                .addData("sink", getName())
-                                .addData("uri", _uri)
-                                .addData("status", responseStatusCode)
-                                .log();
-                    } else {
-                        LOGGER.warn()
-                                .setMessage("Post rejected")
-                                .addData("sink", getName())
-                                .addData("uri", _uri)
-                                .addData("status", responseStatusCode)
-                                .addData("requestSize", getContentLength(request))
-                                .log();
-                    }
-                    _postRequests.incrementAndGet();
-                } catch (final IOException e) {
-                    LOGGER.error()
-                            .setMessage("Post error")
-                            .addData("sink", getName())
-                            .addData("uri", _uri)
-                            .addData("requestSize", getContentLength(request))
-                            .setThrowable(e)
-                            .log();
-                } finally {
-                    if (responseEntity != null) {
-                        try {
-                            responseEntity.getContent().close();
-                            // CHECKSTYLE.OFF: IllegalCatch - Catch all exceptions
-                        } catch (final Exception e) {
-                            // CHECKSTYLE.ON: IllegalCatch
-                            LOGGER.warn()
-                                    .setMessage("Error closing response content stream")
-                                    .addData("sink", getName())
-                                    .addData("uri", _uri)
-                                    .addData("requestSize", getContentLength(request))
-                                    .setThrowable(e)
-                                    .log();
-                        }
-                    }
+                synchronized (_outstandingRequestsMonitor) {
+                    ++_outstandingRequests;
                 }
+                submit(new PostRequest(request), 0);
             }
         }
     }
@@ -131,6 +113,24 @@ public abstract class HttpPostSink extends BaseSink {
                 .addData("recordsWritten", _postRequests)
                 .addData("uri", _uri)
                 .log();
+        try {
+            // Requests awaiting a retry are not visible to the executors
+            awaitOutstandingRequests();
+            _retryExecutor.shutdown();
+            _executor.shutdown();
+            _executor.awaitTermination(EXECUTOR_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn()
+                    .setMessage("Interrupted waiting for requests to complete")
+                    .addData("sink", getName())
+                    .setThrowable(e)
+                    .log();
+        } finally {
+            _retryExecutor.shutdownNow();
+            _executor.shutdownNow();
+            _connectionManager.shutdown();
+        }
     }
 
     /**
@@ -141,10 +141,15 @@ public abstract class HttpPostSink extends BaseSink {
     @LogValue
     @Override
     public Object toLogValue() {
-        return LogValueMapFactory.of(
-                "super", super.toLogValue(),
-                "Uri", _uri,
-                "PostRequests", _postRequests);
+        return LogValueMapFactory.builder()
+                .put("super", super.toLogValue())
+                .put("Uri", _uri)
+                .put("MaxConcurrentRequests", _maxConcurrentRequests)
+                .put("MaxRetries", _maxRetries)
+                .put("CompressRequests", _compressRequests)
+                .put("PostRequests", _postRequests)
+                .put("RejectedRequests", _rejectedRequests)
+                .build();
     }
 
     /**
@@ -204,15 +209,147 @@ public abstract class HttpPostSink extends BaseSink {
             final Collection<Condition> conditions);
 
 
-    private static long getContentLength(final HttpUriRequest request) {
-        if (request instanceof HttpEntityEnclosingRequestBase) {
-            final HttpEntityEnclosingRequestBase entityRequest = (HttpEntityEnclosingRequestBase) request;
-            final HttpEntity entity = entityRequest.getEntity();
-            if (entity != null) {
-                return entity.getContentLength();
+    private void submit(final PostRequest request, final int attempt) {
+        try {
+            _executor.execute(() -> execute(request, attempt));
+        } catch (final RejectedExecutionException e) {
+            _rejectedRequests.incrementAndGet();
+            LOGGER.warn()
+                    .setMessage("Post rejected; request queue full")
+                    .addData("sink", getName())
+                    .addData("uri", _uri)
+                    .addData("attempt", attempt)
+                    .addData("queued", _executor.getQueue().size())
+                    .log();
+            complete();
+            if (_metricsFactory != null) {
+                final Metrics metrics = _metricsFactory.create();
+                metrics.incrementCounter(_metricNamePrefix + "/Rejected");
+                metrics.close();
             }
         }
-        return -1;
+    }
+
+    private void execute(final PostRequest request, final int attempt) {
+        final long startTime = System.nanoTime();
+        boolean isRetryable = false;
+        HttpEntity responseEntity = null;
+        try {
+            final HttpResponse result = _client.execute(request.getRequest(_compressRequests));
+            responseEntity = result.getEntity();
+            final int responseStatusCode = result.getStatusLine().getStatusCode();
+
+            if (responseStatusCode == HttpStatus.SC_OK) {
+                LOGGER.debug()
+                        .setMessage("Post accepted")
+                        .addData("sink", getName())
+                        .addData("uri", _uri)
+                        .addData("status", responseStatusCode)
+                        .log();
+            } else {
+                isRetryable = responseStatusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+                LOGGER.warn()
+                        .setMessage("Post rejected")
+                        .addData("sink", getName())
+                        .addData("uri", _uri)
+                        .addData("status", responseStatusCode)
+                        .addData("attempt", attempt)
+                        .addData("requestSize", request.getContentLength())
+                        .log();
+            }
+            _postRequests.incrementAndGet();
+        } catch (final IOException e) {
+            isRetryable = true;
+            LOGGER.error()
+                    .setMessage("Post error")
+                    .addData("sink", getName())
+                    .addData("uri", _uri)
+                    .addData("attempt", attempt)
+                    .addData("requestSize", request.getContentLength())
+                    .setThrowable(e)
+                    .log();
+        } finally {
+            release(responseEntity, request);
+            recordMetrics(System.nanoTime() - startTime, isRetryable);
+        }
+        if (isRetryable) {
+            retry(request, attempt);
+        } else {
+            complete();
+        }
+    }
+
+    private void retry(final PostRequest request, final int attempt) {
+        if (attempt >= _maxRetries) {
+            LOGGER.warn()
+                    .setMessage("Post abandoned; retries exhausted")
+                    .addData("sink", getName())
+                    .addData("uri", _uri)
+                    .addData("attempts", attempt + 1)
+                    .log();
+            complete();
+            return;
+        }
+        // Exponential backoff; the shift is bounded to avoid overflow
+        final long backoff = _retryBackoffInMilliseconds << Math.min(attempt, MAXIMUM_BACKOFF_SHIFT);
+        try {
+            _retryExecutor.schedule(() -> submit(request, attempt + 1), backoff, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            LOGGER.warn()
+                    .setMessage("Post abandoned; sink closed")
+                    .addData("sink", getName())
+                    .addData("uri", _uri)
+                    .log();
+            complete();
+        }
+    }
+
+    private void complete() {
+        synchronized (_outstandingRequestsMonitor) {
+            if (--_outstandingRequests == 0) {
+                _outstandingRequestsMonitor.notifyAll();
+            }
+        }
+    }
+
+    private void awaitOutstandingRequests() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(EXECUTOR_TIMEOUT_IN_SECONDS);
+        synchronized (_outstandingRequestsMonitor) {
+            long remaining = deadline - System.nanoTime();
+            while (_outstandingRequests > 0 && remaining > 0) {
+                TimeUnit.NANOSECONDS.timedWait(_outstandingRequestsMonitor, remaining);
+                remaining = deadline - System.nanoTime();
+            }
+        }
+    }
+
+    private void release(@Nullable final HttpEntity responseEntity, final PostRequest request) {
+        if (responseEntity != null) {
+            try {
+                // Consuming the response returns the connection to the pool
+                EntityUtils.consume(responseEntity);
+                // CHECKSTYLE.OFF: IllegalCatch - Catch all exceptions
+            } catch (final Exception e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.warn()
+                        .setMessage("Error closing response content stream")
+                        .addData("sink", getName())
+                        .addData("uri", _uri)
+                        .addData("requestSize", request.getContentLength())
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+    }
+
+    private void recordMetrics(final long latencyInNanoseconds, final boolean isFailed) {
+        if (_metricsFactory != null) {
+            final Metrics metrics = _metricsFactory.create();
+            metrics.setTimer(_metricNamePrefix + "/Latency", latencyInNanoseconds, TimeUnit.NANOSECONDS);
+            metrics.setGauge(_metricNamePrefix + "/Queued", _executor.getQueue().size());
+            metrics.incrementCounter(_metricNamePrefix + "/Failed", isFailed ? 1 : 0);
+            metrics.close();
+        }
     }
 
     /**
@@ -223,19 +360,104 @@ public abstract class HttpPostSink extends BaseSink {
     protected HttpPostSink(final Builder<?, ?> builder) {
         super(builder);
         _uri = builder._uri;
+        _maxConcurrentRequests = builder._maxConcurrentRequests;
+        _maxRetries = builder._maxRetries;
+        _retryBackoffInMilliseconds = builder._retryBackoffInMilliseconds;
+        _compressRequests = builder._compressRequests;
+        _metricsFactory = builder._metricsFactory;
+        _metricNamePrefix = "Sinks/HttpPostSink/" + getMetricSafeName() + "/Request";
+
+        // Each worker thread holds at most one connection
+        _connectionManager = new PoolingClientConnectionManager();
+        _connectionManager.setMaxTotal(_maxConcurrentRequests);
+        _connectionManager.setDefaultMaxPerRoute(_maxConcurrentRequests);
+        _client = new DefaultHttpClient(_connectionManager);
+        final HttpParams params = _client.getParams();
+        params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, CONNECTION_TIMEOUT_IN_MILLISECONDS);
+        params.setIntParameter(CoreConnectionPNames.SO_TIMEOUT, SOCKET_TIMEOUT_IN_MILLISECONDS);
+
+        _executor = new ThreadPoolExecutor(
+                _maxConcurrentRequests,
+                _maxConcurrentRequests,
+                0,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(builder._maxQueuedRequests),
+                new ThreadFactoryBuilder().setNameFormat("HttpPostSink-" + getMetricSafeName() + "-%d").setDaemon(true).build());
+        _retryExecutor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("HttpPostSink-" + getMetricSafeName() + "-retry").setDaemon(true).build());
     }
 
     private final URI _uri;
+    private final int _maxConcurrentRequests;
+    private final int _maxRetries;
+    private final long _retryBackoffInMilliseconds;
+    private final boolean _compressRequests;
+    private final MetricsFactory _metricsFactory;
+    private final String _metricNamePrefix;
+    private final PoolingClientConnectionManager _connectionManager;
+    private final HttpClient _client;
+    private final ThreadPoolExecutor _executor;
+    private final ScheduledExecutorService _retryExecutor;
     private final AtomicLong _postRequests = new AtomicLong(0);
+    private final AtomicLong _rejectedRequests = new AtomicLong(0);
+    private final Object _outstandingRequestsMonitor = new Object();
+    private int _outstandingRequests = 0;
 
-    private static final ClientConnectionManager CONNECTION_MANAGER = new PoolingClientConnectionManager();
-    private static final HttpClient CLIENT = new DefaultHttpClient(CONNECTION_MANAGER);
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpPostSink.class);
     private static final int CONNECTION_TIMEOUT_IN_MILLISECONDS = 3000;
+    private static final int SOCKET_TIMEOUT_IN_MILLISECONDS = 30000;
+    private static final int EXECUTOR_TIMEOUT_IN_SECONDS = 30;
+    private static final int MAXIMUM_BACKOFF_SHIFT = 16;
 
-    static {
-        final HttpParams params = CLIENT.getParams();
-        params.setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, CONNECTION_TIMEOUT_IN_MILLISECONDS);
+    /**
+     * A request and its compressed form. The request is compressed on the
+     * first attempt by a worker thread and the compressed request is reused
+     * for any retries.
+     */
+    private static final class PostRequest {
+
+        public PostRequest(final HttpUriRequest request) {
+            _request = request;
+        }
+
+        public HttpUriRequest getRequest(final boolean compress) throws IOException {
+            if (compress && !_isCompressed) {
+                compress();
+            }
+            return _request;
+        }
+
+        public long getContentLength() {
+            if (_request instanceof HttpEntityEnclosingRequestBase) {
+                final HttpEntity entity = ((HttpEntityEnclosingRequestBase) _request).getEntity();
+                if (entity != null) {
+                    return entity.getContentLength();
+                }
+            }
+            return -1;
+        }
+
+        private void compress() throws IOException {
+            _isCompressed = true;
+            if (_request instanceof HttpEntityEnclosingRequestBase) {
+                final HttpEntityEnclosingRequestBase entityRequest = (HttpEntityEnclosingRequestBase) _request;
+                final HttpEntity entity = entityRequest.getEntity();
+                if (entity != null && entity.getContentEncoding() == null) {
+                    final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    try (final OutputStream outputStream = new GZIPOutputStream(buffer)) {
+                        entity.writeTo(outputStream);
+                    }
+                    final ByteArrayEntity compressedEntity = new ByteArrayEntity(buffer.toByteArray());
+                    compressedEntity.setContentType(entity.getContentType());
+                    compressedEntity.setContentEncoding("gzip");
+                    entityRequest.setEntity(compressedEntity);
+                    entityRequest.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                }
+            }
+        }
+
+        private final HttpUriRequest _request;
+        private volatile boolean _isCompressed = false;
     }
 
     /**
@@ -266,7 +488,100 @@ public abstract class HttpPostSink extends BaseSink {
             super(targetClass);
         }
 
+        /**
+         * The maximum number of requests in flight at once. Optional. Cannot
+         * be null; minimum 1. Default is 4.
+         *
+         * @param value The maximum number of requests in flight.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setMaxConcurrentRequests(final Integer value) {
+            _maxConcurrentRequests = value;
+            return self();
+        }
+
+        /**
+         * The maximum number of requests waiting to be sent. Requests
+         * exceeding this are dropped. Optional. Cannot be null; minimum 1.
+         * Default is 1000.
+         *
+         * @param value The maximum number of requests waiting to be sent.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setMaxQueuedRequests(final Integer value) {
+            _maxQueuedRequests = value;
+            return self();
+        }
+
+        /**
+         * The maximum number of times a request failing with an I/O error or
+         * a server error is retried. Optional. Cannot be null; minimum 0.
+         * Default is 3.
+         *
+         * @param value The maximum number of retries.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setMaxRetries(final Integer value) {
+            _maxRetries = value;
+            return self();
+        }
+
+        /**
+         * The delay in milliseconds before the first retry of a request. The
+         * delay doubles on each subsequent retry. Optional. Cannot be null;
+         * minimum 1. Default is 500.
+         *
+         * @param value The delay before the first retry.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setRetryBackoffInMilliseconds(final Long value) {
+            _retryBackoffInMilliseconds = value;
+            return self();
+        }
+
+        /**
+         * Whether to gzip compress request bodies. The endpoint must accept
+         * the gzip content encoding. Optional. Cannot be null. Default is
+         * false.
+         *
+         * @param value Whether to compress request bodies.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setCompressRequests(final Boolean value) {
+            _compressRequests = value;
+            return self();
+        }
+
+        /**
+         * Instance of <code>MetricsFactory</code> used to record request
+         * latency and queue depth. Optional. This field may be injected
+         * automatically by Jackson/Guice if setup to do so.
+         *
+         * @param value Instance of <code>MetricsFactory</code>.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setMetricsFactory(final MetricsFactory value) {
+            _metricsFactory = value;
+            return self();
+        }
+
         @NotNull
         private URI _uri;
+        @NotNull
+        @Min(value = 1)
+        private Integer _maxConcurrentRequests = 4;
+        @NotNull
+        @Min(value = 1)
+        private Integer _maxQueuedRequests = 1000;
+        @NotNull
+        @Min(value = 0)
+        private Integer _maxRetries = 3;
+        @NotNull
+        @Min(value = 1)
+        private Long _retryBackoffInMilliseconds = 500L;
+        @NotNull
+        private Boolean _compressRequests = false;
+        @JacksonInject
+        private MetricsFactory _metricsFactory;
     }
 }
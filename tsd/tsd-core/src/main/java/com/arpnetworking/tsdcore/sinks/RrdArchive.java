@@ -0,0 +1,416 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sinks;
+
+import com.google.common.base.Charsets;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory mapped round robin archive in the native file format of rrdtool.
+ * Archives have one <code>GAUGE</code> data source and any number of round
+ * robin archives each consolidating one primary data point per row; this is
+ * the layout created by <code>RrdSink</code>. The file is written in the
+ * byte order and alignment of a 64-bit rrdtool build which is what rrdtool
+ * reads on the common x86-64 and aarch64 platforms.
+ *
+ * Updates follow the rrdtool algorithm: each update contributes its value
+ * over the seconds since the previous update to the primary data point, and
+ * once a step boundary is crossed the average is written to every elapsed
+ * row. Updates spanning more than the heartbeat produce unknown values.
+ *
+ * This class is not thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+final class RrdArchive {
+
+    /**
+     * Create a new archive file. The file has the same layout as created by:
+     *
+     * <pre>
+     * rrdtool create file -b lastUpdate -s step DS:metric:GAUGE:3*step:U:U RRA:AVERAGE:0.5:1:rows
+     * </pre>
+     *
+     * @param file The file to create.
+     * @param step The step in seconds.
+     * @param lastUpdate The time of the last update in seconds since the epoch.
+     * @param rows The number of rows.
+     * @return The new <code>RrdArchive</code>.
+     * @throws IOException If the file cannot be created.
+     */
+    public static RrdArchive create(final File file, final int step, final long lastUpdate, final int rows) throws IOException {
+        final int size = STAT_HEAD_SIZE + DS_DEF_SIZE + RRA_DEF_SIZE + LIVE_HEAD_SIZE + PDP_PREP_SIZE + CDP_PREP_SIZE
+                + RRA_PTR_SIZE + rows * VALUE_SIZE;
+        final MappedByteBuffer buffer = map(file, size);
+        writeDefinitions(buffer, step, rows);
+        writeState(buffer, STAT_HEAD_SIZE + DS_DEF_SIZE + RRA_DEF_SIZE, step, lastUpdate, rows);
+        return new RrdArchive(file, buffer);
+    }
+
+    /**
+     * Open an existing archive file.
+     *
+     * @param file The file to open.
+     * @return The <code>RrdArchive</code>.
+     * @throws IOException If the file cannot be read or is not supported.
+     */
+    public static RrdArchive open(final File file) throws IOException {
+        return new RrdArchive(file, map(file, (int) file.length()));
+    }
+
+    /**
+     * Update the data source.
+     *
+     * @param time The time of the value in seconds since the epoch.
+     * @param value The value or <code>NaN</code> if unknown.
+     * @return True if and only if the update was applied; updates must be
+     * later than the last update.
+     */
+    public boolean update(final long time, final double value) {
+        final long lastUpdate = getLastUpdate();
+        if (time <= lastUpdate) {
+            return false;
+        }
+        final long interval = time - lastUpdate;
+        final long heartbeat = _buffer.getLong(_dsDefOffset + DS_HEARTBEAT_OFFSET);
+        final double rate;
+        if (interval > heartbeat || !isInRange(value)) {
+            rate = Double.NaN;
+        } else {
+            rate = value;
+        }
+        putString(_buffer, _pdpPrepOffset, Double.isNaN(value) ? UNKNOWN : Double.toString(value), LAST_DS_SIZE);
+
+        final long processedStepStart = lastUpdate - lastUpdate % _step;
+        final long occupiedStepStart = time - time % _step;
+        if (occupiedStepStart > processedStepStart) {
+            final double primaryValue = completePrimaryDataPoint(
+                    rate,
+                    interval,
+                    heartbeat,
+                    occupiedStepStart - lastUpdate,
+                    time - occupiedStepStart,
+                    occupiedStepStart - processedStepStart);
+            writeRows(primaryValue, (occupiedStepStart - processedStepStart) / _step);
+        } else {
+            accumulate(rate, interval);
+        }
+        _buffer.putLong(_liveHeadOffset, time);
+        _buffer.putLong(_liveHeadOffset + 8, 0);
+        return true;
+    }
+
+    /**
+     * Flush changes to the file.
+     */
+    public void flush() {
+        _buffer.force();
+    }
+
+    public long getLastUpdate() {
+        return _buffer.getLong(_liveHeadOffset);
+    }
+
+    public int getStep() {
+        return _step;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Read the rows of a round robin archive.
+     *
+     * @param rra The index of the round robin archive.
+     * @return The rows from oldest to newest.
+     */
+    public double[] getRows(final int rra) {
+        final int rows = (int) _buffer.getLong(_rraDefOffset + rra * RRA_DEF_SIZE + RRA_ROW_COUNT_OFFSET);
+        final int currentRow = (int) _buffer.getLong(_rraPtrOffset + rra * RRA_PTR_SIZE);
+        final double[] values = new double[rows];
+        for (int i = 0; i < rows; ++i) {
+            values[i] = _buffer.getDouble(_rowOffsets[rra] + ((currentRow + 1 + i) % rows) * VALUE_SIZE);
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return String.format("RrdArchive{File=%s, Step=%d, LastUpdate=%d}", _file, _step, getLastUpdate());
+    }
+
+    private boolean isInRange(final double value) {
+        final double min = _buffer.getDouble(_dsDefOffset + DS_MIN_OFFSET);
+        final double max = _buffer.getDouble(_dsDefOffset + DS_MAX_OFFSET);
+        return !Double.isNaN(value) && !(value < min) && !(value > max);
+    }
+
+    private void accumulate(final double rate, final long interval) {
+        final int unknownSecondsOffset = _pdpPrepOffset + PDP_UNKNOWN_SECONDS_OFFSET;
+        final int valueOffset = _pdpPrepOffset + PDP_VALUE_OFFSET;
+        if (Double.isNaN(rate)) {
+            _buffer.putLong(unknownSecondsOffset, _buffer.getLong(unknownSecondsOffset) + interval);
+        } else {
+            final double value = _buffer.getDouble(valueOffset);
+            _buffer.putDouble(valueOffset, (Double.isNaN(value) ? 0 : value) + rate * interval);
+        }
+    }
+
+    private double completePrimaryDataPoint(
+            final double rate,
+            final long interval,
+            final long heartbeat,
+            final long preInterval,
+            final long postInterval,
+            final long elapsed) {
+        final int unknownSecondsOffset = _pdpPrepOffset + PDP_UNKNOWN_SECONDS_OFFSET;
+        final int valueOffset = _pdpPrepOffset + PDP_VALUE_OFFSET;
+        long preUnknown = 0;
+        double value = _buffer.getDouble(valueOffset);
+        if (Double.isNaN(rate)) {
+            preUnknown = preInterval;
+        } else {
+            value = (Double.isNaN(value) ? 0 : value) + rate * preInterval;
+        }
+        final long unknownSeconds = _buffer.getLong(unknownSecondsOffset);
+        final double primaryValue;
+        if (interval > heartbeat || _step / 2.0 < unknownSeconds) {
+            primaryValue = Double.NaN;
+        } else {
+            primaryValue = value / (elapsed - unknownSeconds - preUnknown);
+        }
+
+        // Prepare the next primary data point
+        if (Double.isNaN(rate)) {
+            _buffer.putLong(unknownSecondsOffset, postInterval);
+            _buffer.putDouble(valueOffset, Double.NaN);
+        } else {
+            _buffer.putLong(unknownSecondsOffset, 0);
+            _buffer.putDouble(valueOffset, rate * postInterval);
+        }
+        return primaryValue;
+    }
+
+    private void writeRows(final double value, final long steps) {
+        for (int rra = 0; rra < _rraCount; ++rra) {
+            final int cdpPrepOffset = _cdpPrepOffset + rra * CDP_PREP_SIZE;
+            _buffer.putDouble(cdpPrepOffset + CDP_PRIMARY_VALUE_OFFSET, value);
+            _buffer.putDouble(cdpPrepOffset + CDP_SECONDARY_VALUE_OFFSET, value);
+
+            final int rows = (int) _buffer.getLong(_rraDefOffset + rra * RRA_DEF_SIZE + RRA_ROW_COUNT_OFFSET);
+            final int rowPointerOffset = _rraPtrOffset + rra * RRA_PTR_SIZE;
+            // Rows overwritten more than once in this update are only written once
+            final long written = Math.min(steps, rows);
+            long currentRow = (_buffer.getLong(rowPointerOffset) + steps - written) % rows;
+            for (long i = 0; i < written; ++i) {
+                currentRow = (currentRow + 1) % rows;
+                _buffer.putDouble(_rowOffsets[rra] + (int) currentRow * VALUE_SIZE, value);
+            }
+            _buffer.putLong(rowPointerOffset, currentRow);
+        }
+    }
+
+    private static void writeDefinitions(final MappedByteBuffer buffer, final int step, final int rows) {
+        // Header
+        putString(buffer, 0, COOKIE, 4);
+        putString(buffer, 4, VERSION, 5);
+        buffer.putDouble(FLOAT_COOKIE_OFFSET, FLOAT_COOKIE);
+        buffer.putLong(DS_COUNT_OFFSET, 1);
+        buffer.putLong(RRA_COUNT_OFFSET, 1);
+        buffer.putLong(STEP_OFFSET, step);
+
+        // Data source definition
+        int offset = STAT_HEAD_SIZE;
+        putString(buffer, offset, DS_NAME, 20);
+        putString(buffer, offset + DS_TYPE_OFFSET, GAUGE, 20);
+        buffer.putLong(offset + DS_HEARTBEAT_OFFSET, step * 3L);
+        buffer.putDouble(offset + DS_MIN_OFFSET, Double.NaN);
+        buffer.putDouble(offset + DS_MAX_OFFSET, Double.NaN);
+
+        // Round robin archive definition
+        offset += DS_DEF_SIZE;
+        putString(buffer, offset, AVERAGE, 20);
+        buffer.putLong(offset + RRA_ROW_COUNT_OFFSET, rows);
+        buffer.putLong(offset + RRA_PDP_COUNT_OFFSET, 1);
+        buffer.putDouble(offset + RRA_XFF_OFFSET, 0.5);
+    }
+
+    private static void writeState(
+            final MappedByteBuffer buffer,
+            final int liveHeadOffset,
+            final int step,
+            final long lastUpdate,
+            final int rows) {
+        // Live header
+        int offset = liveHeadOffset;
+        buffer.putLong(offset, lastUpdate);
+
+        // Primary data point preparation
+        offset += LIVE_HEAD_SIZE;
+        putString(buffer, offset, UNKNOWN, LAST_DS_SIZE);
+        buffer.putLong(offset + PDP_UNKNOWN_SECONDS_OFFSET, lastUpdate % step);
+        buffer.putDouble(offset + PDP_VALUE_OFFSET, 0.0);
+
+        // Consolidated data point preparation
+        offset += PDP_PREP_SIZE;
+        buffer.putDouble(offset + CDP_VALUE_OFFSET, Double.NaN);
+        buffer.putDouble(offset + CDP_PRIMARY_VALUE_OFFSET, Double.NaN);
+        buffer.putDouble(offset + CDP_SECONDARY_VALUE_OFFSET, Double.NaN);
+
+        // Row pointer
+        offset += CDP_PREP_SIZE;
+        buffer.putLong(offset, rows - 1);
+
+        // Rows
+        offset += RRA_PTR_SIZE;
+        for (int i = 0; i < rows; ++i) {
+            buffer.putDouble(offset + i * VALUE_SIZE, Double.NaN);
+        }
+    }
+
+    private static MappedByteBuffer map(final File file, final int size) throws IOException {
+        try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private static String getString(final MappedByteBuffer buffer, final int offset, final int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; ++i) {
+            bytes[i] = buffer.get(offset + i);
+        }
+        int end = 0;
+        while (end < length && bytes[end] != 0) {
+            ++end;
+        }
+        return Charsets.US_ASCII.decode(ByteBuffer.wrap(bytes, 0, end)).toString();
+    }
+
+    private static void putString(final MappedByteBuffer buffer, final int offset, final String value, final int length) {
+        final byte[] bytes = value.getBytes(Charsets.US_ASCII);
+        for (int i = 0; i < length; ++i) {
+            buffer.put(offset + i, i < bytes.length && i < length - 1 ? bytes[i] : 0);
+        }
+    }
+
+    private void validate(final int size) throws IOException {
+        if (!COOKIE.equals(getString(_buffer, 0, 4)) || _buffer.getDouble(FLOAT_COOKIE_OFFSET) != FLOAT_COOKIE) {
+            throw new IOException("Not a 64-bit little endian rrd file; file=" + _file);
+        }
+        final String version = getString(_buffer, 4, 5);
+        if (!VERSION.equals(version) && !"0004".equals(version)) {
+            throw new IOException("Unsupported rrd version; file=" + _file + " version=" + version);
+        }
+        if (_rraCount < 1 || _step < 1 || _rraPtrOffset + _rraCount * RRA_PTR_SIZE > size) {
+            throw new IOException("Invalid rrd header; file=" + _file);
+        }
+        if (_buffer.getLong(DS_COUNT_OFFSET) != 1 || !GAUGE.equals(getString(_buffer, _dsDefOffset + DS_TYPE_OFFSET, 20))) {
+            throw new IOException("Unsupported rrd data sources; file=" + _file);
+        }
+        for (int rra = 0; rra < _rraCount; ++rra) {
+            if (_buffer.getLong(_rraDefOffset + rra * RRA_DEF_SIZE + RRA_PDP_COUNT_OFFSET) != 1) {
+                throw new IOException("Unsupported rrd archive consolidation; file=" + _file);
+            }
+        }
+    }
+
+    private RrdArchive(final File file, final MappedByteBuffer buffer) throws IOException {
+        _file = file;
+        _buffer = buffer;
+        final int size = buffer.limit();
+        if (size < STAT_HEAD_SIZE) {
+            throw new IOException("Not an rrd file; file=" + _file);
+        }
+        _rraCount = (int) buffer.getLong(RRA_COUNT_OFFSET);
+        _step = (int) buffer.getLong(STEP_OFFSET);
+        _dsDefOffset = STAT_HEAD_SIZE;
+        _rraDefOffset = _dsDefOffset + DS_DEF_SIZE;
+        _liveHeadOffset = _rraDefOffset + _rraCount * RRA_DEF_SIZE;
+        _pdpPrepOffset = _liveHeadOffset + LIVE_HEAD_SIZE;
+        _cdpPrepOffset = _pdpPrepOffset + PDP_PREP_SIZE;
+        _rraPtrOffset = _cdpPrepOffset + _rraCount * CDP_PREP_SIZE;
+        validate(size);
+        _rowOffsets = new int[_rraCount];
+        int offset = _rraPtrOffset + _rraCount * RRA_PTR_SIZE;
+        for (int rra = 0; rra < _rraCount; ++rra) {
+            _rowOffsets[rra] = offset;
+            offset += (int) buffer.getLong(_rraDefOffset + rra * RRA_DEF_SIZE + RRA_ROW_COUNT_OFFSET) * VALUE_SIZE;
+        }
+        if (offset != size) {
+            throw new IOException("Unexpected rrd file size; file=" + _file + " expected=" + offset + " actual=" + size);
+        }
+    }
+
+    private final File _file;
+    private final MappedByteBuffer _buffer;
+    private final int _rraCount;
+    private final int _step;
+    private final int _dsDefOffset;
+    private final int _rraDefOffset;
+    private final int _liveHeadOffset;
+    private final int _pdpPrepOffset;
+    private final int _cdpPrepOffset;
+    private final int _rraPtrOffset;
+    private final int[] _rowOffsets;
+
+    private static final String COOKIE = "RRD";
+    private static final String VERSION = "0003";
+    private static final double FLOAT_COOKIE = 8.642135E130;
+    private static final String DS_NAME = "metric";
+    private static final String GAUGE = "GAUGE";
+    private static final String AVERAGE = "AVERAGE";
+    private static final String UNKNOWN = "U";
+
+    // Structure sizes and offsets of rrd_format.h with 64-bit alignment
+    private static final int STAT_HEAD_SIZE = 128;
+    private static final int FLOAT_COOKIE_OFFSET = 16;
+    private static final int DS_COUNT_OFFSET = 24;
+    private static final int RRA_COUNT_OFFSET = 32;
+    private static final int STEP_OFFSET = 40;
+    private static final int DS_DEF_SIZE = 120;
+    private static final int DS_TYPE_OFFSET = 20;
+    private static final int DS_HEARTBEAT_OFFSET = 40;
+    private static final int DS_MIN_OFFSET = 48;
+    private static final int DS_MAX_OFFSET = 56;
+    private static final int RRA_DEF_SIZE = 120;
+    private static final int RRA_ROW_COUNT_OFFSET = 24;
+    private static final int RRA_PDP_COUNT_OFFSET = 32;
+    private static final int RRA_XFF_OFFSET = 40;
+    private static final int LIVE_HEAD_SIZE = 16;
+    private static final int PDP_PREP_SIZE = 112;
+    private static final int LAST_DS_SIZE = 30;
+    private static final int PDP_UNKNOWN_SECONDS_OFFSET = 32;
+    private static final int PDP_VALUE_OFFSET = 40;
+    private static final int CDP_PREP_SIZE = 80;
+    private static final int CDP_VALUE_OFFSET = 0;
+    private static final int CDP_PRIMARY_VALUE_OFFSET = 64;
+    private static final int CDP_SECONDARY_VALUE_OFFSET = 72;
+    private static final int RRA_PTR_SIZE = 8;
+    private static final int VALUE_SIZE = 8;
+}
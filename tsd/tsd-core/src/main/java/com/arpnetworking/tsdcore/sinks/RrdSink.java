@@ -23,7 +23,9 @@ import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
 import org.joda.time.Period;
@@ -33,11 +35,19 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
- * RRD publisher that maintains all the rrd databases for a cluster. This class
- * is not thread safe.
+ * RRD publisher that maintains all the rrd databases for a cluster. The
+ * databases are written natively through memory mapped files with all updates
+ * to a database from one call applied together, and a bounded number of
+ * recently used databases are kept open. If an rrd tool is configured it is
+ * executed instead for each create and update. This class is not thread safe.
  *
  * TODO(vkoskela): Make this class thread safe [MAI-100]
  *
@@ -57,19 +67,31 @@ public final class RrdSink extends BaseSink {
                 .addData("conditionsSize", conditions.size())
                 .log();
 
+        if (_rrdTool != null) {
+            for (final AggregatedData datum : data) {
+                final String name = getFileName(datum);
+                RrdNode listener = _listeners.get(name);
+                if (listener == null) {
+                    listener = new RrdNode(name);
+                    _listeners.put(name, listener);
+                }
+                listener.storeData(datum);
+            }
+            return;
+        }
+
+        final Map<String, List<AggregatedData>> dataByFileName = Maps.newHashMap();
         for (final AggregatedData datum : data) {
-            final String name = (datum.getHost() + "."
-                    + datum.getFQDSN().getMetric() + "."
-                    + datum.getPeriod().toString()
-                    + datum.getFQDSN().getStatistic().getName()
-                    + ".rrd").replace("/", "-");
-
-            RrdNode listener = _listeners.get(name);
-            if (listener == null) {
-                listener = new RrdNode(name);
-                _listeners.put(name, listener);
+            final String name = getFileName(datum);
+            List<AggregatedData> fileData = dataByFileName.get(name);
+            if (fileData == null) {
+                fileData = Lists.newArrayList();
+                dataByFileName.put(name, fileData);
             }
-            listener.storeData(datum);
+            fileData.add(datum);
+        }
+        for (final Map.Entry<String, List<AggregatedData>> entry : dataByFileName.entrySet()) {
+            writeArchive(entry.getKey(), entry.getValue());
         }
     }
 
@@ -77,7 +99,12 @@ public final class RrdSink extends BaseSink {
      * {@inheritDoc}
      */
     @Override
-    public void close() {}
+    public void close() {
+        for (final RrdArchive archive : _archives.values()) {
+            archive.flush();
+        }
+        _archives.clear();
+    }
 
     /**
      * Generate a Steno log compatible representation.
@@ -90,7 +117,64 @@ public final class RrdSink extends BaseSink {
         return LogValueMapFactory.of(
                 "super", super.toLogValue(),
                 "Path", _path,
-                "RrdTool", _rrdTool);
+                "RrdTool", _rrdTool,
+                "OpenArchives", _archives.size());
+    }
+
+    private void writeArchive(final String name, final List<AggregatedData> data) {
+        Collections.sort(data, PERIOD_START_COMPARATOR);
+        final AggregatedData first = data.get(0);
+        final long firstTime = first.getPeriodStart().getMillis() / 1000;
+        try {
+            final RrdArchive archive = getArchive(name, first.getPeriod(), firstTime);
+            for (final AggregatedData datum : data) {
+                final long time = datum.getPeriodStart().getMillis() / 1000;
+                if (!archive.update(time, datum.getValue().getValue())) {
+                    LOGGER.warn()
+                            .setMessage("Ignoring update not after last update")
+                            .addData("sink", getName())
+                            .addData("archive", archive)
+                            .addData("time", time)
+                            .log();
+                }
+            }
+        } catch (final IOException e) {
+            LOGGER.error()
+                    .setMessage("Error writing rrd file")
+                    .addData("sink", getName())
+                    .addData("fileName", name)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private RrdArchive getArchive(final String name, final Period period, final long firstTime) throws IOException {
+        RrdArchive archive = _archives.get(name);
+        if (archive == null) {
+            final File file = new File(_path, name);
+            if (file.exists()) {
+                archive = RrdArchive.open(file);
+            } else {
+                LOGGER.info()
+                        .setMessage("Creating rrd file")
+                        .addData("sink", getName())
+                        .addData("fileName", file)
+                        .log();
+                // The archive starts one step before the first update so that it is recorded
+                final int step = period.toStandardSeconds().getSeconds();
+                archive = RrdArchive.create(file, step, firstTime - step, ROWS);
+            }
+            _archives.put(name, archive);
+        }
+        return archive;
+    }
+
+    private static String getFileName(final AggregatedData datum) {
+        return (datum.getHost() + "."
+                + datum.getFQDSN().getMetric() + "."
+                + datum.getPeriod().toString()
+                + datum.getFQDSN().getStatistic().getName()
+                + ".rrd").replace("/", "-");
     }
 
     private final HashMap<String, RrdNode> _listeners = Maps.newHashMap();
@@ -99,10 +183,28 @@ public final class RrdSink extends BaseSink {
         super(builder);
         _path = builder._path;
         _rrdTool = builder._rrdTool;
+        final int maxOpenArchives = builder._maxOpenArchives;
+        _archives = new LinkedHashMap<String, RrdArchive>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, RrdArchive> eldest) {
+                if (size() > maxOpenArchives) {
+                    eldest.getValue().flush();
+                    return true;
+                }
+                return false;
+            }
+
+            private static final long serialVersionUID = 1L;
+        };
     }
 
     private final String _path;
     private final String _rrdTool;
+    private final Map<String, RrdArchive> _archives;
+
+    private static final int ROWS = 1000;
+    private static final Comparator<AggregatedData> PERIOD_START_COMPARATOR =
+            (first, second) -> first.getPeriodStart().compareTo(second.getPeriodStart());
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RrdSink.class);
 
@@ -132,7 +234,9 @@ public final class RrdSink extends BaseSink {
         }
 
         /**
-         * The RRD tool to use. Cannot be null or empty. Default is "rrdtool".
+         * The RRD tool to execute for each create and update instead of
+         * writing the files natively. Optional. Cannot be empty. Default is
+         * to write the files natively.
          *
          * @param value The RRD tool to use.
          * @return This instance of <code>Builder</code>.
@@ -142,6 +246,18 @@ public final class RrdSink extends BaseSink {
             return self();
         }
 
+        /**
+         * The maximum number of rrd files kept open. Cannot be null; minimum
+         * 1. Default is 1000.
+         *
+         * @param value The maximum number of open rrd files.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMaxOpenArchives(final Integer value) {
+            _maxOpenArchives = value;
+            return self();
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -153,9 +269,11 @@ public final class RrdSink extends BaseSink {
         @NotNull
         @NotEmpty
         private String _path;
-        @NotNull
         @NotEmpty
-        private String _rrdTool = "rrdtool";
+        private String _rrdTool;
+        @NotNull
+        @Min(value = 1)
+        private Integer _maxOpenArchives = 1000;
     }
 
     private final class RrdNode {
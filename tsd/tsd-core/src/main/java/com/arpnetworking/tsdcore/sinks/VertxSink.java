@@ -16,17 +16,23 @@
 package com.arpnetworking.tsdcore.sinks;
 
 import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.MetricsFactory;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Condition;
+import com.arpnetworking.utility.SpillQueue;
+import com.fasterxml.jackson.annotation.JacksonInject;
+import com.google.common.collect.Lists;
 import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
 import net.sf.oval.constraint.Range;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
+import org.joda.time.Period;
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
 import org.vertx.java.core.Context;
@@ -39,7 +45,9 @@ import org.vertx.java.core.impl.DefaultVertx;
 import org.vertx.java.core.net.NetClient;
 import org.vertx.java.core.net.NetSocket;
 
+import java.io.File;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -76,6 +84,14 @@ import java.util.concurrent.atomic.AtomicReference;
  *     by re-scheduling itself with the vertx setTimer call. The main function for this loop is
  *     consumeLoop.
  * </p>
+ * <p>
+ *     Optionally, data which does not fit in the pending queue is spilled to
+ *     disk instead of blocking the producer. Once data has been spilled all
+ *     new data is spilled until the spill is drained, and the send loop
+ *     drains the pending queue before the spill, so data is sent in the order
+ *     it was recorded. Spilled data is serialized with serializeForSpill and
+ *     survives a restart.
+ * </p>
  *
  * @author Brandon Arp (barp at groupon dot com)
  */
@@ -101,9 +117,15 @@ public abstract class VertxSink extends BaseSink {
                         .addData("size", data.size())
                         .log();
                 // TODO(vkoskela): This should support sending conditions [MAI-452]
-                // NOTE: This will block in the case where the queue is full, putting back-pressure on the producer of the data.
-                // This the same behavior we get with the other sinks that write synchronously.
-                _pendingData.put(datum);
+                if (_spillQueue != null) {
+                    if (!_spillQueue.isEmpty() || !_pendingData.offer(datum)) {
+                        _spillQueue.offer(serializeForSpill(datum).getBytes());
+                    }
+                } else {
+                    // NOTE: This will block in the case where the queue is full, putting back-pressure on the producer of the data.
+                    // This the same behavior we get with the other sinks that write synchronously.
+                    _pendingData.put(datum);
+                }
             } catch (final InterruptedException e) {
                 LOGGER.error()
                         .setMessage("Interrupted while inserting data into pending queue")
@@ -134,6 +156,9 @@ public abstract class VertxSink extends BaseSink {
                     if (socket != null) {
                         socket.close();
                     }
+                    if (_spillQueue != null) {
+                        _spillQueue.close();
+                    }
                 });
     }
 
@@ -145,12 +170,14 @@ public abstract class VertxSink extends BaseSink {
     @LogValue
     @Override
     public Object toLogValue() {
-        return LogValueMapFactory.of(
-                "super", super.toLogValue(),
-                "ServerAddress", _serverAddress,
-                "ServerPort", _serverPort,
-                "Connecting", _connecting,
-                "PendingDataSize", _pendingData.size());
+        return LogValueMapFactory.builder()
+                .put("super", super.toLogValue())
+                .put("ServerAddress", _serverAddress)
+                .put("ServerPort", _serverPort)
+                .put("Connecting", _connecting)
+                .put("PendingDataSize", _pendingData.size())
+                .put("SpillQueue", _spillQueue)
+                .build();
     }
 
     /**
@@ -161,6 +188,16 @@ public abstract class VertxSink extends BaseSink {
      */
     protected abstract void onConnect(final NetSocket socket);
 
+    /**
+     * Perform tasks after spilled data was written to the connection. The
+     * default implementation does nothing.
+     *
+     * @param socket The <code>NetSocket</code> instance the data was written to.
+     */
+    protected void onReplay(final NetSocket socket) {
+        // Nothing to do
+    }
+
     /**
      * Serialize the <code>AggregatedData</code> instance for transmission to
      * the server.
@@ -170,6 +207,37 @@ public abstract class VertxSink extends BaseSink {
      */
     protected abstract Buffer serialize(final AggregatedData datum);
 
+    /**
+     * Serialize the <code>AggregatedData</code> instances in order into a
+     * single <code>Buffer</code> for transmission to the server. The default
+     * implementation concatenates the result of <code>serialize</code> for
+     * each datum.
+     *
+     * @param data The <code>AggregateData</code> instances to serialize.
+     * @return The <code>Buffer</code> containing the serialized representation.
+     */
+    protected Buffer serialize(final List<AggregatedData> data) {
+        final Buffer buffer = new Buffer();
+        for (final AggregatedData datum : data) {
+            buffer.appendBuffer(serialize(datum));
+        }
+        return buffer;
+    }
+
+    /**
+     * Serialize the <code>AggregatedData</code> instance for spilling to disk.
+     * Spilled data may be sent on a different connection than the one
+     * current when it was spilled, so the serialized representation may not
+     * depend on connection state. The default implementation delegates to
+     * <code>serialize</code>.
+     *
+     * @param datum The <code>AggregateData</code> instance to serialized.
+     * @return The <code>Buffer</code> containing the serialized representation.
+     */
+    protected Buffer serializeForSpill(final AggregatedData datum) {
+        return serialize(datum);
+    }
+
     /**
      * Sends a <code>Buffer</code> of bytes to the socket if the client is connected.
      *
@@ -302,8 +370,18 @@ public abstract class VertxSink extends BaseSink {
             }
             while (socket != null && !done) {
                 if (_pendingData.size() > 0 && flushedBytes < MAX_FLUSH_BYTES) {
-                    final AggregatedData datum = _pendingData.poll();
-                    flushedBytes += flushDatum(datum, socket);
+                    _batch.clear();
+                    _pendingData.drainTo(_batch, MAX_BATCH_SIZE);
+                    flushedBytes += flushData(_batch, socket);
+                } else if (_spillQueue != null && flushedBytes < MAX_FLUSH_BYTES && !socket.writeQueueFull()) {
+                    final byte[] spilledData = _spillQueue.poll();
+                    if (spilledData != null) {
+                        socket.write(new Buffer(spilledData));
+                        flushedBytes += spilledData.length;
+                        onReplay(socket);
+                    } else {
+                        done = true;
+                    }
                 } else {
                     done = true;
                 }
@@ -338,10 +416,25 @@ public abstract class VertxSink extends BaseSink {
         }
     }
 
-    private int flushDatum(final AggregatedData datum, final NetSocket socket) {
+    private void recordSpillMetrics() {
+        final long spilledBytes = _spillQueue.getSpilledBytes();
+        final long replayedBytes = _spillQueue.getReplayedBytes();
+        final long droppedBytes = _spillQueue.getDroppedBytes();
+        final Metrics metrics = _metricsFactory.create();
+        metrics.incrementCounter(_metricNamePrefix + "/Spilled", spilledBytes - _lastSpilledBytes);
+        metrics.incrementCounter(_metricNamePrefix + "/Replayed", replayedBytes - _lastReplayedBytes);
+        metrics.incrementCounter(_metricNamePrefix + "/Dropped", droppedBytes - _lastDroppedBytes);
+        metrics.setGauge(_metricNamePrefix + "/Pending", _spillQueue.getPendingBytes());
+        metrics.close();
+        _lastSpilledBytes = spilledBytes;
+        _lastReplayedBytes = replayedBytes;
+        _lastDroppedBytes = droppedBytes;
+    }
+
+    private int flushData(final List<AggregatedData> data, final NetSocket socket) {
         // Write the serialized data
         try {
-            final Buffer buffer = serialize(datum);
+            final Buffer buffer = serialize(data);
             final int bufferLength = buffer.length();
             // TODO(vkoskela): Add conditional logging [AINT-552]
             //LOGGER.trace(String.format("Writing buffer to socket; length=%s buffer=%s", bufferLength, buffer.toString("utf-8")));
@@ -358,7 +451,7 @@ public abstract class VertxSink extends BaseSink {
             LOGGER.error()
                     .setMessage("Error writing AggregatedData data to socket")
                     .addData("sink", getName())
-                    .addData("datum", datum)
+                    .addData("data", data)
                     .setThrowable(e)
                     .log();
             throw e;
@@ -397,6 +490,21 @@ public abstract class VertxSink extends BaseSink {
         _socket = new AtomicReference<>();
         _pendingData = new ArrayBlockingQueue<AggregatedData>(builder._maxQueueSize);
         _exponentialBackoffBase = builder._exponentialBackoffBase;
+        _metricsFactory = builder._metricsFactory;
+        _metricNamePrefix = "Sinks/VertxSink/" + getMetricSafeName() + "/Spill";
+        if (builder._spillDirectory != null) {
+            _spillQueue = new SpillQueue.Builder()
+                    .setDirectory(new File(builder._spillDirectory, getMetricSafeName()))
+                    .setSegmentSize(builder._spillSegmentSize)
+                    .setMaxSize(builder._maxSpillSize)
+                    .setMaxAge(builder._maxSpillAge)
+                    .build();
+            if (_metricsFactory != null) {
+                _vertx.setPeriodic(SPILL_METRICS_INTERVAL, event -> recordSpillMetrics());
+            }
+        } else {
+            _spillQueue = null;
+        }
 
         connectToServer();
         consumeLoop();
@@ -409,17 +517,26 @@ public abstract class VertxSink extends BaseSink {
     private final Context _context;
     private final AtomicReference<NetSocket> _socket;
     private final BlockingQueue<AggregatedData> _pendingData;
+    private final List<AggregatedData> _batch = Lists.newArrayListWithCapacity(MAX_BATCH_SIZE);
     private final AtomicBoolean _connecting = new AtomicBoolean(false);
     private DateTime _lastNotConnectedNotify = null;
     private volatile long _lastConnectionAttempt = 0;
     private volatile int _connectionAttempt = 1;
     private final int _exponentialBackoffBase;
+    private final SpillQueue _spillQueue;
+    private final MetricsFactory _metricsFactory;
+    private final String _metricNamePrefix;
+    private long _lastSpilledBytes = 0;
+    private long _lastReplayedBytes = 0;
+    private long _lastDroppedBytes = 0;
 
     private int _currentReconnectWait = 3000;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(VertxSink.class);
     private static final long MAX_FLUSH_BYTES = 2 ^ 20; // 1 Mebibyte
     private static final int NO_DATA_CONSUME_LOOP_INTERVAL = 100;
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final int SPILL_METRICS_INTERVAL = 10000;
 
     private class ConnectionHandler implements AsyncResultHandler<NetSocket> {
         @Override
@@ -508,6 +625,67 @@ public abstract class VertxSink extends BaseSink {
             return self();
         }
 
+        /**
+         * The directory to spill data to when the pending queue is full. Each
+         * sink spills to a subdirectory named after the sink. Optional.
+         * Default is to block until the pending queue has space.
+         *
+         * @param value The spill directory.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setSpillDirectory(final File value) {
+            _spillDirectory = value;
+            return self();
+        }
+
+        /**
+         * The maximum size of spilled data in bytes. When exceeded the oldest
+         * spilled data is dropped. Cannot be null. Default is 1 GiB.
+         *
+         * @param value The maximum spill size in bytes.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setMaxSpillSize(final Long value) {
+            _maxSpillSize = value;
+            return self();
+        }
+
+        /**
+         * The size of each spill segment file in bytes. Cannot be null;
+         * minimum 1024. Default is 16 MiB.
+         *
+         * @param value The spill segment size in bytes.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setSpillSegmentSize(final Integer value) {
+            _spillSegmentSize = value;
+            return self();
+        }
+
+        /**
+         * The maximum age of spilled data. Older spilled data is dropped.
+         * Cannot be null. Default is one day.
+         *
+         * @param value The maximum spill age.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setMaxSpillAge(final Period value) {
+            _maxSpillAge = value;
+            return self();
+        }
+
+        /**
+         * Instance of <code>MetricsFactory</code> used to record spill
+         * metrics. Optional. Default is to not record metrics.
+         *
+         * @param value Instance of <code>MetricsFactory</code>.
+         * @return This instance of <code>Builder</code>.
+         */
+        public B setMetricsFactory(final MetricsFactory value) {
+            _metricsFactory = value;
+            return self();
+        }
+
         /**
          * Protected constructor for subclasses.
          *
@@ -529,5 +707,16 @@ public abstract class VertxSink extends BaseSink {
         private Integer _maxQueueSize = 10000;
         @NotNull
         private Integer _exponentialBackoffBase = 500;
+        private File _spillDirectory;
+        @NotNull
+        @Min(value = 0)
+        private Long _maxSpillSize = 1024L * 1024L * 1024L;
+        @NotNull
+        @Min(value = 1024)
+        private Integer _spillSegmentSize = 16 * 1024 * 1024;
+        @NotNull
+        private Period _maxSpillAge = Period.days(1);
+        @JacksonInject
+        private MetricsFactory _metricsFactory;
     }
 }
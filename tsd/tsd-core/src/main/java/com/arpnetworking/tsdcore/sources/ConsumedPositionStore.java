@@ -0,0 +1,161 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sources;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.tsdcore.tailer.PositionStore;
+import com.google.common.base.Optional;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A <code>PositionStore</code> which defers storing a position until every
+ * line read before it has been consumed by the parser workers. Each line is
+ * offered to one partition of the parser queue and each partition is consumed
+ * in order, so a position is consumed once the number of lines consumed from
+ * every partition reaches the number offered to it when the position was set.
+ *
+ * At most one position is pending at a time; a position set while another is
+ * pending is not stored and a later position is stored in its place. The
+ * tailer closes the store when it stops, which may be before the parser
+ * workers have consumed the pending position, so the underlying store is only
+ * closed by <code>closeConsumed</code> once the workers have stopped.
+ *
+ * The methods <code>offered</code> and <code>setPosition</code> must only be
+ * invoked by the tailer thread while <code>consumed</code> is invoked by the
+ * parser workers.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+/* package private */ final class ConsumedPositionStore implements PositionStore {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Optional<Long> getPosition(final String identifier) {
+        return _store.getPosition(identifier);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void setPosition(final String identifier, final long position) {
+        storeConsumed();
+        if (_pendingIdentifier == null) {
+            _pendingIdentifier = identifier;
+            _pendingPosition = position;
+            _pendingOffered = _offered.clone();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The underlying store is closed by <code>closeConsumed</code>.
+     */
+    @Override
+    public void close() {
+        // The parser workers may not have consumed the pending position yet
+    }
+
+    /**
+     * Record that a line was offered to a partition.
+     *
+     * @param partition The index of the partition.
+     */
+    public void offered(final int partition) {
+        ++_offered[partition];
+    }
+
+    /**
+     * Record that a line was consumed from a partition.
+     *
+     * @param partition The index of the partition.
+     */
+    public void consumed(final int partition) {
+        _consumed.incrementAndGet(partition);
+    }
+
+    /**
+     * Store the pending position if it has been consumed and close the
+     * underlying store. Invoked once the parser workers have stopped.
+     *
+     * @throws IOException If closing the underlying store fails.
+     */
+    public synchronized void closeConsumed() throws IOException {
+        storeConsumed();
+        _store.close();
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.<String, Object>builder()
+                .put("Store", _store)
+                .put("Partitions", _offered.length)
+                .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private void storeConsumed() {
+        if (_pendingIdentifier == null) {
+            return;
+        }
+        for (int i = 0; i < _pendingOffered.length; ++i) {
+            if (_consumed.get(i) < _pendingOffered[i]) {
+                return;
+            }
+        }
+        _store.setPosition(_pendingIdentifier, _pendingPosition);
+        _pendingIdentifier = null;
+        _pendingOffered = null;
+    }
+
+    /**
+     * Package private constructor.
+     *
+     * @param store The underlying <code>PositionStore</code>.
+     * @param partitions The number of partitions of the parser queue.
+     */
+    /* package private */ ConsumedPositionStore(final PositionStore store, final int partitions) {
+        _store = store;
+        _offered = new long[partitions];
+        _consumed = new AtomicLongArray(partitions);
+    }
+
+    private final PositionStore _store;
+    private final long[] _offered;
+    private final AtomicLongArray _consumed;
+
+    private String _pendingIdentifier;
+    private long _pendingPosition;
+    private long[] _pendingOffered;
+}
@@ -23,27 +23,49 @@ import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.tsdcore.parsers.Parser;
 import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
 import com.arpnetworking.tsdcore.tailer.FilePositionStore;
+import com.arpnetworking.tsdcore.tailer.Framing;
 import com.arpnetworking.tsdcore.tailer.InitialPosition;
 import com.arpnetworking.tsdcore.tailer.NoPositionStore;
 import com.arpnetworking.tsdcore.tailer.PositionStore;
 import com.arpnetworking.tsdcore.tailer.StatefulTailer;
 import com.arpnetworking.tsdcore.tailer.Tailer;
 import com.arpnetworking.tsdcore.tailer.TailerListener;
+import com.arpnetworking.utility.PartitionedWorkQueue;
+import com.arpnetworking.utility.WorkQueueRegistry;
+import com.fasterxml.jackson.annotation.JacksonInject;
 import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotEmpty;
 import net.sf.oval.constraint.NotNull;
+import net.sf.oval.constraint.ValidateWithMethod;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.joda.time.Period;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Produce instances of <code>T</code>from a file. Supports rotating files
- * using <code>Tailer</code> from Apache Commons IO.
+ * using <code>Tailer</code> from Apache Commons IO. Lines are parsed on the
+ * tailer thread unless parser workers are configured, in which case lines
+ * are queued to the workers and parsed in parallel; records are then not
+ * necessarily produced in the order of the lines in the file. With parser
+ * workers the position in the file is only stored once every line before it
+ * has been parsed, so lines queued when the process stops are read again on
+ * restart rather than lost.
+ *
+ * Files may instead be framed with a length prefix, for example, the binary
+ * query log. Parsers which carry state from one frame to the next rely on
+ * the frames being parsed in order and so cannot be used with parser
+ * workers.
  *
  * @param <T> The data type to parse from the <code>Source</code>.
  *
@@ -56,6 +78,9 @@ public final class FileSource<T> extends BaseSource {
      */
     @Override
     public void start() {
+        if (_parserQueue.isPresent()) {
+            _parserQueue.get().launch();
+        }
         _tailerExecutor.execute(_tailer);
     }
 
@@ -74,6 +99,19 @@ public final class FileSource<T> extends BaseSource {
                     .setThrowable(e)
                     .log();
         }
+        if (_parserQueue.isPresent()) {
+            _parserQueue.get().shutdown();
+        }
+        if (_consumedPositionStore.isPresent()) {
+            try {
+                _consumedPositionStore.get().closeConsumed();
+            } catch (final IOException e) {
+                LOGGER.warn()
+                        .setMessage("Unable to close position store")
+                        .setThrowable(e)
+                        .log();
+            }
+        }
     }
 
     /**
@@ -83,11 +121,15 @@ public final class FileSource<T> extends BaseSource {
      */
     @LogValue
     public Object toLogValue() {
-        return LogValueMapFactory.of(
-                "super", super.toLogValue(),
-                "SourceFile", _sourceFile,
-                "StateFile", _stateFile,
-                "Parser", LogReferenceOnly.of(_parser));
+        return LogValueMapFactory.<String, Object>builder()
+                .put("super", super.toLogValue())
+                .put("SourceFile", _sourceFile)
+                .put("StateFile", _stateFile)
+                .put("Parser", LogReferenceOnly.of(_parser))
+                .put("ParserWorkers", _parserWorkers)
+                .put("MemoryMapped", _memoryMapped)
+                .put("Framing", _framing)
+                .build();
     }
 
     /**
@@ -110,12 +152,34 @@ public final class FileSource<T> extends BaseSource {
         _sourceFile = builder._sourceFile;
         _stateFile = builder._stateFile;
         _parser = builder._parser;
-        final PositionStore positionStore;
+        _parserWorkers = builder._parserWorkers;
+        _memoryMapped = builder._memoryMapped;
+        _framing = builder._framing;
+        PositionStore positionStore;
         if (_stateFile == null) {
             positionStore = NO_POSITION_STORE;
         } else {
             positionStore = new FilePositionStore.Builder().setFile(_stateFile).build();
         }
+        if (_parserWorkers > 0) {
+            final ConsumedPositionStore consumedPositionStore = new ConsumedPositionStore(positionStore, _parserWorkers);
+            final List<Consumer<byte[]>> consumers = Lists.newArrayListWithCapacity(_parserWorkers);
+            for (int i = 0; i < _parserWorkers; ++i) {
+                final int partition = i;
+                consumers.add(line -> parse(partition, line));
+            }
+            _consumedPositionStore = Optional.of(consumedPositionStore);
+            _parserQueue = Optional.of(new PartitionedWorkQueue.Builder<byte[]>()
+                    .setName("FileSource/" + _sourceFile.getName())
+                    .setConsumers(consumers)
+                    .setPartitionCapacity(builder._parserQueueSize)
+                    .setRegistry(builder._workQueueRegistry)
+                    .build());
+            positionStore = consumedPositionStore;
+        } else {
+            _consumedPositionStore = Optional.absent();
+            _parserQueue = Optional.absent();
+        }
 
         _tailer = new StatefulTailer.Builder()
                 .setFile(_sourceFile)
@@ -123,15 +187,58 @@ public final class FileSource<T> extends BaseSource {
                 .setReadInterval(builder._interval)
                 .setPositionStore(positionStore)
                 .setInitialPosition(builder._initialPosition)
+                .setMemoryMapped(builder._memoryMapped)
+                .setFraming(builder._framing)
                 .build();
         _tailerExecutor = Executors.newSingleThreadExecutor();
     }
 
+    private void parse(final int partition, final byte[] line) {
+        try {
+            parse(line);
+        } finally {
+            _consumedPositionStore.get().consumed(partition);
+        }
+    }
+
+    private void parse(final byte[] line) {
+        final T record;
+        try {
+            record = _parser.parse(line);
+        } catch (final ParsingException e) {
+            _logger.error()
+                    .setMessage("Failed to parse data")
+                    .setThrowable(e)
+                    .log();
+            return;
+        }
+        notify(record);
+    }
+
+    private void parse(final ByteBuffer line) {
+        final T record;
+        try {
+            record = _parser.parse(line);
+        } catch (final ParsingException e) {
+            _logger.error()
+                    .setMessage("Failed to parse data")
+                    .setThrowable(e)
+                    .log();
+            return;
+        }
+        notify(record);
+    }
+
     private final File _sourceFile;
     private final File _stateFile;
     private final Parser<T> _parser;
     private final Tailer _tailer;
     private final ExecutorService _tailerExecutor;
+    private final int _parserWorkers;
+    private final boolean _memoryMapped;
+    private final Framing _framing;
+    private final Optional<PartitionedWorkQueue<byte[]>> _parserQueue;
+    private final Optional<ConsumedPositionStore> _consumedPositionStore;
     private final Logger _logger;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileSource.class);
@@ -179,17 +286,35 @@ public final class FileSource<T> extends BaseSource {
 
         @Override
         public void handle(final byte[] line) {
-            T record;
-            try {
-                record = _parser.parse(line);
-            } catch (final ParsingException e) {
-                _logger.error()
-                        .setMessage("Failed to parse data")
-                        .setThrowable(e)
-                        .log();
-                return;
+            if (_parserQueue.isPresent()) {
+                final int partition = _nextPartition;
+                _nextPartition = (partition + 1) % _parserWorkers;
+                if (_parserQueue.get().offer(partition, line)) {
+                    _consumedPositionStore.get().offered(partition);
+                } else {
+                    _logger.warn()
+                            .setMessage("Line dropped by parser queue")
+                            .addData("source", FileSource.this)
+                            .log();
+                }
+            } else {
+                parse(line);
+            }
+        }
+
+        @Override
+        public void handle(final ByteBuffer line) {
+            if (_parserQueue.isPresent()) {
+                // The line is only valid during this call so it is copied
+                TailerListener.super.handle(line);
+            } else {
+                parse(line);
             }
-            FileSource.this.notify(record);
+        }
+
+        @Override
+        public void replay(final ByteBuffer frame) {
+            _parser.replay(frame);
         }
 
         @Override
@@ -202,6 +327,7 @@ public final class FileSource<T> extends BaseSource {
         }
 
         private Optional<DateTime> _lastFileNotFoundWarning = Optional.absent();
+        private int _nextPartition = 0;
     }
 
     /**
@@ -276,6 +402,71 @@ public final class FileSource<T> extends BaseSource {
             return this;
         }
 
+        /**
+         * Sets whether to memory map the source file and parse lines in
+         * place. Only parsers which override <code>parse(ByteBuffer)</code>
+         * avoid copying each line. Optional. Default is false.
+         *
+         * @param value Whether to memory map the source file.
+         * @return This instance of <code>Builder</code>.
+         */
+        public final Builder<T> setMemoryMapped(final Boolean value) {
+            _memoryMapped = value;
+            return this;
+        }
+
+        /**
+         * Sets how the source file is split into the data handed to the
+         * parser. Optional. Default is <code>LINE</code>. Length prefixed
+         * frames are read from a buffer and must be parsed in order on the
+         * tailer thread; they cannot be combined with memory mapping or
+         * parser workers.
+         *
+         * @param value The <code>Framing</code> of the source file.
+         * @return This instance of <code>Builder</code>.
+         */
+        public final Builder<T> setFraming(final Framing value) {
+            _framing = value;
+            return this;
+        }
+
+        /**
+         * Sets the number of threads parsing lines. Optional. Default is zero
+         * which parses lines on the tailer thread.
+         *
+         * @param value The number of parser workers.
+         * @return This instance of <code>Builder</code>.
+         */
+        public final Builder<T> setParserWorkers(final Integer value) {
+            _parserWorkers = value;
+            return this;
+        }
+
+        /**
+         * Sets the number of lines queued for each parser worker. When the
+         * queue is full the tailer waits for capacity. Optional. Default is
+         * 1024.
+         *
+         * @param value The parser queue size.
+         * @return This instance of <code>Builder</code>.
+         */
+        public final Builder<T> setParserQueueSize(final Integer value) {
+            _parserQueueSize = value;
+            return this;
+        }
+
+        /**
+         * Sets the registry that the parser queue is reported to. Optional.
+         * Injected when deserialized.
+         *
+         * @param value The work queue registry.
+         * @return This instance of <code>Builder</code>.
+         */
+        public final Builder<T> setWorkQueueRegistry(final WorkQueueRegistry value) {
+            _workQueueRegistry = value;
+            return this;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -284,6 +475,14 @@ public final class FileSource<T> extends BaseSource {
             return this;
         }
 
+        @SuppressWarnings("unused")
+        private boolean validateFraming(final Framing framing) {
+            // Parsers of length prefixed frames may keep state across frames
+            return framing != Framing.LENGTH_PREFIXED
+                    || (!Boolean.TRUE.equals(_memoryMapped)
+                            && (_parserWorkers == null || _parserWorkers.intValue() == 0));
+        }
+
         @NotNull
         @NotEmpty
         private File _sourceFile;
@@ -294,5 +493,21 @@ public final class FileSource<T> extends BaseSource {
         private File _stateFile;
         @NotNull
         private InitialPosition _initialPosition = InitialPosition.START;
+        @NotNull
+        private Boolean _memoryMapped = false;
+        @NotNull
+        @ValidateWithMethod(
+                methodName = "validateFraming",
+                parameterType = Framing.class,
+                message = "Length prefixed framing cannot be memory mapped or parsed by parser workers")
+        private Framing _framing = Framing.LINE;
+        @NotNull
+        @Min(value = 0)
+        private Integer _parserWorkers = 0;
+        @NotNull
+        @Min(value = 1)
+        private Integer _parserQueueSize = 1024;
+        @JacksonInject
+        private WorkQueueRegistry _workQueueRegistry;
     }
 }
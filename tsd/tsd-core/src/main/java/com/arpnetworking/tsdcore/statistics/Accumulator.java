@@ -0,0 +1,67 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.tsdcore.model.Unit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Interface for incrementally computing a result from a stream of samples.
+ * Samples are provided one at a time as they become available and the result
+ * is computed once all samples have been provided. Instances are not required
+ * to be thread safe.
+ *
+ * @param <T> The type of result.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public interface Accumulator<T> {
+
+    /**
+     * Accept a sample. All samples provided to an <code>Accumulator</code>
+     * must either all have a <code>Unit</code> of the same type or all have
+     * no <code>Unit</code>.
+     *
+     * @param value The value of the sample.
+     * @param unit The <code>Unit</code> of the sample; null if the sample
+     * does not have a <code>Unit</code>.
+     */
+    void accept(double value, @Nullable Unit unit);
+
+    /**
+     * Accept a sample recorded a number of times. Implementations accept the
+     * sample in time independent of the count where possible. The same
+     * <code>Unit</code> constraints as for <code>accept(double, Unit)</code>
+     * apply.
+     *
+     * @param value The value of the sample.
+     * @param unit The <code>Unit</code> of the sample; null if the sample
+     * does not have a <code>Unit</code>.
+     * @param count The number of times the value was recorded.
+     * @throws IllegalArgumentException if the count is not positive.
+     */
+    void accept(double value, @Nullable Unit unit, long count);
+
+    /**
+     * Compute the result from the samples accepted. The result of samples in
+     * more than one <code>Unit</code> is expressed in the smallest of those
+     * units.
+     *
+     * @return The result.
+     */
+    T finish();
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.google.common.base.Optional;
+
+import javax.annotation.Nullable;
+
+/**
+ * Base class for <code>Accumulator</code> implementations. Takes care of
+ * unifying sample units; subclasses receive every sample value expressed in
+ * the smallest <code>Unit</code> of its type (the base unit) and express their
+ * result in that base unit.
+ *
+ * @param <T> The type of result.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public abstract class BaseAccumulator<T> implements Accumulator<T> {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void accept(final double value, @Nullable final Unit unit) {
+        accept(value, unit, 1);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public final void accept(final double value, @Nullable final Unit unit, final long count) {
+        if (count < 1) {
+            throw new IllegalArgumentException(String.format("Count must be positive; count=%d", count));
+        }
+        if (count > Long.MAX_VALUE - _count) {
+            throw new IllegalArgumentException(String.format("Count overflow; count=%d, accumulatorCount=%d", count, _count));
+        }
+        if (_count == 0) {
+            _unit = unit;
+            if (unit != null) {
+                _baseUnit = unit.getSmallestUnit();
+            }
+        } else if ((unit == null) != (_unit == null)) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot accumulate samples with and without a unit; unit=%s, accumulatorUnit=%s",
+                    unit,
+                    _unit));
+        }
+        // Throws if the units are of different types
+        final Unit resultUnit = unit != null && unit != _unit ? _unit.getSmallerUnit(unit) : _unit;
+        if (unit != null && unit != _baseUnit) {
+            accumulate(_baseUnit.convert(value, unit), count);
+        } else {
+            accumulate(value, count);
+        }
+        // NOTE: The state is only updated once the sample has been accepted
+        _unit = resultUnit;
+        _count += count;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * Accept a sample expressed in the base unit recorded a number of times.
+     * Implementations may reject the sample by throwing an
+     * <code>IllegalArgumentException</code> before modifying any state.
+     *
+     * @param value The value of the sample in the base unit.
+     * @param count The number of times the value was recorded.
+     */
+    protected abstract void accumulate(double value, long count);
+
+    /**
+     * Accessor for the smallest <code>Unit</code> of the type of the samples
+     * accepted. Subclasses receive sample values in this unit.
+     *
+     * @return The base <code>Unit</code>; absent if the samples have no unit.
+     */
+    protected Optional<Unit> getBaseUnit() {
+        return Optional.fromNullable(_baseUnit);
+    }
+
+    /**
+     * Convert a <code>Quantity</code> expressed in the base unit into the
+     * smallest <code>Unit</code> of the samples accepted.
+     *
+     * @param quantity The <code>Quantity</code> in the base unit.
+     * @return The <code>Quantity</code> in the smallest sample unit.
+     */
+    protected Quantity toResultUnit(final Quantity quantity) {
+        if (_unit == null || !quantity.getUnit().isPresent() || _unit.equals(quantity.getUnit().get())) {
+            return quantity;
+        }
+        return quantity.convertTo(_unit);
+    }
+
+    /**
+     * Create a <code>Quantity</code> from a value expressed in the base unit
+     * expressed in the smallest <code>Unit</code> of the samples accepted.
+     *
+     * @param value The value in the base unit.
+     * @return The <code>Quantity</code> in the smallest sample unit.
+     */
+    protected Quantity toResultQuantity(final double value) {
+        return new Quantity.Builder().setValue(toResultValue(value)).setUnit(_unit).build();
+    }
+
+    /**
+     * Convert a value expressed in the base unit into the smallest
+     * <code>Unit</code> of the samples accepted.
+     *
+     * @param value The value in the base unit.
+     * @return The value in the smallest sample unit.
+     */
+    protected double toResultValue(final double value) {
+        if (_unit == null || _unit == _baseUnit) {
+            return value;
+        }
+        return _unit.convert(value, _baseUnit);
+    }
+
+    /**
+     * Accessor for the smallest <code>Unit</code> of the samples accepted.
+     * Results are expressed in this unit.
+     *
+     * @return The result <code>Unit</code>; absent if the samples have no unit.
+     */
+    protected Optional<Unit> getResultUnit() {
+        return Optional.fromNullable(_unit);
+    }
+
+    private long _count = 0;
+    private Unit _unit;
+    private Unit _baseUnit;
+}
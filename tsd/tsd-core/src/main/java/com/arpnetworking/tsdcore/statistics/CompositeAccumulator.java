@@ -0,0 +1,338 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Computes several statistics over the same samples in a single pass. Each
+ * sample is unified into the base unit once and then provided to the
+ * <code>Accumulator</code> of every statistic that is not an
+ * <code>OrderedStatistic</code>. The samples required by any
+ * <code>OrderedStatistic</code> instances are shared by all of them; either
+ * as a single array of values which is sorted once, or when a histogram
+ * precision is specified, as a single <code>Histogram</code>.
+ *
+ * Samples recorded a number of times are accepted in constant time. When
+ * samples are retained for ordered statistics each sample is retained once
+ * with its count and the ordered statistics are computed by walking the
+ * cumulative counts of the sorted samples. Since samples with counts cannot
+ * be published as a list of values they are instead published as a
+ * <code>Histogram</code>. Values that are not finite cannot be recorded in
+ * a <code>Histogram</code> and are rejected if there are ordered statistics.
+ *
+ * This class is <b>not</b> thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class CompositeAccumulator extends BaseAccumulator<Map<Statistic, Quantity>> {
+
+    /**
+     * Public constructor. Samples for ordered statistics are retained and
+     * the statistics are computed exactly.
+     *
+     * @param statistics The statistics to compute.
+     */
+    public CompositeAccumulator(final Collection<Statistic> statistics) {
+        this(statistics, Optional.<Double>absent());
+    }
+
+    /**
+     * Public constructor. Samples for ordered statistics are recorded in a
+     * <code>Histogram</code> with the specified precision.
+     *
+     * @param statistics The statistics to compute.
+     * @param histogramPrecision The precision of the <code>Histogram</code>.
+     */
+    public CompositeAccumulator(final Collection<Statistic> statistics, final double histogramPrecision) {
+        this(statistics, Optional.of(histogramPrecision));
+    }
+
+    /**
+     * Accept all samples of a <code>Samples</code> instance with their counts.
+     * The samples are validated before any is accepted so either all samples
+     * are accepted or none are.
+     *
+     * @param samples The samples to accept.
+     * @throws IllegalArgumentException if any of the samples would be
+     * rejected by <code>accept(double, Unit, long)</code>.
+     */
+    public void acceptAll(final Samples samples) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        final Unit unit = samples.getUnit().orNull();
+        final Unit resultUnit = getResultUnit().orNull();
+        if (getCount() > 0) {
+            if ((unit == null) != (resultUnit == null)) {
+                throw new IllegalArgumentException(String.format(
+                        "Cannot accumulate samples with and without a unit; unit=%s, accumulatorUnit=%s",
+                        unit,
+                        resultUnit));
+            }
+            if (unit != null) {
+                // Throws if the units are of different types
+                resultUnit.getSmallerUnit(unit);
+            }
+        }
+        final Unit baseUnit = unit == null ? null : unit.getSmallestUnit();
+        long count = getCount();
+        for (int i = 0; i < samples.size(); ++i) {
+            if (samples.getCount(i) > Long.MAX_VALUE - count) {
+                throw new IllegalArgumentException(String.format(
+                        "Count overflow; count=%d, accumulatorCount=%d",
+                        samples.getCount(i),
+                        count));
+            }
+            count += samples.getCount(i);
+            final double value = baseUnit == null || baseUnit == unit
+                    ? samples.getValue(i)
+                    : baseUnit.convert(samples.getValue(i), unit);
+            if (!_orderedStatistics.isEmpty() && !Double.isFinite(value)) {
+                throw new IllegalArgumentException(String.format(
+                        "Cannot accept a value that is not finite for ordered statistics; value=%s",
+                        samples.getValue(i)));
+            }
+        }
+        for (int i = 0; i < samples.size(); ++i) {
+            accept(samples.getValue(i), unit, samples.getCount(i));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<Statistic, Quantity> finish() {
+        final Map<Statistic, Quantity> results = Maps.newHashMapWithExpectedSize(
+                _accumulators.size() + _orderedStatistics.size());
+        for (final Map.Entry<Statistic, Accumulator<Quantity>> entry : _accumulators.entrySet()) {
+            results.put(entry.getKey(), toResultUnit(entry.getValue().finish()));
+        }
+        if (getCount() > 0) {
+            if (_histogram != null) {
+                for (final Statistic statistic : _orderedStatistics) {
+                    results.put(statistic, toResultUnit(statistic.calculate(_histogram)));
+                }
+            } else if (!_orderedStatistics.isEmpty() && getCount() > Integer.MAX_VALUE) {
+                // Too many samples to index as a list
+                final Histogram histogram = getHistogram().get();
+                for (final Statistic statistic : _orderedStatistics) {
+                    results.put(statistic, toResultUnit(statistic.calculate(histogram)));
+                }
+            } else if (!_orderedStatistics.isEmpty()) {
+                final List<Quantity> orderedValues = new SortedValues();
+                for (final Statistic statistic : _orderedStatistics) {
+                    results.put(statistic, toResultUnit(statistic.calculate(orderedValues)));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Accessor for the samples retained for ordered statistics. The samples
+     * are sorted from smallest to largest and expressed in the smallest unit
+     * of the samples accepted. No samples are retained if there are no
+     * ordered statistics, if samples are recorded in a
+     * <code>Histogram</code> or if any sample was recorded more than once in
+     * which case the samples are published as a <code>Histogram</code>.
+     *
+     * @return The samples retained for ordered statistics.
+     */
+    public Samples getSamples() {
+        if (_histogram != null || _orderedStatistics.isEmpty() || _size == 0 || _counts != null) {
+            return Samples.empty();
+        }
+        sortValues();
+        final Unit resultUnit = getResultUnit().orNull();
+        final Samples.Builder samples = new Samples.Builder(_size);
+        for (int i = 0; i < _size; ++i) {
+            samples.add(toResultValue(_values[i]), resultUnit);
+        }
+        return samples.build();
+    }
+
+    /**
+     * Accessor for the <code>Histogram</code> the samples are recorded in for
+     * ordered statistics. If samples are retained and any sample was recorded
+     * more than once the retained samples are recorded in a
+     * <code>Histogram</code> with a fixed precision. The histogram is
+     * expressed in the base unit of the samples accepted and must not be
+     * modified.
+     *
+     * @return The <code>Histogram</code> or absent if samples are not
+     * recorded in a histogram.
+     */
+    public Optional<Histogram> getHistogram() {
+        if (_histogram == null && _counts != null && _size > 0) {
+            if (_weightedHistogram == null) {
+                _weightedHistogram = new Histogram(WEIGHTED_HISTOGRAM_PRECISION, Optional.fromNullable(_baseUnit));
+                for (int i = 0; i < _size; ++i) {
+                    _weightedHistogram.record(_values[i], _counts[i]);
+                }
+            }
+            return Optional.of(_weightedHistogram);
+        }
+        return Optional.fromNullable(_histogram);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("Statistics", _accumulators.keySet())
+                .add("OrderedStatistics", _orderedStatistics)
+                .add("HistogramPrecision", _histogramPrecision)
+                .add("Count", getCount())
+                .toString();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected void accumulate(final double value, final long count) {
+        // Samples for ordered statistics may be recorded in a histogram
+        if (!_orderedStatistics.isEmpty() && !Double.isFinite(value)) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot accept a value that is not finite for ordered statistics; value=%s",
+                    value));
+        }
+        if (getCount() == 0) {
+            _baseUnit = getBaseUnit().orNull();
+            if (_histogramPrecision.isPresent() && !_orderedStatistics.isEmpty()) {
+                _histogram = new Histogram(_histogramPrecision.get(), getBaseUnit());
+            }
+        }
+        for (final Accumulator<Quantity> accumulator : _accumulators.values()) {
+            accumulator.accept(value, _baseUnit, count);
+        }
+        if (_histogram != null) {
+            _histogram.record(value, count);
+        } else if (!_orderedStatistics.isEmpty()) {
+            if (count != 1 && _counts == null) {
+                _counts = new long[_values.length];
+                Arrays.fill(_counts, 0, _size, 1);
+            }
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, Math.max(INITIAL_CAPACITY, _values.length * 2));
+                if (_counts != null) {
+                    _counts = Arrays.copyOf(_counts, _values.length);
+                }
+            }
+            if (_counts != null) {
+                _counts[_size] = count;
+            }
+            _values[_size++] = value;
+            _sorted = false;
+            _weightedHistogram = null;
+        }
+    }
+
+    private void sortValues() {
+        if (_sorted) {
+            return;
+        }
+        if (_counts == null) {
+            Arrays.sort(_values, 0, _size);
+        } else {
+            // Sort the samples with their counts and compute the cumulative
+            // counts used to find the sample at each position
+            _cumulativeCounts = WeightedSort.sort(_values, _counts, _size);
+        }
+        _sorted = true;
+    }
+
+    private CompositeAccumulator(final Collection<Statistic> statistics, final Optional<Double> histogramPrecision) {
+        _histogramPrecision = histogramPrecision;
+        for (final Statistic statistic : statistics) {
+            if (statistic instanceof OrderedStatistic) {
+                _orderedStatistics.add(statistic);
+            } else {
+                _accumulators.put(statistic, statistic.createAccumulator());
+            }
+        }
+    }
+
+    private final Optional<Double> _histogramPrecision;
+    private final Map<Statistic, Accumulator<Quantity>> _accumulators = Maps.newLinkedHashMap();
+    private final List<Statistic> _orderedStatistics = Lists.newArrayList();
+    private Unit _baseUnit;
+    private Histogram _histogram;
+    private Histogram _weightedHistogram;
+    private double[] _values = new double[0];
+    // NOTE: Null if the count of every sample is one
+    private long[] _counts;
+    private long[] _cumulativeCounts;
+    private int _size = 0;
+    private boolean _sorted = true;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final double WEIGHTED_HISTOGRAM_PRECISION = 0.01;
+
+    /**
+     * Read-only view of the sorted values as <code>Quantity</code> instances
+     * in the base unit with each value repeated as many times as it was
+     * recorded. Instances are created on access since ordered statistics
+     * typically only access a few values.
+     */
+    private final class SortedValues extends AbstractList<Quantity> implements RandomAccess {
+
+        @Override
+        public Quantity get(final int index) {
+            if (index < 0 || index >= _totalSize) {
+                throw new IndexOutOfBoundsException(String.format("Index out of bounds; index=%d, size=%d", index, _totalSize));
+            }
+            return new Quantity.Builder().setValue(_values[position(index)]).setUnit(_baseUnit).build();
+        }
+
+        @Override
+        public int size() {
+            return _totalSize;
+        }
+
+        private int position(final int index) {
+            if (_counts == null) {
+                return index;
+            }
+            return WeightedSort.position(_cumulativeCounts, _size, index);
+        }
+
+        private SortedValues() {
+            sortValues();
+            _totalSize = (int) getCount();
+        }
+
+        private final int _totalSize;
+    }
+}
@@ -53,6 +53,22 @@ public class CountStatistic extends BaseStatistic {
         return new Quantity.Builder().setValue((double) unorderedValues.size()).build();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Quantity calculate(final Histogram histogram) {
+        return new Quantity.Builder().setValue((double) histogram.getCount()).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Accumulator<Quantity> createAccumulator() {
+        return new CountAccumulator();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -66,4 +82,17 @@ public class CountStatistic extends BaseStatistic {
     }
 
     private static final long serialVersionUID = 983762187313397225L;
+
+    private static final class CountAccumulator extends BaseAccumulator<Quantity> {
+
+        @Override
+        public Quantity finish() {
+            return new Quantity.Builder().setValue((double) getCount()).build();
+        }
+
+        @Override
+        protected void accumulate(final double value, final long count) {
+            // Nothing to do; the count is maintained by the base class
+        }
+    }
 }
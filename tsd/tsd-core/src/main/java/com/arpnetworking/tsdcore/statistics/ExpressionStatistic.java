@@ -45,6 +45,22 @@ public class ExpressionStatistic extends BaseStatistic {
         throw new UnsupportedOperationException("Calculation of ExpressionStatistic instances is not supported");
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Quantity calculate(final Histogram histogram) {
+        throw new UnsupportedOperationException("Calculation of ExpressionStatistic instances is not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Accumulator<Quantity> createAccumulator() {
+        throw new UnsupportedOperationException("Calculation of ExpressionStatistic instances is not supported");
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,546 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.tsdcore.Messages;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming histogram of samples with logarithmically sized buckets. Each
+ * bucket spans values within a configurable relative error (precision) of
+ * its representative value so that any percentile computed from the histogram
+ * is within that relative error of the exact percentile. The memory required
+ * is proportional to the logarithm of the range of values recorded and is
+ * independent of the number of samples recorded. The count, sum, minimum and
+ * maximum are tracked exactly.
+ *
+ * Values whose magnitude is below <code>MINIMUM_MAGNITUDE</code> are treated
+ * as zero for the purpose of percentile computation.
+ *
+ * Histograms are mergeable, for example to compute percentiles across hosts,
+ * and have a compact protocol buffer representation.
+ *
+ * This class is <b>not</b> thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class Histogram implements Serializable {
+
+    /**
+     * Public constructor.
+     *
+     * @param precision The maximum relative error of percentiles; must be
+     * greater than zero and less than one (e.g. 0.01 for one percent).
+     * @param unit The <code>Unit</code> of the values recorded, if any.
+     */
+    public Histogram(final double precision, final Optional<Unit> unit) {
+        if (!isValidPrecision(precision)) {
+            throw new IllegalArgumentException(String.format(
+                    "Precision must be greater than zero and less than one; precision=%s",
+                    precision));
+        }
+        _precision = precision;
+        _unit = unit;
+        _gamma = (1.0 + precision) / (1.0 - precision);
+        _logGamma = Math.log(_gamma);
+    }
+
+    /**
+     * Determine whether a precision is accepted by the constructor.
+     *
+     * @param precision The maximum relative error of percentiles.
+     * @return True if and only if the precision is greater than zero and less than one.
+     */
+    public static boolean isValidPrecision(final double precision) {
+        return precision > 0.0 && precision < 1.0;
+    }
+
+    /**
+     * Record a value. The value is assumed to be in the <code>Unit</code> of
+     * this <code>Histogram</code>.
+     *
+     * @param value The value to record.
+     */
+    public void record(final double value) {
+        record(value, 1);
+    }
+
+    /**
+     * Record a value a number of times. The value is assumed to be in the
+     * <code>Unit</code> of this <code>Histogram</code>. The cost does not
+     * depend on the count.
+     *
+     * @param value The value to record.
+     * @param count The number of times to record the value.
+     * @throws IllegalArgumentException if the value is not finite or the
+     * count is not positive.
+     */
+    public void record(final double value, final long count) {
+        if (!Double.isFinite(value)) {
+            throw new IllegalArgumentException(String.format("Cannot record a value that is not finite; value=%s", value));
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException(String.format("Count must be positive; count=%d", count));
+        }
+        if (_count == 0) {
+            _min = value;
+            _max = value;
+        } else {
+            _min = Math.min(_min, value);
+            _max = Math.max(_max, value);
+        }
+        _count += count;
+        _sum += value * count;
+        add(value, count);
+    }
+
+    /**
+     * Merge the values recorded in another <code>Histogram</code> into this
+     * one. When both histograms have the same precision and unit the buckets
+     * are merged exactly in time proportional to the number of buckets.
+     * Otherwise, the representative value of each bucket of the other
+     * histogram is converted to the unit of this histogram and recorded with
+     * the bucket's count, which adds the precision of the other histogram to
+     * the error of percentiles. The count, sum, minimum and maximum remain
+     * exact.
+     *
+     * @param other The <code>Histogram</code> to merge.
+     */
+    public void merge(final Histogram other) {
+        if (other._count == 0) {
+            return;
+        }
+        // Unit conversions are affine: f(x) = scale * x + offset
+        final boolean convert = _unit.isPresent() && other._unit.isPresent() && !_unit.equals(other._unit);
+        final double offset = convert ? _unit.get().convert(0.0, other._unit.get()) : 0.0;
+        final double scale = convert ? _unit.get().convert(1.0, other._unit.get()) - offset : 1.0;
+
+        final double otherMin = scale * other._min + offset;
+        final double otherMax = scale * other._max + offset;
+        if (_count == 0) {
+            _min = otherMin;
+            _max = otherMax;
+        } else {
+            _min = Math.min(_min, otherMin);
+            _max = Math.max(_max, otherMax);
+        }
+        _count += other._count;
+        _sum += scale * other._sum + offset * other._count;
+
+        if (!convert && _precision == other._precision) {
+            _positive.addAll(other._positive);
+            _negative.addAll(other._negative);
+            _zeroCount += other._zeroCount;
+        } else {
+            for (int i = other._negative.getMinimumIndex(); i <= other._negative.getMaximumIndex(); ++i) {
+                add(scale * -other.value(i) + offset, other._negative.get(i));
+            }
+            add(offset, other._zeroCount);
+            for (int i = other._positive.getMinimumIndex(); i <= other._positive.getMaximumIndex(); ++i) {
+                add(scale * other.value(i) + offset, other._positive.get(i));
+            }
+        }
+    }
+
+    /**
+     * Create a copy of this <code>Histogram</code> with its values converted
+     * to the specified <code>Unit</code>. The percentiles of the copy are
+     * within twice the precision of the exact percentiles.
+     *
+     * @param unit The <code>Unit</code> to convert to.
+     * @return New converted <code>Histogram</code>.
+     */
+    public Histogram convert(final Unit unit) {
+        final Histogram histogram = new Histogram(_precision, Optional.of(unit));
+        histogram.merge(this);
+        return histogram;
+    }
+
+    /**
+     * Create a compact protocol buffer representation of this
+     * <code>Histogram</code>. The unit is not included.
+     *
+     * @return The protocol buffer representation.
+     */
+    public Messages.HistogramRecord toRecord() {
+        final Messages.HistogramRecord.Builder builder = Messages.HistogramRecord.newBuilder()
+                .setPrecision(_precision)
+                .setCount(_count)
+                .setSum(_sum)
+                .setMin(_min)
+                .setMax(_max)
+                .setZeroCount(_zeroCount);
+        if (_positive.getMinimumIndex() <= _positive.getMaximumIndex()) {
+            builder.setPositiveOffset(_positive.getMinimumIndex());
+            for (int i = _positive.getMinimumIndex(); i <= _positive.getMaximumIndex(); ++i) {
+                builder.addPositiveCounts(_positive.get(i));
+            }
+        }
+        if (_negative.getMinimumIndex() <= _negative.getMaximumIndex()) {
+            builder.setNegativeOffset(_negative.getMinimumIndex());
+            for (int i = _negative.getMinimumIndex(); i <= _negative.getMaximumIndex(); ++i) {
+                builder.addNegativeCounts(_negative.get(i));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Create a <code>Histogram</code> from its protocol buffer representation.
+     * The record is validated since it is typically received from another
+     * host; the bucket counts must be non-negative and add up to the count,
+     * the buckets must be within the range of values a histogram records and
+     * the aggregates must be consistent with the count.
+     *
+     * @param record The protocol buffer representation.
+     * @param unit The <code>Unit</code> of the values recorded, if any.
+     * @return New <code>Histogram</code> instance.
+     * @throws IllegalArgumentException if the record is invalid.
+     */
+    public static Histogram fromRecord(final Messages.HistogramRecord record, final Optional<Unit> unit) {
+        final Histogram histogram = new Histogram(record.getPrecision(), unit);
+        if (record.getCount() < 0 || record.getZeroCount() < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid histogram record count; count=%d, zeroCount=%d",
+                    record.getCount(),
+                    record.getZeroCount()));
+        }
+        if (record.getCount() > 0
+                && (Double.isNaN(record.getSum()) || !(record.getMin() <= record.getMax()))) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid histogram record aggregates; sum=%s, min=%s, max=%s",
+                    record.getSum(),
+                    record.getMin(),
+                    record.getMax()));
+        }
+        long count = record.getZeroCount();
+        count = addCounts(count, histogram, record.getPositiveOffset(), record.getPositiveCountsList());
+        count = addCounts(count, histogram, record.getNegativeOffset(), record.getNegativeCountsList());
+        if (count != record.getCount()) {
+            throw new IllegalArgumentException(String.format(
+                    "Histogram record bucket counts do not match its count; count=%d, bucketCount=%d",
+                    record.getCount(),
+                    count));
+        }
+        histogram._count = record.getCount();
+        histogram._sum = record.getSum();
+        histogram._min = record.getMin();
+        histogram._max = record.getMax();
+        histogram._zeroCount = record.getZeroCount();
+        for (int i = 0; i < record.getPositiveCountsCount(); ++i) {
+            histogram._positive.add(record.getPositiveOffset() + i, record.getPositiveCounts(i));
+        }
+        for (int i = 0; i < record.getNegativeCountsCount(); ++i) {
+            histogram._negative.add(record.getNegativeOffset() + i, record.getNegativeCounts(i));
+        }
+        return histogram;
+    }
+
+    /**
+     * Compute the value at the specified percentile. The rank of the value is
+     * computed in the same manner as <code>TPStatistic</code> computes it for
+     * an ordered list of samples. The smallest and largest ranks are always
+     * exact.
+     *
+     * @param percentile The percentile between 0 and 100 inclusive.
+     * @return The value at the percentile.
+     */
+    public double getValueAtPercentile(final double percentile) {
+        if (_count == 0) {
+            throw new IllegalStateException("Cannot compute percentile of an empty histogram");
+        }
+        final long rank = (long) Math.ceil((percentile / 100.0) * (_count - 1));
+        if (rank <= 0) {
+            return _min;
+        }
+        if (rank >= _count - 1) {
+            return _max;
+        }
+
+        // Walk from the most negative bucket to the most positive bucket
+        long cumulative = 0;
+        for (int i = _negative.getMaximumIndex(); i >= _negative.getMinimumIndex(); --i) {
+            cumulative += _negative.get(i);
+            if (cumulative > rank) {
+                return clamp(-value(i));
+            }
+        }
+        cumulative += _zeroCount;
+        if (cumulative > rank) {
+            return clamp(0.0);
+        }
+        for (int i = _positive.getMinimumIndex(); i <= _positive.getMaximumIndex(); ++i) {
+            cumulative += _positive.get(i);
+            if (cumulative > rank) {
+                return clamp(value(i));
+            }
+        }
+        return _max;
+    }
+
+    public double getPrecision() {
+        return _precision;
+    }
+
+    public Optional<Unit> getUnit() {
+        return _unit;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public double getSum() {
+        return _sum;
+    }
+
+    /**
+     * Accessor for the minimum value recorded.
+     *
+     * @return The minimum value recorded.
+     */
+    public double getMin() {
+        if (_count == 0) {
+            throw new IllegalStateException("Cannot compute minimum of an empty histogram");
+        }
+        return _min;
+    }
+
+    /**
+     * Accessor for the maximum value recorded.
+     *
+     * @return The maximum value recorded.
+     */
+    public double getMax() {
+        if (_count == 0) {
+            throw new IllegalStateException("Cannot compute maximum of an empty histogram");
+        }
+        return _max;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(final Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object == null || getClass() != object.getClass()) {
+            return false;
+        }
+        final Histogram other = (Histogram) object;
+        return Double.compare(_precision, other._precision) == 0
+                && Objects.equal(_unit, other._unit)
+                && _count == other._count
+                && Double.compare(_sum, other._sum) == 0
+                && Double.compare(_min, other._min) == 0
+                && Double.compare(_max, other._max) == 0
+                && _zeroCount == other._zeroCount
+                && _positive.equals(other._positive)
+                && _negative.equals(other._negative);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(_precision, _unit, _count, _sum, _min, _max, _zeroCount);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("Precision", _precision)
+                .add("Unit", _unit)
+                .add("Count", _count)
+                .add("Sum", _sum)
+                .add("Min", _min)
+                .add("Max", _max)
+                .add("PositiveBuckets", _positive.size())
+                .add("NegativeBuckets", _negative.size())
+                .toString();
+    }
+
+    private void add(final double value, final long count) {
+        if (count == 0) {
+            return;
+        }
+        if (value >= MINIMUM_MAGNITUDE) {
+            _positive.add(index(value), count);
+        } else if (value <= -MINIMUM_MAGNITUDE) {
+            _negative.add(index(-value), count);
+        } else {
+            _zeroCount += count;
+        }
+    }
+
+    private static long addCounts(
+            final long count,
+            final Histogram histogram,
+            final int offset,
+            final List<Long> counts) {
+        if (counts.isEmpty()) {
+            return count;
+        }
+        // Buckets outside this range would only be allocated to hold zeros
+        if (offset < histogram.index(MINIMUM_MAGNITUDE)
+                || (long) offset + counts.size() - 1 > histogram.index(Double.MAX_VALUE)) {
+            throw new IllegalArgumentException(String.format(
+                    "Histogram record buckets out of range; offset=%d, size=%d",
+                    offset,
+                    counts.size()));
+        }
+        long total = count;
+        for (final Long bucketCount : counts) {
+            if (bucketCount.longValue() < 0 || total > Long.MAX_VALUE - bucketCount.longValue()) {
+                throw new IllegalArgumentException(String.format(
+                        "Invalid histogram record bucket count; count=%d",
+                        bucketCount));
+            }
+            total += bucketCount.longValue();
+        }
+        return total;
+    }
+
+    private int index(final double magnitude) {
+        return (int) Math.ceil(Math.log(magnitude) / _logGamma);
+    }
+
+    private double value(final int index) {
+        // The bucket at index i contains values in (gamma^(i-1), gamma^i]; the
+        // representative value is within the precision of every value in it.
+        return 2.0 * Math.pow(_gamma, index) / (_gamma + 1.0);
+    }
+
+    private double clamp(final double value) {
+        return Math.max(_min, Math.min(_max, value));
+    }
+
+    private final double _precision;
+    private final Optional<Unit> _unit;
+    private final double _gamma;
+    private final double _logGamma;
+    private final Buckets _positive = new Buckets();
+    private final Buckets _negative = new Buckets();
+    private long _zeroCount = 0;
+    private long _count = 0;
+    private double _sum = 0.0;
+    private double _min = 0.0;
+    private double _max = 0.0;
+
+    private static final double MINIMUM_MAGNITUDE = 1e-9;
+    private static final long serialVersionUID = -4394282458325429946L;
+
+    /**
+     * Dense array of bucket counts covering a contiguous range of indices
+     * which grows in either direction as needed.
+     */
+    private static final class Buckets implements Serializable {
+
+        public void addAll(final Buckets other) {
+            for (int i = other._minimumIndex; i <= other._maximumIndex; ++i) {
+                add(i, other.get(i));
+            }
+        }
+
+        public void add(final int index, final long count) {
+            if (count == 0) {
+                return;
+            }
+            if (_counts.length == 0) {
+                _counts = new long[INITIAL_SIZE];
+                _offset = index - INITIAL_SIZE / 2;
+            } else if (index < _offset) {
+                final int grow = Math.max(_offset - index, _counts.length / 2);
+                final long[] counts = new long[_counts.length + grow];
+                System.arraycopy(_counts, 0, counts, grow, _counts.length);
+                _counts = counts;
+                _offset -= grow;
+            } else if (index >= _offset + _counts.length) {
+                final int grow = Math.max(index - _offset - _counts.length + 1, _counts.length / 2);
+                _counts = Arrays.copyOf(_counts, _counts.length + grow);
+            }
+            final int position = index - _offset;
+            if (_counts[position] == 0) {
+                _minimumIndex = Math.min(_minimumIndex, index);
+                _maximumIndex = Math.max(_maximumIndex, index);
+            }
+            _counts[position] += count;
+        }
+
+        public long get(final int index) {
+            return _counts[index - _offset];
+        }
+
+        public int getMinimumIndex() {
+            return _minimumIndex;
+        }
+
+        public int getMaximumIndex() {
+            return _maximumIndex;
+        }
+
+        public int size() {
+            return _counts.length;
+        }
+
+        @Override
+        public boolean equals(final Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Buckets)) {
+                return false;
+            }
+            final Buckets other = (Buckets) object;
+            if (_minimumIndex != other._minimumIndex || _maximumIndex != other._maximumIndex) {
+                return false;
+            }
+            for (int i = _minimumIndex; i <= _maximumIndex; ++i) {
+                if (get(i) != other.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(_minimumIndex, _maximumIndex);
+        }
+
+        private long[] _counts = new long[0];
+        private int _offset = 0;
+        private int _minimumIndex = Integer.MAX_VALUE;
+        private int _maximumIndex = Integer.MIN_VALUE;
+
+        private static final int INITIAL_SIZE = 64;
+        private static final long serialVersionUID = 3326283137451617421L;
+    }
+}
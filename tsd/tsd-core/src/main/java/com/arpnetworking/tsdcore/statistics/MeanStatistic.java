@@ -55,6 +55,28 @@ public class MeanStatistic extends BaseStatistic {
         return new Quantity.Builder().setValue(sum / orderedValues.size()).setUnit(unit.orNull()).build();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Quantity calculate(final Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            return ZERO;
+        }
+        return new Quantity.Builder()
+                .setValue(histogram.getSum() / histogram.getCount())
+                .setUnit(histogram.getUnit().orNull())
+                .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Accumulator<Quantity> createAccumulator() {
+        return new MeanAccumulator();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -76,4 +98,22 @@ public class MeanStatistic extends BaseStatistic {
 
     private static final Quantity ZERO = new Quantity.Builder().setValue(0.0).build();
     private static final long serialVersionUID = 2943082617025777130L;
+
+    private static final class MeanAccumulator extends BaseAccumulator<Quantity> {
+
+        @Override
+        public Quantity finish() {
+            if (getCount() == 0) {
+                return ZERO;
+            }
+            return toResultQuantity(_sum / getCount());
+        }
+
+        @Override
+        protected void accumulate(final double value, final long count) {
+            _sum += value * count;
+        }
+
+        private double _sum = 0d;
+    }
 }
@@ -57,6 +57,27 @@ public interface Statistic extends Serializable {
      */
     Quantity calculate(List<Quantity> values);
 
+    /**
+     * Compute the statistic from a <code>Histogram</code> of samples. The
+     * result is in the <code>Unit</code> of the <code>Histogram</code>. The
+     * result is exact for statistics that depend only on the count, sum,
+     * minimum and maximum of the samples and is within the precision of the
+     * <code>Histogram</code> otherwise.
+     *
+     * @param histogram <code>Histogram</code> of samples.
+     * @return Computed statistic <code>Quantity</code> instance.
+     */
+    Quantity calculate(Histogram histogram);
+
+    /**
+     * Create an <code>Accumulator</code> which computes the statistic
+     * incrementally as samples are provided. Unlike <code>calculate</code>
+     * the samples need not be ordered nor unified into the same unit.
+     *
+     * @return New <code>Accumulator</code> instance.
+     */
+    Accumulator<Quantity> createAccumulator();
+
     /**
      * Compute the statistic from the <code>List</code> of <code>AggregatedData</code>
      * instances. By default the <code>List</code> of samples is not assumed to be in
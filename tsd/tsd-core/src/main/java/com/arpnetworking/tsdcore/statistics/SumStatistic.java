@@ -51,6 +51,22 @@ public class SumStatistic extends BaseStatistic {
         return new Quantity.Builder().setValue(sum).setUnit(unit.orNull()).build();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Quantity calculate(final Histogram histogram) {
+        return new Quantity.Builder().setValue(histogram.getSum()).setUnit(histogram.getUnit().orNull()).build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Accumulator<Quantity> createAccumulator() {
+        return new SumAccumulator();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -66,4 +82,19 @@ public class SumStatistic extends BaseStatistic {
     }
 
     private static final long serialVersionUID = -1534109546290882210L;
+
+    private static final class SumAccumulator extends BaseAccumulator<Quantity> {
+
+        @Override
+        public Quantity finish() {
+            return toResultQuantity(_sum);
+        }
+
+        @Override
+        protected void accumulate(final double value, final long count) {
+            _sum += value * count;
+        }
+
+        private double _sum = 0d;
+    }
 }
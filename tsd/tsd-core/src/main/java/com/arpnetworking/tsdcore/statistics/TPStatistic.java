@@ -17,10 +17,13 @@ package com.arpnetworking.tsdcore.statistics;
 
 import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
@@ -61,7 +64,36 @@ public abstract class TPStatistic extends BaseStatistic implements OrderedStatis
      * {@inheritDoc}
      */
     @Override
+    public Quantity calculate(final Histogram histogram) {
+        return new Quantity.Builder()
+                .setValue(histogram.getValueAtPercentile(_percentile))
+                .setUnit(histogram.getUnit().orNull())
+                .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Accumulator<Quantity> createAccumulator() {
+        return new PercentileAccumulator(_percentile);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * If any of the aggregations carries a <code>Histogram</code> the
+     * histograms are merged, together with the samples of aggregations
+     * without one, and the percentile is computed from the merged histogram
+     * in time proportional to the number of buckets. Otherwise, the
+     * percentile is computed exactly from all the samples.
+     */
+    @Override
     public Quantity calculateAggregations(final List<AggregatedData> aggregations) {
+        final Optional<Histogram> histogram = mergeHistograms(aggregations);
+        if (histogram.isPresent()) {
+            return calculate(histogram.get());
+        }
         final List<Quantity> allSamples = Lists.newArrayList();
         for (final AggregatedData aggregation : aggregations) {
             allSamples.addAll(aggregation.getSamples());
@@ -71,6 +103,35 @@ public abstract class TPStatistic extends BaseStatistic implements OrderedStatis
         return allSamples.get(index);
     }
 
+    private static Optional<Histogram> mergeHistograms(final List<AggregatedData> aggregations) {
+        Histogram merged = null;
+        for (final AggregatedData aggregation : aggregations) {
+            final Optional<Histogram> histogram = aggregation.getHistogram();
+            if (histogram.isPresent()) {
+                if (merged == null) {
+                    merged = new Histogram(histogram.get().getPrecision(), histogram.get().getUnit());
+                }
+                merged.merge(histogram.get());
+            }
+        }
+        if (merged == null) {
+            return Optional.absent();
+        }
+        for (final AggregatedData aggregation : aggregations) {
+            if (!aggregation.getHistogram().isPresent()) {
+                final Samples samples = aggregation.getSamples();
+                final boolean convert = merged.getUnit().isPresent()
+                        && samples.getUnit().isPresent()
+                        && !merged.getUnit().equals(samples.getUnit());
+                for (int i = 0; i < samples.size(); ++i) {
+                    final double value = samples.getValue(i);
+                    merged.record(convert ? merged.getUnit().get().convert(value, samples.getUnit().get()) : value);
+                }
+            }
+        }
+        return Optional.of(merged);
+    }
+
     /**
      * Protected constructor.
      *
@@ -93,4 +154,54 @@ public abstract class TPStatistic extends BaseStatistic implements OrderedStatis
     private static final DecimalFormat FORMAT = new DecimalFormat("##0.#");
 
     private static final long serialVersionUID = 2002333257077042351L;
+
+    private static final class PercentileAccumulator extends BaseAccumulator<Quantity> {
+
+        @Override
+        public Quantity finish() {
+            if (_size == 0) {
+                throw new IllegalStateException("Cannot compute percentile without samples");
+            }
+            if (_counts == null) {
+                Arrays.sort(_values, 0, _size);
+                final int index = (int) (Math.ceil((_percentile / 100.0) * (_size - 1)));
+                return toResultQuantity(_values[index]);
+            }
+            // Find the value of the sample at the percentile rank from the
+            // cumulative counts of the sorted samples
+            final long[] cumulativeCounts = WeightedSort.sort(_values, _counts, _size);
+            final long rank = (long) Math.ceil((_percentile / 100.0) * (getCount() - 1));
+            return toResultQuantity(_values[WeightedSort.position(cumulativeCounts, _size, rank)]);
+        }
+
+        @Override
+        protected void accumulate(final double value, final long count) {
+            if (count != 1 && _counts == null) {
+                _counts = new long[_values.length];
+                Arrays.fill(_counts, 0, _size, 1);
+            }
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, Math.max(INITIAL_CAPACITY, _values.length * 2));
+                if (_counts != null) {
+                    _counts = Arrays.copyOf(_counts, _values.length);
+                }
+            }
+            if (_counts != null) {
+                _counts[_size] = count;
+            }
+            _values[_size++] = value;
+        }
+
+        private PercentileAccumulator(final double percentile) {
+            _percentile = percentile;
+        }
+
+        private final double _percentile;
+        private double[] _values = new double[0];
+        // NOTE: Null if the count of every sample is one
+        private long[] _counts;
+        private int _size = 0;
+
+        private static final int INITIAL_CAPACITY = 16;
+    }
 }
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+/**
+ * Orders samples retained once with the number of times each was recorded.
+ * The values and their counts are kept in parallel primitive arrays which are
+ * sorted together with a merge sort; no object is allocated per sample. The
+ * sample at a position in the expanded order is found by a binary search of
+ * the cumulative counts.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+/* package private */ final class WeightedSort {
+
+    /**
+     * Sort the first <code>size</code> values in place together with their
+     * counts and compute the cumulative counts of the sorted values.
+     *
+     * @param values The values to sort.
+     * @param counts The count of each value; reordered with the values.
+     * @param size The number of values to sort.
+     * @return The cumulative count of the values up to and including each position.
+     */
+    public static long[] sort(final double[] values, final long[] counts, final int size) {
+        if (size > INSERTION_SORT_THRESHOLD) {
+            // Only the lower half of a range is buffered while merging
+            final int bufferSize = (size + 1) / 2;
+            mergeSort(values, counts, new double[bufferSize], new long[bufferSize], 0, size);
+        } else {
+            insertionSort(values, counts, 0, size);
+        }
+        final long[] cumulativeCounts = new long[size];
+        long cumulativeCount = 0;
+        for (int i = 0; i < size; ++i) {
+            cumulativeCount += counts[i];
+            cumulativeCounts[i] = cumulativeCount;
+        }
+        return cumulativeCounts;
+    }
+
+    /**
+     * Find the position of the sorted value at an index into the values
+     * expanded by their counts.
+     *
+     * @param cumulativeCounts The cumulative counts of the sorted values.
+     * @param size The number of sorted values.
+     * @param index The index into the expanded values.
+     * @return The position of the value in the sorted values.
+     */
+    public static int position(final long[] cumulativeCounts, final int size, final long index) {
+        // Find the first value whose cumulative count exceeds the index
+        int low = 0;
+        int high = size - 1;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (cumulativeCounts[middle] > index) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    private static void mergeSort(
+            final double[] values,
+            final long[] counts,
+            final double[] valueBuffer,
+            final long[] countBuffer,
+            final int from,
+            final int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(values, counts, from, to);
+            return;
+        }
+        final int middle = (from + to) >>> 1;
+        mergeSort(values, counts, valueBuffer, countBuffer, from, middle);
+        mergeSort(values, counts, valueBuffer, countBuffer, middle, to);
+        if (Double.compare(values[middle - 1], values[middle]) <= 0) {
+            return;
+        }
+
+        // Merge the buffered lower half with the upper half in place
+        final int length = middle - from;
+        System.arraycopy(values, from, valueBuffer, 0, length);
+        System.arraycopy(counts, from, countBuffer, 0, length);
+        int lower = 0;
+        int upper = middle;
+        int target = from;
+        while (lower < length && upper < to) {
+            if (Double.compare(values[upper], valueBuffer[lower]) < 0) {
+                values[target] = values[upper];
+                counts[target++] = counts[upper++];
+            } else {
+                values[target] = valueBuffer[lower];
+                counts[target++] = countBuffer[lower++];
+            }
+        }
+        System.arraycopy(valueBuffer, lower, values, target, length - lower);
+        System.arraycopy(countBuffer, lower, counts, target, length - lower);
+    }
+
+    private static void insertionSort(final double[] values, final long[] counts, final int from, final int to) {
+        for (int i = from + 1; i < to; ++i) {
+            final double value = values[i];
+            final long count = counts[i];
+            int j = i - 1;
+            while (j >= from && Double.compare(values[j], value) > 0) {
+                values[j + 1] = values[j];
+                counts[j + 1] = counts[j];
+                --j;
+            }
+            values[j + 1] = value;
+            counts[j + 1] = count;
+        }
+    }
+
+    private WeightedSort() {}
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+}
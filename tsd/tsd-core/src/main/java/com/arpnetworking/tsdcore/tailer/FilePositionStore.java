@@ -22,13 +22,14 @@ import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.arpnetworking.utility.OvalBuilder;
-import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
-import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import net.sf.oval.constraint.Min;
 import net.sf.oval.constraint.NotNull;
 import org.joda.time.DateTime;
@@ -36,17 +37,40 @@ import org.joda.time.Duration;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
 /**
  * Implementation of <code>PositionStore</code> which stores the read
  * position in a file on local disk. This class is thread-safe per file
  * identifier.
  *
+ * Setting the position only records it in memory. A background writer
+ * persists positions that changed every flush interval, or sooner once a
+ * position has advanced by more than the flush threshold since it was last
+ * persisted. Changed positions are appended to the file as checksummed
+ * binary records and the file is periodically compacted to one record per
+ * identifier by writing a new file and renaming it over the old one. After
+ * a crash at most the flush threshold or one flush interval worth of data,
+ * whichever is larger, is read again. An incomplete record at the end of
+ * the file is ignored. State files in the previous JSON format are read and
+ * replaced on the first flush.
+ *
  * @author Ville Koskela (vkoskela at groupon dot com)
  */
 public final class FilePositionStore implements PositionStore {
@@ -68,20 +92,26 @@ public final class FilePositionStore implements PositionStore {
      */
     @Override
     public void setPosition(final String identifier, final long position) {
-        final Descriptor descriptor = _state.putIfAbsent(
-                identifier,
-                new Descriptor.Builder()
-                        .setPosition(position)
-                        .build());
-
-        final DateTime now = DateTime.now();
-        boolean requiresFlush = now.minus(_flushInterval).isAfter(_lastFlush);
-        if (descriptor != null) {
-            descriptor.update(position, now);
-            requiresFlush = requiresFlush || descriptor.getDelta() > _flushThreshold;
+        Descriptor descriptor = _state.get(identifier);
+        if (descriptor == null) {
+            final Descriptor newDescriptor = new Descriptor.Builder()
+                    .setPosition(position)
+                    .setFlushed(false)
+                    .build();
+            descriptor = _state.putIfAbsent(identifier, newDescriptor);
+            if (descriptor == null) {
+                descriptor = newDescriptor;
+            }
         }
-        if (requiresFlush) {
-            flush();
+        descriptor.setPosition(position);
+
+        if (descriptor.getDelta() > _flushThreshold && _flushRequested.compareAndSet(false, true)) {
+            try {
+                _writer.execute(this::flush);
+            } catch (final RejectedExecutionException e) {
+                // The store is closed
+                _flushRequested.set(false);
+            }
         }
     }
 
@@ -90,7 +120,14 @@ public final class FilePositionStore implements PositionStore {
      */
     @Override
     public void close() {
+        _writer.shutdown();
+        try {
+            _writer.awaitTermination(WRITER_TERMINATION_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         flush();
+        closeJournal();
     }
 
     /**
@@ -107,6 +144,7 @@ public final class FilePositionStore implements PositionStore {
                 .put("FlushInterval", _flushInterval)
                 .put("FlushThreshold", _flushThreshold)
                 .put("Retention", _retention)
+                .put("SyncPolicy", _syncPolicy)
                 .put("LastFlush", _lastFlush)
                 .build();
     }
@@ -119,20 +157,26 @@ public final class FilePositionStore implements PositionStore {
         return toLogValue().toString();
     }
 
-    private void flush() {
-        // Age out old state
+    private synchronized void flush() {
+        // Clear the request before reading positions so that any position
+        // set after this point is able to request another flush
+        _flushRequested.set(false);
+
+        // Collect changed positions and age out old state
         final DateTime now = DateTime.now();
         final DateTime oldest = now.minus(_retention);
         final long sizeBefore = _state.size();
+        final List<Map.Entry<String, Descriptor>> changed = Lists.newArrayList();
         final Iterator<Map.Entry<String, Descriptor>> iterator = _state.entrySet().iterator();
         while (iterator.hasNext()) {
             final Map.Entry<String, Descriptor> entry = iterator.next();
-            if (!oldest.isBefore(entry.getValue().getLastUpdated())) {
+            final Descriptor descriptor = entry.getValue();
+            if (descriptor.getDelta() != 0) {
+                descriptor.flush(now);
+                changed.add(entry);
+            } else if (!oldest.isBefore(descriptor.getLastUpdated())) {
                 // Remove old descriptors
                 iterator.remove();
-            } else {
-                // Mark retained descriptors as flushed
-                entry.getValue().flush();
             }
         }
         final long sizeAfter = _state.size();
@@ -146,31 +190,182 @@ public final class FilePositionStore implements PositionStore {
 
         // Persist the state to disk
         try {
-            final File temporaryFile = new File(_file.getAbsolutePath() + ".tmp");
-            OBJECT_MAPPER.writeValue(temporaryFile, _state);
-            Files.move(temporaryFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-            LOGGER.debug()
-                    .setMessage("Persisted file position state to disk")
-                    .addData("size", _state.size())
+            if (!_journal.isPresent()
+                    || _journalRecords + changed.size() > Math.max(MINIMUM_COMPACTION_RECORDS, 2 * _state.size())) {
+                compact();
+            } else if (!changed.isEmpty()) {
+                append(changed);
+            }
+        } catch (final IOException e) {
+            // Rewrite the entire state on the next flush
+            closeJournal();
+            LOGGER.error()
+                    .setMessage("Unable to persist file position state to disk")
                     .addData("file", _file)
+                    .setThrowable(e)
                     .log();
-        } catch (final IOException ioe) {
-            throw Throwables.propagate(ioe);
         } finally {
             _lastFlush = now;
         }
     }
 
+    private void append(final List<Map.Entry<String, Descriptor>> entries) throws IOException {
+        final FileChannel journal = _journal.get();
+        write(journal, serialize(entries, false));
+        _journalRecords += entries.size();
+
+        LOGGER.trace()
+                .setMessage("Appended file position state to disk")
+                .addData("records", entries.size())
+                .addData("file", _file)
+                .log();
+    }
+
+    private void compact() throws IOException {
+        closeJournal();
+        final File temporaryFile = new File(_file.getAbsolutePath() + ".tmp");
+        final List<Map.Entry<String, Descriptor>> entries = Lists.newArrayListWithCapacity(_state.size());
+        for (final Map.Entry<String, Descriptor> entry : _state.entrySet()) {
+            // Skip descriptors created since the flush started
+            if (entry.getValue().getFlushedPosition() >= 0) {
+                entries.add(entry);
+            }
+        }
+        try (final FileChannel channel = FileChannel.open(
+                temporaryFile.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, serialize(entries, true));
+        }
+        Files.move(temporaryFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        _journal = Optional.of(FileChannel.open(_file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        _journalRecords = entries.size();
+
+        LOGGER.debug()
+                .setMessage("Persisted file position state to disk")
+                .addData("size", entries.size())
+                .addData("file", _file)
+                .log();
+    }
+
+    private void write(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (SyncPolicy.ALWAYS.equals(_syncPolicy)) {
+            channel.force(false);
+        }
+    }
+
+    private void closeJournal() {
+        if (_journal.isPresent()) {
+            try {
+                _journal.get().close();
+            } catch (final IOException e) {
+                LOGGER.warn()
+                        .setMessage("Unable to close file position journal")
+                        .addData("file", _file)
+                        .setThrowable(e)
+                        .log();
+            }
+            _journal = Optional.absent();
+        }
+    }
+
+    private static ByteBuffer serialize(final List<Map.Entry<String, Descriptor>> entries, final boolean header) {
+        final List<byte[]> identifiers = Lists.newArrayListWithCapacity(entries.size());
+        int size = header ? MAGIC.length : 0;
+        for (final Map.Entry<String, Descriptor> entry : entries) {
+            final byte[] identifier = entry.getKey().getBytes(Charsets.UTF_8);
+            identifiers.add(identifier);
+            size += RECORD_OVERHEAD + identifier.length;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        if (header) {
+            buffer.put(MAGIC);
+        }
+        final CRC32 checksum = new CRC32();
+        for (int i = 0; i < entries.size(); ++i) {
+            final Descriptor descriptor = entries.get(i).getValue();
+            final byte[] identifier = identifiers.get(i);
+            final int start = buffer.position();
+            buffer.putInt(identifier.length);
+            buffer.put(identifier);
+            buffer.putLong(descriptor.getFlushedPosition());
+            buffer.putLong(descriptor.getLastUpdated().getMillis());
+            checksum.reset();
+            checksum.update(buffer.array(), start, buffer.position() - start);
+            buffer.putInt((int) checksum.getValue());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static ConcurrentMap<String, Descriptor> load(final File file) throws IOException {
+        final byte[] data;
+        try {
+            data = Files.readAllBytes(file.toPath());
+        } catch (final NoSuchFileException e) {
+            return Maps.newConcurrentMap();
+        }
+        if (data.length < MAGIC.length || !Arrays.equals(MAGIC, Arrays.copyOf(data, MAGIC.length))) {
+            // Fallback to the previous json format
+            return OBJECT_MAPPER.readValue(data, STATE_MAP_TYPE_REFERENCE);
+        }
+
+        // Later records replace earlier ones for the same identifier
+        final ConcurrentMap<String, Descriptor> state = Maps.newConcurrentMap();
+        final ByteBuffer buffer = ByteBuffer.wrap(data, MAGIC.length, data.length - MAGIC.length);
+        final CRC32 checksum = new CRC32();
+        while (buffer.hasRemaining()) {
+            final int start = buffer.position();
+            final int length = buffer.remaining() >= Integer.BYTES ? buffer.getInt() : -1;
+            if (length < 0 || buffer.remaining() < length + RECORD_OVERHEAD - Integer.BYTES) {
+                LOGGER.warn()
+                        .setMessage("Ignoring incomplete file position record")
+                        .addData("file", file)
+                        .addData("offset", start)
+                        .log();
+                break;
+            }
+            // CHECKSTYLE.OFF: IllegalInstantiation - Approved for byte[] to String
+            final String identifier = new String(data, buffer.position(), length, Charsets.UTF_8);
+            // CHECKSTYLE.ON: IllegalInstantiation
+            buffer.position(buffer.position() + length);
+            final long position = buffer.getLong();
+            final long lastUpdated = buffer.getLong();
+            checksum.reset();
+            checksum.update(data, start, buffer.position() - start);
+            if (buffer.getInt() != (int) checksum.getValue()) {
+                LOGGER.warn()
+                        .setMessage("Ignoring corrupt file position record")
+                        .addData("file", file)
+                        .addData("offset", start)
+                        .log();
+                break;
+            }
+            state.put(
+                    identifier,
+                    new Descriptor.Builder()
+                            .setPosition(position)
+                            .setLastUpdated(new DateTime(lastUpdated))
+                            .build());
+        }
+        return state;
+    }
+
     private FilePositionStore(final Builder builder) {
         _file = builder._file;
         _flushInterval = builder._flushInterval;
         _flushThreshold = builder._flushThreshold;
         _retention = builder._retention;
+        _syncPolicy = builder._syncPolicy;
 
         ConcurrentMap<String, Descriptor> state = Maps.newConcurrentMap();
         try {
-            state = OBJECT_MAPPER.readValue(_file, STATE_MAP_TYPE_REFERENCE);
+            state = load(_file);
         } catch (final IOException e) {
             LOGGER.warn()
                     .setMessage("Unable to load state")
@@ -179,16 +374,34 @@ public final class FilePositionStore implements PositionStore {
                     .log();
         }
         _state = state;
+
+        _writer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("FilePositionStore-" + _file.getName()).setDaemon(true).build());
+        _writer.scheduleWithFixedDelay(
+                this::flush,
+                _flushInterval.getMillis(),
+                _flushInterval.getMillis(),
+                TimeUnit.MILLISECONDS);
     }
 
     private final File _file;
     private final Duration _flushInterval;
     private final long _flushThreshold;
     private final Duration _retention;
+    private final SyncPolicy _syncPolicy;
     private final ConcurrentMap<String, Descriptor> _state;
-
-    private DateTime _lastFlush = DateTime.now();
-
+    private final ScheduledExecutorService _writer;
+    private final AtomicBoolean _flushRequested = new AtomicBoolean(false);
+
+    private volatile DateTime _lastFlush = DateTime.now();
+    private Optional<FileChannel> _journal = Optional.absent();
+    private int _journalRecords = 0;
+
+    private static final byte[] MAGIC = new byte[] {'T', 'S', 'D', 'P', 1};
+    // Identifier length, position, last updated and checksum
+    private static final int RECORD_OVERHEAD = Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int MINIMUM_COMPACTION_RECORDS = 1024;
+    private static final long WRITER_TERMINATION_TIMEOUT_IN_SECONDS = 10;
     private static final TypeReference<ConcurrentMap<String, Descriptor>> STATE_MAP_TYPE_REFERENCE =
             new TypeReference<ConcurrentMap<String, Descriptor>>(){};
     private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.createInstance();
@@ -200,40 +413,59 @@ public final class FilePositionStore implements PositionStore {
         OBJECT_MAPPER.registerModules(module);
     }
 
+    /**
+     * Durability of the state file.
+     */
+    public enum SyncPolicy {
+        /**
+         * Leave writing the state to the storage device to the operating
+         * system. Survives the process crashing but not the host.
+         */
+        NONE,
+        /**
+         * Force the state to the storage device on every flush.
+         */
+        ALWAYS
+    }
+
     private static final class Descriptor {
 
-        public void update(final long position, final DateTime updatedAt) {
-            _delta += position - _position;
-            _lastUpdated = updatedAt;
+        public void setPosition(final long position) {
             _position = position;
         }
 
-        public void flush() {
-            _delta = 0;
+        public void flush(final DateTime flushedAt) {
+            _flushedPosition = _position;
+            _lastUpdated = flushedAt;
         }
 
         public long getPosition() {
             return _position;
         }
 
+        public long getFlushedPosition() {
+            return _flushedPosition;
+        }
+
         public DateTime getLastUpdated() {
             return _lastUpdated;
         }
 
-        @JsonIgnore
         public long getDelta() {
-            return _delta;
+            return _position - _flushedPosition;
         }
 
         private Descriptor(final Builder builder) {
             _position = builder._position;
+            _flushedPosition = builder._flushed ? builder._position : UNFLUSHED_POSITION;
             _lastUpdated = builder._lastUpdated;
-            _delta = 0;
         }
 
-        private long _position;
-        private DateTime _lastUpdated;
-        private long _delta;
+        private volatile long _position;
+        private volatile long _flushedPosition;
+        private volatile DateTime _lastUpdated;
+
+        private static final long UNFLUSHED_POSITION = -1;
 
         public static class Builder extends OvalBuilder<Descriptor> {
 
@@ -251,10 +483,17 @@ public final class FilePositionStore implements PositionStore {
                 return this;
             }
 
+            public Builder setFlushed(final Boolean value) {
+                _flushed = value;
+                return this;
+            }
+
             @NotNull
             private Long _position;
             @NotNull
             private DateTime _lastUpdated = DateTime.now();
+            @NotNull
+            private Boolean _flushed = true;
         }
     }
 
@@ -319,6 +558,18 @@ public final class FilePositionStore implements PositionStore {
             return this;
         }
 
+        /**
+         * Sets the durability of the state file. Optional. Default is
+         * <code>SyncPolicy.ALWAYS</code>.
+         *
+         * @param value The durability of the state file.
+         * @return This instance of {@link Builder}
+         */
+        public Builder setSyncPolicy(final SyncPolicy value) {
+            _syncPolicy = value;
+            return this;
+        }
+
         @NotNull
         private File _file;
         @NotNull
@@ -328,5 +579,7 @@ public final class FilePositionStore implements PositionStore {
         private Long _flushThreshold = 10485760L; // 2^20 * 10 = (10 Mebibyte)
         @NotNull
         private Duration _retention = Duration.standardDays(1);
+        @NotNull
+        private SyncPolicy _syncPolicy = SyncPolicy.ALWAYS;
     }
 }
@@ -0,0 +1,37 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.tailer;
+
+/**
+ * Represents how a tailer splits the contents of a file into the units of
+ * data handed to its listener.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public enum Framing {
+    /**
+     * Lines terminated by a line feed, carriage return or both.
+     */
+    LINE,
+    /**
+     * Frames each preceded by the sync marker bytes <code>0xB5 0x1F</code>,
+     * their length in bytes encoded as an unsigned variable length integer
+     * (seven bits per byte, least significant group first, high bit set on
+     * all but the last byte) and the big endian CRC-32 of the frame. Invalid
+     * data is skipped up to the next sync marker.
+     */
+    LENGTH_PREFIXED
+}
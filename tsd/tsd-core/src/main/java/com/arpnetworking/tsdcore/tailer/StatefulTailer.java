@@ -20,6 +20,7 @@ import com.arpnetworking.steno.LogReferenceOnly;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.arpnetworking.utility.MappedBuffers;
 import com.arpnetworking.utility.OvalBuilder;
 import com.arpnetworking.utility.TimerTrigger;
 import com.arpnetworking.utility.Trigger;
@@ -35,6 +36,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
@@ -43,6 +46,7 @@ import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Objects;
+import java.util.zip.CRC32;
 
 /**
  * A reimplementation of the Apache Commons IO tailer based on the 2.5 snapshot
@@ -52,6 +56,24 @@ import java.util.Objects;
  * new feature is the <code>PositionStore</code> which is used to checkpoint
  * the offset in the tailed file as identified by a hash of the file prefix.
  *
+ * Optionally, the tailer memory maps the unread region of the file and
+ * scans it for line endings in place, handing each line to the listener as
+ * a view of the mapped region instead of copying it into a line buffer.
+ * The region is only remapped once the data to read extends past it and the
+ * previous region is unmapped explicitly, as is the last region when the
+ * file rotates or the tailer stops. Rotation detection and checkpointing are
+ * the same in either mode.
+ *
+ * Files with <code>LENGTH_PREFIXED</code> framing are read as a sequence of
+ * frames each preceded by a sync marker, its length and a checksum instead of
+ * as lines. Data that does not start with a sync marker and frames whose
+ * length or checksum is invalid are skipped up to the next sync marker, so
+ * a partially written frame only loses that frame. When reading such a file
+ * resumes from a position other than its start, the frames preceding that
+ * position are first replayed to the listener so that it can rebuild any
+ * state spanning frames. Frames are always read into a buffer; memory
+ * mapping only applies to lines.
+ *
  * @author Brandon Arp (barp at groupon dot com)
  * @author Ville Koskela (vkoskela at groupon dot com)
  */
@@ -110,6 +132,8 @@ public final class StatefulTailer implements Tailer {
                 .put("Listener", _listener)
                 .put("IsRunning", _isRunning)
                 .put("Trigger", _trigger)
+                .put("MemoryMapped", _memoryMapped)
+                .put("Framing", _framing)
                 .build();
     }
 
@@ -131,13 +155,13 @@ public final class StatefulTailer implements Tailer {
     }
 
     private void fileLoop() throws IOException, InterruptedException {
-        SeekableByteChannel reader = null;
+        FileChannel reader = null;
         InitialPosition nextInitialPosition = _initialPosition;
         try {
             while (isRunning()) {
                 // Attempt to open the file
                 try {
-                    reader = Files.newByteChannel(_file.toPath(), StandardOpenOption.READ);
+                    reader = FileChannel.open(_file.toPath(), StandardOpenOption.READ);
                     LOGGER.trace()
                             .setMessage("Opened file")
                             .addData("file", _file)
@@ -161,25 +185,30 @@ public final class StatefulTailer implements Tailer {
                             .addData("file", _file)
                             .addData("position", position)
                             .log();
+                    if (_framing == Framing.LENGTH_PREFIXED && position > 0) {
+                        replayFrames(reader, position);
+                    }
                     reader.position(position);
 
                     // Read the file
                     readLoop(reader);
 
                     // Reset per file state
+                    unmapRegion();
                     IOUtils.closeQuietly(reader);
                     reader = null;
                     _hash = Optional.absent();
                 }
             }
         } finally {
+            unmapRegion();
             IOUtils.closeQuietly(reader);
             reader = null;
             _hash = Optional.absent();
         }
     }
 
-    private void readLoop(final SeekableByteChannel reader) throws IOException, InterruptedException {
+    private void readLoop(final FileChannel reader) throws IOException, InterruptedException {
         Optional<Long> lastChecked = Optional.absent();
         Optional<String> currentReaderPrefixHash = Optional.absent();
         int currentReaderPrefixHashLength = 0;
@@ -233,7 +262,7 @@ public final class StatefulTailer implements Tailer {
                         // actually got more data in the current file.
 
                         rotate(
-                                Optional.<SeekableByteChannel>absent(),
+                                Optional.<FileChannel>absent(),
                                 String.format(
                                         "File rotation detected based on length and no new data; file=%s, length=%d, position=%d",
                                         _file,
@@ -257,7 +286,7 @@ public final class StatefulTailer implements Tailer {
                     // the same data at the beginning of each period.
 
                     rotate(
-                            Optional.<SeekableByteChannel>absent(),
+                            Optional.<FileChannel>absent(),
                             String.format(
                                     "File rotation detected based equal length and position but newer"
                                             + "; file=%s, length=%d, position=%d, lastChecked=%s, attributes=%s",
@@ -284,7 +313,7 @@ public final class StatefulTailer implements Tailer {
                     if (hashesSame.isPresent() && !hashesSame.get()) {
                         // The file rotated with the same length!
                         rotate(
-                                Optional.<SeekableByteChannel>absent(),
+                                Optional.<FileChannel>absent(),
                                 String.format(
                                         "File rotation detected based on hash; file=%s",
                                         _file));
@@ -339,7 +368,7 @@ public final class StatefulTailer implements Tailer {
                 lastChecked.isPresent() && attributes.lastModifiedTime().toMillis() > lastChecked.get());
     }
 
-    private void rotate(final Optional<SeekableByteChannel> reader, final String reason) throws InterruptedException, IOException {
+    private void rotate(final Optional<FileChannel> reader, final String reason) throws InterruptedException, IOException {
         // Allow a full read interval before calling it quits on the old file
         if (reader.isPresent()) {
             _trigger.waitOnTrigger();
@@ -352,12 +381,22 @@ public final class StatefulTailer implements Tailer {
         LOGGER.info(reason);
     }
 
-    private boolean readLines(final SeekableByteChannel reader) throws IOException {
+    private boolean readLines(final FileChannel reader) throws IOException {
         // Compute the hash if not already set
         if (!_hash.isPresent() && reader.size() >= REQUIRED_BYTES_FOR_HASH) {
             _hash = computeHash(reader, REQUIRED_BYTES_FOR_HASH);
         }
 
+        if (_framing == Framing.LENGTH_PREFIXED) {
+            return readFrames(reader, Long.MAX_VALUE, false);
+        }
+        if (_memoryMapped) {
+            return readMappedLines(reader);
+        }
+        return readBufferedLines(reader);
+    }
+
+    private boolean readBufferedLines(final FileChannel reader) throws IOException {
         // Track current position in file and next read position
         // NOTE: The next read position is always the beginning of a line
         long position = reader.position();
@@ -407,6 +446,267 @@ public final class StatefulTailer implements Tailer {
         return hasData;
     }
 
+    private boolean readMappedLines(final FileChannel reader) throws IOException {
+        // Track the next read position which is always the beginning of a line
+        final long size = reader.size();
+        long nextReadPosition = reader.position();
+        if (nextReadPosition >= size) {
+            return false;
+        }
+
+        long regionSize = MAPPED_REGION_SIZE;
+        try {
+            while (isRunning() && nextReadPosition < size) {
+                final ByteBuffer region = mapRegion(reader, nextReadPosition, Math.min(size - nextReadPosition, regionSize));
+                final long regionStart = _mappedRegionStart;
+                final long regionEnd = regionStart + region.limit();
+                final ByteBuffer line = region.duplicate();
+
+                final int unreadStart = (int) (nextReadPosition - regionStart);
+                int lineStart = unreadStart;
+                int lineEnd = findLineEnd(region, lineStart);
+                while (isRunning() && lineEnd >= 0) {
+                    final int next = skipLineTerminator(region, lineEnd);
+                    line.clear();
+                    line.position(lineStart);
+                    line.limit(lineEnd);
+                    _listener.handle(line);
+                    lineStart = next;
+                    nextReadPosition = regionStart + next;
+                    updateCheckpoint(nextReadPosition);
+                    lineEnd = findLineEnd(region, lineStart);
+                }
+
+                if (regionEnd >= size) {
+                    // Any remaining data is a partial line
+                    break;
+                }
+                if (lineStart == unreadStart && regionEnd - nextReadPosition >= regionSize) {
+                    // The line does not fit in the region
+                    if (regionSize >= Integer.MAX_VALUE) {
+                        throw new IOException(String.format(
+                                "Line exceeds maximum length; file=%s, position=%d",
+                                _file,
+                                nextReadPosition));
+                    }
+                    regionSize = Math.min(regionSize * 2, Integer.MAX_VALUE);
+                }
+            }
+        } catch (final InternalError e) {
+            // Accessing a mapped region of a file truncated underneath us
+            // faults; the rotation is detected on the next read loop
+            LOGGER.warn()
+                    .setMessage("Mapped file truncated while reading")
+                    .addData("file", _file)
+                    .addData("position", nextReadPosition)
+                    .setThrowable(e)
+                    .log();
+            unmapRegion();
+        } finally {
+            reader.position(nextReadPosition);
+        }
+        return true;
+    }
+
+    private ByteBuffer mapRegion(final FileChannel reader, final long start, final long length) throws IOException {
+        // The current region is reused until the data to read extends past
+        // it; for example, while the file ends with a partial line
+        if (_mappedRegion != null
+                && start >= _mappedRegionStart
+                && start + length <= _mappedRegionStart + _mappedRegion.capacity()) {
+            return _mappedRegion;
+        }
+        unmapRegion();
+        _mappedRegion = reader.map(FileChannel.MapMode.READ_ONLY, start, length);
+        _mappedRegionStart = start;
+        return _mappedRegion;
+    }
+
+    private void unmapRegion() {
+        // NOTE: No view of the region may be retained (see TailerListener)
+        MappedBuffers.unmap(_mappedRegion);
+        _mappedRegion = null;
+        _mappedRegionStart = 0;
+    }
+
+    private void replayFrames(final FileChannel reader, final long position) throws IOException {
+        LOGGER.debug()
+                .setMessage("Replaying frames")
+                .addData("file", _file)
+                .addData("position", position)
+                .log();
+        reader.position(0);
+        readFrames(reader, position, true);
+    }
+
+    private boolean readFrames(final FileChannel reader, final long limit, final boolean replay) throws IOException {
+        // Track the next read position which is always the beginning of a
+        // frame or of data being skipped
+        long nextReadPosition = reader.position();
+        long skippedPosition = nextReadPosition;
+        long skippedLength = 0;
+
+        _frameBuffer.clear();
+        boolean hasData = false;
+        boolean isComplete = false;
+        while (isRunning() && !isComplete && nextReadPosition < limit) {
+            growFrameBuffer();
+            if (reader.read(_frameBuffer) <= 0) {
+                break;
+            }
+            hasData = true;
+            _frameBuffer.flip();
+
+            while (isRunning() && nextReadPosition < limit) {
+                final int frameStart = _frameBuffer.position();
+                final int markerStart = findSyncMarker(_frameBuffer, frameStart);
+                if (markerStart != frameStart) {
+                    // Skip data up to the next sync marker; without one the
+                    // last byte may be the start of a marker
+                    final int skipEnd = markerStart >= 0 ? markerStart : Math.max(frameStart, _frameBuffer.limit() - 1);
+                    if (skipEnd == frameStart) {
+                        break;
+                    }
+                    if (skippedLength == 0) {
+                        skippedPosition = nextReadPosition;
+                    }
+                    final int skip = (int) Math.min(skipEnd - frameStart, limit - nextReadPosition);
+                    _frameBuffer.position(frameStart + skip);
+                    nextReadPosition += skip;
+                    skippedLength += skip;
+                    continue;
+                }
+                _frameBuffer.position(frameStart + SYNC_MARKER.length);
+                final long length = readFrameLength(_frameBuffer);
+                if (length < 0 || (length <= MAXIMUM_FRAME_LENGTH && _frameBuffer.remaining() < CHECKSUM_SIZE + length)) {
+                    // Any remaining data is a partial frame
+                    _frameBuffer.position(frameStart);
+                    break;
+                }
+                if (length > MAXIMUM_FRAME_LENGTH || !isChecksumValid(_frameBuffer, (int) length)) {
+                    // Skip the sync marker of the invalid frame and search
+                    // for the next one
+                    if (skippedLength == 0) {
+                        skippedPosition = nextReadPosition;
+                    }
+                    _frameBuffer.position(frameStart + 1);
+                    nextReadPosition += 1;
+                    skippedLength += 1;
+                    continue;
+                }
+                final int frameEnd = _frameBuffer.position() + CHECKSUM_SIZE + (int) length;
+                if (nextReadPosition + frameEnd - frameStart > limit) {
+                    _frameBuffer.position(frameStart);
+                    isComplete = true;
+                    break;
+                }
+                if (skippedLength > 0) {
+                    logSkipped(skippedPosition, skippedLength);
+                    skippedLength = 0;
+                }
+                final ByteBuffer frame = _frameBuffer.duplicate();
+                frame.position(_frameBuffer.position() + CHECKSUM_SIZE);
+                frame.limit(frameEnd);
+                _frameBuffer.position(frameEnd);
+                nextReadPosition += frameEnd - frameStart;
+                deliverFrame(frame, nextReadPosition, replay);
+            }
+            _frameBuffer.compact();
+        }
+        if (skippedLength > 0) {
+            logSkipped(skippedPosition, skippedLength);
+        }
+
+        reader.position(nextReadPosition);
+        return hasData;
+    }
+
+    private void logSkipped(final long position, final long length) {
+        LOGGER.warn()
+                .setMessage("Skipped invalid frame data")
+                .addData("file", _file)
+                .addData("position", position)
+                .addData("length", length)
+                .log();
+    }
+
+    private void growFrameBuffer() {
+        if (!_frameBuffer.hasRemaining()) {
+            // The frame does not fit in the buffer
+            final ByteBuffer frameBuffer = ByteBuffer.allocate(_frameBuffer.capacity() * 2);
+            _frameBuffer.flip();
+            frameBuffer.put(_frameBuffer);
+            _frameBuffer = frameBuffer;
+        }
+    }
+
+    private void deliverFrame(final ByteBuffer frame, final long nextReadPosition, final boolean replay) {
+        if (replay) {
+            _listener.replay(frame);
+        } else {
+            _listener.handle(frame);
+            updateCheckpoint(nextReadPosition);
+        }
+    }
+
+    private static long readFrameLength(final ByteBuffer buffer) {
+        long length = 0;
+        for (int shift = 0; buffer.hasRemaining(); shift += 7) {
+            final byte b = buffer.get();
+            length |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return length;
+            }
+            if (shift >= MAXIMUM_FRAME_LENGTH_SHIFT) {
+                // Longer than any valid length
+                return Long.MAX_VALUE;
+            }
+        }
+        return -1;
+    }
+
+    private static int findSyncMarker(final ByteBuffer buffer, final int start) {
+        final int limit = buffer.limit() - SYNC_MARKER.length + 1;
+        for (int i = start; i < limit; ++i) {
+            if (buffer.get(i) == SYNC_MARKER[0] && buffer.get(i + 1) == SYNC_MARKER[1]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isChecksumValid(final ByteBuffer buffer, final int length) {
+        final int checksumStart = buffer.position();
+        final ByteBuffer payload = buffer.duplicate();
+        payload.position(checksumStart + CHECKSUM_SIZE);
+        payload.limit(checksumStart + CHECKSUM_SIZE + length);
+        final CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (buffer.getInt(checksumStart) & 0xffffffffL) == crc.getValue();
+    }
+
+    private static int findLineEnd(final ByteBuffer region, final int start) {
+        final int limit = region.limit();
+        for (int i = start; i < limit; ++i) {
+            final byte ch = region.get(i);
+            if (ch == '\n') {
+                return i;
+            }
+            if (ch == '\r') {
+                // Whether a trailing CR is followed by LF is not yet known
+                return i + 1 < limit ? i : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipLineTerminator(final ByteBuffer region, final int lineEnd) {
+        if (region.get(lineEnd) == '\r' && region.get(lineEnd + 1) == '\n') {
+            return lineEnd + 2;
+        }
+        return lineEnd + 1;
+    }
+
     private Optional<Boolean> compareByHash(final Optional<String> prefixHash, final int prefixLength) {
         final int appliedLength;
         if (_hash.isPresent()) {
@@ -506,6 +806,7 @@ public final class StatefulTailer implements Tailer {
 
         _buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
         _lineBuffer = new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+        _frameBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
         try {
             _md5 = MessageDigest.getInstance("MD5");
         } catch (final NoSuchAlgorithmException e) {
@@ -513,6 +814,8 @@ public final class StatefulTailer implements Tailer {
         }
 
         _initialPosition = builder._initialPosition;
+        _memoryMapped = builder._memoryMapped;
+        _framing = builder._framing;
         _listener.initialize(this);
     }
 
@@ -529,12 +832,22 @@ public final class StatefulTailer implements Tailer {
     private final MessageDigest _md5;
     private final InitialPosition _initialPosition;
     private final Trigger _trigger;
+    private final boolean _memoryMapped;
+    private final Framing _framing;
 
     private volatile boolean _isRunning = true;
     private Optional<String> _hash = Optional.absent();
+    private ByteBuffer _frameBuffer;
+    private MappedByteBuffer _mappedRegion;
+    private long _mappedRegionStart;
 
     private static final int REQUIRED_BYTES_FOR_HASH = 512;
     private static final int INITIAL_BUFFER_SIZE = 65536;
+    private static final long MAPPED_REGION_SIZE = 16 * 1024 * 1024;
+    private static final long MAXIMUM_FRAME_LENGTH = 64 * 1024 * 1024;
+    private static final int MAXIMUM_FRAME_LENGTH_SHIFT = 28;
+    private static final byte[] SYNC_MARKER = new byte[] {(byte) 0xb5, (byte) 0x1f};
+    private static final int CHECKSUM_SIZE = 4;
     private static final Logger LOGGER = LoggerFactory.getLogger(StatefulTailer.class);
 
     private static final class Attributes {
@@ -646,6 +959,30 @@ public final class StatefulTailer implements Tailer {
             return this;
         }
 
+        /**
+         * Sets whether to memory map the file and hand lines to the listener
+         * as views of the mapped region. Optional. Default is false.
+         *
+         * @param value Whether to memory map the file.
+         * @return This instance of {@link Builder}
+         */
+        public Builder setMemoryMapped(final Boolean value) {
+            _memoryMapped = value;
+            return this;
+        }
+
+        /**
+         * Sets how the file is split into the data handed to the listener.
+         * Optional. Default is <code>LINE</code>.
+         *
+         * @param value The <code>Framing</code> of the file.
+         * @return This instance of {@link Builder}
+         */
+        public Builder setFraming(final Framing value) {
+            _framing = value;
+            return this;
+        }
+
         @NotNull
         private File _file;
         @NotNull
@@ -656,5 +993,9 @@ public final class StatefulTailer implements Tailer {
         private Duration _readInterval = Duration.millis(250);
         @NotNull
         private InitialPosition _initialPosition = InitialPosition.START;
+        @NotNull
+        private Boolean _memoryMapped = false;
+        @NotNull
+        private Framing _framing = Framing.LINE;
     }
 }
@@ -15,6 +15,8 @@
  */
 package com.arpnetworking.tsdcore.tailer;
 
+import java.nio.ByteBuffer;
+
 /**
  * Based on the Apache <code>TailerListener</code> but uses a <code>Tailer</code>
  * interface instead of a class for improved extensibility.
@@ -64,6 +66,35 @@ public interface TailerListener {
      */
     void handle(final byte[] line);
 
+    /**
+     * Handles a line from a <code>Tailer</code> as a view of the remaining
+     * bytes in the buffer. The buffer is only valid for the duration of the
+     * call and must not be retained. The default implementation copies the
+     * line and delegates to <code>handle(byte[])</code>.
+     * <p>
+     * <b>Note:</b> this is called from the <code>Tailer</code> thread.
+     * @param line the raw line.
+     */
+    default void handle(final ByteBuffer line) {
+        final byte[] bytes = new byte[line.remaining()];
+        line.duplicate().get(bytes);
+        handle(bytes);
+    }
+
+    /**
+     * Handles a frame which precedes the position the <code>Tailer</code>
+     * resumed reading a length prefixed file from. Listeners which decode
+     * state spanning frames (e.g. a dictionary) use these to rebuild it
+     * without reprocessing the frames. The buffer is only valid for the
+     * duration of the call and must not be retained. The default
+     * implementation ignores the frame.
+     * <p>
+     * <b>Note:</b> this is called from the <code>Tailer</code> thread.
+     * @param frame the raw frame.
+     */
+    default void replay(final ByteBuffer frame) {
+    }
+
     /**
      * Handles a <code>Throwable</code> encountered during tailing.
      * <p>
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Releases the memory mapping of a <code>MappedByteBuffer</code> without
+ * waiting for the buffer to be garbage collected. Until then the mapping
+ * counts against the process' address space and, on some platforms, prevents
+ * the file from being deleted.
+ *
+ * The JDK does not expose unmapping, so the buffer's cleaner is invoked
+ * reflectively; if that is not possible the mapping is left to the garbage
+ * collector. The buffer and any buffer derived from it must not be accessed
+ * once it is unmapped.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class MappedBuffers {
+
+    /**
+     * Unmap a buffer.
+     *
+     * @param buffer The buffer to unmap.
+     */
+    public static void unmap(final MappedByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } else if (CLEANER != null && CLEAN != null) {
+                final Object cleaner = CLEANER.invoke(buffer);
+                if (cleaner != null) {
+                    CLEAN.invoke(cleaner);
+                }
+            }
+        } catch (final IllegalAccessException | InvocationTargetException e) {
+            LOGGER.debug()
+                    .setMessage("Unable to unmap buffer")
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private MappedBuffers() {}
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MappedBuffers.class);
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+    private static final Method CLEANER;
+    private static final Method CLEAN;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        Method cleaner = null;
+        Method clean = null;
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            unsafe = unsafeField.get(null);
+        } catch (final ReflectiveOperationException | SecurityException e) {
+            invokeCleaner = null;
+            try {
+                // Java 8
+                cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+                clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            } catch (final ReflectiveOperationException | SecurityException e2) {
+                LOGGER.debug()
+                        .setMessage("Unmapping buffers is not supported")
+                        .setThrowable(e2)
+                        .log();
+            }
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+        CLEANER = cleaner;
+        CLEAN = clean;
+    }
+}
@@ -19,14 +19,18 @@ import com.arpnetworking.logback.annotations.LogValue;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
 import net.sf.oval.ConstraintViolation;
 import net.sf.oval.Validator;
 import net.sf.oval.exception.ConstraintsViolatedException;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.List;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This abstract class for builders that define data constraints using Oval
@@ -137,34 +141,26 @@ public abstract class OvalBuilder<T> implements Builder<T> {
     /**
      * Protected method to construct the target class reflectively from the
      * specified type by passing its constructor an instance of this builder.
+     * The constructor is resolved once per builder class and invoked through
+     * a cached <code>MethodHandle</code> thereafter.
      *
      * @return Instance of target class created from this builder.
      */
+    @SuppressWarnings("unchecked")
     protected T construct() {
+        final MethodHandle constructor = getConstructor();
         try {
-            final Constructor<? extends T> constructor = _targetClass.getDeclaredConstructor(this.getClass());
-            constructor.setAccessible(true);
-            return constructor.newInstance(this);
-
-        } catch (final NoSuchMethodException
-                | SecurityException
-                | InstantiationException
-                | IllegalAccessException
-                | IllegalArgumentException e) {
-            throw new UnsupportedOperationException(
-                    String.format(UNABLE_TO_CONSTRUCT_TARGET_CLASS, _targetClass),
-                    e);
-        } catch (final InvocationTargetException e) {
-            // If the constructor of the class threw an exception, unwrap it and
-            // rethrow it. If the constructor throws anything other than a
-            // RuntimeException we wrap it.
-            final Throwable cause = e.getCause();
-            if (cause instanceof RuntimeException) {
-                throw (RuntimeException) cause;
-            }
+            return (T) constructor.invoke(this);
+            // CHECKSTYLE.OFF: IllegalCatch - Constructors may throw anything
+        } catch (final Throwable t) {
+            // CHECKSTYLE.ON: IllegalCatch
+            // If the constructor of the class threw an exception, rethrow it.
+            // If the constructor throws anything other than a RuntimeException
+            // or an Error we wrap it.
+            Throwables.propagateIfPossible(t);
             throw new UnsupportedOperationException(
                     String.format(UNABLE_TO_CONSTRUCT_TARGET_CLASS, _targetClass),
-                    cause);
+                    t);
         }
     }
 
@@ -177,6 +173,26 @@ public abstract class OvalBuilder<T> implements Builder<T> {
         _targetClass = targetClass;
     }
 
+    private MethodHandle getConstructor() {
+        final CachedConstructor cachedConstructor = CONSTRUCTORS.get(getClass());
+        if (cachedConstructor != null && cachedConstructor._targetClass.equals(_targetClass)) {
+            return cachedConstructor._constructor;
+        }
+        try {
+            final Constructor<? extends T> constructor = _targetClass.getDeclaredConstructor(this.getClass());
+            constructor.setAccessible(true);
+            final MethodHandle methodHandle = MethodHandles.lookup().unreflectConstructor(constructor);
+            CONSTRUCTORS.put(getClass(), new CachedConstructor(_targetClass, methodHandle));
+            return methodHandle;
+        } catch (final NoSuchMethodException
+                | SecurityException
+                | IllegalAccessException e) {
+            throw new UnsupportedOperationException(
+                    String.format(UNABLE_TO_CONSTRUCT_TARGET_CLASS, _targetClass),
+                    e);
+        }
+    }
+
     private static Optional<Method> getGetterForSetter(final Method setter, final Class<?> clazz) {
         // Attempt to find "getFoo" and then "isFoo"; the parameter type is not
         // definitively indicative of get vs is because an Optional wrapped
@@ -218,8 +234,20 @@ public abstract class OvalBuilder<T> implements Builder<T> {
     private final Class<? extends T> _targetClass;
 
     private static final Validator VALIDATOR = new Validator();
+    private static final ConcurrentMap<Class<?>, CachedConstructor> CONSTRUCTORS = Maps.newConcurrentMap();
     private static final String GETTER_IS_METHOD_PREFIX = "is";
     private static final String GETTER_GET_METHOD_PREFIX = "get";
     private static final String SETTER_METHOD_PREFIX = "set";
     private static final String UNABLE_TO_CONSTRUCT_TARGET_CLASS = "Unable to construct target class; target_class=%s";
+
+    private static final class CachedConstructor {
+
+        private CachedConstructor(final Class<?> targetClass, final MethodHandle constructor) {
+            _targetClass = targetClass;
+            _constructor = constructor;
+        }
+
+        private final Class<?> _targetClass;
+        private final MethodHandle _constructor;
+    }
 }
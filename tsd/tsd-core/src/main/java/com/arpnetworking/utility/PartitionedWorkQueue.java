@@ -0,0 +1,390 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotEmpty;
+import net.sf.oval.constraint.NotNull;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Hands off work items from producer threads to a fixed set of worker
+ * threads. Each partition is a bounded <code>ArrayBlockingQueue</code> drained
+ * by exactly one worker thread which passes each item to that partition's consumer. Items
+ * offered to the same partition are consumed in order and never concurrently,
+ * so consumer state owned by a partition requires no synchronization. When a
+ * partition is full the item is either dropped or the producer blocks until
+ * there is capacity depending on the <code>OverflowPolicy</code>. Items
+ * offered before the queue is launched or once it is shut down are dropped
+ * and counted.
+ *
+ * This class is thread safe.
+ *
+ * @param <T> The type of work item.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class PartitionedWorkQueue<T> implements Launchable {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized void launch() {
+        if (_executor != null) {
+            throw new IllegalStateException("PartitionedWorkQueue already launched");
+        }
+        _isRunning = true;
+        _executor = Executors.newFixedThreadPool(
+                _queues.size(),
+                new ThreadFactoryBuilder().setNameFormat(_name + "-%d").setDaemon(true).build());
+        for (int i = 0; i < _queues.size(); ++i) {
+            _executor.execute(new Worker(_queues.get(i), _consumers.get(i)));
+        }
+        if (_registry != null) {
+            _registry.register(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Items already queued are consumed before the workers exit.
+     */
+    @Override
+    public synchronized void shutdown() {
+        _isRunning = false;
+        if (_executor != null) {
+            _executor.shutdown();
+            try {
+                _executor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                LOGGER.warn()
+                        .setMessage("Unable to shutdown work queue executor")
+                        .addData("queue", this)
+                        .setThrowable(e)
+                        .log();
+            }
+            _executor = null;
+        }
+        if (_registry != null) {
+            _registry.unregister(this);
+        }
+    }
+
+    /**
+     * Offer an item to the next partition in round robin order.
+     *
+     * @param item The item to process.
+     * @return True if and only if the item was queued.
+     */
+    public boolean offer(final T item) {
+        return offer(Math.floorMod(_nextPartition.getAndIncrement(), _queues.size()), item);
+    }
+
+    /**
+     * Offer an item to a specific partition.
+     *
+     * @param partition The index of the partition.
+     * @param item The item to process.
+     * @return True if and only if the item was queued.
+     */
+    public boolean offer(final int partition, final T item) {
+        final BlockingQueue<T> queue = _queues.get(partition);
+        if (!_isRunning) {
+            _droppedCount.incrementAndGet();
+            return false;
+        }
+        if (OverflowPolicy.DROP.equals(_overflowPolicy)) {
+            if (!queue.offer(item)) {
+                _droppedCount.incrementAndGet();
+                return false;
+            }
+        } else {
+            try {
+                while (!queue.offer(item, POLL_INTERVAL_IN_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                    if (!_isRunning) {
+                        _droppedCount.incrementAndGet();
+                        return false;
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                _droppedCount.incrementAndGet();
+                return false;
+            }
+        }
+        // The worker may have drained the partition for the last time after
+        // the queue was shut down; if so the item is withdrawn
+        if (!_isRunning && queue.remove(item)) {
+            _droppedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public int getPartitionCount() {
+        return _queues.size();
+    }
+
+    public int getCapacity() {
+        return _queues.size() * _partitionCapacity;
+    }
+
+    /**
+     * Accessor for the number of items queued and not yet consumed across
+     * all partitions.
+     *
+     * @return The number of items queued.
+     */
+    public int getDepth() {
+        int depth = 0;
+        for (final BlockingQueue<T> queue : _queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public long getDroppedCount() {
+        return _droppedCount.get();
+    }
+
+    public long getConsumedCount() {
+        return _consumedCount.get();
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return _overflowPolicy;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("Name", _name)
+                .add("Partitions", _queues.size())
+                .add("PartitionCapacity", _partitionCapacity)
+                .add("OverflowPolicy", _overflowPolicy)
+                .add("Depth", getDepth())
+                .add("DroppedCount", _droppedCount)
+                .add("ConsumedCount", _consumedCount)
+                .toString();
+    }
+
+    private PartitionedWorkQueue(final Builder<T> builder) {
+        _name = builder._name;
+        _consumers = ImmutableList.copyOf(builder._consumers);
+        _partitionCapacity = builder._partitionCapacity;
+        _overflowPolicy = builder._overflowPolicy;
+        _registry = builder._registry;
+        final ImmutableList.Builder<BlockingQueue<T>> queues = ImmutableList.builder();
+        for (int i = 0; i < _consumers.size(); ++i) {
+            queues.add(new ArrayBlockingQueue<>(_partitionCapacity));
+        }
+        _queues = queues.build();
+    }
+
+    private volatile boolean _isRunning = false;
+    private ExecutorService _executor;
+
+    private final String _name;
+    private final ImmutableList<Consumer<T>> _consumers;
+    private final ImmutableList<BlockingQueue<T>> _queues;
+    private final int _partitionCapacity;
+    private final OverflowPolicy _overflowPolicy;
+    private final WorkQueueRegistry _registry;
+    private final AtomicInteger _nextPartition = new AtomicInteger(0);
+    private final AtomicLong _droppedCount = new AtomicLong(0);
+    private final AtomicLong _consumedCount = new AtomicLong(0);
+
+    private static final long POLL_INTERVAL_IN_MILLISECONDS = 100;
+    private static final Logger LOGGER = LoggerFactory.getLogger(PartitionedWorkQueue.class);
+
+    private final class Worker implements Runnable {
+
+        private Worker(final BlockingQueue<T> queue, final Consumer<T> consumer) {
+            _queue = queue;
+            _consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            while (_isRunning || !_queue.isEmpty()) {
+                final T item;
+                try {
+                    item = _queue.poll(POLL_INTERVAL_IN_MILLISECONDS, TimeUnit.MILLISECONDS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (item != null) {
+                    consume(item);
+                }
+            }
+            // Drain items offered while the loop was exiting
+            T item = _queue.poll();
+            while (item != null) {
+                consume(item);
+                item = _queue.poll();
+            }
+        }
+
+        private void consume(final T item) {
+            try {
+                _consumer.accept(item);
+                // CHECKSTYLE.OFF: IllegalCatch - Prevent worker thread death
+            } catch (final Exception e) {
+                // CHECKSTYLE.ON: IllegalCatch
+                LOGGER.error()
+                        .setMessage("Work item failed")
+                        .addData("queue", PartitionedWorkQueue.this)
+                        .addData("item", item)
+                        .setThrowable(e)
+                        .log();
+            }
+            _consumedCount.incrementAndGet();
+        }
+
+        private final BlockingQueue<T> _queue;
+        private final Consumer<T> _consumer;
+    }
+
+    /**
+     * Behavior when offering an item to a full partition.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Block the producer until there is capacity.
+         */
+        BLOCK,
+        /**
+         * Drop the item and count it.
+         */
+        DROP
+    }
+
+    /**
+     * Implementation of builder pattern for <code>PartitionedWorkQueue</code>.
+     *
+     * @param <T> The type of work item.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    public static final class Builder<T> extends OvalBuilder<PartitionedWorkQueue<T>> {
+
+        /**
+         * Public constructor.
+         */
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        public Builder() {
+            super((Class) PartitionedWorkQueue.class);
+        }
+
+        /**
+         * Set the name; used for worker thread names and reporting. Cannot
+         * be null or empty.
+         *
+         * @param value The name.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder<T> setName(final String value) {
+            _name = value;
+            return this;
+        }
+
+        /**
+         * Set the consumer for each partition; there is one partition and
+         * one worker thread per consumer. Cannot be null or empty.
+         *
+         * @param value The consumers.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder<T> setConsumers(final List<Consumer<T>> value) {
+            _consumers = value;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of items queued per partition. Optional.
+         * Default is 1024.
+         *
+         * @param value The partition capacity.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder<T> setPartitionCapacity(final Integer value) {
+            _partitionCapacity = value;
+            return this;
+        }
+
+        /**
+         * Set the overflow policy. Optional. Default is
+         * <code>OverflowPolicy.BLOCK</code>.
+         *
+         * @param value The overflow policy.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder<T> setOverflowPolicy(final OverflowPolicy value) {
+            _overflowPolicy = value;
+            return this;
+        }
+
+        /**
+         * Set the registry to report the queue to while it is running.
+         * Optional. Default is not to report the queue.
+         *
+         * @param value The registry.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder<T> setRegistry(final WorkQueueRegistry value) {
+            _registry = value;
+            return this;
+        }
+
+        @NotNull
+        @NotEmpty
+        private String _name;
+        @NotNull
+        @NotEmpty
+        private List<Consumer<T>> _consumers;
+        @NotNull
+        @Min(value = 1)
+        private Integer _partitionCapacity = 1024;
+        @NotNull
+        private OverflowPolicy _overflowPolicy = OverflowPolicy.BLOCK;
+        private WorkQueueRegistry _registry;
+    }
+}
@@ -0,0 +1,520 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotNull;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Period;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Appends data to a file through a buffer, rotating the file when it exceeds
+ * a maximum size or when the rotation period elapses. Rotated files are
+ * optionally compressed in the background and are named with the time of
+ * rotation in UTC:
+ *
+ * [name].yyyy-MM-dd-HH-mm-ss-SSS[extension][.gz]
+ *
+ * Only the most recent <code>maxRotatedFiles</code> rotated files are
+ * retained; zero retains all files.
+ *
+ * Data is made durable in groups: <code>commit</code> is invoked after each
+ * group of writes and applies the <code>FlushPolicy</code>.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class RotatingFileWriter implements Closeable {
+
+    /**
+     * Append data to the file rotating it first if necessary.
+     *
+     * @param data The data.
+     * @throws IOException If writing to the file fails.
+     */
+    public synchronized void write(final byte[] data) throws IOException {
+        if (_isClosed) {
+            throw new IOException("Writer is closed");
+        }
+        final long now = System.currentTimeMillis();
+        if (_channel != null && (now >= _nextRotation || (_maxFileSize > 0 && _size >= _maxFileSize))) {
+            rotate(now);
+        }
+        if (_channel == null) {
+            open(now);
+        }
+        if (data.length > _buffer.remaining()) {
+            drain();
+        }
+        if (data.length > _buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(data));
+        } else {
+            _buffer.put(data);
+        }
+        _size += data.length;
+    }
+
+    /**
+     * Complete a group of writes by applying the flush policy.
+     *
+     * @throws IOException If writing to the file fails.
+     */
+    public synchronized void commit() throws IOException {
+        if (_flushPolicy == FlushPolicy.BATCH) {
+            flush();
+        } else if (_flushPolicy == FlushPolicy.SYNC) {
+            flush();
+            if (_channel != null) {
+                _channel.force(false);
+            }
+        }
+    }
+
+    /**
+     * Write any buffered data to the file.
+     *
+     * @throws IOException If writing to the file fails.
+     */
+    public synchronized void flush() throws IOException {
+        if (_channel != null) {
+            drain();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Waits for any pending compression to complete.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            synchronized (this) {
+                _isClosed = true;
+                closeChannel();
+            }
+        } finally {
+            _executor.shutdown();
+            try {
+                _executor.awaitTermination(TERMINATION_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder()
+                .put("id", Integer.toHexString(System.identityHashCode(this)))
+                .put("class", this.getClass())
+                .put("File", _file)
+                .put("MaxFileSize", _maxFileSize)
+                .put("RotationPeriod", _rotationPeriod)
+                .put("MaxRotatedFiles", _maxRotatedFiles)
+                .put("Compression", _compression)
+                .put("FlushPolicy", _flushPolicy)
+                .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private void open(final long now) throws IOException {
+        final File parent = _file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        _channel = FileChannel.open(
+                _file.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        _size = _channel.size();
+        _nextRotation = _rotationPeriod == null ? Long.MAX_VALUE : new DateTime(now).plus(_rotationPeriod).getMillis();
+    }
+
+    private void rotate(final long now) throws IOException {
+        closeChannel();
+        final File rotatedFile = getRotatedFile(now);
+        if (_compression == Compression.GZIP) {
+            // Move the file aside so writing can resume immediately
+            final File temporaryFile = new File(_file.getPath() + "." + System.nanoTime() + ".tmp");
+            Files.move(_file.toPath(), temporaryFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            _executor.execute(() -> compress(temporaryFile, rotatedFile));
+        } else {
+            Files.move(_file.toPath(), rotatedFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        if (_maxRotatedFiles > 0) {
+            _executor.execute(this::removeExpiredFiles);
+        }
+    }
+
+    private File getRotatedFile(final long now) {
+        // Rotated file names are unique and sort in rotation order
+        long time = Math.max(now, _lastRotation + 1);
+        File rotatedFile = createRotatedFile(time);
+        while (rotatedFile.exists()) {
+            rotatedFile = createRotatedFile(++time);
+        }
+        _lastRotation = time;
+        return rotatedFile;
+    }
+
+    private File createRotatedFile(final long time) {
+        return new File(_fileNameWithoutExtension + "." + ROTATION_FORMATTER.print(time) + _extension + _compression.getExtension());
+    }
+
+    private void closeChannel() throws IOException {
+        if (_channel != null) {
+            try {
+                drain();
+            } finally {
+                _channel.close();
+                _channel = null;
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        _buffer.flip();
+        try {
+            writeFully(_buffer);
+        } finally {
+            _buffer.clear();
+        }
+    }
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            _channel.write(buffer);
+        }
+    }
+
+    private void compress(final File source, final File destination) {
+        try {
+            try (final InputStream inputStream = Files.newInputStream(source.toPath());
+                 final OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(destination.toPath()), BUFFER_SIZE)) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int length = inputStream.read(buffer);
+                while (length >= 0) {
+                    outputStream.write(buffer, 0, length);
+                    length = inputStream.read(buffer);
+                }
+            }
+            Files.delete(source.toPath());
+        } catch (final IOException e) {
+            LOGGER.warn()
+                    .setMessage("Unable to compress rotated file")
+                    .addData("writer", this)
+                    .addData("source", source)
+                    .addData("destination", destination)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private void removeExpiredFiles() {
+        final File directory = _file.getAbsoluteFile().getParentFile();
+        final String prefix = new File(_fileNameWithoutExtension).getName() + ".";
+        final String suffix = _extension + _compression.getExtension();
+        final File[] files = directory == null ? null : directory.listFiles(
+                (dir, name) -> name.length() == prefix.length() + ROTATION_FORMAT.length() + suffix.length()
+                        && name.startsWith(prefix)
+                        && name.endsWith(suffix));
+        if (files == null || files.length <= _maxRotatedFiles) {
+            return;
+        }
+        Arrays.sort(files);
+        for (int i = 0; i < files.length - _maxRotatedFiles; ++i) {
+            if (!files[i].delete()) {
+                LOGGER.warn()
+                        .setMessage("Unable to remove expired rotated file")
+                        .addData("writer", this)
+                        .addData("file", files[i])
+                        .log();
+            }
+        }
+    }
+
+    private RotatingFileWriter(final Builder builder) {
+        _file = builder._file;
+        final String name = _file.getName();
+        final int extensionIndex = name.lastIndexOf('.');
+        if (extensionIndex > 0) {
+            _extension = name.substring(extensionIndex);
+            _fileNameWithoutExtension = _file.getPath().substring(0, _file.getPath().length() - _extension.length());
+        } else {
+            _extension = "";
+            _fileNameWithoutExtension = _file.getPath();
+        }
+        _maxFileSize = builder._maxFileSize;
+        _rotationPeriod = builder._rotationPeriod;
+        _maxRotatedFiles = builder._maxRotatedFiles;
+        _compression = builder._compression;
+        _flushPolicy = builder._flushPolicy;
+        _buffer = ByteBuffer.allocate(builder._bufferSize);
+        _executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("RotatingFileWriter-" + name).setDaemon(true).build());
+        if (_flushPolicy == FlushPolicy.INTERVAL) {
+            final long interval = builder._flushInterval.toStandardDuration().getMillis();
+            _executor.scheduleAtFixedRate(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (final IOException e) {
+            LOGGER.warn()
+                    .setMessage("Unable to flush file")
+                    .addData("writer", this)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private final File _file;
+    private final String _fileNameWithoutExtension;
+    private final String _extension;
+    private final long _maxFileSize;
+    private final Period _rotationPeriod;
+    private final int _maxRotatedFiles;
+    private final Compression _compression;
+    private final FlushPolicy _flushPolicy;
+    private final ByteBuffer _buffer;
+    private final ScheduledExecutorService _executor;
+
+    private FileChannel _channel;
+    private long _size;
+    private long _nextRotation = Long.MAX_VALUE;
+    private long _lastRotation = 0;
+    private boolean _isClosed = false;
+
+    private static final String ROTATION_FORMAT = "yyyy-MM-dd-HH-mm-ss-SSS";
+    private static final DateTimeFormatter ROTATION_FORMATTER = DateTimeFormat.forPattern(ROTATION_FORMAT).withZone(DateTimeZone.UTC);
+    private static final int BUFFER_SIZE = 8192;
+    private static final long TERMINATION_TIMEOUT_IN_SECONDS = 30;
+    private static final Logger LOGGER = LoggerFactory.getLogger(RotatingFileWriter.class);
+
+    /**
+     * Compression of rotated files.
+     */
+    public enum Compression {
+        /**
+         * Rotated files are not compressed.
+         */
+        NONE(""),
+        /**
+         * Rotated files are compressed with gzip.
+         */
+        GZIP(".gz");
+
+        Compression(final String extension) {
+            _extension = extension;
+        }
+
+        public String getExtension() {
+            return _extension;
+        }
+
+        private final String _extension;
+    }
+
+    /**
+     * When committed writes are written to the file.
+     */
+    public enum FlushPolicy {
+        /**
+         * Each commit writes the buffered data to the file.
+         */
+        BATCH,
+        /**
+         * Buffered data is written to the file periodically.
+         */
+        INTERVAL,
+        /**
+         * Each commit writes the buffered data to the file and forces it to
+         * the storage device.
+         */
+        SYNC
+    }
+
+    /**
+     * Implementation of builder pattern for <code>RotatingFileWriter</code>.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    public static final class Builder extends OvalBuilder<RotatingFileWriter> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(RotatingFileWriter.class);
+        }
+
+        /**
+         * Set the file to write to. Cannot be null.
+         *
+         * @param value The file.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setFile(final File value) {
+            _file = value;
+            return this;
+        }
+
+        /**
+         * Set the size in bytes of the write buffer. Optional. Cannot be
+         * null; minimum 1. Default is 64 KiB.
+         *
+         * @param value The buffer size in bytes.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setBufferSize(final Integer value) {
+            _bufferSize = value;
+            return this;
+        }
+
+        /**
+         * Set the size in bytes at which the file is rotated. Zero disables
+         * rotation by size. Optional. Cannot be null; minimum 0. Default is
+         * 0.
+         *
+         * @param value The maximum file size in bytes.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setMaxFileSize(final Long value) {
+            _maxFileSize = value;
+            return this;
+        }
+
+        /**
+         * Set the period after which the file is rotated. Optional. Default
+         * is to not rotate by time.
+         *
+         * @param value The rotation period.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setRotationPeriod(final Period value) {
+            _rotationPeriod = value;
+            return this;
+        }
+
+        /**
+         * Set the number of rotated files to retain. Zero retains all files.
+         * Optional. Cannot be null; minimum 0. Default is 0.
+         *
+         * @param value The number of rotated files to retain.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setMaxRotatedFiles(final Integer value) {
+            _maxRotatedFiles = value;
+            return this;
+        }
+
+        /**
+         * Set the compression of rotated files. Optional. Cannot be null.
+         * Default is <code>NONE</code>.
+         *
+         * @param value The compression.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setCompression(final Compression value) {
+            _compression = value;
+            return this;
+        }
+
+        /**
+         * Set the flush policy. Optional. Cannot be null. Default is
+         * <code>BATCH</code>.
+         *
+         * @param value The flush policy.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setFlushPolicy(final FlushPolicy value) {
+            _flushPolicy = value;
+            return this;
+        }
+
+        /**
+         * Set the interval between flushes with the <code>INTERVAL</code>
+         * flush policy. Optional. Cannot be null. Default is one second.
+         *
+         * @param value The flush interval.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setFlushInterval(final Period value) {
+            _flushInterval = value;
+            return this;
+        }
+
+        @NotNull
+        private File _file;
+        @NotNull
+        @Min(value = 1)
+        private Integer _bufferSize = 64 * 1024;
+        @NotNull
+        @Min(value = 0)
+        private Long _maxFileSize = 0L;
+        private Period _rotationPeriod;
+        @NotNull
+        @Min(value = 0)
+        private Integer _maxRotatedFiles = 0;
+        @NotNull
+        private Compression _compression = Compression.NONE;
+        @NotNull
+        private FlushPolicy _flushPolicy = FlushPolicy.BATCH;
+        @NotNull
+        private Period _flushInterval = Period.seconds(1);
+    }
+}
@@ -0,0 +1,527 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotNull;
+import org.joda.time.Period;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * First in first out queue of byte array records backed by memory mapped
+ * segment files in a directory. Records are appended to the newest segment
+ * and consumed from the oldest; a segment file is deleted once all of its
+ * records are consumed. Records remaining in the directory are recovered
+ * when the queue is created, so records survive a restart.
+ *
+ * Each segment file has a fixed size and starts with a header holding a
+ * magic number and the time of the last append. Each record is a four byte
+ * length followed by the record bytes. The length is written after the
+ * bytes so a partially written record is never recovered, and the length is
+ * negated when the record is consumed so that consumed records are not
+ * recovered. A zero length marks the end of the records, so empty records
+ * are not queued. Segments are unmapped as soon as they are closed or
+ * deleted rather than when their buffers are garbage collected.
+ *
+ * The number of segments is limited by the maximum size; when a new segment
+ * would exceed it the oldest segment is dropped. Segments whose last append
+ * is older than the maximum age are dropped when they reach the head of the
+ * queue. Records dropped by either limit are counted as dropped bytes.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class SpillQueue implements AutoCloseable {
+
+    /**
+     * Append a record to the queue. Records larger than a segment are
+     * dropped and empty records are ignored.
+     *
+     * @param data The record.
+     */
+    public synchronized void offer(final byte[] data) {
+        if (data.length == 0) {
+            // An empty record carries no data and its length would end recovery
+            return;
+        }
+        if (data.length > _segmentSize - HEADER_SIZE - RECORD_HEADER_SIZE) {
+            LOGGER.warn()
+                    .setMessage("Dropping record larger than segment")
+                    .addData("queue", this)
+                    .addData("length", data.length)
+                    .log();
+            _droppedBytes.addAndGet(data.length);
+            return;
+        }
+        try {
+            if (_tail == null || !_tail.hasCapacity(data.length)) {
+                _tail = createSegment();
+            }
+            _tail.append(data, System.currentTimeMillis());
+            _spilledBytes.addAndGet(data.length);
+        } catch (final IOException e) {
+            LOGGER.error()
+                    .setMessage("Unable to spill record")
+                    .addData("queue", this)
+                    .addData("length", data.length)
+                    .setThrowable(e)
+                    .log();
+            _droppedBytes.addAndGet(data.length);
+        }
+    }
+
+    /**
+     * Remove and return the oldest record in the queue.
+     *
+     * @return The oldest record or <code>null</code> if the queue is empty.
+     */
+    public synchronized byte[] poll() {
+        final long ageOutTime = System.currentTimeMillis() - _maxAgeInMilliseconds;
+        while (!_segments.isEmpty()) {
+            final Segment head = _segments.peekFirst();
+            if (head.getLastAppendTime() < ageOutTime) {
+                dropHead("aged out");
+            } else if (head.isDrained()) {
+                removeHead();
+            } else {
+                try {
+                    final byte[] data = head.poll();
+                    _replayedBytes.addAndGet(data.length);
+                    return data;
+                } catch (final IOException e) {
+                    LOGGER.error()
+                            .setMessage("Unable to read spilled segment")
+                            .addData("queue", this)
+                            .addData("segment", head)
+                            .setThrowable(e)
+                            .log();
+                    dropHead("unreadable");
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether the queue holds no unconsumed records.
+     *
+     * @return True if and only if the queue is empty.
+     */
+    public synchronized boolean isEmpty() {
+        for (final Segment segment : _segments) {
+            if (!segment.isDrained()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Accessor for the number of unconsumed record bytes in the queue.
+     *
+     * @return The number of unconsumed record bytes.
+     */
+    public synchronized long getPendingBytes() {
+        long pendingBytes = 0;
+        for (final Segment segment : _segments) {
+            pendingBytes += segment.getPendingBytes();
+        }
+        return pendingBytes;
+    }
+
+    public long getSpilledBytes() {
+        return _spilledBytes.get();
+    }
+
+    public long getReplayedBytes() {
+        return _replayedBytes.get();
+    }
+
+    public long getDroppedBytes() {
+        return _droppedBytes.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Flushes appended records to disk.
+     */
+    @Override
+    public synchronized void close() {
+        for (final Segment segment : _segments) {
+            segment.close();
+        }
+        _tail = null;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder()
+                .put("id", Integer.toHexString(System.identityHashCode(this)))
+                .put("class", this.getClass())
+                .put("Directory", _directory)
+                .put("SegmentSize", _segmentSize)
+                .put("MaxSegments", _maxSegments)
+                .put("MaxAgeInMilliseconds", _maxAgeInMilliseconds)
+                .put("SpilledBytes", _spilledBytes)
+                .put("ReplayedBytes", _replayedBytes)
+                .put("DroppedBytes", _droppedBytes)
+                .build();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private Segment createSegment() throws IOException {
+        if (_tail != null) {
+            _tail.close();
+        }
+        // The new segment counts against the maximum size
+        while (!_segments.isEmpty() && _segments.size() >= _maxSegments) {
+            dropHead("maximum size exceeded");
+        }
+        final Segment segment = Segment.create(
+                new File(_directory, String.format("%016d%s", _nextSequence++, SEGMENT_EXTENSION)),
+                _segmentSize);
+        _segments.addLast(segment);
+        return segment;
+    }
+
+    private void dropHead(final String reason) {
+        final Segment head = _segments.peekFirst();
+        if (head.getPendingBytes() > 0) {
+            LOGGER.warn()
+                    .setMessage("Dropping spilled segment")
+                    .addData("queue", this)
+                    .addData("segment", head)
+                    .addData("reason", reason)
+                    .log();
+            _droppedBytes.addAndGet(head.getPendingBytes());
+        }
+        removeHead();
+    }
+
+    private void removeHead() {
+        final Segment head = _segments.pollFirst();
+        if (head == _tail) {
+            _tail = null;
+        }
+        head.delete();
+    }
+
+    private void recover() {
+        final File[] files = _directory.listFiles((directory, name) -> name.endsWith(SEGMENT_EXTENSION));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (final File file : files) {
+            final String name = file.getName();
+            try {
+                _nextSequence = Math.max(
+                        _nextSequence,
+                        Long.parseLong(name.substring(0, name.length() - SEGMENT_EXTENSION.length())) + 1);
+                final Segment segment = Segment.recover(file);
+                if (segment.isDrained()) {
+                    segment.delete();
+                } else {
+                    segment.close();
+                    _segments.addLast(segment);
+                }
+            } catch (final IOException | NumberFormatException e) {
+                LOGGER.warn()
+                        .setMessage("Ignoring invalid spill segment")
+                        .addData("queue", this)
+                        .addData("file", file)
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+        LOGGER.info()
+                .setMessage("Recovered spill queue")
+                .addData("queue", this)
+                .addData("segments", _segments.size())
+                .addData("pendingBytes", getPendingBytes())
+                .log();
+    }
+
+    private SpillQueue(final Builder builder) {
+        _directory = builder._directory;
+        _segmentSize = builder._segmentSize;
+        _maxSegments = Math.max(1, (int) Math.min(Integer.MAX_VALUE, builder._maxSize / builder._segmentSize));
+        _maxAgeInMilliseconds = builder._maxAge.toStandardDuration().getMillis();
+        try {
+            Files.createDirectories(_directory.toPath());
+        } catch (final IOException e) {
+            LOGGER.error()
+                    .setMessage("Unable to create spill directory")
+                    .addData("queue", this)
+                    .setThrowable(e)
+                    .log();
+        }
+        recover();
+    }
+
+    private final File _directory;
+    private final int _segmentSize;
+    private final int _maxSegments;
+    private final long _maxAgeInMilliseconds;
+    private final Deque<Segment> _segments = new ArrayDeque<>();
+    private final AtomicLong _spilledBytes = new AtomicLong(0);
+    private final AtomicLong _replayedBytes = new AtomicLong(0);
+    private final AtomicLong _droppedBytes = new AtomicLong(0);
+    private Segment _tail;
+    private long _nextSequence = 0;
+
+    private static final String SEGMENT_EXTENSION = ".spill";
+    private static final int MAGIC = 0x53504c31;
+    private static final int LAST_APPEND_OFFSET = 4;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final Logger LOGGER = LoggerFactory.getLogger(SpillQueue.class);
+
+    /**
+     * A segment file. The file is only mapped while it is being appended to
+     * or read from.
+     */
+    private static final class Segment {
+
+        public static Segment create(final File file, final int size) throws IOException {
+            final Segment segment = new Segment(file, map(file, size));
+            segment._buffer.putInt(0, MAGIC);
+            segment._lastAppendTime = System.currentTimeMillis();
+            segment._buffer.putLong(LAST_APPEND_OFFSET, segment._lastAppendTime);
+            return segment;
+        }
+
+        public static Segment recover(final File file) throws IOException {
+            final Segment segment = new Segment(file, map(file, (int) file.length()));
+            final MappedByteBuffer buffer = segment._buffer;
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                segment.close();
+                throw new IOException("Invalid segment header");
+            }
+            segment._lastAppendTime = buffer.getLong(LAST_APPEND_OFFSET);
+            int position = HEADER_SIZE;
+            while (position + RECORD_HEADER_SIZE <= buffer.limit()) {
+                final int length = buffer.getInt(position);
+                final int absoluteLength = Math.abs(length);
+                if (length == 0 || absoluteLength > buffer.limit() - position - RECORD_HEADER_SIZE) {
+                    break;
+                }
+                if (length < 0 && segment._readPosition == position) {
+                    // Consumed records always precede unconsumed records
+                    segment._readPosition = position + RECORD_HEADER_SIZE + absoluteLength;
+                } else if (length > 0) {
+                    segment._pendingBytes += length;
+                }
+                position += RECORD_HEADER_SIZE + absoluteLength;
+            }
+            segment._writePosition = position;
+            return segment;
+        }
+
+        public boolean hasCapacity(final int length) {
+            return _buffer != null && _writePosition + RECORD_HEADER_SIZE + length <= _buffer.limit();
+        }
+
+        public void append(final byte[] data, final long now) {
+            _buffer.position(_writePosition + RECORD_HEADER_SIZE);
+            _buffer.put(data);
+            _buffer.putInt(_writePosition, data.length);
+            _buffer.putLong(LAST_APPEND_OFFSET, now);
+            _writePosition += RECORD_HEADER_SIZE + data.length;
+            _pendingBytes += data.length;
+            _lastAppendTime = now;
+        }
+
+        public byte[] poll() throws IOException {
+            if (_buffer == null) {
+                _buffer = map(_file, (int) _file.length());
+            }
+            final int length = _buffer.getInt(_readPosition);
+            final byte[] data = new byte[length];
+            _buffer.position(_readPosition + RECORD_HEADER_SIZE);
+            _buffer.get(data);
+            _buffer.putInt(_readPosition, -length);
+            _readPosition += RECORD_HEADER_SIZE + length;
+            _pendingBytes -= length;
+            return data;
+        }
+
+        public boolean isDrained() {
+            return _pendingBytes == 0;
+        }
+
+        public long getPendingBytes() {
+            return _pendingBytes;
+        }
+
+        public long getLastAppendTime() {
+            return _lastAppendTime;
+        }
+
+        public void close() {
+            if (_buffer != null) {
+                _buffer.force();
+                MappedBuffers.unmap(_buffer);
+                _buffer = null;
+            }
+        }
+
+        public void delete() {
+            // The file cannot be deleted on some platforms while it is mapped
+            MappedBuffers.unmap(_buffer);
+            _buffer = null;
+            try {
+                Files.deleteIfExists(_file.toPath());
+            } catch (final IOException e) {
+                LOGGER.warn()
+                        .setMessage("Unable to delete spill segment")
+                        .addData("file", _file)
+                        .setThrowable(e)
+                        .log();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "Segment{File=%s, PendingBytes=%d, LastAppendTime=%d}",
+                    _file,
+                    _pendingBytes,
+                    _lastAppendTime);
+        }
+
+        private static MappedByteBuffer map(final File file, final int size) throws IOException {
+            try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        private Segment(final File file, final MappedByteBuffer buffer) {
+            _file = file;
+            _buffer = buffer;
+        }
+
+        private final File _file;
+        private MappedByteBuffer _buffer;
+        private int _readPosition = HEADER_SIZE;
+        private int _writePosition = HEADER_SIZE;
+        private long _pendingBytes = 0;
+        private long _lastAppendTime;
+    }
+
+    /**
+     * Implementation of builder pattern for <code>SpillQueue</code>.
+     *
+     * @author Ville Koskela (vkoskela at groupon dot com)
+     */
+    public static final class Builder extends OvalBuilder<SpillQueue> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(SpillQueue.class);
+        }
+
+        /**
+         * Set the directory holding the segment files. The directory must
+         * not be shared with another queue. Cannot be null.
+         *
+         * @param value The directory.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setDirectory(final File value) {
+            _directory = value;
+            return this;
+        }
+
+        /**
+         * Set the size of each segment file in bytes. Optional. Cannot be
+         * null; minimum 1024. Default is 16 MiB.
+         *
+         * @param value The segment size in bytes.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setSegmentSize(final Integer value) {
+            _segmentSize = value;
+            return this;
+        }
+
+        /**
+         * Set the maximum size of all segment files in bytes. At least one
+         * segment is always kept. Optional. Cannot be null; minimum 0.
+         * Default is 1 GiB.
+         *
+         * @param value The maximum size in bytes.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setMaxSize(final Long value) {
+            _maxSize = value;
+            return this;
+        }
+
+        /**
+         * Set the maximum age of records. Optional. Cannot be null. Default
+         * is one day.
+         *
+         * @param value The maximum age.
+         * @return This <code>Builder</code> instance.
+         */
+        public Builder setMaxAge(final Period value) {
+            _maxAge = value;
+            return this;
+        }
+
+        @NotNull
+        private File _directory;
+        @NotNull
+        @Min(value = 1024)
+        private Integer _segmentSize = 16 * 1024 * 1024;
+        @NotNull
+        @Min(value = 0)
+        private Long _maxSize = 1024L * 1024L * 1024L;
+        @NotNull
+        private Period _maxAge = Period.days(1);
+    }
+}
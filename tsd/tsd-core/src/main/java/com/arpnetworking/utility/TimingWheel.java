@@ -0,0 +1,199 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel. Values are scheduled against an expiration time
+ * in epoch milliseconds and are returned by <code>advance</code> once the
+ * wheel's time reaches or passes that expiration rounded up to the next tick.
+ * Scheduling and expiring a value are constant time operations; values
+ * scheduled beyond the span of the innermost wheel are held in coarser
+ * overflow wheels and cascade inward as time advances. Overflow wheels are
+ * created on demand.
+ *
+ * This class is thread safe.
+ *
+ * @param <T> The type of value scheduled.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class TimingWheel<T> {
+
+    /**
+     * Public constructor.
+     *
+     * @param tickMillis The resolution of the innermost wheel in milliseconds.
+     * @param wheelSize The number of slots in each wheel.
+     * @param startMillis The initial time of the wheel in epoch milliseconds.
+     */
+    public TimingWheel(final long tickMillis, final int wheelSize, final long startMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException(String.format("Tick must be positive; tickMillis=%d", tickMillis));
+        }
+        if (wheelSize < 2) {
+            throw new IllegalArgumentException(String.format("Wheel size must be at least two; wheelSize=%d", wheelSize));
+        }
+        _tickMillis = tickMillis;
+        _wheelSize = wheelSize;
+        _currentTick = Math.floorDiv(startMillis, tickMillis);
+    }
+
+    /**
+     * Schedule a value to expire at the specified time. Values scheduled at
+     * or before the current time of the wheel are returned by the next call
+     * to <code>advance</code>.
+     *
+     * @param expirationMillis The expiration time in epoch milliseconds.
+     * @param value The value to schedule.
+     */
+    public synchronized void schedule(final long expirationMillis, final T value) {
+        insert(ceilDiv(expirationMillis, _tickMillis), value);
+        ++_size;
+    }
+
+    /**
+     * Advance the wheel to the specified time and return all values which
+     * expired at or before that time. Values are returned in order of
+     * expiration tick; values expiring on the same tick are returned in no
+     * particular order.
+     *
+     * @param nowMillis The current time in epoch milliseconds.
+     * @return The expired values.
+     */
+    public synchronized List<T> advance(final long nowMillis) {
+        final long targetTick = Math.floorDiv(nowMillis, _tickMillis);
+        if (_expired.isEmpty() && (_size == 0 || targetTick <= _currentTick)) {
+            _currentTick = Math.max(_currentTick, targetTick);
+            return Collections.emptyList();
+        }
+        while (_currentTick < targetTick && _expired.size() < _size) {
+            ++_currentTick;
+
+            // Cascade from the outermost wheel inward; a wheel's current slot
+            // holds values in the next span of the wheel inside it
+            long unit = 1;
+            int level = 0;
+            while (level + 1 < _wheels.size() && _currentTick % (unit * _wheelSize) == 0) {
+                unit *= _wheelSize;
+                ++level;
+            }
+            while (level > 0) {
+                for (final Entry<T> entry : takeSlot(level, Math.floorDiv(_currentTick, unit))) {
+                    insert(entry._tick, entry._value);
+                }
+                unit /= _wheelSize;
+                --level;
+            }
+            for (final Entry<T> entry : takeSlot(0, _currentTick)) {
+                _expired.add(entry._value);
+            }
+        }
+        _currentTick = Math.max(_currentTick, targetTick);
+
+        final List<T> expired = _expired;
+        _expired = Lists.newArrayList();
+        _size -= expired.size();
+        return expired;
+    }
+
+    /**
+     * Accessor for the number of values scheduled and not yet returned.
+     *
+     * @return The number of values scheduled.
+     */
+    public synchronized int size() {
+        return _size;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("TickMillis", _tickMillis)
+                .add("WheelSize", _wheelSize)
+                .add("CurrentTick", _currentTick)
+                .add("Levels", _wheels.size())
+                .add("Size", _size)
+                .toString();
+    }
+
+    private void insert(final long tick, final T value) {
+        if (tick <= _currentTick) {
+            _expired.add(value);
+            return;
+        }
+        // Find the innermost wheel whose span covers the tick
+        long unit = 1;
+        int level = 0;
+        while (Math.floorDiv(tick, unit) - Math.floorDiv(_currentTick, unit) >= _wheelSize) {
+            unit *= _wheelSize;
+            ++level;
+        }
+        while (_wheels.size() <= level) {
+            @SuppressWarnings("unchecked")
+            final List<Entry<T>>[] wheel = new List[_wheelSize];
+            _wheels.add(wheel);
+        }
+        final List<Entry<T>>[] wheel = _wheels.get(level);
+        final int index = (int) Math.floorMod(Math.floorDiv(tick, unit), (long) _wheelSize);
+        if (wheel[index] == null) {
+            wheel[index] = Lists.newArrayList();
+        }
+        wheel[index].add(new Entry<>(tick, value));
+    }
+
+    private List<Entry<T>> takeSlot(final int level, final long slotTick) {
+        final List<Entry<T>>[] wheel = _wheels.get(level);
+        final int index = (int) Math.floorMod(slotTick, (long) _wheelSize);
+        final List<Entry<T>> slot = wheel[index];
+        if (slot == null) {
+            return Collections.emptyList();
+        }
+        wheel[index] = null;
+        return slot;
+    }
+
+    private static long ceilDiv(final long dividend, final long divisor) {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    private final long _tickMillis;
+    private final int _wheelSize;
+    private final List<List<Entry<T>>[]> _wheels = Lists.newArrayList();
+    private List<T> _expired = Lists.newArrayList();
+    private long _currentTick;
+    private int _size = 0;
+
+    private static final class Entry<T> {
+
+        private Entry(final long tick, final T value) {
+            _tick = tick;
+            _value = value;
+        }
+
+        private final long _tick;
+        private final T _value;
+    }
+}
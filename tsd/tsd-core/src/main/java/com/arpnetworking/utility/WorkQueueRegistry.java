@@ -0,0 +1,70 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks the running <code>PartitionedWorkQueue</code> instances so that
+ * their depth and drop counts can be reported. A single instance is shared
+ * by the application and injected where queues are created.
+ *
+ * This class is thread safe.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public final class WorkQueueRegistry {
+
+    /**
+     * Register a <code>PartitionedWorkQueue</code>.
+     *
+     * @param queue The <code>PartitionedWorkQueue</code> to register.
+     */
+    public void register(final PartitionedWorkQueue<?> queue) {
+        _queues.add(queue);
+    }
+
+    /**
+     * Unregister a <code>PartitionedWorkQueue</code>.
+     *
+     * @param queue The <code>PartitionedWorkQueue</code> to unregister.
+     */
+    public void unregister(final PartitionedWorkQueue<?> queue) {
+        _queues.remove(queue);
+    }
+
+    public List<PartitionedWorkQueue<?>> getQueues() {
+        return ImmutableList.copyOf(_queues);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("Queues", _queues.size())
+                .toString();
+    }
+
+    private final Set<PartitionedWorkQueue<?>> _queues = Sets.newConcurrentHashSet();
+}
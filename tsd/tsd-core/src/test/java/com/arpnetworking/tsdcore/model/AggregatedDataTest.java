@@ -16,10 +16,12 @@
 package com.arpnetworking.tsdcore.model;
 
 import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.statistics.Histogram;
 import com.arpnetworking.tsdcore.statistics.MedianStatistic;
 import com.arpnetworking.tsdcore.statistics.Statistic;
 import com.arpnetworking.tsdcore.statistics.TP99Statistic;
 import com.arpnetworking.utility.test.BuildableEqualsAndHashCodeTester;
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 
 import org.joda.time.DateTime;
@@ -92,7 +94,8 @@ public class AggregatedDataTest {
                         .setStart(new DateTime())
                         .setPeriod(Period.minutes(1))
                         .setPopulationSize(1L)
-                        .setSamples(Lists.newArrayList(TestBeanFactory.createSample())),
+                        .setSamples(Lists.newArrayList(TestBeanFactory.createSample()))
+                        .setHistogram(new Histogram(0.01, Optional.<Unit>absent())),
                 new AggregatedData.Builder()
                         .setFQDSN(new FQDSN.Builder()
                                 .setStatistic(new MedianStatistic())
@@ -105,7 +108,8 @@ public class AggregatedDataTest {
                         .setStart(new DateTime().plusDays(1))
                         .setPeriod(Period.minutes(5))
                         .setPopulationSize(2L)
-                        .setSamples(Lists.newArrayList(TestBeanFactory.createSample(), TestBeanFactory.createSample())));
+                        .setSamples(Lists.newArrayList(TestBeanFactory.createSample(), TestBeanFactory.createSample()))
+                        .setHistogram(new Histogram(0.02, Optional.of(Unit.MILLISECOND))));
     }
 
     @Test
@@ -0,0 +1,177 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.model;
+
+import akka.util.ByteString;
+import akka.util.ByteStringBuilder;
+import com.arpnetworking.tsdcore.Messages;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.protobuf.GeneratedMessage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the <code>AggregationMessageDecoder</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class AggregationMessageDecoderTest {
+
+    @Test
+    public void testDecode() throws IOException {
+        final List<GeneratedMessage> messages = createMessages(10);
+        try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+            decoder.append(ByteString.fromArray(serialize(messages)));
+            Assert.assertEquals(messages, decodeAll(decoder));
+            Assert.assertEquals(0, decoder.getBufferedBytes());
+            Assert.assertFalse(decoder.next().isPresent());
+        }
+    }
+
+    @Test
+    public void testDecodeChunks() throws IOException {
+        // Enough data to wrap and grow the buffer
+        final List<GeneratedMessage> messages = createMessages(5000);
+        final byte[] bytes = serialize(messages);
+        final Random random = new Random(1);
+        for (final int maxChunkSize : new int[] {1, 7, 1460, 100000}) {
+            try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+                final List<GeneratedMessage> decoded = Lists.newArrayList();
+                int offset = 0;
+                while (offset < bytes.length) {
+                    final int length = Math.min(bytes.length - offset, 1 + random.nextInt(maxChunkSize));
+                    decoder.append(bytes, offset, length);
+                    offset += length;
+                    decoded.addAll(decodeAll(decoder));
+                }
+                Assert.assertEquals(messages, decoded);
+                Assert.assertEquals(0, decoder.getBufferedBytes());
+            }
+        }
+    }
+
+    @Test
+    public void testDecodeLargeMessage() throws IOException {
+        final Messages.AggregationRecord.Builder builder = createRecord(0).toBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            builder.addSamples(i);
+        }
+        final List<GeneratedMessage> messages = Lists.<GeneratedMessage>newArrayList(builder.build(), createRecord(1));
+        try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+            final byte[] bytes = serialize(messages);
+            decoder.append(bytes, 0, 10);
+            Assert.assertFalse(decoder.next().isPresent());
+            decoder.append(bytes, 10, bytes.length - 10);
+            Assert.assertEquals(messages, decodeAll(decoder));
+        }
+    }
+
+    @Test
+    public void testDecodeLegacyRecord() throws IOException {
+        final Messages.LegacyAggRecord legacyRecord = Messages.LegacyAggRecord.newBuilder()
+                .setService("MyService")
+                .setMetric("MyMetric")
+                .setStatistic("tp99")
+                .setPeriod("PT1M")
+                .setStatisticValue(1.0)
+                .build();
+        final byte[] payload = legacyRecord.toByteArray();
+        try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+            // Legacy records with their own type and with the record type
+            decoder.append(AggregationMessage.create(legacyRecord).serialize().getBytes(), 0, payload.length + 5);
+            decoder.append(new ByteStringBuilder()
+                    .putInt(payload.length + 5, ByteOrder.BIG_ENDIAN)
+                    .putByte((byte) 0x02)
+                    .putBytes(payload)
+                    .result());
+            Assert.assertEquals(Lists.newArrayList(legacyRecord, legacyRecord), decodeAll(decoder));
+        }
+    }
+
+    @Test
+    public void testSkipInvalidMessages() throws IOException {
+        try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+            decoder.append(new ByteStringBuilder()
+                    .putInt(6, ByteOrder.BIG_ENDIAN)
+                    .putByte((byte) 0x7f)
+                    .putByte((byte) 0)
+                    .putInt(5, ByteOrder.BIG_ENDIAN)
+                    .putByte((byte) 0x03)
+                    .result());
+            decoder.append(ByteString.fromArray(serialize(createMessages(1))));
+            Assert.assertEquals(createMessages(1), decodeAll(decoder));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testInvalidLength() throws IOException {
+        try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+            decoder.append(new ByteStringBuilder().putInt(4, ByteOrder.BIG_ENDIAN).putByte((byte) 0x01).result());
+            decoder.next();
+        }
+    }
+
+    private static List<GeneratedMessage> decodeAll(final AggregationMessageDecoder decoder) throws IOException {
+        final List<GeneratedMessage> messages = Lists.newArrayList();
+        Optional<AggregationMessage> message = decoder.next();
+        while (message.isPresent()) {
+            messages.add(message.get().getMessage());
+            message = decoder.next();
+        }
+        return messages;
+    }
+
+    private static List<GeneratedMessage> createMessages(final int records) {
+        final List<GeneratedMessage> messages = Lists.newArrayList();
+        messages.add(Messages.HostIdentification.newBuilder().setHostName("MyHost").setClusterName("MyCluster").build());
+        for (int i = 0; i < records; ++i) {
+            messages.add(createRecord(i));
+            if (i % 100 == 0) {
+                messages.add(Messages.HeartbeatRecord.newBuilder().setTimestamp("2015-05-08T00:00:00Z").build());
+            }
+        }
+        return messages;
+    }
+
+    private static Messages.AggregationRecord createRecord(final int index) {
+        return Messages.AggregationRecord.newBuilder()
+                .setService("MyService")
+                .setMetric("MyMetric" + index)
+                .setStatistic("tp99")
+                .setPeriod("PT1M")
+                .setPeriodStart("2015-05-08T00:00:00Z")
+                .setStatisticValue(index)
+                .addSamples(index)
+                .setPopulationSize(1)
+                .setUnit("")
+                .build();
+    }
+
+    private static byte[] serialize(final List<GeneratedMessage> messages) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (final GeneratedMessage message : messages) {
+            outputStream.write(AggregationMessage.create(message).serialize().getBytes());
+        }
+        return outputStream.toByteArray();
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.model;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Tests for the Samples class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class SamplesTest {
+
+    @Test
+    public void testEmpty() {
+        final Samples samples = new Samples.Builder().build();
+        Assert.assertTrue(samples.isEmpty());
+        Assert.assertFalse(samples.getUnit().isPresent());
+        Assert.assertSame(Samples.empty(), samples);
+    }
+
+    @Test
+    public void testSameUnit() {
+        final Samples samples = new Samples.Builder()
+                .add(1.0, Unit.SECOND)
+                .add(2.0, Unit.SECOND)
+                .build();
+        Assert.assertEquals(2, samples.size());
+        Assert.assertEquals(Optional.of(Unit.SECOND), samples.getUnit());
+        Assert.assertEquals(1.0, samples.getValue(0), 0.001);
+        Assert.assertEquals(2.0, samples.getValue(1), 0.001);
+        Assert.assertEquals(new Quantity.Builder().setValue(2.0).setUnit(Unit.SECOND).build(), samples.get(1));
+    }
+
+    @Test
+    public void testNoUnit() {
+        final Samples samples = new Samples.Builder()
+                .add(1.0, null)
+                .add(2.0, null)
+                .build();
+        Assert.assertFalse(samples.getUnit().isPresent());
+        Assert.assertEquals(ImmutableList.of(QUANTITY_ONE, QUANTITY_TWO), samples);
+    }
+
+    @Test
+    public void testMixedUnits() {
+        final Samples.Builder builder = new Samples.Builder(1);
+        for (int i = 0; i < 10; ++i) {
+            builder.add(i, Unit.SECOND);
+        }
+        builder.add(500.0, Unit.MILLISECOND);
+        builder.add(1.0, Unit.MINUTE);
+        final Samples samples = builder.build();
+        Assert.assertEquals(12, samples.size());
+        Assert.assertEquals(Optional.of(Unit.MILLISECOND), samples.getUnit());
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertEquals(i * 1000.0, samples.getValue(i), 0.001);
+        }
+        Assert.assertEquals(500.0, samples.getValue(10), 0.001);
+        Assert.assertEquals(60000.0, samples.getValue(11), 0.001);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMixedUnitPresence() {
+        new Samples.Builder()
+                .add(1.0, Unit.SECOND)
+                .add(2.0, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleUnits() {
+        new Samples.Builder()
+                .add(1.0, Unit.SECOND)
+                .add(2.0, Unit.BYTE);
+    }
+
+    @Test
+    public void testCounts() {
+        final Samples samples = new Samples.Builder(1)
+                .add(1.0, Unit.SECOND)
+                .add(2.0, Unit.SECOND, 3)
+                .add(500.0, Unit.MILLISECOND)
+                .build();
+        Assert.assertEquals(3, samples.size());
+        Assert.assertEquals(1, samples.getCount(0));
+        Assert.assertEquals(3, samples.getCount(1));
+        Assert.assertEquals(1, samples.getCount(2));
+        Assert.assertEquals(2000.0, samples.getValue(1), 0.001);
+        Assert.assertFalse(samples.equals(new Samples.Builder()
+                .add(1.0, Unit.SECOND)
+                .add(2.0, Unit.SECOND)
+                .add(500.0, Unit.MILLISECOND)
+                .build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCount() {
+        new Samples.Builder().add(1.0, Unit.SECOND, 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testIndexOutOfBounds() {
+        new Samples.Builder().add(1.0, null).build().getValue(1);
+    }
+
+    @Test
+    public void testCopyOf() {
+        final Samples samples = Samples.copyOf(ImmutableList.of(QUANTITY_ONE, QUANTITY_TWO));
+        Assert.assertEquals(2, samples.size());
+        Assert.assertSame(samples, Samples.copyOf(samples));
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        final Samples samples = new Samples.Builder().add(1.0, null).add(2.0, null).build();
+        final Samples otherSamples = new Samples.Builder().add(1.0, null).add(2.0, null).build();
+        Assert.assertEquals(samples, otherSamples);
+        Assert.assertEquals(samples.hashCode(), otherSamples.hashCode());
+        Assert.assertEquals(ImmutableList.of(QUANTITY_ONE, QUANTITY_TWO).hashCode(), samples.hashCode());
+        Assert.assertFalse(samples.equals(new Samples.Builder().add(1.0, null).build()));
+        Assert.assertFalse(samples.equals(new Samples.Builder().add(1.0, Unit.SECOND).add(2.0, Unit.SECOND).build()));
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        final Samples samples = new Samples.Builder().add(1.0, Unit.SECOND).add(2.0, Unit.MILLISECOND).build();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(samples);
+        }
+        try (final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            Assert.assertEquals(samples, input.readObject());
+        }
+    }
+
+    private static final Quantity QUANTITY_ONE = new Quantity.Builder().setValue(1.0).build();
+    private static final Quantity QUANTITY_TWO = new Quantity.Builder().setValue(2.0).build();
+}
@@ -15,20 +15,39 @@
  */
 package com.arpnetworking.tsdcore.sinks;
 
+import akka.util.ByteString;
 import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.Messages;
 import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.AggregationMessage;
+import com.arpnetworking.tsdcore.model.AggregationMessageDecoder;
+import com.arpnetworking.tsdcore.model.FQDSN;
+import com.arpnetworking.tsdcore.model.Samples;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.arpnetworking.tsdcore.statistics.Histogram;
+import com.arpnetworking.tsdcore.statistics.TP90Statistic;
+import com.arpnetworking.tsdcore.statistics.TP99Statistic;
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.protobuf.GeneratedMessage;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.vertx.java.core.buffer.Buffer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Tests for the <code>AggregationServerSink</code> class.
@@ -107,6 +126,339 @@ public class AggregationServerSinkTest {
         }
     }
 
+    @Test
+    public void testSpillAndReplay() throws IOException, InterruptedException {
+        // Data is queued and then spilled while the server is unavailable
+        final AggregationServerSink sink = new AggregationServerSink.Builder()
+                .setName("foo-name")
+                .setServerAddress("localhost")
+                .setServerPort(SPILL_PORT)
+                .setMaxQueueSize(2)
+                .setSpillDirectory(Files.createTempDirectory(
+                        Files.createDirectories(Paths.get("./target/tmp/test/AggregationServerSinkTest")), "").toFile())
+                .build();
+        ServerSocketChannel serverChannel = null;
+        SocketChannel connectedSocket = null;
+        try {
+            // Only the data spilled is from different hosts since each connection identifies a single host
+            final List<AggregatedData> data = Lists.newArrayList();
+            for (int i = 0; i < 8; ++i) {
+                data.add(createDatum(i, i >= 2 && i < 6 ? "spilled-host-" + i : "foo-host"));
+            }
+            sink.recordAggregateData(data.subList(0, 6));
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(SPILL_PORT)).configureBlocking(false);
+            connectedSocket = listenForConnection(serverChannel, Duration.standardSeconds(10));
+            final List<GeneratedMessage> messages = receive(connectedSocket, 6);
+
+            // Data queued after the replay identifies its host again
+            sink.recordAggregateData(data.subList(6, 8));
+            messages.addAll(receive(connectedSocket, 2));
+            assertReceived(data, messages);
+
+            // Data is spilled again while disconnected and replayed on reconnect
+            serverChannel.close();
+            connectedSocket.close();
+            Thread.sleep(1000);
+            final List<AggregatedData> moreData = Lists.newArrayList();
+            for (int i = 8; i < 16; ++i) {
+                moreData.add(createDatum(i, i >= 10 && i < 14 ? "spilled-host-" + i : "foo-host"));
+            }
+            sink.recordAggregateData(moreData.subList(0, 6));
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(new InetSocketAddress(SPILL_PORT)).configureBlocking(false);
+            connectedSocket = listenForConnection(serverChannel, Duration.standardSeconds(10));
+
+            // Data recorded during the replay is sent after the spilled data
+            sink.recordAggregateData(moreData.subList(6, 8));
+            assertReceived(moreData, receive(connectedSocket, 8));
+        } finally {
+            if (connectedSocket != null) {
+                connectedSocket.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            sink.close();
+        }
+    }
+
+    @Test
+    public void testSerializeMetricRecords() {
+        final AggregationServerSink sink = new AggregationServerSink.Builder()
+                .setName("foo-name")
+                .setServerAddress("localhost")
+                .setServerPort(UNUSED_PORT)
+                .setProtocolVersion(3)
+                .build();
+        try {
+            final Samples samples = Samples.copyOf(TestBeanFactory.createSamples(Lists.newArrayList(1.0, 2.0, 3.0)));
+            final FQDSN fqdsn = TestBeanFactory.createFQDSN();
+            final AggregatedData.Builder builder = TestBeanFactory.createAggregatedDataBuilder()
+                    .setStart(new DateTime(1431043200000L))
+                    .setPopulationSize(3L);
+            final List<AggregatedData> data = Lists.newArrayList(
+                    builder.setFQDSN(fqdsn)
+                            .setSamples(Samples.empty())
+                            .build(),
+                    builder.setFQDSN(TestBeanFactory.createFQDSNBuilder()
+                                    .setService(fqdsn.getService())
+                                    .setMetric(fqdsn.getMetric())
+                                    .setStatistic(new TP99Statistic())
+                                    .build())
+                            .setSamples(samples)
+                            .build(),
+                    builder.setFQDSN(TestBeanFactory.createFQDSN())
+                            .setSamples(Samples.empty())
+                            .build());
+
+            final List<GeneratedMessage> messages = deserialize(sink.serialize(data));
+            Assert.assertEquals(3, messages.size());
+            Assert.assertTrue(messages.get(0) instanceof Messages.HostIdentification);
+
+            // The statistics of the first metric share one record and the samples
+            final Messages.MetricRecord record = (Messages.MetricRecord) messages.get(1);
+            final Map<Integer, String> strings = Maps.newHashMap();
+            for (final Messages.StringDeclaration declaration : record.getDeclarationsList()) {
+                strings.put(declaration.getId(), declaration.getValue());
+            }
+            Assert.assertEquals(fqdsn.getService(), strings.get(record.getService()));
+            Assert.assertEquals(fqdsn.getMetric(), strings.get(record.getMetric()));
+            Assert.assertEquals("PT5M", strings.get(record.getPeriod()));
+            Assert.assertEquals(1431043200000L, record.getPeriodStart());
+            Assert.assertEquals(3, record.getPopulationSize());
+            Assert.assertEquals(Lists.newArrayList(1.0, 2.0, 3.0), record.getSamplesList());
+            Assert.assertEquals("MILLISECOND", strings.get(record.getSamplesUnit()));
+            Assert.assertEquals(2, record.getStatisticsCount());
+            Assert.assertEquals("mean", strings.get(record.getStatistics(0).getStatistic()));
+            Assert.assertFalse(record.getStatistics(0).getSamples());
+            Assert.assertEquals("tp99", strings.get(record.getStatistics(1).getStatistic()));
+            Assert.assertTrue(record.getStatistics(1).getSamples());
+            Assert.assertEquals(data.get(1).getValue().getValue(), record.getStatistics(1).getValue(), 0.0);
+
+            // Strings are only declared once per connection
+            final List<GeneratedMessage> repeated = deserialize(sink.serialize(data.subList(0, 2)));
+            Assert.assertEquals(1, repeated.size());
+            Assert.assertEquals(0, ((Messages.MetricRecord) repeated.get(0)).getDeclarationsCount());
+            Assert.assertEquals(record.getStatisticsList(), ((Messages.MetricRecord) repeated.get(0)).getStatisticsList());
+        } finally {
+            sink.close();
+        }
+    }
+
+    @Test
+    public void testSerializeInterleavedMetrics() throws IOException {
+        final AggregationServerSink sink = new AggregationServerSink.Builder()
+                .setName("foo-name")
+                .setServerAddress("localhost")
+                .setServerPort(UNUSED_PORT)
+                .setProtocolVersion(3)
+                .build();
+        try {
+            final FQDSN fqdsnX = TestBeanFactory.createFQDSN();
+            final FQDSN fqdsnY = TestBeanFactory.createFQDSN();
+            final AggregatedData.Builder builder = TestBeanFactory.createAggregatedDataBuilder()
+                    .setStart(new DateTime(1431043200000L))
+                    .setPopulationSize(3L)
+                    .setSamples(Samples.empty());
+            final List<AggregatedData> data = Lists.newArrayList(
+                    builder.setFQDSN(fqdsnX).build(),
+                    builder.setFQDSN(TestBeanFactory.createFQDSNBuilder()
+                                    .setService(fqdsnY.getService())
+                                    .setMetric(fqdsnY.getMetric())
+                                    .setStatistic(new TP99Statistic())
+                                    .build())
+                            .build(),
+                    builder.setFQDSN(TestBeanFactory.createFQDSNBuilder()
+                                    .setService(fqdsnX.getService())
+                                    .setMetric(fqdsnX.getMetric())
+                                    .setStatistic(new TP99Statistic())
+                                    .build())
+                            .build());
+
+            // Decode the stream resolving the strings of each record when it
+            // is received like the cluster aggregator
+            final Map<Integer, String> strings = Maps.newHashMap();
+            final List<List<String>> records = Lists.newArrayList();
+            try (final AggregationMessageDecoder decoder = new AggregationMessageDecoder()) {
+                decoder.append(ByteString.fromArray(sink.serialize(data).getBytes()));
+                Optional<AggregationMessage> message = decoder.next();
+                while (message.isPresent()) {
+                    if (message.get().getMessage() instanceof Messages.MetricRecord) {
+                        final Messages.MetricRecord record = (Messages.MetricRecord) message.get().getMessage();
+                        for (final Messages.StringDeclaration declaration : record.getDeclarationsList()) {
+                            strings.put(declaration.getId(), declaration.getValue());
+                        }
+                        final List<String> resolved = Lists.newArrayList(strings.get(record.getMetric()));
+                        for (final Messages.StatisticValue statistic : record.getStatisticsList()) {
+                            resolved.add(strings.get(statistic.getStatistic()));
+                        }
+                        records.add(resolved);
+                    }
+                    message = decoder.next();
+                }
+                Assert.assertEquals(0, decoder.getBufferedBytes());
+            }
+
+            Assert.assertEquals(
+                    Lists.newArrayList(
+                            Lists.newArrayList(fqdsnX.getMetric(), "mean", "tp99"),
+                            Lists.newArrayList(fqdsnY.getMetric(), "tp99")),
+                    records);
+        } finally {
+            sink.close();
+        }
+    }
+
+    @Test
+    public void testSerializeHistogram() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+        final FQDSN fqdsn = TestBeanFactory.createFQDSNBuilder().setStatistic(new TP99Statistic()).build();
+        final AggregatedData.Builder builder = TestBeanFactory.createAggregatedDataBuilder()
+                .setSamples(Samples.empty())
+                .setHistogram(histogram);
+        final List<AggregatedData> data = Lists.newArrayList(
+                builder.setFQDSN(fqdsn).build(),
+                builder.setFQDSN(TestBeanFactory.createFQDSNBuilder()
+                                .setService(fqdsn.getService())
+                                .setMetric(fqdsn.getMetric())
+                                .setStatistic(new TP90Statistic())
+                                .build())
+                        .build());
+        final AggregationServerSink sink = new AggregationServerSink.Builder()
+                .setName("foo-name")
+                .setServerAddress("localhost")
+                .setServerPort(UNUSED_PORT)
+                .setProtocolVersion(3)
+                .build();
+        try {
+            // The statistics of the metric share the histogram
+            final List<GeneratedMessage> messages = deserialize(sink.serialize(data));
+            Assert.assertEquals(2, messages.size());
+            final Messages.MetricRecord record = (Messages.MetricRecord) messages.get(1);
+            Assert.assertEquals(histogram.toRecord(), record.getHistogram());
+            Assert.assertEquals(0, record.getSamplesCount());
+            Assert.assertEquals(2, record.getStatisticsCount());
+            Assert.assertTrue(record.getStatistics(0).getSamples());
+            Assert.assertTrue(record.getStatistics(1).getSamples());
+            final Map<Integer, String> strings = Maps.newHashMap();
+            for (final Messages.StringDeclaration declaration : record.getDeclarationsList()) {
+                strings.put(declaration.getId(), declaration.getValue());
+            }
+            Assert.assertEquals("MILLISECOND", strings.get(record.getHistogramUnit()));
+        } finally {
+            sink.close();
+        }
+        final AggregationServerSink legacySink = new AggregationServerSink.Builder()
+                .setName("foo-name")
+                .setServerAddress("localhost")
+                .setServerPort(UNUSED_PORT)
+                .setProtocolVersion(2)
+                .build();
+        try {
+            final List<GeneratedMessage> messages = deserialize(legacySink.serialize(data.subList(0, 1)));
+            final Messages.AggregationRecord record = (Messages.AggregationRecord) messages.get(1);
+            Assert.assertEquals(histogram.toRecord(), record.getHistogram());
+            Assert.assertEquals("MILLISECOND", record.getHistogramUnit());
+        } finally {
+            legacySink.close();
+        }
+    }
+
+    @Test
+    public void testSerializeProtocolVersion2() {
+        // Protocol version 2 is the default
+        final AggregationServerSink sink = new AggregationServerSink.Builder()
+                .setName("foo-name")
+                .setServerAddress("localhost")
+                .setServerPort(UNUSED_PORT)
+                .build();
+        try {
+            final List<GeneratedMessage> messages = deserialize(sink.serialize(
+                    Lists.newArrayList(TestBeanFactory.createAggregatedData(), TestBeanFactory.createAggregatedData())));
+            Assert.assertEquals(3, messages.size());
+            Assert.assertTrue(messages.get(0) instanceof Messages.HostIdentification);
+            Assert.assertTrue(messages.get(1) instanceof Messages.AggregationRecord);
+            Assert.assertTrue(messages.get(2) instanceof Messages.AggregationRecord);
+        } finally {
+            sink.close();
+        }
+    }
+
+    private static AggregatedData createDatum(final int index, final String host) {
+        return TestBeanFactory.createAggregatedDataBuilder()
+                .setFQDSN(TestBeanFactory.createFQDSNBuilder()
+                        .setMetric("metric-" + index)
+                        .build())
+                .setHost(host)
+                .build();
+    }
+
+    private static List<GeneratedMessage> receive(final SocketChannel socket, final int records)
+            throws IOException, InterruptedException {
+        final List<GeneratedMessage> messages = Lists.newArrayList();
+        final ByteBuffer buffer = ByteBuffer.allocate(65536);
+        ByteString data = ByteString.empty();
+        int received = 0;
+        final DateTime start = DateTime.now();
+        socket.configureBlocking(false);
+        while (received < records) {
+            if (DateTime.now().isAfter(start.plus(Duration.standardSeconds(10)))) {
+                throw new RuntimeException("Data not received within timeout");
+            }
+            buffer.clear();
+            if (socket.read(buffer) > 0) {
+                buffer.flip();
+                data = data.concat(ByteString.fromByteBuffer(buffer));
+                Optional<AggregationMessage> message = AggregationMessage.deserialize(data);
+                while (message.isPresent()) {
+                    messages.add(message.get().getMessage());
+                    if (message.get().getMessage() instanceof Messages.AggregationRecord) {
+                        ++received;
+                    }
+                    data = data.drop(message.get().getLength());
+                    message = AggregationMessage.deserialize(data);
+                }
+            } else {
+                Thread.sleep(20);
+            }
+        }
+        Assert.assertEquals(0, data.length());
+        return messages;
+    }
+
+    private static void assertReceived(final List<AggregatedData> expected, final List<GeneratedMessage> messages) {
+        // Records arrive in order each following the identification of its host
+        String host = null;
+        int index = 0;
+        for (final GeneratedMessage message : messages) {
+            if (message instanceof Messages.HostIdentification) {
+                host = ((Messages.HostIdentification) message).getHostName();
+            } else if (message instanceof Messages.AggregationRecord) {
+                final AggregatedData datum = expected.get(index++);
+                Assert.assertEquals(datum.getFQDSN().getMetric(), ((Messages.AggregationRecord) message).getMetric());
+                Assert.assertEquals(datum.getHost(), host);
+            }
+        }
+        Assert.assertEquals(expected.size(), index);
+    }
+
+    private static List<GeneratedMessage> deserialize(final Buffer buffer) {
+        final List<GeneratedMessage> messages = Lists.newArrayList();
+        ByteString data = ByteString.fromArray(buffer.getBytes());
+        Optional<AggregationMessage> message = AggregationMessage.deserialize(data);
+        while (message.isPresent()) {
+            messages.add(message.get().getMessage());
+            data = data.drop(message.get().getLength());
+            message = AggregationMessage.deserialize(data);
+        }
+        Assert.assertEquals(0, data.length());
+        return messages;
+    }
+
     private void spammyWait(final int wait, final AggregationServerSink sink) throws InterruptedException {
         final DateTime start = DateTime.now();
 
@@ -138,4 +490,9 @@ public class AggregationServerSinkTest {
 
     private ServerSocketChannel _serverChannel;
     private int _port = 17065;
+
+    // Serialization tests must not connect since connecting resets the handshake
+    private static final int UNUSED_PORT = 17066;
+    // Closed sinks keep reconnecting so the spill test listens on its own port
+    private static final int SPILL_PORT = 17067;
 }
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sinks;
+
+import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the <code>CarbonSerializer</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class CarbonSerializerTest {
+
+    @Test
+    public void testSerialize() {
+        final AggregatedData datum = TestBeanFactory.createAggregatedData();
+        Assert.assertEquals(format(datum), new CarbonSerializer().serialize(datum).toString());
+    }
+
+    @Test
+    public void testSerializeBatch() {
+        final CarbonSerializer serializer = new CarbonSerializer();
+        final List<AggregatedData> data = Lists.newArrayList();
+        final StringBuilder expected = new StringBuilder();
+        // Larger than the initial scratch size and repeating names
+        for (int i = 0; i < 5000; ++i) {
+            final AggregatedData datum = TestBeanFactory.createAggregatedDataBuilder()
+                    .setHost("host" + i % 3)
+                    .setFQDSN(TestBeanFactory.createFQDSNBuilder().setMetric("metric" + i % 7).build())
+                    .setPeriod(i % 2 == 0 ? Period.minutes(1) : Period.minutes(5))
+                    .build();
+            data.add(datum);
+            expected.append(format(datum));
+        }
+        Assert.assertEquals(expected.toString(), serializer.serialize(data).toString());
+        Assert.assertEquals(format(data.get(0)), serializer.serialize(data.subList(0, 1)).toString());
+        Assert.assertEquals(0, serializer.serialize(Lists.<AggregatedData>newArrayList()).length());
+    }
+
+    @Test
+    public void testValues() {
+        final CarbonSerializer serializer = new CarbonSerializer();
+        final double[] values = new double[] {
+            0, -0.0, 1, -1, 0.5, 1.5, 0.0000005, 0.0000015, -0.0000015, 0.0000004, -0.0000001,
+            0.1, 0.123456789, 2.675, 1234567.8912345, 999999999.9999999, 1e9, -1e12, 1e20, 1e-20,
+            Long.MAX_VALUE, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN,
+            Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (final double value : values) {
+            final AggregatedData datum = createDatum(value);
+            Assert.assertEquals(format(datum), serializer.serialize(datum).toString());
+        }
+        final Random random = new Random(1);
+        for (int i = 0; i < 100000; ++i) {
+            final double value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(20) - 8);
+            final AggregatedData datum = createDatum(value);
+            Assert.assertEquals(format(datum), serializer.serialize(datum).toString());
+        }
+    }
+
+    @Test
+    public void testTimestamps() {
+        final CarbonSerializer serializer = new CarbonSerializer();
+        for (final long timestamp : new long[] {0, 999, 1000, -1000, 1431040000000L}) {
+            final AggregatedData datum = TestBeanFactory.createAggregatedDataBuilder()
+                    .setStart(new DateTime(timestamp))
+                    .build();
+            Assert.assertEquals(format(datum), serializer.serialize(datum).toString());
+        }
+    }
+
+    private static AggregatedData createDatum(final double value) {
+        return TestBeanFactory.createAggregatedDataBuilder()
+                .setValue(new Quantity.Builder().setValue(value).build())
+                .build();
+    }
+
+    private static String format(final AggregatedData datum) {
+        return String.format(
+                "%s.%s.%s.%s.%s.%s %f %d\n",
+                datum.getFQDSN().getCluster(),
+                datum.getHost(),
+                datum.getFQDSN().getService(),
+                datum.getFQDSN().getMetric(),
+                datum.getPeriod().toString(),
+                datum.getFQDSN().getStatistic().getName(),
+                datum.getValue().getValue(),
+                datum.getPeriodStart().toInstant().getMillis() / 1000);
+    }
+}
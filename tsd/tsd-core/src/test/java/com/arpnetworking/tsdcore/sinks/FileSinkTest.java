@@ -18,10 +18,12 @@ package com.arpnetworking.tsdcore.sinks;
 import com.arpnetworking.jackson.ObjectMapperFactory;
 import com.arpnetworking.test.TestBeanFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.utility.RotatingFileWriter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Charsets;
 import com.google.common.collect.Iterables;
+import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
 
 import org.joda.time.DateTime;
@@ -31,9 +33,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Tests for the <code>FileSink</code> class.
@@ -80,6 +87,28 @@ public class FileSinkTest {
         Assert.assertTrue(outLines.isEmpty());
     }
 
+    @Test
+    public void testRecordProcessedAggregateDataRotated() throws IOException {
+        final Sink fileSink = _fileSinkBuilder
+                .setMaxFileSize(1L)
+                .setCompression(RotatingFileWriter.Compression.GZIP)
+                .setFlushPolicy(RotatingFileWriter.FlushPolicy.SYNC)
+                .build();
+        fileSink.recordAggregateData(Arrays.asList(TestBeanFactory.createAggregatedData(), TestBeanFactory.createAggregatedData()));
+        fileSink.recordAggregateData(Collections.singletonList(TestBeanFactory.createAggregatedData()));
+        fileSink.close();
+
+        // Each batch is written as a group
+        Assert.assertEquals(1, Files.readLines(_outFile, Charsets.UTF_8).size());
+        final String prefix = _outFile.getName().substring(0, _outFile.getName().length() - ".out".length());
+        final File[] rotatedFiles = _outFile.getParentFile().listFiles(
+                (dir, name) -> name.startsWith(prefix + ".") && name.endsWith(".out.gz"));
+        Assert.assertEquals(1, rotatedFiles.length);
+        try (final Reader reader = new InputStreamReader(new GZIPInputStream(new FileInputStream(rotatedFiles[0])), Charsets.UTF_8)) {
+            Assert.assertEquals(2, CharStreams.readLines(reader).size());
+        }
+    }
+
     @Test
     public void testRecordProcessedAggregateDataAfterClose() {
         final Sink fileSink = _fileSinkBuilder.build();
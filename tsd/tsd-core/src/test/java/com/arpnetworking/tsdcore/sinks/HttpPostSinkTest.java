@@ -15,7 +15,32 @@
  */
 package com.arpnetworking.tsdcore.sinks;
 
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.MetricsFactory;
+import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.Condition;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.time.Period;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Tests for the <code>HttpSink</code> class.
@@ -24,8 +49,128 @@ import org.junit.Test;
  */
 public class HttpPostSinkTest {
 
+    @Before
+    public void setUp() throws IOException {
+        _server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        _server.createContext("/", this::handle);
+        _server.start();
+        _builder = new ReMetSink.Builder()
+                .setName("http_post_sink_test")
+                .setUri(URI.create("http://localhost:" + _server.getAddress().getPort() + "/report"));
+    }
+
+    @After
+    public void tearDown() {
+        _server.stop(0);
+    }
+
+    @Test
+    public void testPost() throws IOException {
+        final ReMetSink sink = _builder.build();
+        sink.recordAggregateData(createData(), Collections.<Condition>emptyList());
+        sink.close();
+
+        Assert.assertEquals(1, _bodies.size());
+        Assert.assertNull(_encodings.get(0));
+        Assert.assertTrue(_bodies.get(0).startsWith("["));
+    }
+
+    @Test
+    public void testCompressRequests() throws IOException {
+        final ReMetSink sink = _builder.setCompressRequests(true).build();
+        sink.recordAggregateData(createData(), Collections.<Condition>emptyList());
+        sink.close();
+
+        Assert.assertEquals(1, _bodies.size());
+        Assert.assertEquals("gzip", _encodings.get(0));
+        Assert.assertTrue(_bodies.get(0).startsWith("["));
+    }
+
+    @Test
+    public void testRetry() throws IOException {
+        _failures.set(2);
+        final MetricsFactory metricsFactory = Mockito.mock(MetricsFactory.class);
+        final Metrics metrics = Mockito.mock(Metrics.class);
+        Mockito.doReturn(metrics).when(metricsFactory).create();
+        final ReMetSink sink = _builder
+                .setRetryBackoffInMilliseconds(1L)
+                .setMetricsFactory(metricsFactory)
+                .build();
+        sink.recordAggregateData(createData(), Collections.<Condition>emptyList());
+        sink.close();
+
+        Assert.assertEquals(3, _bodies.size());
+        Assert.assertEquals(_bodies.get(0), _bodies.get(2));
+        Mockito.verify(metrics, Mockito.times(3)).setTimer(
+                Mockito.eq("Sinks/HttpPostSink/http_post_sink_test/Request/Latency"),
+                Mockito.anyLong(),
+                Mockito.eq(TimeUnit.NANOSECONDS));
+        Mockito.verify(metrics, Mockito.times(2)).incrementCounter("Sinks/HttpPostSink/http_post_sink_test/Request/Failed", 1);
+    }
+
+    @Test
+    public void testRetriesExhausted() throws IOException {
+        _failures.set(10);
+        final ReMetSink sink = _builder
+                .setRetryBackoffInMilliseconds(1L)
+                .setMaxRetries(1)
+                .build();
+        sink.recordAggregateData(createData(), Collections.<Condition>emptyList());
+        sink.close();
+
+        Assert.assertEquals(2, _bodies.size());
+    }
+
     @Test
-    public void placeHolder() {
-        // TODO(vkoskela): Complete tests using rest mock library [MAI-111]
+    public void testRejectWhenQueueFull() throws IOException, InterruptedException {
+        _latch = new CountDownLatch(1);
+        final ReMetSink sink = _builder
+                .setMaxConcurrentRequests(1)
+                .setMaxQueuedRequests(1)
+                .build();
+
+        // The first request is in flight, the second queued and the third rejected
+        sink.recordAggregateData(createData(), Collections.<Condition>emptyList());
+        sink.recordAggregateData(createData(), Collections.<Condition>emptyList());
+        sink.recordAggregateData(createData(), Collections.<Condition>emptyList());
+        _latch.countDown();
+        sink.close();
+
+        Assert.assertEquals(2, _bodies.size());
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            if (_latch != null) {
+                _latch.await(10, TimeUnit.SECONDS);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        final InputStream body;
+        if ("gzip".equals(encoding)) {
+            body = new GZIPInputStream(exchange.getRequestBody());
+        } else {
+            body = exchange.getRequestBody();
+        }
+        _encodings.add(encoding);
+        // CHECKSTYLE.OFF: IllegalInstantiation - No Guava equivalent
+        _bodies.add(new String(ByteStreams.toByteArray(body), "UTF-8"));
+        // CHECKSTYLE.ON: IllegalInstantiation
+        final int status = _failures.getAndDecrement() > 0 ? 503 : 200;
+        exchange.sendResponseHeaders(status, -1);
+        exchange.close();
     }
+
+    private static List<AggregatedData> createData() {
+        return Collections.singletonList(TestBeanFactory.createAggregatedDataBuilder().setPeriod(Period.seconds(1)).build());
+    }
+
+    private HttpServer _server;
+    private ReMetSink.Builder _builder;
+    private volatile CountDownLatch _latch;
+    private final AtomicInteger _failures = new AtomicInteger(0);
+    private final List<String> _bodies = Collections.synchronizedList(Lists.<String>newArrayList());
+    private final List<String> _encodings = Collections.synchronizedList(Lists.<String>newArrayList());
 }
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sinks;
+
+import com.google.common.base.Charsets;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Tests for the <code>RrdArchive</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class RrdArchiveTest {
+
+    @Before
+    public void setUp() throws IOException {
+        final Path directory = Files.createDirectories(Paths.get("./target/tmp/test/RrdArchiveTest"));
+        _file = Files.createTempFile(directory, "", ".rrd").toFile();
+        Files.delete(_file.toPath());
+    }
+
+    @Test
+    public void testCreate() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 10);
+        archive.flush();
+        Assert.assertEquals(START, archive.getLastUpdate());
+        Assert.assertEquals(STEP, archive.getStep());
+        assertRows(archive, nan(10));
+
+        // Layout of rrd_format.h on a 64-bit little endian platform
+        final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(_file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        Assert.assertEquals(128 + 120 + 120 + 16 + 112 + 80 + 8 + 10 * 8, buffer.limit());
+        Assert.assertEquals("RRD\u00000003\u0000", Charsets.US_ASCII.decode(ByteBuffer.wrap(buffer.array(), 0, 9)).toString());
+        Assert.assertEquals(8.642135E130, buffer.getDouble(16), 0.0);
+        Assert.assertEquals(1, buffer.getLong(24));
+        Assert.assertEquals(1, buffer.getLong(32));
+        Assert.assertEquals(STEP, buffer.getLong(40));
+        Assert.assertEquals("metric", readString(buffer, 128, 20));
+        Assert.assertEquals("GAUGE", readString(buffer, 148, 20));
+        Assert.assertEquals(3 * STEP, buffer.getLong(168));
+        Assert.assertTrue(Double.isNaN(buffer.getDouble(176)));
+        Assert.assertTrue(Double.isNaN(buffer.getDouble(184)));
+        Assert.assertEquals("AVERAGE", readString(buffer, 248, 20));
+        Assert.assertEquals(10, buffer.getLong(272));
+        Assert.assertEquals(1, buffer.getLong(280));
+        Assert.assertEquals(0.5, buffer.getDouble(288), 0.0);
+        Assert.assertEquals(START, buffer.getLong(368));
+        Assert.assertEquals("U", readString(buffer, 384, 30));
+        Assert.assertEquals(9, buffer.getLong(576));
+    }
+
+    @Test
+    public void testUpdateAligned() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 5);
+        for (int i = 1; i <= 3; ++i) {
+            Assert.assertTrue(archive.update(START + i * STEP, i));
+        }
+        Assert.assertEquals(START + 3 * STEP, archive.getLastUpdate());
+        assertRows(archive, Double.NaN, Double.NaN, 1, 2, 3);
+    }
+
+    @Test
+    public void testUpdateUnaligned() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 3);
+        archive.update(START + 30, 1);
+        archive.update(START + 90, 3);
+        archive.update(START + 120, 3);
+
+        // The first step averages 30 seconds of 1 and 30 seconds of 3
+        assertRows(archive, Double.NaN, 2, 3);
+    }
+
+    @Test
+    public void testUpdateWithinHeartbeat() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 4);
+        archive.update(START + STEP, 1);
+        archive.update(START + 3 * STEP, 5);
+        assertRows(archive, Double.NaN, 1, 5, 5);
+    }
+
+    @Test
+    public void testUpdateBeyondHeartbeat() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 6);
+        archive.update(START + STEP, 1);
+        archive.update(START + 5 * STEP, 5);
+        archive.update(START + 6 * STEP, 6);
+        assertRows(archive, 1, Double.NaN, Double.NaN, Double.NaN, Double.NaN, 6);
+    }
+
+    @Test
+    public void testUpdateUnknown() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 3);
+        archive.update(START + STEP, Double.NaN);
+        archive.update(START + 2 * STEP, 2);
+        assertRows(archive, Double.NaN, Double.NaN, 2);
+    }
+
+    @Test
+    public void testUpdateNotAfterLastUpdate() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 3);
+        Assert.assertFalse(archive.update(START, 1));
+        Assert.assertTrue(archive.update(START + STEP, 1));
+        Assert.assertFalse(archive.update(START + STEP, 2));
+        assertRows(archive, Double.NaN, Double.NaN, 1);
+    }
+
+    @Test
+    public void testWrap() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 2);
+        for (int i = 1; i <= 5; ++i) {
+            archive.update(START + i * STEP, i);
+        }
+        assertRows(archive, 4, 5);
+
+        // Elapsed steps exceeding the rows within the heartbeat
+        archive.update(START + 8 * STEP, 8);
+        assertRows(archive, 8, 8);
+    }
+
+    @Test
+    public void testOpen() throws IOException {
+        final RrdArchive archive = RrdArchive.create(_file, STEP, START, 3);
+        archive.update(START + STEP, 1);
+        archive.flush();
+
+        final RrdArchive reopened = RrdArchive.open(_file);
+        Assert.assertEquals(START + STEP, reopened.getLastUpdate());
+        reopened.update(START + 2 * STEP, 2);
+        assertRows(reopened, Double.NaN, 1, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenInvalid() throws IOException {
+        Files.write(_file.toPath(), new byte[256]);
+        RrdArchive.open(_file);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOpenTruncated() throws IOException {
+        RrdArchive.create(_file, STEP, START, 3).flush();
+        final byte[] bytes = Files.readAllBytes(_file.toPath());
+        Files.delete(_file.toPath());
+        Files.write(_file.toPath(), Arrays.copyOf(bytes, bytes.length - 8));
+        RrdArchive.open(_file);
+    }
+
+    private static void assertRows(final RrdArchive archive, final double... expected) {
+        Assert.assertEquals(Arrays.toString(expected), Arrays.toString(archive.getRows(0)));
+    }
+
+    private static double[] nan(final int length) {
+        final double[] values = new double[length];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+
+    private static String readString(final ByteBuffer buffer, final int offset, final int length) {
+        int end = offset;
+        while (end < offset + length && buffer.get(end) != 0) {
+            ++end;
+        }
+        return Charsets.US_ASCII.decode(ByteBuffer.wrap(buffer.array(), offset, end - offset)).toString();
+    }
+
+    private File _file;
+
+    private static final int STEP = 60;
+    private static final long START = 1431043200L;
+}
@@ -17,10 +17,12 @@ package com.arpnetworking.tsdcore.sinks;
 
 import com.arpnetworking.test.TestBeanFactory;
 import com.arpnetworking.tsdcore.model.AggregatedData;
+import com.arpnetworking.tsdcore.model.Quantity;
 import com.arpnetworking.tsdcore.statistics.MeanStatistic;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
+import org.joda.time.DateTime;
 import org.joda.time.Period;
 import org.junit.Assert;
 import org.junit.Before;
@@ -28,6 +30,7 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
@@ -113,6 +116,65 @@ public class RrdSinkTest {
         Assert.assertEquals("update", updateLineB[0]);
     }
 
+    @Test
+    public void testNativeRecordAggregateData() throws IOException {
+        final Sink rrdSink = new RrdSink.Builder()
+                .setName("rrd_sink_test")
+                .setPath(_path.getAbsolutePath())
+                .build();
+        final DateTime start = DateTime.parse("2015-05-08T00:00:00Z");
+        final AggregatedData datumA = createDatum("metricA", start.plusMinutes(5), 2.0);
+        final AggregatedData datumB = createDatum("metricA", start, 1.0);
+        final AggregatedData datumC = createDatum("metricB", start, 3.0);
+        rrdSink.recordAggregateData(Arrays.asList(datumA, datumB, datumC));
+        rrdSink.recordAggregateData(Collections.singletonList(createDatum("metricA", start.plusMinutes(10), 4.0)));
+        rrdSink.close();
+
+        Assert.assertFalse(getOutFile().exists());
+        final double[] rowsA = RrdArchive.open(getRrdFile(datumA)).getRows(0);
+        Assert.assertEquals(1000, rowsA.length);
+        Assert.assertTrue(Double.isNaN(rowsA[996]));
+        Assert.assertEquals(Arrays.toString(new double[] {1.0, 2.0, 4.0}), Arrays.toString(Arrays.copyOfRange(rowsA, 997, 1000)));
+        final RrdArchive archiveC = RrdArchive.open(getRrdFile(datumC));
+        Assert.assertEquals(300, archiveC.getStep());
+        Assert.assertEquals(start.getMillis() / 1000, archiveC.getLastUpdate());
+        Assert.assertEquals(3.0, archiveC.getRows(0)[999], 0.0);
+    }
+
+    @Test
+    public void testNativeMaxOpenArchives() throws IOException {
+        final Sink rrdSink = new RrdSink.Builder()
+                .setName("rrd_sink_test")
+                .setPath(_path.getAbsolutePath())
+                .setMaxOpenArchives(1)
+                .build();
+        final DateTime start = DateTime.parse("2015-05-08T00:00:00Z");
+        for (int i = 0; i < 3; ++i) {
+            rrdSink.recordAggregateData(Arrays.asList(
+                    createDatum("metricA", start.plusMinutes(5 * i), i),
+                    createDatum("metricB", start.plusMinutes(5 * i), 10 + i)));
+        }
+        rrdSink.close();
+
+        final double[] rowsA = RrdArchive.open(getRrdFile(createDatum("metricA", start, 0))).getRows(0);
+        Assert.assertEquals(Arrays.toString(new double[] {0.0, 1.0, 2.0}), Arrays.toString(Arrays.copyOfRange(rowsA, 997, 1000)));
+        final double[] rowsB = RrdArchive.open(getRrdFile(createDatum("metricB", start, 0))).getRows(0);
+        Assert.assertEquals(Arrays.toString(new double[] {10.0, 11.0, 12.0}), Arrays.toString(Arrays.copyOfRange(rowsB, 997, 1000)));
+    }
+
+    private static AggregatedData createDatum(final String metric, final DateTime start, final double value) {
+        return TestBeanFactory.createAggregatedDataBuilder()
+                .setFQDSN(TestBeanFactory.createFQDSNBuilder()
+                        .setMetric(metric)
+                        .setStatistic(new MeanStatistic())
+                        .build())
+                .setHost("localhost")
+                .setPeriod(Period.minutes(5))
+                .setStart(start)
+                .setValue(new Quantity.Builder().setValue(value).build())
+                .build();
+    }
+
     private File getRrdToolFile() {
         return new File(_path.getAbsolutePath() + File.separator + "rrdtool");
     }
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.sources;
+
+import com.arpnetworking.tsdcore.tailer.PositionStore;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+
+/**
+ * Tests for the <code>ConsumedPositionStore</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class ConsumedPositionStoreTest {
+
+    @Test
+    public void testPositionStoredOnceConsumed() {
+        final PositionStore store = Mockito.mock(PositionStore.class);
+        final ConsumedPositionStore consumedStore = new ConsumedPositionStore(store, 2);
+        consumedStore.offered(0);
+        consumedStore.setPosition("file", 10);
+        consumedStore.offered(1);
+        consumedStore.setPosition("file", 20);
+        Mockito.verify(store, Mockito.never()).setPosition(Mockito.anyString(), Mockito.anyLong());
+
+        // Consuming from the other partition does not consume the first line
+        consumedStore.consumed(1);
+        consumedStore.offered(0);
+        consumedStore.setPosition("file", 30);
+        Mockito.verify(store, Mockito.never()).setPosition(Mockito.anyString(), Mockito.anyLong());
+
+        consumedStore.consumed(0);
+        consumedStore.setPosition("file", 40);
+        Mockito.verify(store).setPosition("file", 10);
+        Mockito.verifyNoMoreInteractions(store);
+    }
+
+    @Test
+    public void testCloseConsumed() throws IOException {
+        final PositionStore store = Mockito.mock(PositionStore.class);
+        final ConsumedPositionStore consumedStore = new ConsumedPositionStore(store, 1);
+        consumedStore.offered(0);
+        consumedStore.setPosition("file", 10);
+
+        // The tailer closing the store does not close the underlying store
+        consumedStore.close();
+        Mockito.verify(store, Mockito.never()).close();
+
+        consumedStore.consumed(0);
+        consumedStore.closeConsumed();
+        final InOrder inOrder = Mockito.inOrder(store);
+        inOrder.verify(store).setPosition("file", 10);
+        inOrder.verify(store).close();
+    }
+
+    @Test
+    public void testPositionNotStoredUnlessConsumed() throws IOException {
+        final PositionStore store = Mockito.mock(PositionStore.class);
+        final ConsumedPositionStore consumedStore = new ConsumedPositionStore(store, 1);
+        consumedStore.offered(0);
+        consumedStore.setPosition("file", 10);
+        consumedStore.closeConsumed();
+
+        Mockito.verify(store, Mockito.never()).setPosition(Mockito.anyString(), Mockito.anyLong());
+        Mockito.verify(store).close();
+    }
+}
@@ -19,9 +19,11 @@ import com.arpnetworking.steno.LogBuilder;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.tsdcore.parsers.Parser;
 import com.arpnetworking.tsdcore.parsers.exceptions.ParsingException;
+import com.arpnetworking.tsdcore.tailer.Framing;
 import com.arpnetworking.tsdcore.tailer.InitialPosition;
 import com.arpnetworking.utility.observer.Observer;
 import com.google.common.base.Charsets;
+import net.sf.oval.exception.ConstraintsViolatedException;
 import org.joda.time.Duration;
 import org.junit.Assert;
 import org.junit.Before;
@@ -105,6 +107,78 @@ public class FileSourceTest {
         source.stop();
     }
 
+    @Test
+    public void testParseDataMemoryMapped() throws IOException, InterruptedException {
+        final long interval = 500;
+        final long sleepInterval = 600;
+        Files.createDirectories(_directory.toPath());
+        final File file = new File(_directory, "testParseDataMemoryMapped.log");
+        final File state = new File(_directory, "testParseDataMemoryMapped.log.state");
+        Files.deleteIfExists(file.toPath());
+        Files.createFile(file.toPath());
+        Files.deleteIfExists(state.toPath());
+
+        // The default buffer parse implementation delegates to the byte array parse
+        // CHECKSTYLE.OFF: IllegalInstantiation - Approved for byte[] to String
+        final Parser<Object> parser = data -> new String(data, Charsets.UTF_8);
+        // CHECKSTYLE.ON: IllegalInstantiation
+        final FileSource<Object> source = new FileSource<>(
+                new FileSource.Builder<>()
+                        .setSourceFile(file)
+                        .setStateFile(state)
+                        .setParser(parser)
+                        .setMemoryMapped(true)
+                        .setInterval(Duration.millis(interval)),
+                _logger);
+
+        source.attach(_observer);
+        source.start();
+
+        Thread.sleep(sleepInterval);
+        Files.write(
+                file.toPath(),
+                "Expected Data 1\r\nExpected Data 2\nPartial".getBytes(Charsets.UTF_8),
+                StandardOpenOption.APPEND, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        Thread.sleep(sleepInterval);
+
+        Mockito.verify(_observer).notify(source, "Expected Data 1");
+        Mockito.verify(_observer).notify(source, "Expected Data 2");
+        Mockito.verifyNoMoreInteractions(_observer);
+        source.stop();
+    }
+
+    @Test
+    public void testLengthPrefixedFraming() {
+        Assert.assertNotNull(new FileSource.Builder<>()
+                .setName("testLengthPrefixedFraming")
+                .setSourceFile(new File(_directory, "testLengthPrefixedFraming.log"))
+                .setParser(_parser)
+                .setFraming(Framing.LENGTH_PREFIXED)
+                .build());
+    }
+
+    @Test(expected = ConstraintsViolatedException.class)
+    public void testLengthPrefixedFramingWithParserWorkers() {
+        new FileSource.Builder<>()
+                .setName("testLengthPrefixedFramingWithParserWorkers")
+                .setSourceFile(new File(_directory, "testLengthPrefixedFramingWithParserWorkers.log"))
+                .setParser(_parser)
+                .setFraming(Framing.LENGTH_PREFIXED)
+                .setParserWorkers(2)
+                .build();
+    }
+
+    @Test(expected = ConstraintsViolatedException.class)
+    public void testLengthPrefixedFramingMemoryMapped() {
+        new FileSource.Builder<>()
+                .setName("testLengthPrefixedFramingMemoryMapped")
+                .setSourceFile(new File(_directory, "testLengthPrefixedFramingMemoryMapped.log"))
+                .setParser(_parser)
+                .setFraming(Framing.LENGTH_PREFIXED)
+                .setMemoryMapped(true)
+                .build();
+    }
+
     @Test
     public void testTailFromEnd() throws IOException, InterruptedException, ParsingException {
         final long interval = 500;
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2014 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests for the <code>CompositeAccumulator</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class CompositeAccumulatorTest {
+
+    @Test
+    public void testMatchesCalculate() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        final List<Double> values = Lists.newArrayList();
+        final Random random = new Random(0x5eed);
+        for (int i = 0; i < 1000; ++i) {
+            values.add((double) random.nextInt(10000));
+        }
+        for (final Double value : values) {
+            accumulator.accept(value, Unit.MILLISECOND);
+        }
+        // Ordered statistics expect sorted samples
+        final List<Quantity> samples = TestBeanFactory.createSamples(Ordering.natural().sortedCopy(values));
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(STATISTICS.size(), results.size());
+        for (final Statistic statistic : STATISTICS) {
+            final Quantity expected = statistic.calculate(samples);
+            final Quantity actual = results.get(statistic);
+            Assert.assertEquals(statistic.getName(), expected.getUnit(), actual.getUnit());
+            Assert.assertEquals(statistic.getName(), expected.getValue(), actual.getValue(), 0.000001);
+        }
+        Assert.assertEquals(1000, accumulator.getCount());
+        Assert.assertEquals(1000, accumulator.getSamples().size());
+    }
+
+    @Test
+    public void testMixedUnits() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        accumulator.accept(3.0, Unit.SECOND);
+        accumulator.accept(2000.0, Unit.MILLISECOND);
+        accumulator.accept(1.0, Unit.SECOND);
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(millis(1000.0), results.get(new TP0Statistic()));
+        Assert.assertEquals(millis(3000.0), results.get(new TP100Statistic()));
+        Assert.assertEquals(millis(2000.0), results.get(new MedianStatistic()));
+        Assert.assertEquals(millis(2000.0), results.get(new MeanStatistic()));
+        Assert.assertEquals(millis(6000.0), results.get(new SumStatistic()));
+        Assert.assertEquals(new Quantity.Builder().setValue(3.0).build(), results.get(new CountStatistic()));
+        Assert.assertEquals(
+                ImmutableList.of(millis(1000.0), millis(2000.0), millis(3000.0)),
+                accumulator.getSamples());
+    }
+
+    @Test
+    public void testNoOrderedStatistics() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(
+                ImmutableList.of(new SumStatistic(), new CountStatistic()));
+        accumulator.accept(1.0, null);
+        accumulator.accept(2.0, null);
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(new Quantity.Builder().setValue(3.0).build(), results.get(new SumStatistic()));
+        Assert.assertEquals(new Quantity.Builder().setValue(2.0).build(), results.get(new CountStatistic()));
+        Assert.assertTrue(accumulator.getSamples().isEmpty());
+    }
+
+    @Test
+    public void testHistogram() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS, 0.01);
+        for (int i = 1; i <= 1000; ++i) {
+            accumulator.accept(i, Unit.SECOND);
+        }
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(Unit.SECOND, results.get(new MedianStatistic()).getUnit().get());
+        Assert.assertEquals(501.0, results.get(new MedianStatistic()).getValue(), 501.0 * 0.01);
+        Assert.assertEquals(1.0, results.get(new TP0Statistic()).getValue(), 0.0001);
+        Assert.assertEquals(1000.0, results.get(new TP100Statistic()).getValue(), 0.0001);
+        Assert.assertEquals(500500.0, results.get(new SumStatistic()).getValue(), 0.0001);
+        Assert.assertTrue(accumulator.getSamples().isEmpty());
+    }
+
+    @Test
+    public void testWeighted() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        accumulator.accept(1.0, Unit.SECOND, 3);
+        accumulator.accept(2000.0, Unit.MILLISECOND);
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(millis(1000.0), results.get(new TP0Statistic()));
+        Assert.assertEquals(millis(1000.0), results.get(new MedianStatistic()));
+        Assert.assertEquals(millis(2000.0), results.get(new TP100Statistic()));
+        Assert.assertEquals(millis(1250.0), results.get(new MeanStatistic()));
+        Assert.assertEquals(millis(5000.0), results.get(new SumStatistic()));
+        Assert.assertEquals(new Quantity.Builder().setValue(4.0).build(), results.get(new CountStatistic()));
+        Assert.assertEquals(4, accumulator.getCount());
+
+        // Samples with counts are published as a histogram
+        Assert.assertTrue(accumulator.getSamples().isEmpty());
+        Assert.assertTrue(accumulator.getHistogram().isPresent());
+        Assert.assertEquals(4, accumulator.getHistogram().get().getCount());
+        Assert.assertEquals(Unit.NANOSECOND, accumulator.getHistogram().get().getUnit().get());
+    }
+
+    @Test
+    public void testWeightedMatchesCalculate() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        final List<Double> values = Lists.newArrayList();
+        final Random random = new Random(0x5eed);
+        for (int i = 0; i < 1000; ++i) {
+            final double value = random.nextInt(10000);
+            final int count = 1 + random.nextInt(5);
+            for (int j = 0; j < count; ++j) {
+                values.add(value);
+            }
+            accumulator.accept(value, Unit.MILLISECOND, count);
+        }
+        final List<Quantity> samples = TestBeanFactory.createSamples(Ordering.natural().sortedCopy(values));
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        for (final Statistic statistic : STATISTICS) {
+            final Quantity expected = statistic.calculate(samples);
+            final Quantity actual = results.get(statistic);
+            Assert.assertEquals(statistic.getName(), expected.getUnit(), actual.getUnit());
+            Assert.assertEquals(statistic.getName(), expected.getValue(), actual.getValue(), 0.000001);
+        }
+        Assert.assertEquals(values.size(), accumulator.getCount());
+    }
+
+    @Test
+    public void testWeightedHistogram() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS, 0.01);
+        accumulator.accept(1.0, Unit.SECOND, 1000000000000L);
+        accumulator.accept(10.0, Unit.SECOND);
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(1.0, results.get(new MedianStatistic()).getValue(), 0.01);
+        Assert.assertEquals(10.0, results.get(new TP100Statistic()).getValue(), 0.0001);
+        Assert.assertEquals(1000000000001.0, results.get(new CountStatistic()).getValue(), 0.0);
+        Assert.assertEquals(1000000000001L, accumulator.getCount());
+    }
+
+    @Test
+    public void testWeightedLargeCount() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        accumulator.accept(2.0, Unit.SECOND);
+        accumulator.accept(1.0, Unit.SECOND, 1000000000000L);
+        accumulator.accept(3.0, Unit.SECOND);
+
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(1.0, results.get(new TP0Statistic()).getValue(), 0.01);
+        Assert.assertEquals(1.0, results.get(new MedianStatistic()).getValue(), 0.01);
+        Assert.assertEquals(3.0, results.get(new TP100Statistic()).getValue(), 0.03);
+        Assert.assertEquals(1000000000002.0, results.get(new CountStatistic()).getValue(), 0.0);
+        Assert.assertEquals(1000000000002L, accumulator.getCount());
+        Assert.assertTrue(accumulator.getSamples().isEmpty());
+        Assert.assertEquals(1000000000002L, accumulator.getHistogram().get().getCount());
+    }
+
+    @Test
+    public void testEmpty() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertFalse(results.containsKey(new TP100Statistic()));
+        Assert.assertEquals(0, accumulator.getCount());
+        Assert.assertTrue(accumulator.getSamples().isEmpty());
+    }
+
+    @Test
+    public void testNotFinite() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        accumulator.accept(1.0, Unit.SECOND);
+        try {
+            accumulator.accept(Double.POSITIVE_INFINITY, Unit.SECOND, 2);
+            Assert.fail("Expected exception");
+        } catch (final IllegalArgumentException e) {
+            // Expected exception
+        }
+        // The rejected sample is not accumulated by any statistic
+        final Map<Statistic, Quantity> results = accumulator.finish();
+        Assert.assertEquals(1, accumulator.getCount());
+        Assert.assertEquals(1.0, results.get(new TP100Statistic()).getValue(), 0.0);
+        Assert.assertEquals(1.0, results.get(new SumStatistic()).getValue(), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testIncompatibleUnits() {
+        final CompositeAccumulator accumulator = new CompositeAccumulator(STATISTICS);
+        accumulator.accept(1.0, Unit.SECOND);
+        accumulator.accept(1.0, Unit.BYTE);
+    }
+
+    private static Quantity millis(final double value) {
+        return new Quantity.Builder().setValue(value).setUnit(Unit.MILLISECOND).build();
+    }
+
+    private static final List<Statistic> STATISTICS = ImmutableList.of(
+            new TP0Statistic(),
+            new MedianStatistic(),
+            new TP90Statistic(),
+            new TP99Statistic(),
+            new TP100Statistic(),
+            new MeanStatistic(),
+            new SumStatistic(),
+            new CountStatistic());
+}
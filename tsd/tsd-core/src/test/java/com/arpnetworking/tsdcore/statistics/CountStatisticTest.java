@@ -58,6 +58,15 @@ public class CountStatisticTest {
         Assert.assertThat(calculated, Matchers.equalTo(new Quantity.Builder().setValue(3.0).build()));
     }
 
+    @Test
+    public void testAccumulator() {
+        final Accumulator<Quantity> accumulator = new CountStatistic().createAccumulator();
+        accumulator.accept(12.0, null);
+        accumulator.accept(18.0, null);
+        accumulator.accept(5.0, null);
+        Assert.assertThat(accumulator.finish(), Matchers.equalTo(new Quantity.Builder().setValue(3.0).build()));
+    }
+
     @Test
     public void testEquality() {
         Assert.assertFalse(new CountStatistic().equals(null));
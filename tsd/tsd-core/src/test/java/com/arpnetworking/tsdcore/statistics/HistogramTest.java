@@ -0,0 +1,324 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import com.arpnetworking.tsdcore.Messages;
+import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Unit;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the <code>Histogram</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class HistogramTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrecisionZero() {
+        new Histogram(0.0, Optional.<Unit>absent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPrecisionOne() {
+        new Histogram(1.0, Optional.<Unit>absent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordNaN() {
+        new Histogram(0.01, Optional.<Unit>absent()).record(Double.NaN);
+    }
+
+    @Test
+    public void testRecordInfinity() {
+        final Histogram histogram = new Histogram(0.01, Optional.<Unit>absent());
+        histogram.record(1.0);
+        for (final double value : new double[] {Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY}) {
+            try {
+                histogram.record(value, 2);
+                Assert.fail("Expected exception");
+            } catch (final IllegalArgumentException e) {
+                // Expected exception
+            }
+        }
+        // The rejected values are not recorded
+        Assert.assertEquals(1, histogram.getCount());
+        Assert.assertEquals(1.0, histogram.getValueAtPercentile(100.0), 0.0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEmptyPercentile() {
+        new Histogram(0.01, Optional.<Unit>absent()).getValueAtPercentile(50.0);
+    }
+
+    @Test
+    public void testExactAggregates() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+        histogram.record(3.0);
+        histogram.record(-1.5);
+        histogram.record(0.0);
+        histogram.record(10.0);
+        Assert.assertEquals(4, histogram.getCount());
+        Assert.assertEquals(11.5, histogram.getSum(), 0.0);
+        Assert.assertEquals(-1.5, histogram.getMin(), 0.0);
+        Assert.assertEquals(10.0, histogram.getMax(), 0.0);
+        Assert.assertEquals(-1.5, histogram.getValueAtPercentile(0.0), 0.0);
+        Assert.assertEquals(10.0, histogram.getValueAtPercentile(100.0), 0.0);
+        Assert.assertEquals(Optional.of(Unit.MILLISECOND), histogram.getUnit());
+    }
+
+    @Test
+    public void testWeightedRecord() {
+        final Histogram histogram = new Histogram(0.01, Optional.<Unit>absent());
+        histogram.record(1.0, 1000000000000L);
+        histogram.record(100.0, 1000000000000L);
+        histogram.record(1000.0);
+        Assert.assertEquals(2000000000001L, histogram.getCount());
+        Assert.assertEquals(1.01e14 + 1000.0, histogram.getSum(), 1.0);
+        Assert.assertEquals(1.0, histogram.getValueAtPercentile(25.0), 0.01);
+        Assert.assertEquals(100.0, histogram.getValueAtPercentile(75.0), 1.0);
+        Assert.assertEquals(1000.0, histogram.getValueAtPercentile(100.0), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordInvalidCount() {
+        new Histogram(0.01, Optional.<Unit>absent()).record(1.0, 0);
+    }
+
+    @Test
+    public void testSingleValue() {
+        final Histogram histogram = new Histogram(0.01, Optional.<Unit>absent());
+        histogram.record(42.0);
+        Assert.assertEquals(42.0, histogram.getValueAtPercentile(0.0), 0.0);
+        Assert.assertEquals(42.0, histogram.getValueAtPercentile(50.0), 0.0);
+        Assert.assertEquals(42.0, histogram.getValueAtPercentile(99.9), 0.0);
+    }
+
+    @Test
+    public void testPercentileAccuracy() {
+        final double precision = 0.01;
+        final Random random = new Random(1234L);
+        final Histogram histogram = new Histogram(precision, Optional.<Unit>absent());
+        final List<Double> values = Lists.newArrayList();
+        for (int i = 0; i < 100000; ++i) {
+            // Log-normally distributed values spanning several orders of magnitude
+            final double value = Math.exp(random.nextGaussian() * 3.0);
+            values.add(value);
+            histogram.record(value);
+        }
+        Collections.sort(values);
+        for (final double percentile : new double[] {0.0, 1.0, 10.0, 50.0, 90.0, 95.0, 99.0, 99.9, 100.0}) {
+            final double exact = values.get((int) Math.ceil((percentile / 100.0) * (values.size() - 1)));
+            final double approximate = histogram.getValueAtPercentile(percentile);
+            Assert.assertEquals("tp" + percentile, exact, approximate, exact * precision);
+        }
+    }
+
+    @Test
+    public void testNegativePercentileAccuracy() {
+        final double precision = 0.02;
+        final Histogram histogram = new Histogram(precision, Optional.<Unit>absent());
+        final List<Double> values = Lists.newArrayList();
+        for (int i = -500; i <= 500; ++i) {
+            final double value = i * 0.75;
+            values.add(value);
+            histogram.record(value);
+        }
+        Collections.sort(values);
+        for (final double percentile : new double[] {5.0, 25.0, 50.0, 75.0, 95.0}) {
+            final double exact = values.get((int) Math.ceil((percentile / 100.0) * (values.size() - 1)));
+            final double approximate = histogram.getValueAtPercentile(percentile);
+            Assert.assertEquals("tp" + percentile, exact, approximate, Math.abs(exact) * precision);
+        }
+    }
+
+    @Test
+    public void testStatistics() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(5050.0).setUnit(Unit.MILLISECOND).build(),
+                new SumStatistic().calculate(histogram));
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(50.5).setUnit(Unit.MILLISECOND).build(),
+                new MeanStatistic().calculate(histogram));
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(100.0).build(),
+                new CountStatistic().calculate(histogram));
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(1.0).setUnit(Unit.MILLISECOND).build(),
+                new TP0Statistic().calculate(histogram));
+        Assert.assertEquals(
+                new Quantity.Builder().setValue(100.0).setUnit(Unit.MILLISECOND).build(),
+                new TP100Statistic().calculate(histogram));
+        final Quantity tp90 = new TP90Statistic().calculate(histogram);
+        Assert.assertEquals(Optional.of(Unit.MILLISECOND), tp90.getUnit());
+        Assert.assertEquals(91.0, tp90.getValue(), 91.0 * 0.01);
+    }
+
+    @Test
+    public void testMerge() {
+        final Random random = new Random(1234L);
+        final Histogram merged = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+        final Histogram expected = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+        for (int i = 0; i < 10; ++i) {
+            final Histogram histogram = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+            for (int j = 0; j < 1000; ++j) {
+                // Both positive and negative values and exact zeros
+                final double value = j % 100 == 0 ? 0.0 : random.nextGaussian() * Math.pow(10, i % 5);
+                histogram.record(value);
+                expected.record(value);
+            }
+            merged.merge(histogram);
+        }
+        Assert.assertEquals(expected.getCount(), merged.getCount());
+        Assert.assertEquals(expected.getSum(), merged.getSum(), 1e-6);
+        Assert.assertEquals(expected.getMin(), merged.getMin(), 0.0);
+        Assert.assertEquals(expected.getMax(), merged.getMax(), 0.0);
+        for (final double percentile : new double[] {0.0, 1.0, 10.0, 50.0, 90.0, 99.0, 99.9, 100.0}) {
+            Assert.assertEquals(
+                    "tp" + percentile,
+                    expected.getValueAtPercentile(percentile),
+                    merged.getValueAtPercentile(percentile),
+                    0.0);
+        }
+    }
+
+    @Test
+    public void testMergeEmpty() {
+        final Histogram histogram = new Histogram(0.01, Optional.<Unit>absent());
+        histogram.merge(new Histogram(0.01, Optional.<Unit>absent()));
+        Assert.assertEquals(0, histogram.getCount());
+        final Histogram other = new Histogram(0.01, Optional.<Unit>absent());
+        other.record(-5.0);
+        histogram.merge(other);
+        Assert.assertEquals(1, histogram.getCount());
+        Assert.assertEquals(-5.0, histogram.getMin(), 0.0);
+        Assert.assertEquals(-5.0, histogram.getMax(), 0.0);
+    }
+
+    @Test
+    public void testMergeDifferentUnitAndPrecision() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+        final Histogram other = new Histogram(0.02, Optional.of(Unit.SECOND));
+        final List<Double> values = Lists.newArrayList();
+        for (int i = 1; i <= 1000; ++i) {
+            histogram.record(i);
+            other.record(i / 1000.0);
+            values.add((double) i);
+            values.add((double) i);
+        }
+        histogram.merge(other);
+        Collections.sort(values);
+        Assert.assertEquals(2000, histogram.getCount());
+        Assert.assertEquals(2 * 500500.0, histogram.getSum(), 1e-6);
+        Assert.assertEquals(1.0, histogram.getMin(), 1e-9);
+        Assert.assertEquals(1000.0, histogram.getMax(), 1e-9);
+        for (final double percentile : new double[] {10.0, 50.0, 90.0, 99.0}) {
+            final double exact = values.get((int) Math.ceil((percentile / 100.0) * (values.size() - 1)));
+            // Values re-recorded from the other histogram accumulate both errors
+            Assert.assertEquals("tp" + percentile, exact, histogram.getValueAtPercentile(percentile), exact * 0.03);
+        }
+    }
+
+    @Test
+    public void testConvert() {
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.SECOND));
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+        final Histogram converted = histogram.convert(Unit.MILLISECOND);
+        Assert.assertEquals(Optional.of(Unit.MILLISECOND), converted.getUnit());
+        Assert.assertEquals(100, converted.getCount());
+        Assert.assertEquals(5050000.0, converted.getSum(), 1e-6);
+        Assert.assertEquals(1000.0, converted.getMin(), 1e-9);
+        Assert.assertEquals(100000.0, converted.getMax(), 1e-9);
+        Assert.assertEquals(91000.0, converted.getValueAtPercentile(90.0), 91000.0 * 0.02);
+        // The original is unchanged
+        Assert.assertEquals(Optional.of(Unit.SECOND), histogram.getUnit());
+        Assert.assertEquals(5050.0, histogram.getSum(), 0.0);
+    }
+
+    @Test
+    public void testRecordRoundTrip() throws IOException {
+        final Random random = new Random(1234L);
+        final Histogram histogram = new Histogram(0.01, Optional.of(Unit.BYTE));
+        for (int i = 0; i < 1000; ++i) {
+            histogram.record(i % 10 == 0 ? 0.0 : random.nextGaussian() * 1000.0);
+        }
+        final Messages.HistogramRecord record = histogram.toRecord();
+        Assert.assertTrue(record.getPositiveCountsCount() > 0);
+        Assert.assertTrue(record.getNegativeCountsCount() > 0);
+        final Histogram deserialized = Histogram.fromRecord(
+                Messages.HistogramRecord.PARSER.parseFrom(record.toByteArray()),
+                Optional.of(Unit.BYTE));
+        Assert.assertEquals(histogram, deserialized);
+        Assert.assertEquals(histogram.getValueAtPercentile(99.0), deserialized.getValueAtPercentile(99.0), 0.0);
+    }
+
+    @Test
+    public void testRecordEmpty() {
+        final Histogram histogram = new Histogram(0.05, Optional.<Unit>absent());
+        final Messages.HistogramRecord record = histogram.toRecord();
+        Assert.assertEquals(0, record.getPositiveCountsCount());
+        Assert.assertEquals(0, record.getNegativeCountsCount());
+        Assert.assertEquals(histogram, Histogram.fromRecord(record, Optional.<Unit>absent()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordInvalidPrecision() {
+        Histogram.fromRecord(createRecord().setPrecision(0.0).build(), Optional.<Unit>absent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordCountMismatch() {
+        Histogram.fromRecord(createRecord().setCount(3).build(), Optional.<Unit>absent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordNegativeBucketCount() {
+        Histogram.fromRecord(
+                createRecord().setZeroCount(4).setPositiveCounts(0, -2).build(),
+                Optional.<Unit>absent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordBucketsOutOfRange() {
+        Histogram.fromRecord(createRecord().setPositiveOffset(Integer.MAX_VALUE).build(), Optional.<Unit>absent());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRecordInvalidAggregates() {
+        Histogram.fromRecord(createRecord().setMin(2.0).setMax(1.0).build(), Optional.<Unit>absent());
+    }
+
+    private static Messages.HistogramRecord.Builder createRecord() {
+        final Histogram histogram = new Histogram(0.01, Optional.<Unit>absent());
+        histogram.record(1.0);
+        histogram.record(1.5);
+        return histogram.toRecord().toBuilder();
+    }
+}
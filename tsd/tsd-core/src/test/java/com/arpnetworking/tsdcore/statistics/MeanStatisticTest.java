@@ -60,6 +60,23 @@ public class MeanStatisticTest {
                                 .build()));
     }
 
+    @Test
+    public void testAccumulator() {
+        final Accumulator<Quantity> accumulator = new MeanStatistic().createAccumulator();
+        accumulator.accept(12.0, Unit.MILLISECOND);
+        accumulator.accept(0.02, Unit.SECOND);
+        accumulator.accept(7.0, Unit.MILLISECOND);
+        final Quantity calculated = accumulator.finish();
+        Assert.assertEquals(13.0, calculated.getValue(), 0.0001);
+        Assert.assertEquals(Unit.MILLISECOND, calculated.getUnit().get());
+    }
+
+    @Test
+    public void testAccumulatorWithNoEntries() {
+        final Accumulator<Quantity> accumulator = new MeanStatistic().createAccumulator();
+        Assert.assertThat(accumulator.finish(), Matchers.equalTo(new Quantity.Builder().setValue(0.0).build()));
+    }
+
     @Test
     public void testCalculateWithNoEntries() {
         final MeanStatistic stat = new MeanStatistic();
@@ -58,6 +58,17 @@ public class SumStatisticTest {
                                 .build()));
     }
 
+    @Test
+    public void testAccumulator() {
+        final Accumulator<Quantity> accumulator = new SumStatistic().createAccumulator();
+        accumulator.accept(12.0, Unit.MILLISECOND);
+        accumulator.accept(0.018, Unit.SECOND);
+        accumulator.accept(5.0, Unit.MILLISECOND);
+        final Quantity calculated = accumulator.finish();
+        Assert.assertEquals(35.0, calculated.getValue(), 0.0001);
+        Assert.assertEquals(Unit.MILLISECOND, calculated.getUnit().get());
+    }
+
     @Test
     public void testEquality() {
         Assert.assertFalse(new SumStatistic().equals(null));
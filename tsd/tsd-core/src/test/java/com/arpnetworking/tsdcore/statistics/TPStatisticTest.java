@@ -16,8 +16,11 @@
 package com.arpnetworking.tsdcore.statistics;
 
 import com.arpnetworking.test.TestBeanFactory;
+import com.arpnetworking.tsdcore.model.AggregatedData;
 import com.arpnetworking.tsdcore.model.Quantity;
+import com.arpnetworking.tsdcore.model.Samples;
 import com.arpnetworking.tsdcore.model.Unit;
+import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 
 import org.hamcrest.Matchers;
@@ -26,6 +29,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Tests the TPStatistic class.
@@ -124,6 +128,131 @@ public class TPStatisticTest {
                                 .build()));
     }
 
+    @Test
+    public void testAccumulator() {
+        final Accumulator<Quantity> accumulator = new TP99Statistic().createAccumulator();
+        for (int x = 99; x >= 0; --x) {
+            accumulator.accept(x, Unit.MILLISECOND);
+        }
+        Assert.assertThat(
+                accumulator.finish(),
+                Matchers.equalTo(
+                        new Quantity.Builder()
+                                .setValue(99.0)
+                                .setUnit(Unit.MILLISECOND)
+                                .build()));
+    }
+
+    @Test
+    public void testAccumulatorMixedUnits() {
+        final Accumulator<Quantity> accumulator = new TP100Statistic().createAccumulator();
+        accumulator.accept(2.0, Unit.SECOND);
+        accumulator.accept(3000.0, Unit.MILLISECOND);
+        accumulator.accept(1.0, Unit.SECOND);
+        Assert.assertThat(
+                accumulator.finish(),
+                Matchers.equalTo(
+                        new Quantity.Builder()
+                                .setValue(3000.0)
+                                .setUnit(Unit.MILLISECOND)
+                                .build()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAccumulatorMixedUnitPresence() {
+        final Accumulator<Quantity> accumulator = new TP100Statistic().createAccumulator();
+        accumulator.accept(2.0, Unit.SECOND);
+        accumulator.accept(3.0, null);
+    }
+
+    @Test
+    public void testCalculateAggregations() {
+        final List<AggregatedData> aggregations = Lists.newArrayList();
+        for (int i = 0; i < 10; ++i) {
+            final List<Double> values = Lists.newArrayList();
+            for (int j = 0; j < 10; ++j) {
+                values.add((double) (i * 10 + j));
+            }
+            aggregations.add(
+                    TestBeanFactory.createAggregatedDataBuilder()
+                            .setSamples(TestBeanFactory.createSamples(values))
+                            .build());
+        }
+        Assert.assertEquals(
+                new Quantity.Builder()
+                        .setValue(99.0)
+                        .setUnit(Unit.MILLISECOND)
+                        .build(),
+                new TP99Statistic().calculateAggregations(aggregations));
+    }
+
+    @Test
+    public void testCalculateAggregationsHistogramAccuracy() {
+        final double precision = 0.01;
+        final Random random = new Random(1234L);
+        final List<AggregatedData> exactAggregations = Lists.newArrayList();
+        final List<AggregatedData> histogramAggregations = Lists.newArrayList();
+        for (int i = 0; i < 50; ++i) {
+            // Each host has a different latency distribution
+            final double scale = 1.0 + random.nextInt(20);
+            final int size = 1 + random.nextInt(2000);
+            final Samples.Builder samplesBuilder = new Samples.Builder(size);
+            final Histogram histogram = new Histogram(precision, Optional.of(Unit.MILLISECOND));
+            for (int j = 0; j < size; ++j) {
+                final double value = scale * Math.exp(random.nextGaussian());
+                samplesBuilder.add(value, Unit.MILLISECOND);
+                histogram.record(value);
+            }
+            final Samples samples = samplesBuilder.build();
+            exactAggregations.add(
+                    TestBeanFactory.createAggregatedDataBuilder()
+                            .setSamples(samples)
+                            .build());
+            // Every fifth host only sends samples
+            histogramAggregations.add(
+                    TestBeanFactory.createAggregatedDataBuilder()
+                            .setSamples(i % 5 == 0 ? samples : Samples.empty())
+                            .setHistogram(i % 5 == 0 ? null : histogram)
+                            .build());
+        }
+        for (final TPStatistic statistic : new TPStatistic[] {
+                new TP0Statistic(),
+                new MedianStatistic(),
+                new TP90Statistic(),
+                new TP99Statistic(),
+                new TP99p9Statistic(),
+                new TP100Statistic()}) {
+            final Quantity exact = statistic.calculateAggregations(exactAggregations);
+            final Quantity approximate = statistic.calculateAggregations(histogramAggregations);
+            Assert.assertEquals(exact.getUnit(), approximate.getUnit());
+            Assert.assertEquals(statistic.getName(), exact.getValue(), approximate.getValue(), exact.getValue() * precision);
+        }
+    }
+
+    @Test
+    public void testCalculateAggregationsHistogramMixedUnits() {
+        final Histogram milliseconds = new Histogram(0.01, Optional.of(Unit.MILLISECOND));
+        final Histogram seconds = new Histogram(0.01, Optional.of(Unit.SECOND));
+        for (int i = 1; i <= 100; ++i) {
+            milliseconds.record(i);
+            seconds.record(i);
+        }
+        final Quantity tp100 = new TP100Statistic().calculateAggregations(Lists.newArrayList(
+                TestBeanFactory.createAggregatedDataBuilder()
+                        .setSamples(Samples.empty())
+                        .setHistogram(milliseconds)
+                        .build(),
+                TestBeanFactory.createAggregatedDataBuilder()
+                        .setSamples(Samples.empty())
+                        .setHistogram(seconds)
+                        .build()));
+        Assert.assertEquals(Optional.of(Unit.MILLISECOND), tp100.getUnit());
+        Assert.assertEquals(100000.0, tp100.getValue(), 1e-6);
+        // The aggregated histograms are not modified
+        Assert.assertEquals(100, milliseconds.getCount());
+        Assert.assertEquals(100.0, milliseconds.getMax(), 0.0);
+    }
+
     @Test
     public void testEquality() {
         Assert.assertFalse(new TP0Statistic().equals(null));
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.statistics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests for the <code>WeightedSort</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class WeightedSortTest {
+
+    @Test
+    public void testSortSmall() {
+        final double[] values = new double[] {3.0, 1.0, 2.0, 0.0};
+        final long[] counts = new long[] {30, 10, 20, 99};
+
+        // Only the first size values are sorted
+        final long[] cumulativeCounts = WeightedSort.sort(values, counts, 3);
+        Assert.assertArrayEquals(new double[] {1.0, 2.0, 3.0, 0.0}, values, 0.0);
+        Assert.assertArrayEquals(new long[] {10, 20, 30, 99}, counts);
+        Assert.assertArrayEquals(new long[] {10, 30, 60}, cumulativeCounts);
+    }
+
+    @Test
+    public void testSortEmpty() {
+        Assert.assertEquals(0, WeightedSort.sort(new double[0], new long[0], 0).length);
+    }
+
+    @Test
+    public void testSortLarge() {
+        final Random random = new Random(0);
+        final int size = 1000;
+        final double[] values = new double[size];
+        final long[] counts = new long[size];
+        for (int i = 0; i < size; ++i) {
+            // Duplicate values and the count encodes the original value
+            values[i] = random.nextInt(100);
+            counts[i] = (long) values[i] + 1;
+        }
+        final double[] expected = Arrays.copyOf(values, size);
+        Arrays.sort(expected);
+
+        final long[] cumulativeCounts = WeightedSort.sort(values, counts, size);
+        Assert.assertArrayEquals(expected, values, 0.0);
+        long cumulativeCount = 0;
+        for (int i = 0; i < size; ++i) {
+            Assert.assertEquals((long) values[i] + 1, counts[i]);
+            cumulativeCount += counts[i];
+            Assert.assertEquals(cumulativeCount, cumulativeCounts[i]);
+        }
+    }
+
+    @Test
+    public void testPosition() {
+        final long[] cumulativeCounts = new long[] {2, 3, 6};
+        Assert.assertEquals(0, WeightedSort.position(cumulativeCounts, 3, 0));
+        Assert.assertEquals(0, WeightedSort.position(cumulativeCounts, 3, 1));
+        Assert.assertEquals(1, WeightedSort.position(cumulativeCounts, 3, 2));
+        Assert.assertEquals(2, WeightedSort.position(cumulativeCounts, 3, 3));
+        Assert.assertEquals(2, WeightedSort.position(cumulativeCounts, 3, 5));
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.tailer;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Tests for the <code>FilePositionStore</code> class. A crash is simulated
+ * by opening a new store on the state file without closing the store that
+ * wrote it.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class FilePositionStoreTest {
+
+    @Before
+    public void setUp() throws IOException {
+        Files.createDirectories(DIRECTORY.toPath());
+        _file = Files.createTempFile(DIRECTORY.toPath(), "", ".state").toFile();
+        Files.deleteIfExists(_file.toPath());
+    }
+
+    @After
+    public void tearDown() {
+        // Close every store opened by the test including any simulated crashes
+        for (final FilePositionStore store : _stores) {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testPersistOnClose() {
+        final FilePositionStore store = createStore(Duration.standardHours(1), Long.MAX_VALUE);
+        store.setPosition("a", 123);
+        store.setPosition("b", 456);
+        store.setPosition("a", 789);
+        Assert.assertEquals(Optional.of(789L), store.getPosition("a"));
+        Assert.assertFalse(_file.exists());
+        store.close();
+
+        final FilePositionStore recovered = createStore(Duration.standardHours(1), Long.MAX_VALUE);
+        Assert.assertEquals(Optional.of(789L), recovered.getPosition("a"));
+        Assert.assertEquals(Optional.of(456L), recovered.getPosition("b"));
+        Assert.assertEquals(Optional.<Long>absent(), recovered.getPosition("c"));
+    }
+
+    @Test
+    public void testFlushInterval() throws InterruptedException {
+        final FilePositionStore store = createStore(Duration.millis(50), Long.MAX_VALUE);
+        store.setPosition("a", 123);
+
+        Assert.assertEquals(Optional.of(123L), awaitRecovery("a", 123));
+    }
+
+    @Test
+    public void testCrashRecoveryReplayIsBounded() throws InterruptedException {
+        final long lineLength = 100;
+        final long threshold = 10 * lineLength;
+        final FilePositionStore store = createStore(Duration.standardHours(1), threshold);
+        final long lines = 10000;
+        for (long i = 1; i <= lines; ++i) {
+            store.setPosition("a", i * lineLength);
+        }
+
+        // Without a clean shutdown no more than the threshold is replayed
+        final Optional<Long> recovered = awaitRecovery("a", lines * lineLength - threshold);
+        Assert.assertTrue(recovered.isPresent());
+        Assert.assertTrue(recovered.get() <= lines * lineLength);
+        Assert.assertTrue((lines * lineLength - recovered.get()) / lineLength <= threshold / lineLength);
+    }
+
+    @Test
+    public void testRecoveryIgnoresIncompleteRecord() throws IOException {
+        final FilePositionStore store = createStore(Duration.standardHours(1), Long.MAX_VALUE);
+        store.setPosition("a", 123);
+        store.close();
+
+        // Simulate a crash while appending the next record
+        Files.write(_file.toPath(), new byte[] {0, 0, 0, 1, 'a', 0, 0}, StandardOpenOption.APPEND);
+
+        final FilePositionStore recovered = createStore(Duration.standardHours(1), Long.MAX_VALUE);
+        Assert.assertEquals(Optional.of(123L), recovered.getPosition("a"));
+        recovered.setPosition("a", 456);
+        recovered.close();
+
+        Assert.assertEquals(Optional.of(456L), createStore(Duration.standardHours(1), Long.MAX_VALUE).getPosition("a"));
+    }
+
+    @Test
+    public void testRecoveryIgnoresCorruptRecord() throws IOException, InterruptedException {
+        // The first flush writes the file and the second appends to it
+        final FilePositionStore store = createStore(Duration.standardHours(1), 0L);
+        store.setPosition("a", 123);
+        Assert.assertEquals(Optional.of(123L), awaitRecovery("a", 123));
+        final long length = _file.length();
+        store.setPosition("a", 456);
+        Assert.assertEquals(Optional.of(456L), awaitRecovery("a", 456));
+        Assert.assertTrue(_file.length() > length);
+
+        // Corrupt the checksum of the appended record
+        final byte[] data = Files.readAllBytes(_file.toPath());
+        data[data.length - 1] ^= 1;
+        Files.write(_file.toPath(), data);
+
+        Assert.assertEquals(Optional.of(123L), createStore(Duration.standardHours(1), Long.MAX_VALUE).getPosition("a"));
+    }
+
+    @Test
+    public void testLegacyJsonState() throws IOException {
+        Files.write(
+                _file.toPath(),
+                ("{\"a\":{\"position\":123,\"lastUpdated\":\"" + DateTime.now() + "\"}}").getBytes(Charsets.UTF_8));
+
+        final FilePositionStore store = createStore(Duration.standardHours(1), Long.MAX_VALUE);
+        Assert.assertEquals(Optional.of(123L), store.getPosition("a"));
+        store.close();
+
+        Assert.assertFalse('{' == Files.readAllBytes(_file.toPath())[0]);
+        Assert.assertEquals(Optional.of(123L), createStore(Duration.standardHours(1), Long.MAX_VALUE).getPosition("a"));
+    }
+
+    @Test
+    public void testUnreadableState() throws IOException {
+        Files.write(_file.toPath(), "not a state file".getBytes(Charsets.UTF_8));
+
+        final FilePositionStore store = createStore(Duration.standardHours(1), Long.MAX_VALUE);
+        Assert.assertEquals(Optional.<Long>absent(), store.getPosition("a"));
+        store.setPosition("a", 123);
+        store.close();
+
+        Assert.assertEquals(Optional.of(123L), createStore(Duration.standardHours(1), Long.MAX_VALUE).getPosition("a"));
+    }
+
+    private FilePositionStore createStore(final Duration flushInterval, final long flushThreshold) {
+        final FilePositionStore store = new FilePositionStore.Builder()
+                .setFile(_file)
+                .setFlushInterval(flushInterval)
+                .setFlushThreshold(flushThreshold)
+                .build();
+        _stores.add(store);
+        return store;
+    }
+
+    private Optional<Long> awaitRecovery(final String identifier, final long minimumPosition) throws InterruptedException {
+        // The recovered stores are only closed after the test since closing flushes
+        Optional<Long> position = Optional.absent();
+        for (int i = 0; i < AWAIT_ATTEMPTS; ++i) {
+            if (_file.exists()) {
+                position = createStore(Duration.standardHours(1), Long.MAX_VALUE).getPosition(identifier);
+                if (position.isPresent() && position.get() >= minimumPosition) {
+                    return position;
+                }
+            }
+            Thread.sleep(AWAIT_INTERVAL_IN_MILLISECONDS);
+        }
+        return position;
+    }
+
+    private File _file;
+
+    private final List<FilePositionStore> _stores = Lists.newArrayList();
+
+    private static final File DIRECTORY = Paths.get("./target/tmp/test/FilePositionStoreTest").toFile();
+    private static final int AWAIT_ATTEMPTS = 100;
+    private static final long AWAIT_INTERVAL_IN_MILLISECONDS = 50;
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.tailer;
+
+import com.arpnetworking.utility.ManualSingleThreadedTrigger;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import org.joda.time.Duration;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Tests for the <code>StatefulTailer</code> class reading files with
+ * <code>LENGTH_PREFIXED</code> framing.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class StatefulTailerFramedTest {
+
+    @Before
+    public void setUp() throws IOException {
+        final Path directory = Files.createDirectories(Paths.get("./target/tmp/test/StatefulTailerFramedTest"));
+        _file = Files.createTempFile(directory, "", "").toFile();
+        Files.deleteIfExists(_file.toPath());
+        Mockito.when(_positionStore.getPosition(Mockito.anyString())).thenReturn(Optional.<Long>absent());
+    }
+
+    @Test
+    public void testReadFrames() throws IOException, InterruptedException {
+        // Includes an empty frame and a frame larger than the initial buffer
+        final List<byte[]> frames = Lists.newArrayList(createFrame(10, 'a'), createFrame(0, 'b'), createFrame(200000, 'c'));
+        for (int i = 0; i < 100; ++i) {
+            frames.add(createFrame(i, 'd'));
+        }
+        append(frames);
+
+        run(createTailer());
+
+        Assert.assertTrue(_listener._throwables.isEmpty());
+        Assert.assertTrue(_listener._replayed.isEmpty());
+        assertFrames(frames, _listener._handled);
+    }
+
+    @Test
+    public void testPartialFrame() throws IOException, InterruptedException {
+        final byte[] frame = createFrame(1000, 'a');
+        final byte[] encoded = encode(Arrays.asList(frame));
+        Files.write(_file.toPath(), Arrays.copyOf(encoded, 500), StandardOpenOption.CREATE_NEW);
+
+        final StatefulTailer tailer = createTailer();
+        _executor.execute(tailer);
+        Thread.sleep(100);
+        Files.write(_file.toPath(), Arrays.copyOfRange(encoded, 500, encoded.length), StandardOpenOption.APPEND);
+        _readTrigger.waitForWait();
+        stop(tailer);
+
+        Assert.assertTrue(_listener._throwables.isEmpty());
+        assertFrames(Arrays.asList(frame), _listener._handled);
+    }
+
+    @Test
+    public void testReplayOnResume() throws IOException, InterruptedException {
+        final List<byte[]> frames = Lists.newArrayList();
+        for (int i = 0; i < 10; ++i) {
+            frames.add(createFrame(100, (char) ('a' + i)));
+        }
+        append(frames);
+        final long position = encode(frames.subList(0, 6)).length;
+        Mockito.when(_positionStore.getPosition(Mockito.anyString())).thenReturn(Optional.of(position));
+
+        run(createTailer());
+
+        Assert.assertTrue(_listener._throwables.isEmpty());
+        assertFrames(frames.subList(0, 6), _listener._replayed);
+        assertFrames(frames.subList(6, 10), _listener._handled);
+        Mockito.verify(_positionStore, Mockito.atLeastOnce()).setPosition(Mockito.anyString(), Mockito.eq(Long.valueOf(_file.length())));
+    }
+
+    @Test
+    public void testFrameExceedsMaximumLength() throws IOException, InterruptedException {
+        final List<byte[]> frames = Arrays.asList(createFrame(10, 'a'));
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        outputStream.write(new byte[] {(byte) 0xb5, 0x1f, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f, 0x00});
+        outputStream.write(encode(frames));
+        Files.write(_file.toPath(), outputStream.toByteArray());
+
+        run(createTailer());
+
+        Assert.assertTrue(_listener._throwables.isEmpty());
+        assertFrames(frames, _listener._handled);
+    }
+
+    @Test
+    public void testInvalidChecksum() throws IOException, InterruptedException {
+        final List<byte[]> frames = Lists.newArrayList(createFrame(10, 'a'), createFrame(10, 'b'), createFrame(10, 'c'));
+        final byte[] encoded = encode(frames);
+        // Corrupt the payload of the second frame
+        encoded[encoded.length / 2] = 'x';
+        Files.write(_file.toPath(), encoded);
+
+        run(createTailer());
+
+        Assert.assertTrue(_listener._throwables.isEmpty());
+        assertFrames(Arrays.asList(frames.get(0), frames.get(2)), _listener._handled);
+    }
+
+    @Test
+    public void testFramesAfterPartialFrame() throws IOException, InterruptedException {
+        // A writer was killed part way through a frame and later frames were
+        // appended after it
+        final byte[] partial = encode(Arrays.asList(createFrame(1000, 'a')));
+        Files.write(_file.toPath(), Arrays.copyOf(partial, 500), StandardOpenOption.CREATE_NEW);
+        final List<byte[]> frames = Lists.newArrayList();
+        for (int i = 0; i < 10; ++i) {
+            frames.add(createFrame(100, (char) ('b' + i)));
+        }
+        append(frames);
+
+        run(createTailer());
+
+        Assert.assertTrue(_listener._throwables.isEmpty());
+        assertFrames(frames, _listener._handled);
+        Mockito.verify(_positionStore, Mockito.atLeastOnce()).setPosition(Mockito.anyString(), Mockito.eq(Long.valueOf(_file.length())));
+    }
+
+    private StatefulTailer createTailer() {
+        return new StatefulTailer(
+                new StatefulTailer.Builder()
+                        .setFile(_file)
+                        .setListener(_listener)
+                        .setPositionStore(_positionStore)
+                        .setReadInterval(Duration.millis(250))
+                        .setFraming(Framing.LENGTH_PREFIXED),
+                _readTrigger);
+    }
+
+    private void run(final StatefulTailer tailer) throws InterruptedException {
+        _executor.execute(tailer);
+        _readTrigger.waitForWait();
+        stop(tailer);
+    }
+
+    private void stop(final StatefulTailer tailer) throws InterruptedException {
+        _readTrigger.disable();
+        tailer.stop();
+        _executor.shutdown();
+        _executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    private void append(final List<byte[]> frames) throws IOException {
+        Files.write(_file.toPath(), encode(frames), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static void assertFrames(final List<byte[]> expected, final List<byte[]> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            Assert.assertArrayEquals(expected.get(i), actual.get(i));
+        }
+    }
+
+    private static byte[] createFrame(final int length, final char value) {
+        final byte[] frame = new byte[length];
+        Arrays.fill(frame, (byte) value);
+        return frame;
+    }
+
+    private static byte[] encode(final List<byte[]> frames) {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        for (final byte[] frame : frames) {
+            outputStream.write(0xb5);
+            outputStream.write(0x1f);
+            int length = frame.length;
+            while ((length & ~0x7f) != 0) {
+                outputStream.write((length & 0x7f) | 0x80);
+                length >>>= 7;
+            }
+            outputStream.write(length);
+            final CRC32 crc = new CRC32();
+            crc.update(frame);
+            final long checksum = crc.getValue();
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                outputStream.write((int) (checksum >>> shift));
+            }
+            outputStream.write(frame, 0, frame.length);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private File _file;
+
+    private final PositionStore _positionStore = Mockito.mock(PositionStore.class);
+    private final RecordingTailerListener _listener = new RecordingTailerListener();
+    private final ManualSingleThreadedTrigger _readTrigger = new ManualSingleThreadedTrigger();
+    private final ExecutorService _executor = Executors.newSingleThreadExecutor();
+
+    private static final class RecordingTailerListener implements TailerListener {
+
+        @Override
+        public void initialize(final Tailer tailer) {
+        }
+
+        @Override
+        public void fileNotFound() {
+        }
+
+        @Override
+        public void fileRotated() {
+        }
+
+        @Override
+        public void fileOpened() {
+        }
+
+        @Override
+        public void handle(final byte[] line) {
+            _handled.add(line);
+        }
+
+        @Override
+        public void replay(final ByteBuffer frame) {
+            final byte[] bytes = new byte[frame.remaining()];
+            frame.duplicate().get(bytes);
+            _replayed.add(bytes);
+        }
+
+        @Override
+        public void handle(final Throwable throwable) {
+            _throwables.add(throwable);
+        }
+
+        private final List<byte[]> _handled = Lists.newCopyOnWriteArrayList();
+        private final List<byte[]> _replayed = Lists.newCopyOnWriteArrayList();
+        private final List<Throwable> _throwables = Lists.newCopyOnWriteArrayList();
+    }
+}
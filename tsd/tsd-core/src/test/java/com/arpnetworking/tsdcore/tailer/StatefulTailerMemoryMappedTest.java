@@ -0,0 +1,80 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.tsdcore.tailer;
+
+/**
+ * Runs the <code>StatefulTailer</code> tests against the memory mapped
+ * tailing mode. Lines are delivered to the listener as <code>ByteBuffer</code>
+ * views; the default <code>TailerListener</code> implementation copies them
+ * into the <code>byte[]</code> callback verified by the tests.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class StatefulTailerMemoryMappedTest extends StatefulTailerTest {
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected StatefulTailer.Builder createBuilder(final TailerListener listener) {
+        return super.createBuilder(new ForwardingTailerListener(listener))
+                .setMemoryMapped(Boolean.TRUE);
+    }
+
+    /**
+     * Forwards the abstract <code>TailerListener</code> callbacks to a mock
+     * while inheriting the default <code>handle(ByteBuffer)</code> behavior
+     * which a mock would not execute.
+     */
+    private static final class ForwardingTailerListener implements TailerListener {
+
+        private ForwardingTailerListener(final TailerListener listener) {
+            _listener = listener;
+        }
+
+        @Override
+        public void initialize(final Tailer tailer) {
+            _listener.initialize(tailer);
+        }
+
+        @Override
+        public void fileNotFound() {
+            _listener.fileNotFound();
+        }
+
+        @Override
+        public void fileRotated() {
+            _listener.fileRotated();
+        }
+
+        @Override
+        public void fileOpened() {
+            _listener.fileOpened();
+        }
+
+        @Override
+        public void handle(final byte[] line) {
+            _listener.handle(line);
+        }
+
+        @Override
+        public void handle(final Throwable throwable) {
+            _listener.handle(throwable);
+        }
+
+        private final TailerListener _listener;
+    }
+}
@@ -59,8 +59,7 @@ public class StatefulTailerTest {
         Mockito.when(_positionStore.getPosition(Mockito.anyString())).thenReturn(Optional.<Long>absent());
         _readTrigger = new ManualSingleThreadedTrigger();
 
-        final StatefulTailer.Builder builder = new StatefulTailer.Builder()
-                .setListener(_listener)
+        final StatefulTailer.Builder builder = createBuilder(_listener)
                 .setFile(_file)
                 .setPositionStore(_positionStore)
                 .setReadInterval(READ_INTERVAL);
@@ -983,8 +982,7 @@ public class StatefulTailerTest {
     public void testTailFromEnd() throws IOException, InterruptedException {
         // Ignore the first initialize invocation
         Mockito.verify(_listener).initialize(_tailer);
-        final StatefulTailer.Builder builder = new StatefulTailer.Builder()
-                .setListener(_listener)
+        final StatefulTailer.Builder builder = createBuilder(_listener)
                 .setFile(_file)
                 .setPositionStore(_positionStore)
                 .setInitialPosition(InitialPosition.END)
@@ -1027,8 +1025,7 @@ public class StatefulTailerTest {
     public void testTailFromEndFirstFileOnly() throws IOException, InterruptedException {
         // Ignore the first initialize invocation
         Mockito.verify(_listener).initialize(_tailer);
-        final StatefulTailer.Builder builder = new StatefulTailer.Builder()
-                .setListener(_listener)
+        final StatefulTailer.Builder builder = createBuilder(_listener)
                 .setFile(_file)
                 .setPositionStore(_positionStore)
                 .setInitialPosition(InitialPosition.END)
@@ -1085,6 +1082,18 @@ public class StatefulTailerTest {
         Mockito.verifyNoMoreInteractions(_listener);
     }
 
+    /**
+     * Create the builder for the tailer under test with the specified
+     * listener. Subclasses may override this to exercise other tailer
+     * configurations against the same tests.
+     *
+     * @param listener The listener.
+     * @return The <code>StatefulTailer.Builder</code> instance.
+     */
+    protected StatefulTailer.Builder createBuilder(final TailerListener listener) {
+        return new StatefulTailer.Builder().setListener(listener);
+    }
+
     private static void writeUuids(final BufferedWriter writer, final int count, final List<String> values)
             throws IOException {
         for (int i = 0; i < count; ++i) {
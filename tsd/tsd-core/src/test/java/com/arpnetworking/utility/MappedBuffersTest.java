@@ -0,0 +1,57 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Tests for the <code>MappedBuffers</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class MappedBuffersTest {
+
+    @Test
+    public void testUnmap() throws IOException {
+        final File file = new File("./target/tmp/test/MappedBuffersTest/testUnmap.dat");
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), new byte[] {1, 2, 3, 4});
+
+        final MappedByteBuffer buffer;
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, 4);
+        }
+        Assert.assertEquals(3, buffer.get(2));
+        MappedBuffers.unmap(buffer);
+
+        // The file can be deleted once unmapped on any platform
+        Files.delete(file.toPath());
+        Assert.assertFalse(file.exists());
+    }
+
+    @Test
+    public void testUnmapNull() {
+        MappedBuffers.unmap(null);
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tests for the <code>PartitionedWorkQueue</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class PartitionedWorkQueueTest {
+
+    @Test
+    public void testPartitionOrder() {
+        final List<Integer> first = new CopyOnWriteArrayList<>();
+        final List<Integer> second = new CopyOnWriteArrayList<>();
+        final PartitionedWorkQueue<Integer> queue = new PartitionedWorkQueue.Builder<Integer>()
+                .setName("test")
+                .setConsumers(Lists.<Consumer<Integer>>newArrayList(first::add, second::add))
+                .build();
+        queue.launch();
+        for (int i = 0; i < 1000; ++i) {
+            queue.offer(i % 2, i);
+        }
+        queue.shutdown();
+
+        Assert.assertEquals(500, first.size());
+        Assert.assertEquals(500, second.size());
+        for (int i = 0; i < 500; ++i) {
+            Assert.assertEquals(Integer.valueOf(2 * i), first.get(i));
+            Assert.assertEquals(Integer.valueOf(2 * i + 1), second.get(i));
+        }
+        Assert.assertEquals(1000, queue.getConsumedCount());
+        Assert.assertEquals(0, queue.getDroppedCount());
+        Assert.assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void testRoundRobin() {
+        final List<Integer> first = new CopyOnWriteArrayList<>();
+        final List<Integer> second = new CopyOnWriteArrayList<>();
+        final PartitionedWorkQueue<Integer> queue = new PartitionedWorkQueue.Builder<Integer>()
+                .setName("test")
+                .setConsumers(Lists.<Consumer<Integer>>newArrayList(first::add, second::add))
+                .build();
+        queue.launch();
+        for (int i = 0; i < 10; ++i) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        queue.shutdown();
+
+        Assert.assertEquals(5, first.size());
+        Assert.assertEquals(5, second.size());
+    }
+
+    @Test
+    public void testDropWhenFull() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> consumed = new CopyOnWriteArrayList<>();
+        final PartitionedWorkQueue<Integer> queue = new PartitionedWorkQueue.Builder<Integer>()
+                .setName("test")
+                .setConsumers(Collections.<Consumer<Integer>>singletonList(
+                        item -> {
+                            started.countDown();
+                            try {
+                                release.await();
+                            } catch (final InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            consumed.add(item);
+                        }))
+                .setPartitionCapacity(2)
+                .setOverflowPolicy(PartitionedWorkQueue.OverflowPolicy.DROP)
+                .build();
+        queue.launch();
+
+        // The first item is held by the consumer; the next two fill the partition
+        Assert.assertTrue(queue.offer(0));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(queue.offer(1));
+        Assert.assertTrue(queue.offer(2));
+        Assert.assertFalse(queue.offer(3));
+        Assert.assertFalse(queue.offer(4));
+        Assert.assertEquals(2, queue.getDepth());
+        Assert.assertEquals(2, queue.getDroppedCount());
+
+        release.countDown();
+        queue.shutdown();
+        Assert.assertEquals(Lists.newArrayList(0, 1, 2), consumed);
+        Assert.assertEquals(3, queue.getConsumedCount());
+    }
+
+    @Test
+    public void testOfferAfterShutdown() {
+        final List<Integer> consumed = new CopyOnWriteArrayList<>();
+        final PartitionedWorkQueue<Integer> queue = new PartitionedWorkQueue.Builder<Integer>()
+                .setName("test")
+                .setConsumers(Collections.<Consumer<Integer>>singletonList(consumed::add))
+                .build();
+        queue.launch();
+        Assert.assertTrue(queue.offer(0));
+        queue.shutdown();
+        Assert.assertFalse(queue.offer(1));
+
+        Assert.assertEquals(Collections.singletonList(0), consumed);
+        Assert.assertEquals(1, queue.getConsumedCount());
+        Assert.assertEquals(1, queue.getDroppedCount());
+        Assert.assertEquals(0, queue.getDepth());
+    }
+
+    @Test
+    public void testConsumerFailure() {
+        final List<Integer> consumed = new CopyOnWriteArrayList<>();
+        final PartitionedWorkQueue<Integer> queue = new PartitionedWorkQueue.Builder<Integer>()
+                .setName("test")
+                .setConsumers(Collections.<Consumer<Integer>>singletonList(
+                        item -> {
+                            if (item == 1) {
+                                throw new IllegalArgumentException("Test exception");
+                            }
+                            consumed.add(item);
+                        }))
+                .build();
+        queue.launch();
+        queue.offer(0);
+        queue.offer(1);
+        queue.offer(2);
+        queue.shutdown();
+        Assert.assertEquals(Lists.newArrayList(0, 2), consumed);
+        Assert.assertEquals(3, queue.getConsumedCount());
+    }
+
+    @Test
+    public void testRegistry() {
+        final WorkQueueRegistry registry = new WorkQueueRegistry();
+        final PartitionedWorkQueue<Integer> queue = new PartitionedWorkQueue.Builder<Integer>()
+                .setName("test")
+                .setConsumers(Collections.<Consumer<Integer>>singletonList(item -> { }))
+                .setRegistry(registry)
+                .build();
+        Assert.assertTrue(registry.getQueues().isEmpty());
+        queue.launch();
+        Assert.assertEquals(Collections.singletonList(queue), registry.getQueues());
+        queue.shutdown();
+        Assert.assertTrue(registry.getQueues().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testLaunchTwice() {
+        final PartitionedWorkQueue<Integer> queue = new PartitionedWorkQueue.Builder<Integer>()
+                .setName("test")
+                .setConsumers(Collections.<Consumer<Integer>>singletonList(item -> { }))
+                .build();
+        queue.launch();
+        try {
+            queue.launch();
+        } finally {
+            queue.shutdown();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests for the <code>RotatingFileWriter</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class RotatingFileWriterTest {
+
+    @Before
+    public void setUp() throws IOException {
+        final Path directory = Files.createDirectories(Paths.get("./target/tmp/test/RotatingFileWriterTest"));
+        _directory = Files.createTempDirectory(directory, "").toFile();
+        _file = new File(_directory, "audit.log");
+    }
+
+    @Test
+    public void testBuffered() throws IOException {
+        final RotatingFileWriter writer = createBuilder()
+                .setFlushPolicy(RotatingFileWriter.FlushPolicy.INTERVAL)
+                .setFlushInterval(Period.hours(1))
+                .build();
+        writer.write(bytes("a\n"));
+        writer.commit();
+        Assert.assertEquals(0, _file.length());
+        writer.flush();
+        Assert.assertEquals("a\n", read(_file));
+
+        // Larger than the buffer
+        final byte[] large = new byte[100];
+        Arrays.fill(large, (byte) 'b');
+        writer.write(large);
+        writer.close();
+        Assert.assertEquals(102, _file.length());
+    }
+
+    @Test
+    public void testCommit() throws IOException {
+        for (final RotatingFileWriter.FlushPolicy flushPolicy
+                : new RotatingFileWriter.FlushPolicy[] {RotatingFileWriter.FlushPolicy.BATCH, RotatingFileWriter.FlushPolicy.SYNC}) {
+            Files.deleteIfExists(_file.toPath());
+            final RotatingFileWriter writer = createBuilder().setFlushPolicy(flushPolicy).build();
+            writer.write(bytes("a\n"));
+            writer.write(bytes("b\n"));
+            writer.commit();
+            Assert.assertEquals("a\nb\n", read(_file));
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        Files.write(_file.toPath(), bytes("a\n"));
+        final RotatingFileWriter writer = createBuilder().build();
+        writer.write(bytes("b\n"));
+        writer.close();
+        Assert.assertEquals("a\nb\n", read(_file));
+    }
+
+    @Test
+    public void testRotateBySize() throws IOException {
+        final RotatingFileWriter writer = createBuilder().setMaxFileSize(4L).build();
+        for (int i = 0; i < 5; ++i) {
+            writer.write(bytes(i + "\n"));
+            writer.write(bytes(i + "\n"));
+            writer.commit();
+        }
+        writer.close();
+
+        Assert.assertEquals("4\n4\n", read(_file));
+        final File[] rotatedFiles = getRotatedFiles();
+        Assert.assertEquals(4, rotatedFiles.length);
+        for (int i = 0; i < 4; ++i) {
+            Assert.assertTrue(rotatedFiles[i].getName().matches("audit\\.\\d{4}(-\\d\\d){5}-\\d{3}\\.log"));
+            Assert.assertEquals(i + "\n" + i + "\n", read(rotatedFiles[i]));
+        }
+    }
+
+    @Test
+    public void testRotateByTime() throws IOException, InterruptedException {
+        final RotatingFileWriter writer = createBuilder().setRotationPeriod(Period.millis(100)).build();
+        writer.write(bytes("a\n"));
+        writer.commit();
+        Thread.sleep(150);
+        writer.write(bytes("b\n"));
+        writer.close();
+
+        Assert.assertEquals("b\n", read(_file));
+        final File[] rotatedFiles = getRotatedFiles();
+        Assert.assertEquals(1, rotatedFiles.length);
+        Assert.assertEquals("a\n", read(rotatedFiles[0]));
+    }
+
+    @Test
+    public void testCompression() throws IOException {
+        final RotatingFileWriter writer = createBuilder()
+                .setMaxFileSize(1L)
+                .setCompression(RotatingFileWriter.Compression.GZIP)
+                .build();
+        writer.write(bytes("a\n"));
+        writer.write(bytes("b\n"));
+        writer.close();
+
+        Assert.assertEquals("b\n", read(_file));
+        final File[] rotatedFiles = getRotatedFiles();
+        Assert.assertEquals(1, rotatedFiles.length);
+        Assert.assertTrue(rotatedFiles[0].getName().endsWith(".log.gz"));
+        try (final InputStream inputStream = new GZIPInputStream(Files.newInputStream(rotatedFiles[0].toPath()))) {
+            Assert.assertEquals("a\n", Charsets.UTF_8.decode(ByteBuffer.wrap(ByteStreams.toByteArray(inputStream))).toString());
+        }
+    }
+
+    @Test
+    public void testMaxRotatedFiles() throws IOException {
+        final RotatingFileWriter writer = createBuilder()
+                .setMaxFileSize(1L)
+                .setMaxRotatedFiles(2)
+                .build();
+        for (int i = 0; i < 5; ++i) {
+            writer.write(bytes(i + "\n"));
+        }
+        writer.close();
+
+        final File[] rotatedFiles = getRotatedFiles();
+        Assert.assertEquals(2, rotatedFiles.length);
+        Assert.assertEquals("2\n", read(rotatedFiles[0]));
+        Assert.assertEquals("3\n", read(rotatedFiles[1]));
+    }
+
+    @Test(expected = IOException.class)
+    public void testWriteAfterClose() throws IOException {
+        final RotatingFileWriter writer = createBuilder().build();
+        writer.close();
+        writer.write(bytes("a\n"));
+    }
+
+    private RotatingFileWriter.Builder createBuilder() {
+        return new RotatingFileWriter.Builder()
+                .setFile(_file)
+                .setBufferSize(16);
+    }
+
+    private File[] getRotatedFiles() {
+        final File[] files = _directory.listFiles((dir, name) -> !name.equals(_file.getName()));
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static byte[] bytes(final String value) {
+        return value.getBytes(Charsets.UTF_8);
+    }
+
+    private static String read(final File file) throws IOException {
+        return Charsets.UTF_8.decode(ByteBuffer.wrap(Files.readAllBytes(file.toPath()))).toString();
+    }
+
+    private File _directory;
+    private File _file;
+}
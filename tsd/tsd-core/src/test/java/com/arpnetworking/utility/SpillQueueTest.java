@@ -0,0 +1,175 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import org.joda.time.Period;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Tests for the <code>SpillQueue</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class SpillQueueTest {
+
+    @Before
+    public void setUp() throws IOException {
+        final Path directory = Files.createDirectories(Paths.get("./target/tmp/test/SpillQueueTest"));
+        _directory = Files.createTempDirectory(directory, "").toFile();
+    }
+
+    @Test
+    public void testOrder() {
+        final SpillQueue queue = createBuilder().build();
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+
+        // Spans several segments
+        for (int i = 0; i < 100; ++i) {
+            queue.offer(createRecord(100, i));
+        }
+        Assert.assertFalse(queue.isEmpty());
+        Assert.assertEquals(10000, queue.getPendingBytes());
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertArrayEquals(createRecord(100, i), queue.poll());
+        }
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(10000, queue.getSpilledBytes());
+        Assert.assertEquals(10000, queue.getReplayedBytes());
+        Assert.assertEquals(0, queue.getDroppedBytes());
+        queue.close();
+
+        Assert.assertEquals(0, segmentCount());
+    }
+
+    @Test
+    public void testRecover() {
+        final SpillQueue queue = createBuilder().build();
+        for (int i = 0; i < 30; ++i) {
+            queue.offer(createRecord(100, i));
+        }
+        for (int i = 0; i < 15; ++i) {
+            queue.poll();
+        }
+        queue.close();
+
+        final SpillQueue recovered = createBuilder().build();
+        Assert.assertEquals(1500, recovered.getPendingBytes());
+        recovered.offer(createRecord(10, 30));
+        for (int i = 15; i < 30; ++i) {
+            Assert.assertArrayEquals(createRecord(100, i), recovered.poll());
+        }
+        Assert.assertArrayEquals(createRecord(10, 30), recovered.poll());
+        Assert.assertNull(recovered.poll());
+        recovered.close();
+    }
+
+    @Test
+    public void testRecoverIgnoresInvalidSegment() throws IOException {
+        Files.write(new File(_directory, "0000000000000000.spill").toPath(), new byte[] {1, 2, 3});
+        final SpillQueue queue = createBuilder().build();
+        Assert.assertTrue(queue.isEmpty());
+        queue.offer(createRecord(10, 1));
+        Assert.assertArrayEquals(createRecord(10, 1), queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void testMaxSize() {
+        final SpillQueue queue = createBuilder()
+                .setMaxSize(2048L)
+                .build();
+        for (int i = 0; i < 30; ++i) {
+            queue.offer(createRecord(100, i));
+        }
+
+        // Each segment holds nine records and the two newest segments are kept
+        Assert.assertEquals(2, segmentCount());
+        Assert.assertEquals(1200, queue.getPendingBytes());
+        Assert.assertEquals(1800, queue.getDroppedBytes());
+        Assert.assertArrayEquals(createRecord(100, 18), queue.poll());
+        queue.close();
+    }
+
+    @Test
+    public void testMaxAge() throws InterruptedException {
+        final SpillQueue queue = createBuilder()
+                .setMaxAge(Period.millis(50))
+                .build();
+        queue.offer(createRecord(100, 1));
+        Thread.sleep(100);
+
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(100, queue.getDroppedBytes());
+        queue.close();
+    }
+
+    @Test
+    public void testRecordLargerThanSegment() {
+        final SpillQueue queue = createBuilder().build();
+        queue.offer(createRecord(2000, 1));
+
+        Assert.assertTrue(queue.isEmpty());
+        Assert.assertEquals(2000, queue.getDroppedBytes());
+        queue.close();
+    }
+
+    @Test
+    public void testEmptyRecordIgnored() {
+        final SpillQueue queue = createBuilder().build();
+        queue.offer(createRecord(10, 1));
+        queue.offer(new byte[0]);
+        queue.offer(createRecord(10, 2));
+        queue.close();
+
+        // Records following the empty record are recovered
+        final SpillQueue recovered = createBuilder().build();
+        Assert.assertEquals(20, recovered.getPendingBytes());
+        Assert.assertArrayEquals(createRecord(10, 1), recovered.poll());
+        Assert.assertArrayEquals(createRecord(10, 2), recovered.poll());
+        Assert.assertNull(recovered.poll());
+        recovered.close();
+    }
+
+    private SpillQueue.Builder createBuilder() {
+        return new SpillQueue.Builder()
+                .setDirectory(_directory)
+                .setSegmentSize(1024);
+    }
+
+    private int segmentCount() {
+        return _directory.list((directory, name) -> name.endsWith(".spill")).length;
+    }
+
+    private static byte[] createRecord(final int length, final int value) {
+        final byte[] record = new byte[length];
+        Arrays.fill(record, (byte) value);
+        return record;
+    }
+
+    private File _directory;
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright 2015 Groupon.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.utility;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests for the <code>TimingWheel</code> class.
+ *
+ * @author Ville Koskela (vkoskela at groupon dot com)
+ */
+public class TimingWheelTest {
+
+    @Test
+    public void testExpiresOnTick() {
+        final TimingWheel<String> wheel = new TimingWheel<>(100, 8, 1000);
+        wheel.schedule(1250, "a");
+        Assert.assertEquals(1, wheel.size());
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(1200));
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(1299));
+        Assert.assertEquals(Collections.singletonList("a"), wheel.advance(1300));
+        Assert.assertEquals(0, wheel.size());
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(5000));
+    }
+
+    @Test
+    public void testExpiredOnSchedule() {
+        final TimingWheel<String> wheel = new TimingWheel<>(100, 8, 1000);
+        wheel.schedule(500, "a");
+        wheel.schedule(1000, "b");
+        Assert.assertEquals(Lists.newArrayList("a", "b"), wheel.advance(1000));
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testOverflowWheels() {
+        final TimingWheel<Long> wheel = new TimingWheel<>(10, 4, 0);
+        final List<Long> expirations = Lists.newArrayList(30L, 40L, 160L, 170L, 640L, 10000L, 123450L);
+        for (final Long expiration : expirations) {
+            wheel.schedule(expiration, expiration);
+        }
+        for (final Long expiration : expirations) {
+            Assert.assertEquals(Collections.emptyList(), wheel.advance(expiration - 1));
+            Assert.assertEquals(Collections.singletonList(expiration), wheel.advance(expiration));
+        }
+        Assert.assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testAdvanceAcrossManyTicks() {
+        final TimingWheel<Long> wheel = new TimingWheel<>(10, 4, 0);
+        wheel.schedule(25, 25L);
+        wheel.schedule(500, 500L);
+        wheel.schedule(90, 90L);
+        Assert.assertEquals(Lists.newArrayList(25L, 90L, 500L), wheel.advance(1000));
+    }
+
+    @Test
+    public void testScheduleAfterAdvance() {
+        final TimingWheel<Long> wheel = new TimingWheel<>(10, 4, 0);
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(1234));
+        wheel.schedule(1300, 1300L);
+        wheel.schedule(1240, 1240L);
+        Assert.assertEquals(Collections.singletonList(1240L), wheel.advance(1240));
+        Assert.assertEquals(Collections.emptyList(), wheel.advance(1299));
+        Assert.assertEquals(Collections.singletonList(1300L), wheel.advance(1300));
+    }
+
+    @Test
+    public void testRandom() {
+        final Random random = new Random(1);
+        final TimingWheel<Long> wheel = new TimingWheel<>(7, 16, 0);
+        final List<Long> pending = Lists.newArrayList();
+        long now = 0;
+        for (int i = 0; i < 10000; ++i) {
+            final long expiration = now + random.nextInt(100000) - 100;
+            wheel.schedule(expiration, expiration);
+            pending.add(expiration);
+
+            now += random.nextInt(50);
+            final List<Long> expired = wheel.advance(now);
+            for (final Long value : expired) {
+                Assert.assertTrue(value <= now);
+                Assert.assertTrue(pending.remove(value));
+            }
+            for (final Long value : pending) {
+                Assert.assertTrue(value > now - (now % 7));
+            }
+            Assert.assertEquals(pending.size(), wheel.size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTick() {
+        new TimingWheel<String>(0, 8, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidWheelSize() {
+        new TimingWheel<String>(100, 1, 0);
+    }
+}
@@ -16,6 +16,7 @@
 package com.arpnetworking.utility.test;
 
 import com.arpnetworking.utility.Builder;
+import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
 
 import org.junit.Assert;
@@ -71,7 +72,7 @@ public final class BuildableEqualsAndHashCodeTester {
                     final Method getterMethod = instanceB1.getClass().getMethod(getterName);
 
                     // Change the field on the builder
-                    setterMethod.invoke(builderB, getterMethod.invoke(instanceA1));
+                    setterMethod.invoke(builderB, getValue(getterMethod, instanceA1));
 
                     // Create an instance with the changed field
                     final T instanceB2 = builderB.build();
@@ -81,7 +82,7 @@ public final class BuildableEqualsAndHashCodeTester {
                     Assert.assertFalse("Setter failed to affect equality: " + setterMethod.getName(), instanceB2.equals(instanceB1));
 
                     // Change the field back
-                    setterMethod.invoke(builderB, getterMethod.invoke(instanceB1));
+                    setterMethod.invoke(builderB, getValue(getterMethod, instanceB1));
 
                 } catch (final NoSuchMethodException | SecurityException | IllegalAccessException
                         | IllegalArgumentException | InvocationTargetException e) {
@@ -91,5 +92,15 @@ public final class BuildableEqualsAndHashCodeTester {
         }
     }
 
+    private static Object getValue(final Method getterMethod, final Object instance)
+            throws IllegalAccessException, InvocationTargetException {
+        // Optional values are set on the builder as nullable values
+        final Object value = getterMethod.invoke(instance);
+        if (value instanceof Optional) {
+            return ((Optional<?>) value).orNull();
+        }
+        return value;
+    }
+
     private BuildableEqualsAndHashCodeTester() {}
 }